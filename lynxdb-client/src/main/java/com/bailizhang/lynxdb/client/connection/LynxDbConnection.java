@@ -20,6 +20,7 @@ import com.bailizhang.lynxdb.client.annotation.LynxDbColumn;
 import com.bailizhang.lynxdb.client.annotation.LynxDbColumnFamily;
 import com.bailizhang.lynxdb.client.annotation.LynxDbKey;
 import com.bailizhang.lynxdb.client.annotation.LynxDbMainColumn;
+import com.bailizhang.lynxdb.core.buffers.BufferWriter;
 import com.bailizhang.lynxdb.core.common.*;
 import com.bailizhang.lynxdb.core.recorder.RecordOption;
 import com.bailizhang.lynxdb.core.recorder.RecordUnit;
@@ -31,6 +32,7 @@ import com.bailizhang.lynxdb.ldtp.annotations.LdtpCode;
 import com.bailizhang.lynxdb.ldtp.annotations.LdtpMethod;
 import com.bailizhang.lynxdb.socket.client.ServerNode;
 import com.bailizhang.lynxdb.socket.client.SocketClient;
+import com.bailizhang.lynxdb.table.WriteBatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -104,15 +106,15 @@ public class LynxDbConnection {
     }
 
     public byte[] find(byte[] key, String columnFamily, String column) throws ConnectException {
-        DataBlocks dataBlocks = new DataBlocks(false);
-        dataBlocks.appendRawByte(LDTP_METHOD);
-        dataBlocks.appendRawByte(LdtpMethod.FIND_BY_KEY_CF_COLUMN);
-        dataBlocks.appendVarBytes(key);
-        dataBlocks.appendVarStr(columnFamily);
-        dataBlocks.appendVarStr(column);
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(LDTP_METHOD);
+        writer.appendRawByte(LdtpMethod.FIND_BY_KEY_CF_COLUMN);
+        writer.appendVarBytes(key);
+        writer.appendVarStr(columnFamily);
+        writer.appendVarStr(column);
 
         SelectionKey selectionKey = selectionKey();
-        int serial = socketClient.send(selectionKey, dataBlocks.toBuffers());
+        int serial = socketClient.send(selectionKey, writer);
 
         LynxDbFuture<byte[]> future = futureMapGet(selectionKey, serial);
         byte[] data = future.get();
@@ -127,18 +129,18 @@ public class LynxDbConnection {
     }
 
     public HashMap<String, byte[]> findMultiColumns(byte[] key, String columnFamily, String... findColumns) throws ConnectException {
-        DataBlocks dataBlocks = new DataBlocks(false);
-        dataBlocks.appendRawByte(LDTP_METHOD);
-        dataBlocks.appendRawByte(FIND_MULTI_COLUMNS);
-        dataBlocks.appendVarBytes(key);
-        dataBlocks.appendVarStr(columnFamily);
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(LDTP_METHOD);
+        writer.appendRawByte(FIND_MULTI_COLUMNS);
+        writer.appendVarBytes(key);
+        writer.appendVarStr(columnFamily);
 
         for(String findColumn : findColumns) {
-            dataBlocks.appendVarStr(findColumn);
+            writer.appendVarStr(findColumn);
         }
 
         SelectionKey selectionKey = selectionKey();
-        int serial = socketClient.send(selectionKey, dataBlocks.toBuffers());
+        int serial = socketClient.send(selectionKey, writer);
 
         LynxDbFuture<byte[]> future = futureMapGet(selectionKey, serial);
         byte[] data = future.get();
@@ -216,17 +218,17 @@ public class LynxDbConnection {
             byte[] value,
             long timeout
     ) throws ConnectException {
-        DataBlocks dataBlocks = new DataBlocks(false);
-        dataBlocks.appendRawByte(LDTP_METHOD);
-        dataBlocks.appendRawByte(LdtpMethod.INSERT);
-        dataBlocks.appendVarStr(columnFamily);
-        dataBlocks.appendVarStr(column);
-        dataBlocks.appendVarBytes(key);
-        dataBlocks.appendVarBytes(value);
-        dataBlocks.appendRawLong(timeout);
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(LDTP_METHOD);
+        writer.appendRawByte(LdtpMethod.INSERT);
+        writer.appendVarStr(columnFamily);
+        writer.appendVarStr(column);
+        writer.appendVarBytes(key);
+        writer.appendVarBytes(value);
+        writer.appendRawLong(timeout);
 
         SelectionKey selectionKey = selectionKey();
-        int serial = socketClient.send(selectionKey, dataBlocks.toBuffers());
+        int serial = socketClient.send(selectionKey, writer);
 
         LynxDbFuture<byte[]> future = futureMapGet(selectionKey, serial);
         byte[] data = future.get();
@@ -256,20 +258,20 @@ public class LynxDbConnection {
             long timeout,
             HashMap<String, byte[]> multiColumns
     ) throws ConnectException {
-        DataBlocks dataBlocks = new DataBlocks(false);
-        dataBlocks.appendRawByte(LDTP_METHOD);
-        dataBlocks.appendRawByte(LdtpMethod.INSERT_MULTI_COLUMNS);
-        dataBlocks.appendVarBytes(key);
-        dataBlocks.appendVarStr(columnFamily);
-        dataBlocks.appendRawLong(timeout);
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(LDTP_METHOD);
+        writer.appendRawByte(LdtpMethod.INSERT_MULTI_COLUMNS);
+        writer.appendVarBytes(key);
+        writer.appendVarStr(columnFamily);
+        writer.appendRawLong(timeout);
 
         multiColumns.forEach((column, value) -> {
-            dataBlocks.appendVarStr(column);
-            dataBlocks.appendVarBytes(value);
+            writer.appendVarStr(column);
+            writer.appendVarBytes(value);
         });
 
         SelectionKey selectionKey = selectionKey();
-        int serial = socketClient.send(selectionKey, dataBlocks.toBuffers());
+        int serial = socketClient.send(selectionKey, writer);
 
         LynxDbFuture<byte[]> future = futureMapGet(selectionKey, serial);
         byte[] data = future.get();
@@ -338,20 +340,20 @@ public class LynxDbConnection {
             long timeout,
             HashMap<String, byte[]> multiColumns
     ) throws ConnectException {
-        DataBlocks dataBlocks = new DataBlocks(false);
-        dataBlocks.appendRawByte(LDTP_METHOD);
-        dataBlocks.appendRawByte(LdtpMethod.INSERT_IF_NOT_EXISTED);
-        dataBlocks.appendVarBytes(key);
-        dataBlocks.appendVarBytes(columnFamily);
-        dataBlocks.appendRawLong(timeout);
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(LDTP_METHOD);
+        writer.appendRawByte(LdtpMethod.INSERT_IF_NOT_EXISTED);
+        writer.appendVarBytes(key);
+        writer.appendVarBytes(columnFamily);
+        writer.appendRawLong(timeout);
 
         multiColumns.forEach((column, value) -> {
-            dataBlocks.appendVarStr(column);
-            dataBlocks.appendVarBytes(value);
+            writer.appendVarStr(column);
+            writer.appendVarBytes(value);
         });
 
         SelectionKey selectionKey = selectionKey();
-        int serial = socketClient.send(selectionKey, dataBlocks.toBuffers());
+        int serial = socketClient.send(selectionKey, writer);
 
         LynxDbFuture<byte[]> future = futureMapGet(selectionKey, serial);
         byte[] data = future.get();
@@ -409,18 +411,42 @@ public class LynxDbConnection {
     }
 
     public void delete(byte[] key, String columnFamily, String... deleteColumns) throws ConnectException {
-        DataBlocks dataBlocks = new DataBlocks(false);
-        dataBlocks.appendRawByte(LDTP_METHOD);
-        dataBlocks.appendRawByte(DELETE);
-        dataBlocks.appendVarBytes(key);
-        dataBlocks.appendVarStr(columnFamily);
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(LDTP_METHOD);
+        writer.appendRawByte(DELETE);
+        writer.appendVarBytes(key);
+        writer.appendVarStr(columnFamily);
 
         for(String deleteColumn : deleteColumns) {
-            dataBlocks.appendVarStr(deleteColumn);
+            writer.appendVarStr(deleteColumn);
         }
 
         SelectionKey selectionKey = selectionKey();
-        int serial = socketClient.send(selectionKey, dataBlocks.toBuffers());
+        int serial = socketClient.send(selectionKey, writer);
+
+        LynxDbFuture<byte[]> future = futureMapGet(selectionKey, serial);
+        byte[] data = future.get();
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.get() != LdtpCode.VOID) {
+            throw new RuntimeException();
+        }
+    }
+
+    /**
+     * 一次请求写入多行，服务端作为一条 wal entry 原子地写入
+     *
+     * @param batch write batch
+     * @throws ConnectException connect exception
+     */
+    public void write(WriteBatch batch) throws ConnectException {
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(LDTP_METHOD);
+        writer.appendRawByte(WRITE_BATCH);
+        batch.appendTo(writer);
+
+        SelectionKey selectionKey = selectionKey();
+        int serial = socketClient.send(selectionKey, writer);
 
         LynxDbFuture<byte[]> future = futureMapGet(selectionKey, serial);
         byte[] data = future.get();
@@ -516,15 +542,15 @@ public class LynxDbConnection {
             String columnFamily,
             String mainColumn
     ) throws ConnectException {
-        DataBlocks dataBlocks = new DataBlocks(false);
-        dataBlocks.appendRawByte(LDTP_METHOD);
-        dataBlocks.appendRawByte(LdtpMethod.EXIST_KEY);
-        dataBlocks.appendVarBytes(key);
-        dataBlocks.appendVarStr(columnFamily);
-        dataBlocks.appendVarStr(mainColumn);
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(LDTP_METHOD);
+        writer.appendRawByte(LdtpMethod.EXIST_KEY);
+        writer.appendVarBytes(key);
+        writer.appendVarStr(columnFamily);
+        writer.appendVarStr(mainColumn);
 
         SelectionKey selectionKey = selectionKey();
-        int serial = socketClient.send(selectionKey, dataBlocks.toBuffers());
+        int serial = socketClient.send(selectionKey, writer);
 
         LynxDbFuture<byte[]> future = futureMapGet(selectionKey, serial);
         byte[] data = future.get();
@@ -553,13 +579,13 @@ public class LynxDbConnection {
     }
 
     public void join(String node) throws ConnectException {
-        DataBlocks dataBlocks = new DataBlocks(false);
-        dataBlocks.appendRawByte(RAFT_RPC);
-        dataBlocks.appendRawByte(JOIN_CLUSTER);
-        dataBlocks.appendRawStr(node);
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(RAFT_RPC);
+        writer.appendRawByte(JOIN_CLUSTER);
+        writer.appendRawStr(node);
 
         SelectionKey selectionKey = selectionKey();
-        int serial = socketClient.send(selectionKey, dataBlocks.toBuffers());
+        int serial = socketClient.send(selectionKey, writer);
 
         LynxDbFuture<byte[]> future = futureMapGet(selectionKey, serial);
         byte[] data = future.get();
@@ -575,11 +601,11 @@ public class LynxDbConnection {
     }
 
     public List<Pair<RecordOption, Long>> flightRecorder() throws ConnectException {
-        DataBlocks dataBlocks = new DataBlocks(false);
-        dataBlocks.appendRawByte(FLIGHT_RECORDER);
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(FLIGHT_RECORDER);
 
         SelectionKey selectionKey = selectionKey();
-        int serial = socketClient.send(selectionKey, dataBlocks.toBuffers());
+        int serial = socketClient.send(selectionKey, writer);
 
         LynxDbFuture<byte[]> future = futureMapGet(selectionKey, serial);
         byte[] data = future.get();
@@ -612,20 +638,20 @@ public class LynxDbConnection {
             byte method,
             String... findColumns
     ) throws ConnectException {
-        DataBlocks dataBlocks = new DataBlocks(false);
-        dataBlocks.appendRawByte(LDTP_METHOD);
-        dataBlocks.appendRawByte(method);
-        dataBlocks.appendVarStr(columnFamily);
-        dataBlocks.appendVarStr(mainColumn);
-        dataBlocks.appendVarBytes(baseKey);
-        dataBlocks.appendRawInt(limit);
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(LDTP_METHOD);
+        writer.appendRawByte(method);
+        writer.appendVarStr(columnFamily);
+        writer.appendVarStr(mainColumn);
+        writer.appendVarBytes(baseKey);
+        writer.appendRawInt(limit);
 
         for(String findColumn : findColumns) {
-            dataBlocks.appendVarStr(findColumn);
+            writer.appendVarStr(findColumn);
         }
 
         SelectionKey selectionKey = selectionKey();
-        int serial = socketClient.send(selectionKey, dataBlocks.toBuffers());
+        int serial = socketClient.send(selectionKey, writer);
 
         LynxDbFuture<byte[]> future = futureMapGet(selectionKey, serial);
         byte[] data = future.get();
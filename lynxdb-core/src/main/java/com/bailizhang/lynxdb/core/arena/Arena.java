@@ -19,45 +19,136 @@ package com.bailizhang.lynxdb.core.arena;
 import com.bailizhang.lynxdb.core.arena.exceptions.ArenaOverflowException;
 
 import java.nio.ByteBuffer;
-import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+/**
+ * 把一块 direct buffer 切分成固定大小的 ArenaBuffer
+ *
+ * 空闲的 slot 用 bitmap 记录，分配和释放都是 CAS，不加锁。
+ * 不同线程从 bitmap 的不同位置开始查找，减少 CAS 冲突。
+ * 分配 slot 的线程缓存少量自己释放的 slot，再次分配时直接复用。
+ * 其他线程释放的 slot 直接归还 bitmap，不会滞留在不分配的线程中。
+ * 复用 slot 时创建新的 ArenaBuffer，之前的 ArenaBuffer 上迟到的 Segment 释放不会影响新的使用者
+ */
 public class Arena {
+    private static final int WORD_BITS = Long.SIZE;
+    /** 每个线程最多缓存的 slot 数量 */
+    private static final int MAGAZINE_SIZE = 16;
+
     private final ByteBuffer buffer;
-    private final BitSet bitSet;
     private final int allocSize;
     private final int bufferCount;
-    private int maxClearBit;
+
+    /** bit 为 1 表示 slot 已经分配 */
+    private final AtomicLongArray slots;
+    private final AtomicInteger freeCount;
+
+    private final ThreadLocal<Magazine> magazines = ThreadLocal.withInitial(Magazine::new);
 
     public Arena(int mainBufferSize, int allocBufferSize) {
+        if(mainBufferSize % allocBufferSize != 0) {
+            throw new RuntimeException();
+        }
+
         allocSize = allocBufferSize;
+        bufferCount = mainBufferSize / allocBufferSize;
 
         buffer = ByteBuffer.allocateDirect(mainBufferSize);
-        bufferCount = mainBufferSize/ allocBufferSize;
 
-        if(mainBufferSize % allocBufferSize != 0) {
-            throw new RuntimeException();
+        int words = (bufferCount + WORD_BITS - 1) / WORD_BITS;
+        slots = new AtomicLongArray(words);
+        freeCount = new AtomicInteger(bufferCount);
+
+        // 最后一个 word 中超出 bufferCount 的 bit 标记为已分配
+        int tailBits = bufferCount % WORD_BITS;
+        if(tailBits != 0) {
+            slots.set(words - 1, -1L << tailBits);
+        }
+    }
+
+    public ArenaBuffer alloc() throws ArenaOverflowException {
+        Magazine magazine = magazines.get();
+        if(magazine.size > 0) {
+            return newArenaBuffer(magazine.slots[-- magazine.size]);
         }
 
-        bitSet = new BitSet(bufferCount);
-        maxClearBit = 0;
+        // 先占用一个空闲的名额，保证后面一定能找到空闲的 slot
+        int free;
+        do {
+            free = freeCount.get();
+            if(free == 0) {
+                throw new ArenaOverflowException();
+            }
+        } while (!freeCount.compareAndSet(free, free - 1));
+
+        int words = slots.length();
+        int start = (int) (Thread.currentThread().threadId() % words);
+
+        for(int i = 0; ; i = (i + 1) % words) {
+            int idx = (start + i) % words;
+            long word = slots.get(idx);
+
+            while(word != -1L) {
+                int bit = Long.numberOfTrailingZeros(~word);
+
+                if(slots.compareAndSet(idx, word, word | (1L << bit))) {
+                    return newArenaBuffer(idx * WORD_BITS + bit);
+                }
+
+                word = slots.get(idx);
+            }
+        }
     }
 
-    public synchronized ArenaBuffer alloc() throws ArenaOverflowException {
-        // 因为 alloc 内存并不是频繁发生，所以直接使用 cardinality() 计算
-        if(bitSet.cardinality() == bufferCount) {
-            throw new ArenaOverflowException();
+    /**
+     * 归还 ArenaBuffer 占用的 slot，调用之后不能再使用这个 ArenaBuffer
+     *
+     * @param arenaBuffer arena buffer
+     */
+    public void dealloc(ArenaBuffer arenaBuffer) {
+        int slot = arenaBuffer.bit();
+
+        // 最后一个 Segment 可能在 worker 线程释放，worker 不会分配，只缓存在分配它的线程中
+        if(arenaBuffer.owner() == Thread.currentThread()) {
+            Magazine magazine = magazines.get();
+            if(magazine.size < MAGAZINE_SIZE) {
+                magazine.slots[magazine.size ++] = slot;
+                return;
+            }
         }
 
-        int nextClearBit = bitSet.nextClearBit(maxClearBit);
-        bitSet.set(nextClearBit);
-        maxClearBit = (nextClearBit + 1) % bufferCount;
+        int idx = slot / WORD_BITS;
+        long mask = 1L << (slot % WORD_BITS);
+
+        long word;
+        do {
+            word = slots.get(idx);
+        } while (!slots.compareAndSet(idx, word, word & ~mask));
+
+        freeCount.incrementAndGet();
+    }
+
+    /**
+     * 不包括线程缓存中的 slot
+     *
+     * @return 空闲的 ArenaBuffer 数量
+     */
+    public int freeCount() {
+        return freeCount.get();
+    }
+
+    public int bufferCount() {
+        return bufferCount;
+    }
 
-        ByteBuffer allocBuffer = buffer.slice(nextClearBit * allocSize, allocSize);
-        return new ArenaBuffer(nextClearBit, allocBuffer);
+    private ArenaBuffer newArenaBuffer(int slot) {
+        ByteBuffer allocBuffer = buffer.slice(slot * allocSize, allocSize);
+        return new ArenaBuffer(this, slot, allocBuffer);
     }
 
-    public synchronized void dealloc(ArenaBuffer arenaBuffer) {
-        int bit = arenaBuffer.bit();
-        bitSet.clear(bit);
+    private static class Magazine {
+        private final int[] slots = new int[MAGAZINE_SIZE];
+        private int size;
     }
 }
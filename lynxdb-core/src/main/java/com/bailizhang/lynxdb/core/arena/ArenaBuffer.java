@@ -21,56 +21,93 @@ import com.bailizhang.lynxdb.core.utils.BufferUtils;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
-import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * 只有一个线程写入数据，切分出的 Segment 可以在其他线程中释放
+ *
+ * 调用 release 之后，等切分出的 Segment 全部释放，再把 slot 归还给 Arena，
+ * 所以连接关闭时 worker 线程还持有的 Segment 不会被其他连接覆盖
+ */
 public class ArenaBuffer {
+    /** 最高位表示已经调用过 release，其余位是还没有释放的 Segment 数量 */
+    private static final int RELEASED = Integer.MIN_VALUE;
+
+    private final Arena arena;
     private final int bit;
     private final ByteBuffer buffer;
-    private final BitSet bitSet;
+    /** 分配这个 buffer 的线程 */
+    private final Thread owner;
+
+    private final AtomicInteger segments = new AtomicInteger(0);
 
     public ArenaBuffer(int bit, ByteBuffer buffer) {
+        this(null, bit, buffer);
+    }
+
+    ArenaBuffer(Arena arena, int bit, ByteBuffer buffer) {
+        this.arena = arena;
         this.bit = bit;
         this.buffer = buffer;
-        this.bitSet = new BitSet(buffer.limit());
+        owner = Thread.currentThread();
+    }
+
+    public Arena arena() {
+        return arena;
     }
 
     public int bit() {
         return bit;
     }
 
+    Thread owner() {
+        return owner;
+    }
+
     public int position() {
         return buffer.position();
     }
 
-    public synchronized void read(SocketChannel channel) throws IOException {
-        int oldPosition = buffer.position();
-        channel.read(buffer);
-        int newPosition = buffer.position();
-
-        if(oldPosition == newPosition) {
-            return;
-        }
-
-        bitSet.set(oldPosition, newPosition, true);
+    /**
+     * @return 读取的字节数，对端关闭连接时返回 -1
+     */
+    public int read(SocketChannel channel) throws IOException {
+        return channel.read(buffer);
     }
 
-    public synchronized boolean notFull() {
+    public boolean notFull() {
         return BufferUtils.isNotOver(buffer);
     }
 
-    public synchronized boolean isClear() {
-        return bitSet.isEmpty();
+    public boolean isClear() {
+        return (segments.get() & ~RELEASED) == 0;
     }
 
-    public synchronized Segment alloc(int offset, int length) {
-        bitSet.set(offset, offset + length, true);
+    public Segment alloc(int offset, int length) {
+        segments.incrementAndGet();
         ByteBuffer segmentBuffer = buffer.slice(offset, length).asReadOnlyBuffer();
         return new Segment(this, offset, length, segmentBuffer);
     }
 
-    public synchronized void dealloc(Segment segment) {
-        int offset = segment.offset();
-        int length = segment.length();
-        bitSet.clear(offset, offset + length);
+    public void dealloc(Segment segment) {
+        // 最后一个 Segment 释放时归还 slot
+        if(segments.decrementAndGet() == RELEASED) {
+            free();
+        }
+    }
+
+    /**
+     * 不再读写这个 buffer，还有 Segment 没有释放时，延迟到最后一个 Segment 释放时归还
+     */
+    public void release() {
+        if(segments.addAndGet(RELEASED) == RELEASED) {
+            free();
+        }
+    }
+
+    private void free() {
+        if(arena != null) {
+            arena.dealloc(this);
+        }
     }
 }
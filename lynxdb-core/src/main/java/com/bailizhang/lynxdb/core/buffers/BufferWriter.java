@@ -0,0 +1,137 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.core.buffers;
+
+import com.bailizhang.lynxdb.core.common.G;
+
+import java.nio.ByteBuffer;
+
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.*;
+
+/**
+ * 和 DataBlocks 的编码格式相同，但是直接写入一个连续的 direct buffer，空间不够时换成更大的 buffer。
+ * buffer 从 DirectBufferPool 中分配，写入 socket 之后调用 release 归还
+ */
+public class BufferWriter {
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private final DirectBufferPool pool;
+    private final boolean withLength;
+
+    private ByteBuffer buffer;
+
+    public BufferWriter(boolean withLen) {
+        this(withLen, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param withLen 是否在头部写入数据的长度，长度不包括自身的 4 bytes
+     * @param expectedLength 预估的数据长度，准确时不需要扩容
+     */
+    public BufferWriter(boolean withLen, int expectedLength) {
+        pool = DirectBufferPool.pool();
+        withLength = withLen;
+
+        buffer = pool.acquire((withLen ? INT_LENGTH : 0) + expectedLength);
+        if(withLen) {
+            // toBuffers 时再写入真实的长度
+            buffer.putInt(0);
+        }
+    }
+
+    public void appendRawByte(byte value) {
+        ensureRemaining(BYTE_LENGTH);
+        buffer.put(value);
+    }
+
+    public void appendRawBytes(byte[] value) {
+        ensureRemaining(value.length);
+        buffer.put(value);
+    }
+
+    public void appendRawBuffers(ByteBuffer[] buffers) {
+        for(ByteBuffer src : buffers) {
+            ensureRemaining(src.remaining());
+            buffer.put(src.duplicate());
+        }
+    }
+
+    public void appendRawStr(String s) {
+        appendRawBytes(G.I.toBytes(s));
+    }
+
+    public void appendRawInt(int value) {
+        ensureRemaining(INT_LENGTH);
+        buffer.putInt(value);
+    }
+
+    public void appendRawLong(long value) {
+        ensureRemaining(LONG_LENGTH);
+        buffer.putLong(value);
+    }
+
+    public void appendVarBytes(byte[] value) {
+        ensureRemaining(INT_LENGTH + value.length);
+        buffer.putInt(value.length);
+        buffer.put(value);
+    }
+
+    public void appendVarStr(String s) {
+        appendVarBytes(G.I.toBytes(s));
+    }
+
+    /**
+     * 已经写入的数据长度，不包括头部的长度字段
+     */
+    public int length() {
+        return buffer.position() - (withLength ? INT_LENGTH : 0);
+    }
+
+    /**
+     * 返回的 buffer 和 writer 共享内存，release 之后不能再使用
+     *
+     * @return buffers
+     */
+    public ByteBuffer[] toBuffers() {
+        if(withLength) {
+            buffer.putInt(0, length());
+        }
+
+        return new ByteBuffer[] {buffer.slice(0, buffer.position())};
+    }
+
+    public void release() {
+        if(buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    private void ensureRemaining(int length) {
+        if(buffer.remaining() >= length) {
+            return;
+        }
+
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + length);
+        ByteBuffer newBuffer = pool.acquire(capacity);
+        newBuffer.put(buffer.flip());
+
+        pool.release(buffer);
+        buffer = newBuffer;
+    }
+}
@@ -16,10 +16,7 @@
 
 package com.bailizhang.lynxdb.core.buffers;
 
-import com.bailizhang.lynxdb.core.common.G;
-import com.bailizhang.lynxdb.core.utils.ArrayUtils;
-import com.bailizhang.lynxdb.core.utils.BufferUtils;
-
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
@@ -27,9 +24,14 @@ import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.INT_LENGTH;
 import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.LONG_LENGTH;
 
 /**
- * TODO: 优化拷贝
+ * 按顺序读取多个 ByteBuffer 的游标，数据在一个 buffer 内时直接读取，跨 buffer 时才逐个 byte 拼接
  */
 public class Buffers {
+    /**
+     * column family 和 column 的名称重复率很高，解析请求时复用 String
+     */
+    private static final StringPool STRING_POOL = new StringPool();
+
     private final ByteBuffer[] buffers;
     private final int length;
 
@@ -50,6 +52,7 @@ public class Buffers {
         for(ByteBuffer buffer : buffers) {
             buffer.rewind();
         }
+        idx = 0;
     }
 
     public int length() {
@@ -58,31 +61,49 @@ public class Buffers {
 
     public byte[] getVar(int len) {
         byte[] data = new byte[len];
+        get(data, 0, len);
+        return data;
+    }
 
-        int i = 0;
-        while (i < len) {
-            while (BufferUtils.isOver(buffers[idx])) {
-                idx ++;
-            }
+    public void get(byte[] dst, int offset, int len) {
+        while(len > 0) {
+            ByteBuffer buffer = current();
+            int readLength = Math.min(len, buffer.remaining());
 
-            while (BufferUtils.isNotOver(buffers[idx]) && i < len) {
-                data[i++] = buffers[idx].get();
-            }
+            buffer.get(dst, offset, readLength);
+            offset += readLength;
+            len -= readLength;
         }
-
-        return data;
     }
 
     public byte get() {
-        return getVar(1)[0];
+        return current().get();
     }
 
     public int getInt() {
-        return ArrayUtils.toInt(getVar(INT_LENGTH));
+        ByteBuffer buffer = current();
+        if(buffer.remaining() >= INT_LENGTH) {
+            return buffer.getInt();
+        }
+
+        int value = 0;
+        for(int i = 0; i < INT_LENGTH; i ++) {
+            value = (value << Byte.SIZE) | (get() & 0xff);
+        }
+        return value;
     }
 
     public long getLong() {
-        return ArrayUtils.toInt(getVar(LONG_LENGTH));
+        ByteBuffer buffer = current();
+        if(buffer.remaining() >= LONG_LENGTH) {
+            return buffer.getLong();
+        }
+
+        long value = 0;
+        for(int i = 0; i < LONG_LENGTH; i ++) {
+            value = (value << Byte.SIZE) | (get() & 0xff);
+        }
+        return value;
     }
 
     public byte[] nextPartBytes() {
@@ -92,11 +113,27 @@ public class Buffers {
 
     public String nextStringPart() {
         int len = getInt();
-        return G.I.toString(getVar(len));
+        if(len == 0) {
+            return STRING_POOL.get(getVar(0));
+        }
+
+        ByteBuffer buffer = current();
+        if(buffer.remaining() < len) {
+            return STRING_POOL.get(getVar(len));
+        }
+
+        int position = buffer.position();
+        buffer.position(position + len);
+        return STRING_POOL.get(buffer, position, len);
     }
 
     public boolean hasRemaining() {
-        return ArrayUtils.last(buffers).hasRemaining();
+        for(int i = idx; i < buffers.length; i ++) {
+            if(buffers[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public byte[] toBytes() {
@@ -105,4 +142,14 @@ public class Buffers {
         Arrays.stream(buffers).forEach(buffer::put);
         return buffer.array();
     }
+
+    private ByteBuffer current() {
+        while(!buffers[idx].hasRemaining()) {
+            if(idx == buffers.length - 1) {
+                throw new BufferUnderflowException();
+            }
+            idx ++;
+        }
+        return buffers[idx];
+    }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.core.buffers;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按 2 的幂分级缓存 direct buffer，超过最大级别的 buffer 不缓存
+ */
+public class DirectBufferPool {
+    private static final DirectBufferPool POOL = new DirectBufferPool();
+
+    /**
+     * 最小 4 KB，最大 1 MB
+     */
+    private static final int MIN_SIZE_SHIFT = 12;
+    private static final int MAX_SIZE_SHIFT = 20;
+
+    /**
+     * 每一级最多缓存的 buffer 数量
+     */
+    private static final int MAX_POOLED_COUNT = 64;
+
+    private final ConcurrentLinkedQueue<ByteBuffer>[] pooled;
+    private final AtomicInteger[] pooledCounts;
+
+    @SuppressWarnings("unchecked")
+    public DirectBufferPool() {
+        int classCount = MAX_SIZE_SHIFT - MIN_SIZE_SHIFT + 1;
+
+        pooled = new ConcurrentLinkedQueue[classCount];
+        pooledCounts = new AtomicInteger[classCount];
+
+        for(int i = 0; i < classCount; i ++) {
+            pooled[i] = new ConcurrentLinkedQueue<>();
+            pooledCounts[i] = new AtomicInteger();
+        }
+    }
+
+    public static DirectBufferPool pool() {
+        return POOL;
+    }
+
+    /**
+     * 返回的 buffer 容量不小于 capacity，position 为 0
+     *
+     * @param capacity 最小容量
+     * @return direct buffer
+     */
+    public ByteBuffer acquire(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        if(sizeClass < 0) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+
+        ByteBuffer buffer = pooled[sizeClass].poll();
+        if(buffer == null) {
+            return ByteBuffer.allocateDirect(1 << (sizeClass + MIN_SIZE_SHIFT));
+        }
+
+        pooledCounts[sizeClass].decrementAndGet();
+        return buffer.clear();
+    }
+
+    /**
+     * 释放之后不能再使用这个 buffer
+     *
+     * @param buffer buffer
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        int sizeClass = sizeClass(capacity);
+
+        // 只缓存由 acquire 分配的 buffer
+        if(!buffer.isDirect() || sizeClass < 0 || (1 << (sizeClass + MIN_SIZE_SHIFT)) != capacity) {
+            return;
+        }
+
+        if(pooledCounts[sizeClass].incrementAndGet() > MAX_POOLED_COUNT) {
+            pooledCounts[sizeClass].decrementAndGet();
+            return;
+        }
+
+        pooled[sizeClass].offer(buffer);
+    }
+
+    /**
+     * @param capacity capacity
+     * @return size class, -1 if too large
+     */
+    private static int sizeClass(int capacity) {
+        if(capacity <= 1 << MIN_SIZE_SHIFT) {
+            return 0;
+        }
+
+        int shift = Integer.SIZE - Integer.numberOfLeadingZeros(capacity - 1);
+        return shift > MAX_SIZE_SHIFT ? -1 : shift - MIN_SIZE_SHIFT;
+    }
+}
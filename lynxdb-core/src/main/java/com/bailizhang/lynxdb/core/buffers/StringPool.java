@@ -0,0 +1,133 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.core.buffers;
+
+import com.bailizhang.lynxdb.core.common.G;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 按内容缓存短字符串，相同的 byte 序列返回同一个 String，命中时不分配内存。
+ * 每个 slot 只保存一个 entry，冲突时直接覆盖，entry 不可变，可以被多个线程同时读写
+ */
+public class StringPool {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * 超过这个长度的字符串不缓存
+     */
+    public static final int MAX_POOLED_LENGTH = 64;
+
+    private final Entry[] entries;
+
+    public StringPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity slot 的数量，必须是 2 的幂
+     */
+    public StringPool(int capacity) {
+        if(capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new RuntimeException("String pool capacity must be a power of 2");
+        }
+
+        entries = new Entry[capacity];
+    }
+
+    /**
+     * 读取 buffer 中 [offset, offset + length) 的字符串，不修改 buffer 的 position
+     *
+     * @param buffer buffer
+     * @param offset offset
+     * @param length length
+     * @return string
+     */
+    public String get(ByteBuffer buffer, int offset, int length) {
+        if(length > MAX_POOLED_LENGTH) {
+            return G.I.toString(copy(buffer, offset, length));
+        }
+
+        int hash = 1;
+        for(int i = 0; i < length; i ++) {
+            hash = 31 * hash + buffer.get(offset + i);
+        }
+
+        int slot = slot(hash);
+        Entry entry = entries[slot];
+        if(entry != null && entry.matches(buffer, offset, length)) {
+            return entry.value();
+        }
+
+        byte[] bytes = copy(buffer, offset, length);
+        return put(slot, bytes);
+    }
+
+    public String get(byte[] bytes) {
+        if(bytes.length > MAX_POOLED_LENGTH) {
+            return G.I.toString(bytes);
+        }
+
+        int hash = 1;
+        for(byte b : bytes) {
+            hash = 31 * hash + b;
+        }
+
+        int slot = slot(hash);
+        Entry entry = entries[slot];
+        if(entry != null && Arrays.equals(entry.bytes(), bytes)) {
+            return entry.value();
+        }
+
+        return put(slot, bytes);
+    }
+
+    private String put(int slot, byte[] bytes) {
+        String value = G.I.toString(bytes);
+        entries[slot] = new Entry(bytes, value);
+        return value;
+    }
+
+    private int slot(int hash) {
+        hash ^= (hash >>> 16);
+        return hash & (entries.length - 1);
+    }
+
+    private static byte[] copy(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return bytes;
+    }
+
+    private record Entry(byte[] bytes, String value) {
+        private boolean matches(ByteBuffer buffer, int offset, int length) {
+            if(bytes.length != length) {
+                return false;
+            }
+
+            for(int i = 0; i < length; i ++) {
+                if(bytes[i] != buffer.get(offset + i)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
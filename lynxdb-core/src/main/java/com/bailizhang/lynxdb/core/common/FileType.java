@@ -18,7 +18,7 @@ package com.bailizhang.lynxdb.core.common;
 
 public enum FileType {
     LOG_GROUP_MANAGE_FILE(1001, ".lgm"),
-    LOG_GROUP_REGION_FILE(1002, ".lgr"),
+    LOG_GROUP_REGION_FILE(1003, ".lgr"),
     SSTABLE_FILE(2001, ".sst");
 
     private final int magicNumber;
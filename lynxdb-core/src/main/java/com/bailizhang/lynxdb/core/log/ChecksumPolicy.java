@@ -0,0 +1,38 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.core.log;
+
+/**
+ * 读取 entry 时校验数据 CRC 的策略
+ */
+public enum ChecksumPolicy {
+    /**
+     * 每次读取都校验
+     */
+    ALWAYS,
+
+    /**
+     * 每条 entry 只在打开 region 后第一次读取时校验，之后直接返回
+     */
+    FIRST_READ,
+
+    /**
+     * 不校验，由上层保证数据正确
+     */
+    NONE
+}
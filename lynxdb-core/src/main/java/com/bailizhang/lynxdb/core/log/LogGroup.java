@@ -16,6 +16,9 @@
 
 package com.bailizhang.lynxdb.core.log;
 
+import com.bailizhang.lynxdb.core.common.Bytes;
+import com.bailizhang.lynxdb.core.common.Flags;
+import com.bailizhang.lynxdb.core.common.Pair;
 import com.bailizhang.lynxdb.core.utils.BufferUtils;
 import com.bailizhang.lynxdb.core.utils.FileUtils;
 import com.bailizhang.lynxdb.core.utils.NameUtils;
@@ -23,16 +26,30 @@ import com.bailizhang.lynxdb.core.utils.NameUtils;
 import java.io.File;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
 
 /**
- * TODO: 1. 应该保证多线程安全
+ * 读操作持有读锁，可以被多个线程同时执行；追加、删除和替换 region 持有写锁。
+ * LogRegion 的读取只使用绝对位置，不修改 buffer 的 position
  */
 public class LogGroup implements Iterable<LogEntry> {
     private static final int DEFAULT_BEGIN_REGION_ID = 1;
-    private static final int BEGIN_GLOBAL_LOG_INDEX = 1;
+    private static final long BEGIN_GLOBAL_LOG_INDEX = 1;
+
+    private static final double CLEAR_THRESHOLD = 0.5d;
+
+    /**
+     * 回收 region 时，新文件先写到这个目录，完成后再替换原来的文件
+     */
+    private static final String GC_DIR_SUFFIX = ".gc";
+
+    /**
+     * 回收时每次持有锁复制的数据量
+     */
+    private static final long GC_BATCH_BYTES = 256 * 1024;
 
     private final String groupDir;
     private final LogGroupOptions options;
@@ -40,7 +57,19 @@ public class LogGroup implements Iterable<LogEntry> {
     private final int beginRegionId;
     private int endRegionId;
 
-    private final LinkedList<LogRegion> logRegions = new LinkedList<>();
+    /**
+     * id 小于它的 region 已经全部刷到磁盘
+     */
+    private int unforcedRegionId;
+
+    /**
+     * 按 id 排列的 region，除了最后一个 region 都是满的，可以按 global index 直接定位
+     */
+    private final ArrayList<LogRegion> logRegions = new ArrayList<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock readLock = lock.readLock();
+    private final Lock writeLock = lock.writeLock();
 
     public LogGroup(String dir, LogGroupOptions options) {
         groupDir = dir;
@@ -56,6 +85,12 @@ public class LogGroup implements Iterable<LogEntry> {
             throw new RuntimeException(groupDir + " is not a directory");
         }
 
+        // 回收 region 时中断留下的文件
+        Path gcDir = Path.of(groupDir + GC_DIR_SUFFIX);
+        if(FileUtils.exist(gcDir)) {
+            FileUtils.delete(gcDir);
+        }
+
         String[] filenames = file.list();
 
         if(filenames != null) {
@@ -80,6 +115,8 @@ public class LogGroup implements Iterable<LogEntry> {
                     logRegions.add(new LogRegion(id, groupDir, options));
                 }
 
+                unforcedRegionId = beginRegionId;
+
                 return;
             }
         }
@@ -97,39 +134,118 @@ public class LogGroup implements Iterable<LogEntry> {
         region.globalIdxEnd(BEGIN_GLOBAL_LOG_INDEX - 1);
 
         logRegions.add(region);
+        unforcedRegionId = beginRegionId;
     }
 
-    public LogEntry findEntry(int globalIndex) {
-        LinkedList<LogEntry> logEntries = range(globalIndex, globalIndex);
-        return logEntries.isEmpty() ? null : logEntries.getFirst();
+    public LogEntry findEntry(long globalIndex) {
+        readLock.lock();
+        try {
+            LogRegion region = regionOf(globalIndex);
+            return region == null ? null : region.readEntry(globalIndex);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * 只读取 entry 的数据，不创建 LogIndex 和 LogEntry
+     *
+     * @param globalIndex global index
+     * @return data, null if not found
+     */
+    public byte[] findData(long globalIndex) {
+        readLock.lock();
+        try {
+            LogRegion region = regionOf(globalIndex);
+            return region == null ? null : region.readEntryData(globalIndex);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * 返回 entry 数据的只读 slice，不复制到堆上。region 被回收后 slice 仍然指向回收前的文件映射
+     *
+     * @param globalIndex global index
+     * @return read-only data slice, null if not found
+     */
+    public ByteBuffer findSlice(long globalIndex) {
+        readLock.lock();
+        try {
+            LogRegion region = regionOf(globalIndex);
+            return region == null ? null : region.readSlice(globalIndex);
+        } finally {
+            readLock.unlock();
+        }
     }
 
-    public int appendEntry(byte[] data) {
+    public long appendEntry(byte[] data) {
         return appendEntry(BufferUtils.toBuffers(data));
     }
 
-    public synchronized int appendEntry(ByteBuffer[] data) {
-        LogRegion region = lastRegion();
-        int globalIdx = region.appendEntry(data);
+    public long appendEntry(ByteBuffer[] data) {
+        writeLock.lock();
+        try {
+            LogRegion region = lastRegion();
+            long globalIdx = region.appendEntry(data);
 
-        if(region.isFull()) {
-            createNextRegion();
-        }
+            if(region.isFull()) {
+                createNextRegion();
+            }
 
-        return globalIdx;
+            return globalIdx;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
-    public synchronized void removeEntry(int globalIdx) {
-        for(LogRegion region : logRegions) {
-            int globalIdxBegin = region.globalIdxBegin();
-            int globalIdxEnd = region.globalIdxEnd();
+    /**
+     * 在一次加锁中顺序追加多条 entry，返回的 global index 是连续的
+     *
+     * @param entries entries
+     * @return 第一条 entry 的 global index
+     */
+    public long appendEntries(List<ByteBuffer[]> entries) {
+        writeLock.lock();
+        try {
+            long firstGlobalIdx = maxGlobalIdx() + 1;
 
-            if(globalIdxEnd < globalIdxBegin || globalIdx > globalIdxEnd) {
-                continue;
+            for(ByteBuffer[] data : entries) {
+                appendEntry(data);
             }
 
-            region.removeEntry(globalIdx);
-            break;
+            return firstGlobalIdx;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 把上一次 force 之后写入的数据刷到磁盘
+     */
+    public void force() {
+        writeLock.lock();
+        try {
+            int begin = Math.max(unforcedRegionId - beginRegion().id(), 0);
+            for(int i = begin; i < logRegions.size(); i ++) {
+                logRegions.get(i).force();
+            }
+
+            unforcedRegionId = lastRegion().id();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void removeEntry(long globalIdx) {
+        writeLock.lock();
+        try {
+            LogRegion region = regionOf(globalIdx);
+            if(region != null) {
+                region.removeEntry(globalIdx);
+            }
+        } finally {
+            writeLock.unlock();
         }
     }
 
@@ -139,27 +255,36 @@ public class LogGroup implements Iterable<LogEntry> {
      * @param beginGlobalIndex begin global index
      * @param endGlobalIndex end global index
      */
-    public LinkedList<LogEntry> range(int beginGlobalIndex, int endGlobalIndex) {
-        LinkedList<LogEntry> entries = new LinkedList<>();
-
-        for(LogRegion region : logRegions) {
-            if(beginGlobalIndex > region.globalIdxEnd()) {
-                continue;
+    public LinkedList<LogEntry> range(long beginGlobalIndex, long endGlobalIndex) {
+        readLock.lock();
+        try {
+            LinkedList<LogEntry> entries = new LinkedList<>();
+
+            long first = Math.max(beginGlobalIndex, minGlobalIdx());
+            if(first > Math.min(endGlobalIndex, maxGlobalIdx())) {
+                return entries;
             }
 
-            if(endGlobalIndex < region.globalIdxBegin()) {
-                break;
-            }
+            int regionIdx = regionOf(first).id() - beginRegion().id();
+            for(; regionIdx < logRegions.size(); regionIdx ++) {
+                LogRegion region = logRegions.get(regionIdx);
+
+                if(endGlobalIndex < region.globalIdxBegin()) {
+                    break;
+                }
 
-            int begin = Math.max(region.globalIdxBegin(), beginGlobalIndex);
-            int end = Math.min(region.globalIdxEnd(), endGlobalIndex);
-            for(int globalIndex = begin; globalIndex <= end; globalIndex ++) {
-                LogEntry entry = region.readEntry(globalIndex);
-                entries.add(entry);
+                long begin = Math.max(region.globalIdxBegin(), beginGlobalIndex);
+                long end = Math.min(region.globalIdxEnd(), endGlobalIndex);
+                for(long globalIndex = begin; globalIndex <= end; globalIndex ++) {
+                    LogEntry entry = region.readEntry(globalIndex);
+                    entries.add(entry);
+                }
             }
-        }
 
-        return entries;
+            return entries;
+        } finally {
+            readLock.unlock();
+        }
     }
 
     /**
@@ -167,50 +292,198 @@ public class LogGroup implements Iterable<LogEntry> {
      *
      * @param globalIndex global index
      */
-    public void deleteOldThan(int globalIndex) {
-        while(true) {
-            LogRegion logRegion = logRegions.getFirst();
+    public void deleteOldThan(long globalIndex) {
+        writeLock.lock();
+        try {
+            // 至少保留最后一个 region，后续的 entry 需要追加到这个 region 上
+            int count = 0;
+            while(count < logRegions.size() - 1) {
+                LogRegion logRegion = logRegions.get(count);
+
+                if(globalIndex <= logRegion.globalIdxEnd()) {
+                    break;
+                }
 
-            if(globalIndex <= logRegion.globalIdxEnd()) {
-                break;
+                logRegion.delete();
+                count ++;
             }
 
-            logRegions.removeFirst();
-            logRegion.delete();
+            logRegions.subList(0, count).clear();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public long minGlobalIdx() {
+        readLock.lock();
+        try {
+            return beginRegion().globalIdxBegin();
+        } finally {
+            readLock.unlock();
         }
     }
 
-    public int maxGlobalIdx() {
-        return lastRegion().globalIdxEnd();
+    public long maxGlobalIdx() {
+        readLock.lock();
+        try {
+            return lastRegion().globalIdxEnd();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * 同步回收所有垃圾比例超过阈值的 region
+     */
+    public void clearDeletedEntries() {
+        int regionId;
+        while((regionId = garbageRegion(CLEAR_THRESHOLD)) >= 0) {
+            if(collectRegion(regionId, bytes -> {}) < 0) {
+                break;
+            }
+        }
     }
 
-    public synchronized void clearDeletedEntries() {
-        LinkedList<LogRegion> newLogRegions = new LinkedList<>();
+    /**
+     * 找到垃圾比例最高的 region，不包括正在追加的最后一个 region
+     *
+     * @param threshold 垃圾比例的阈值
+     * @return region id, -1 if not found
+     */
+    public int garbageRegion(double threshold) {
+        readLock.lock();
+        try {
+            LogRegion found = null;
+            double maxRatio = threshold;
+
+            for(LogRegion region : logRegions) {
+                if(region == lastRegion()) {
+                    break;
+                }
 
-        while (!logRegions.isEmpty()) {
-            LogRegion region = logRegions.removeFirst();
-            var entries = region.aliveEntries();
-            if(entries == null) {
-                newLogRegions.add(region);
-                continue;
+                double ratio = region.garbageRatio();
+                if(ratio >= maxRatio) {
+                    maxRatio = ratio;
+                    found = region;
+                }
             }
 
-            int id = region.id();
-            region.delete();
+            return found == null ? -1 : found.id();
+        } finally {
+            readLock.unlock();
+        }
+    }
 
-            LogRegion newRegion = new LogRegion(id, groupDir, options);
-            for(var entry : entries) {
-                newRegion.appendEntry(entry.left(), entry.right());
+    /**
+     * 把 region 中存活的 entry 复制到新文件，删除的 entry 只保留索引，global index 保持不变，
+     * 所以引用 global index 的 SSTable 不需要修改。复制时分批持有锁，不会长时间阻塞读写
+     *
+     * @param regionId region id
+     * @param throttle 每复制一批数据后调用，参数是复制的字节数，用于限速
+     * @return 回收的字节数，region 不存在或者正在追加时返回 -1
+     */
+    public long collectRegion(int regionId, LongConsumer throttle) {
+        long globalIdxBegin, globalIdxEnd;
+
+        readLock.lock();
+        try {
+            LogRegion region = findRegion(regionId);
+            if(region == null || region == lastRegion()) {
+                return -1;
             }
 
-            newLogRegions.add(newRegion);
+            globalIdxBegin = region.globalIdxBegin();
+            globalIdxEnd = region.globalIdxEnd();
+        } finally {
+            readLock.unlock();
         }
 
-        logRegions.addAll(newLogRegions);
+        String gcDir = groupDir + GC_DIR_SUFFIX;
+        FileUtils.createDirIfNotExisted(gcDir);
+
+        LogRegion newRegion = new LogRegion(regionId, gcDir, options);
+
+        try {
+            newRegion.globalIdxBegin(globalIdxBegin);
+            newRegion.globalIdxEnd(globalIdxBegin - 1);
+
+            long globalIdx = globalIdxBegin;
+            while(globalIdx <= globalIdxEnd) {
+                List<Pair<Byte, byte[]>> entries = new ArrayList<>();
+                long copied = 0;
+
+                readLock.lock();
+                try {
+                    LogRegion region = findRegion(regionId);
+                    if(region == null) {
+                        newRegion.delete();
+                        return -1;
+                    }
+
+                    for(; globalIdx <= globalIdxEnd && copied < GC_BATCH_BYTES; globalIdx ++) {
+                        LogIndex index = region.logIndex(globalIdx);
+
+                        if(index.deleteFlag() == Flags.DELETED) {
+                            entries.add(new Pair<>(Flags.DELETED, Bytes.EMPTY));
+                            continue;
+                        }
+
+                        byte[] data = region.readEntry(globalIdx).data();
+                        entries.add(new Pair<>(Flags.EXISTED, data));
+                        copied += data.length;
+                    }
+                } finally {
+                    readLock.unlock();
+                }
+
+                for(Pair<Byte, byte[]> entry : entries) {
+                    newRegion.appendEntry(entry.left(), entry.right());
+                }
+
+                throttle.accept(copied);
+            }
+
+            writeLock.lock();
+            try {
+                LogRegion region = findRegion(regionId);
+                if(region == null) {
+                    newRegion.delete();
+                    return -1;
+                }
+
+                // 复制期间又被删除的 entry
+                for(long idx = globalIdxBegin; idx <= globalIdxEnd; idx ++) {
+                    if(region.logIndex(idx).deleteFlag() == Flags.DELETED
+                            && newRegion.logIndex(idx).deleteFlag() != Flags.DELETED) {
+                        newRegion.removeEntry(idx);
+                    }
+                }
+
+                newRegion.force();
+                long reclaimed = region.dataBlockLength() - newRegion.dataBlockLength();
+
+                FileUtils.replace(newRegion.path(), region.path());
+                logRegions.set(regionId - beginRegion().id(), new LogRegion(regionId, groupDir, options));
+
+                return reclaimed;
+            } finally {
+                writeLock.unlock();
+            }
+        } catch (RuntimeException e) {
+            if(FileUtils.exist(newRegion.path())) {
+                newRegion.delete();
+            }
+            throw e;
+        }
     }
 
     public void delete() {
         FileUtils.delete(Path.of(groupDir));
+
+        Path gcDir = Path.of(groupDir + GC_DIR_SUFFIX);
+        if(FileUtils.exist(gcDir)) {
+            FileUtils.delete(gcDir);
+        }
     }
 
     @Override
@@ -218,8 +491,48 @@ public class LogGroup implements Iterable<LogEntry> {
         return new LogGroupIterator(this);
     }
 
-    private LogRegion getRegion(int id) {
-        return logRegions.get(id - beginRegionId);
+    private LogRegion findRegion(int id) {
+        int idx = id - beginRegion().id();
+        return idx < 0 || idx >= logRegions.size() ? null : logRegions.get(idx);
+    }
+
+    /**
+     * 除了最后一个 region，每个 region 都保存了 capacity 条 entry，直接计算下标
+     *
+     * @param globalIdx global index
+     * @return region, null if not found
+     */
+    private LogRegion regionOf(long globalIdx) {
+        LogRegion first = beginRegion();
+        long firstGlobalIdx = first.globalIdxBegin();
+
+        if(globalIdx < firstGlobalIdx || globalIdx > maxGlobalIdx()) {
+            return null;
+        }
+
+        int idx = (int) Math.min((globalIdx - firstGlobalIdx) / first.capacity(), logRegions.size() - 1);
+        LogRegion region = logRegions.get(idx);
+
+        if(globalIdx >= region.globalIdxBegin() && globalIdx <= region.globalIdxEnd()) {
+            return region;
+        }
+
+        // 修改过 region capacity 的旧文件，二分查找
+        int begin = 0, end = logRegions.size() - 1;
+        while(begin <= end) {
+            int mid = begin + ((end - begin) >> 1);
+            region = logRegions.get(mid);
+
+            if(globalIdx < region.globalIdxBegin()) {
+                end = mid - 1;
+            } else if(globalIdx > region.globalIdxEnd()) {
+                begin = mid + 1;
+            } else {
+                return region;
+            }
+        }
+
+        return null;
     }
 
     private LogRegion beginRegion() {
@@ -246,14 +559,11 @@ public class LogGroup implements Iterable<LogEntry> {
     private static class LogGroupIterator implements Iterator<LogEntry> {
         private final LogGroup logGroup;
 
-        private int regionId;
-        private int globalIndex;
+        private long globalIndex;
 
         public LogGroupIterator(LogGroup logGroup) {
             this.logGroup = logGroup;
-            LogRegion region = logGroup.beginRegion();
-            regionId = region.id();
-            globalIndex = region.globalIdxBegin();
+            globalIndex = logGroup.minGlobalIdx();
         }
 
         @Override
@@ -264,18 +574,11 @@ public class LogGroup implements Iterable<LogEntry> {
         @Override
         public LogEntry next() {
             if(!hasNext()) {
-                return null;
-            }
-
-            LogEntry logEntry;
-            LogRegion region = logGroup.getRegion(regionId);
-            if (globalIndex > region.globalIdxEnd()) {
-                region = logGroup.getRegion(++regionId);
+                throw new NoSuchElementException();
             }
-            logEntry = region.readEntry(globalIndex);
 
-            globalIndex ++;
-            return logEntry;
+            // region 可能在遍历时被删除或者替换，每次都重新定位
+            return logGroup.findEntry(globalIndex ++);
         }
     }
 }
@@ -20,6 +20,7 @@ public class LogGroupOptions {
     private Integer regionCapacity;
     private Integer regionBlockSize;
     private boolean force = false;
+    private ChecksumPolicy checksumPolicy = ChecksumPolicy.ALWAYS;
 
     public LogGroupOptions() {
         this.regionCapacity = null;
@@ -53,6 +54,18 @@ public class LogGroupOptions {
         return force;
     }
 
+    public ChecksumPolicy checksumPolicy() {
+        return checksumPolicy;
+    }
+
+    public void checksumPolicy(ChecksumPolicy val) {
+        if(val == null) {
+            throw new RuntimeException("checksumPolicy must not be null");
+        }
+
+        checksumPolicy = val;
+    }
+
     public void regionBlockSize(int size) {
         if(regionBlockSize == null) {
             regionBlockSize = size;
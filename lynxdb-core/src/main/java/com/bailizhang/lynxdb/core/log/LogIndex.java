@@ -37,14 +37,32 @@ public record LogIndex(
         int dataLength = buffer.getInt();
         long crc32c = buffer.getLong();
 
-        CRC32C crc32C = new CRC32C();
-        crc32C.update(new byte[]{flag});
-        crc32C.update(dataBegin);
-        crc32C.update(dataLength);
+        if(crc32c(flag, dataBegin, dataLength) != crc32c) {
+            throw new RuntimeException("Log Index data error");
+        }
 
-        long crc32CValue = crc32C.getValue();
+        return new LogIndex(
+                flag,
+                dataBegin,
+                dataLength,
+                crc32c
+        );
+    }
+
+    /**
+     * 按绝对位置读取，不修改 buffer 的 position
+     *
+     * @param buffer index buffer
+     * @param offset index 的开始位置
+     * @return log index
+     */
+    public static LogIndex from(ByteBuffer buffer, int offset) {
+        byte flag = buffer.get(offset);
+        int dataBegin = buffer.getInt(offset + BYTE_LENGTH);
+        int dataLength = buffer.getInt(offset + BYTE_LENGTH + INT_LENGTH);
+        long crc32c = buffer.getLong(offset + BYTE_LENGTH + INT_LENGTH * 2);
 
-        if(crc32CValue != crc32c) {
+        if(crc32c(flag, dataBegin, dataLength) != crc32c) {
             throw new RuntimeException("Log Index data error");
         }
 
@@ -61,20 +79,32 @@ public record LogIndex(
             int dataBegin,
             int dataLength
     ) {
-        CRC32C indexCrc32C = new CRC32C();
-        indexCrc32C.update(new byte[]{deleteFlag});
-        indexCrc32C.update(dataBegin);
-        indexCrc32C.update(dataLength);
-        long indexCrc32c = indexCrc32C.getValue();
-
         return new LogIndex(
                 deleteFlag,
                 dataBegin,
                 dataLength,
-                indexCrc32c
+                crc32c(deleteFlag, dataBegin, dataLength)
         );
     }
 
+    /**
+     * 兼容已有的文件格式，dataBegin 和 dataLength 只计算了最低的一个字节
+     */
+    static long crc32c(byte deleteFlag, int dataBegin, int dataLength) {
+        return crc32c(new CRC32C(), deleteFlag, dataBegin, dataLength);
+    }
+
+    /**
+     * 使用调用方复用的 CRC32C，读路径上不分配对象
+     */
+    static long crc32c(CRC32C crc32C, byte deleteFlag, int dataBegin, int dataLength) {
+        crc32C.reset();
+        crc32C.update(deleteFlag);
+        crc32C.update(dataBegin);
+        crc32C.update(dataLength);
+        return crc32C.getValue();
+    }
+
     public ByteBuffer[] toBuffers() {
         DataBlocks dataBlocks = new DataBlocks(false);
         dataBlocks.appendRawByte(deleteFlag);
@@ -16,36 +16,49 @@
 
 package com.bailizhang.lynxdb.core.log;
 
-import com.bailizhang.lynxdb.core.common.Bytes;
 import com.bailizhang.lynxdb.core.common.FileType;
 import com.bailizhang.lynxdb.core.common.Flags;
-import com.bailizhang.lynxdb.core.common.Pair;
 import com.bailizhang.lynxdb.core.mmap.MappedBuffer;
 import com.bailizhang.lynxdb.core.utils.ArrayUtils;
 import com.bailizhang.lynxdb.core.utils.BufferUtils;
+import com.bailizhang.lynxdb.core.utils.FileChannelUtils;
 import com.bailizhang.lynxdb.core.utils.FileUtils;
 import com.bailizhang.lynxdb.core.utils.NameUtils;
 
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.zip.CRC32C;
 
-import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.INT_LENGTH;
-import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.LONG_LENGTH;
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.*;
 
 public class LogRegion {
     private interface Default {
         int DATA_BLOCK_SIZE = 1024 * 1024;
         int CAPACITY = 2000;
-        double CLEAR_THRESHOLD = 0.5d;
     }
 
     private interface Meta {
-        int LENGTH = INT_LENGTH * 5 + LONG_LENGTH;
+        int LENGTH = INT_LENGTH * 4 + LONG_LENGTH * 3;
         int MAGIC_NUMBER_POSITION = 0;
+        int VERSION_POSITION = INT_LENGTH;
+        int DELETED_LENGTH_POSITION = INT_LENGTH * 2;
+        int TOTAL_LENGTH_POSITION = INT_LENGTH * 3;
+        int BEGIN_GLOBAL_IDX_POSITION = INT_LENGTH * 4;
+        int END_GLOBAL_IDX_POSITION = INT_LENGTH * 4 + LONG_LENGTH;
+        int CRC_POSITION = INT_LENGTH * 4 + LONG_LENGTH * 2;
+    }
+
+    /**
+     * 版本 1 的 meta，没有版本号，global index 是 int，打开时迁移成当前版本
+     */
+    private interface LegacyMeta {
+        int MAGIC_NUMBER = 1002;
+        int LENGTH = INT_LENGTH * 5 + LONG_LENGTH;
         int DELETED_LENGTH_POSITION = INT_LENGTH;
         int TOTAL_LENGTH_POSITION = INT_LENGTH * 2;
         int BEGIN_GLOBAL_IDX_POSITION = INT_LENGTH * 3;
@@ -53,6 +66,19 @@ public class LogRegion {
         int CRC_POSITION = INT_LENGTH * 5;
     }
 
+    /**
+     * 1: global index 是 int
+     * 2: global index 改成 long，增加版本号
+     */
+    public static final int FORMAT_VERSION = 2;
+
+    private static final ThreadLocal<CRC32C> CRC32C_THREAD_LOCAL = ThreadLocal.withInitial(CRC32C::new);
+
+    /**
+     * 迁移旧版本的 region 时，新文件先写到这个目录，完成后再替换原来的文件
+     */
+    private static final String MIGRATE_DIR_SUFFIX = ".migrate";
+
     private final int capacity;
     private final int dataBlockSize;
     private final int dataBeginPosition;
@@ -61,10 +87,20 @@ public class LogRegion {
     private final Path path;
     private final LogGroupOptions options;
 
+    /**
+     * 已经校验过的 entry，只在 ChecksumPolicy.FIRST_READ 时使用
+     */
+    private final AtomicLongArray verified;
+
     private final MappedBuffer metaBuffer;
     private final MappedBuffer indexBuffer;
     private final ArrayList<MappedBuffer> dataBuffers = new ArrayList<>();
 
+    /**
+     * 上一次 force 时最后一个 data block 的下标，之前的 data block 不会再被修改
+     */
+    private int forcedDataBlockIdx;
+
     public LogRegion(int id, String dir, LogGroupOptions options) {
         this.id = id;
         this.options = options;
@@ -76,12 +112,18 @@ public class LogRegion {
         // data 区域的开始位置
         dataBeginPosition = Meta.LENGTH + indexBlockLength;
 
+        verified = options.checksumPolicy() == ChecksumPolicy.FIRST_READ
+                ? new AtomicLongArray((capacity + Long.SIZE - 1) / Long.SIZE)
+                : null;
+
         String filename = NameUtils.name(id) + FileType.LOG_GROUP_REGION_FILE.suffix();
         path = FileUtils.createFileIfNotExisted(
                 dir,
                 filename
         ).toPath();
 
+        migrateLegacyRegion(path, dir + MIGRATE_DIR_SUFFIX);
+
         metaBuffer = new MappedBuffer(
                 path,
                 Meta.MAGIC_NUMBER_POSITION,
@@ -92,11 +134,16 @@ public class LogRegion {
         if(magicNumber() == 0) {
             MappedByteBuffer buffer = metaBuffer.getBuffer();
             buffer.putInt(Meta.MAGIC_NUMBER_POSITION, FileType.LOG_GROUP_REGION_FILE.magicNumber());
+            buffer.putInt(Meta.VERSION_POSITION, FORMAT_VERSION);
             buffer.putInt(Meta.DELETED_LENGTH_POSITION, 0);
             buffer.putInt(Meta.TOTAL_LENGTH_POSITION, 0);
-            buffer.putInt(Meta.BEGIN_GLOBAL_IDX_POSITION, (id - 1) * capacity + 1);
-            buffer.putInt(Meta.END_GLOBAL_IDX_POSITION, (id - 1) * capacity);
+            buffer.putLong(Meta.BEGIN_GLOBAL_IDX_POSITION, (long) (id - 1) * capacity + 1);
+            buffer.putLong(Meta.END_GLOBAL_IDX_POSITION, (long) (id - 1) * capacity);
             generateMetaCrc();
+        } else if(magicNumber() != FileType.LOG_GROUP_REGION_FILE.magicNumber()) {
+            throw new RuntimeException("Not a log region file: " + path);
+        } else if(version() != FORMAT_VERSION) {
+            throw new RuntimeException("Unsupported log region version: " + version());
         }
 
         indexBuffer = new MappedBuffer(
@@ -116,28 +163,27 @@ public class LogRegion {
     }
 
     public int magicNumber() {
-        MappedByteBuffer buffer = metaBuffer.getBuffer();
-        return buffer.getInt(Meta.MAGIC_NUMBER_POSITION);
+        return metaBuffer.getInt(Meta.MAGIC_NUMBER_POSITION);
+    }
+
+    public int version() {
+        return metaBuffer.getInt(Meta.VERSION_POSITION);
     }
 
     public int deletedLength() {
-        MappedByteBuffer buffer = metaBuffer.getBuffer();
-        return buffer.getInt(Meta.DELETED_LENGTH_POSITION);
+        return metaBuffer.getInt(Meta.DELETED_LENGTH_POSITION);
     }
 
     public int totalLength() {
-        MappedByteBuffer buffer = metaBuffer.getBuffer();
-        return buffer.getInt(Meta.TOTAL_LENGTH_POSITION);
+        return metaBuffer.getInt(Meta.TOTAL_LENGTH_POSITION);
     }
 
-    public int globalIdxBegin() {
-        MappedByteBuffer buffer = metaBuffer.getBuffer();
-        return buffer.getInt(Meta.BEGIN_GLOBAL_IDX_POSITION);
+    public long globalIdxBegin() {
+        return metaBuffer.getLong(Meta.BEGIN_GLOBAL_IDX_POSITION);
     }
 
-    public int globalIdxEnd() {
-        MappedByteBuffer buffer = metaBuffer.getBuffer();
-        return buffer.getInt(Meta.END_GLOBAL_IDX_POSITION);
+    public long globalIdxEnd() {
+        return metaBuffer.getLong(Meta.END_GLOBAL_IDX_POSITION);
     }
 
     public void deletedLength(int len) {
@@ -156,16 +202,16 @@ public class LogRegion {
         generateMetaCrc();
     }
 
-    void globalIdxBegin(int val) {
+    void globalIdxBegin(long val) {
         MappedByteBuffer buffer = metaBuffer.getBuffer();
-        buffer.putInt(Meta.BEGIN_GLOBAL_IDX_POSITION, val);
+        buffer.putLong(Meta.BEGIN_GLOBAL_IDX_POSITION, val);
 
         generateMetaCrc();
     }
 
-    void globalIdxEnd(int val) {
+    void globalIdxEnd(long val) {
         MappedByteBuffer buffer = metaBuffer.getBuffer();
-        buffer.putInt(Meta.END_GLOBAL_IDX_POSITION, val);
+        buffer.putLong(Meta.END_GLOBAL_IDX_POSITION, val);
 
         generateMetaCrc();
     }
@@ -174,23 +220,35 @@ public class LogRegion {
         return id;
     }
 
-    public int appendEntry(byte[] data) {
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * 删除的数据占总数据的比例，meta 中的长度在删除时增量更新，不需要扫描 entry
+     */
+    public double garbageRatio() {
+        int totalLength = totalLength();
+        return totalLength == 0 ? 0d : (double) deletedLength() / totalLength;
+    }
+
+    public long appendEntry(byte[] data) {
         return appendEntry(BufferUtils.toBuffers(data));
     }
 
-    public int appendEntry(byte deleteFlag, byte[] data) {
+    public long appendEntry(byte deleteFlag, byte[] data) {
         return appendEntry(deleteFlag, BufferUtils.toBuffers(data));
     }
 
-    public int appendEntry(ByteBuffer[] data) {
+    public long appendEntry(ByteBuffer[] data) {
         return appendEntry(Flags.EXISTED, data);
     }
 
-    public int appendEntry(byte deleteFlag, ByteBuffer[] data) {
-        int globalIndexEnd = globalIdxEnd();
+    public long appendEntry(byte deleteFlag, ByteBuffer[] data) {
+        long globalIndexEnd = globalIdxEnd();
         LogIndex lastIndex = logIndex(globalIndexEnd);
 
-        int idx = globalIndexEnd - globalIdxBegin() + 1;
+        int idx = (int) (globalIndexEnd - globalIdxBegin() + 1);
 
         int dataBegin = lastIndex == null ? 0 : lastIndex.dataBegin() + lastIndex.dataLength();
         int dataLength = BufferUtils.length(data) + LONG_LENGTH; // data 长度 + crc32c 校验的长度
@@ -225,78 +283,73 @@ public class LogRegion {
         return globalIndexEnd;
     }
 
-    public List<Pair<Byte, byte[]>> aliveEntries() {
-        double deletedLength = deletedLength();
-        double totalLength = totalLength();
-
-        double percentage = deletedLength / totalLength;
-
-        if(percentage < Default.CLEAR_THRESHOLD) {
+    public LogIndex logIndex(long globalIdx) {
+        int idx = (int) (globalIdx - globalIdxBegin());
+        if(idx < 0) {
             return null;
         }
 
-        // 如果达到清理的阈值，则执行清理操作
-        int globalIdxBegin = globalIdxBegin();
-        int globalIdxEnd = globalIdxEnd();
-
-        List<Pair<Byte, byte[]>> entries = new ArrayList<>();
-
-        for(int i = globalIdxBegin; i <= globalIdxEnd; i ++) {
-            LogEntry entry = readEntry(i);
-            LogIndex index = entry.index();
-
-            byte deleteFlag = index.deleteFlag();
-            byte[] data = deleteFlag == Flags.DELETED ? Bytes.EMPTY : entry.data();
-
-            entries.add(new Pair<>(deleteFlag, data));
-        }
-
-        return entries;
+        int indexBegin = idx * LogIndex.ENTRY_LENGTH;
+        return LogIndex.from(indexBuffer.getBuffer(), indexBegin);
     }
 
-    public LogIndex logIndex(int globalIdx) {
-        int idx = globalIdx - globalIdxBegin();
-        if(idx < 0) {
+    public LogEntry readEntry(long globalIndex) {
+        if(globalIndex < globalIdxBegin() || globalIndex > globalIdxEnd()) {
             return null;
         }
 
-        int indexBegin = idx * LogIndex.ENTRY_LENGTH;
-        MappedByteBuffer buffer = indexBuffer.getBuffer();
-        buffer.position(indexBegin);
+        LogIndex logIndex = logIndex(globalIndex);
+        ByteBuffer slice = entrySlice(globalIndex, logIndex.dataBegin(), logIndex.dataLength());
+
+        return new LogEntry(
+                logIndex,
+                BufferUtils.getRemaining(slice)
+        );
+    }
 
-        return LogIndex.from(buffer);
+    /**
+     * 只读取 entry 的数据，不创建 LogIndex 和 LogEntry
+     *
+     * @param globalIndex global index
+     * @return data, null if not found
+     */
+    public byte[] readEntryData(long globalIndex) {
+        ByteBuffer slice = readSlice(globalIndex);
+        return slice == null ? null : BufferUtils.getRemaining(slice);
     }
 
-    public LogEntry readEntry(int globalIndex) {
+    /**
+     * 返回 entry 数据在 data block 上的只读 slice，不复制数据，按 ChecksumPolicy 校验 CRC。
+     * 只有数据跨越两个 data block 时才会复制到堆上
+     *
+     * @param globalIndex global index
+     * @return read-only data slice, null if not found
+     */
+    public ByteBuffer readSlice(long globalIndex) {
         if(globalIndex < globalIdxBegin() || globalIndex > globalIdxEnd()) {
             return null;
         }
 
-        LogIndex logIndex = logIndex(globalIndex);
-        int dataBegin = logIndex.dataBegin();
-        int dataLength = logIndex.dataLength();
-        // 纯数据的长度，不包括 CRC 校验和
-        int rawDataLength = dataLength - LONG_LENGTH;
-
-        byte[] data = readData(dataBegin, rawDataLength);
-        byte[] crc32cBytes = readData(dataBegin + rawDataLength, LONG_LENGTH);
-
-        CRC32C crc32C = new CRC32C();
-        crc32C.update(data, 0, dataLength - LONG_LENGTH);
+        int idx = (int) (globalIndex - globalIdxBegin());
+        int indexBegin = idx * LogIndex.ENTRY_LENGTH;
+        byte deleteFlag = indexBuffer.get(indexBegin);
+        int dataBegin = indexBuffer.getInt(indexBegin + BYTE_LENGTH);
+        int dataLength = indexBuffer.getInt(indexBegin + BYTE_LENGTH + INT_LENGTH);
 
-        long originCrc32C = ArrayUtils.toLong(crc32cBytes);
+        // FIRST_READ 时已经校验过的 entry 不再计算索引的 CRC
+        if(needVerify(idx)) {
+            long crc32c = indexBuffer.getLong(indexBegin + BYTE_LENGTH + INT_LENGTH * 2);
+            CRC32C crc32C = CRC32C_THREAD_LOCAL.get();
 
-        if(crc32C.getValue() != originCrc32C) {
-            throw new RuntimeException("File entry data wrong.");
+            if(LogIndex.crc32c(crc32C, deleteFlag, dataBegin, dataLength) != crc32c) {
+                throw new RuntimeException("Log Index data error");
+            }
         }
 
-        return new LogEntry(
-                logIndex,
-                data
-        );
+        return entrySlice(globalIndex, dataBegin, dataLength);
     }
 
-    public void removeEntry(int globalIdx) {
+    public void removeEntry(long globalIdx) {
         LogIndex logIndex = logIndex(globalIdx);
 
         int dataBegin = logIndex.dataBegin();
@@ -306,7 +359,7 @@ public class LogRegion {
         LogIndex newLogIndex = LogIndex.from(Flags.DELETED, dataBegin, dataLength);
         MappedByteBuffer buffer = indexBuffer.getBuffer();
 
-        int indexOffset = (globalIdx - globalIdxBegin()) * LogIndex.ENTRY_LENGTH;
+        int indexOffset = (int) (globalIdx - globalIdxBegin()) * LogIndex.ENTRY_LENGTH;
         BufferUtils.write(buffer, indexOffset, newLogIndex.toBuffers());
 
         // 删除的长度包括数据的 CRC 校验和
@@ -325,6 +378,23 @@ public class LogRegion {
         return lastLogIndex.dataBegin() + lastLogIndex.dataLength();
     }
 
+    /**
+     * 把 data、index 和 meta 依次刷到磁盘，保证 meta 不会指向没有落盘的数据
+     */
+    public void force() {
+        for(int i = forcedDataBlockIdx; i < dataBuffers.size(); i ++) {
+            dataBuffers.get(i).force();
+        }
+        forcedDataBlockIdx = dataBuffers.size() - 1;
+
+        indexBuffer.force();
+        metaBuffer.force();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
     public boolean isFull() {
         return globalIdxEnd() - globalIdxBegin() + 1 >= capacity;
     }
@@ -332,17 +402,11 @@ public class LogRegion {
     private void generateMetaCrc() {
         MappedByteBuffer buffer = metaBuffer.getBuffer();
 
-        buffer.position(0);
-
-        // CRC 校验内容只包括 Meta 的数据，不包括校验和
-        buffer.limit(Meta.CRC_POSITION);
-
+        // CRC 校验内容只包括 Meta 的数据，不包括校验和，使用 slice 不修改共享 buffer 的 position
         CRC32C crc32C = new CRC32C();
-        crc32C.update(buffer);
+        crc32C.update(buffer.slice(0, Meta.CRC_POSITION));
         long crc32c = crc32C.getValue();
 
-        // 重置 limit，用于写入校验和
-        buffer.limit(Meta.LENGTH);
         buffer.putLong(Meta.CRC_POSITION, crc32c);
 
         if(options.isForce()) {
@@ -350,6 +414,67 @@ public class LogRegion {
         }
     }
 
+    /**
+     * 版本 1 的 meta 比当前版本短，index 和 data 区域整体后移，复制到新文件后替换原来的文件
+     *
+     * @param path region 文件
+     * @param migrateDir 新文件的临时目录
+     */
+    private static void migrateLegacyRegion(Path path, String migrateDir) {
+        FileChannel channel = FileChannelUtils.open(path, StandardOpenOption.READ);
+
+        try {
+            long size = FileChannelUtils.size(channel);
+            if(size < LegacyMeta.LENGTH
+                    || FileChannelUtils.readInt(channel, 0) != LegacyMeta.MAGIC_NUMBER) {
+                return;
+            }
+
+            ByteBuffer legacyMeta = ByteBuffer.wrap(FileChannelUtils.read(channel, 0, LegacyMeta.LENGTH));
+
+            CRC32C legacyCrc32C = new CRC32C();
+            legacyCrc32C.update(legacyMeta.array(), 0, LegacyMeta.CRC_POSITION);
+            if(legacyCrc32C.getValue() != legacyMeta.getLong(LegacyMeta.CRC_POSITION)) {
+                throw new RuntimeException("Log region meta data wrong: " + path);
+            }
+
+            ByteBuffer meta = ByteBuffer.allocate(Meta.LENGTH);
+            meta.putInt(Meta.MAGIC_NUMBER_POSITION, FileType.LOG_GROUP_REGION_FILE.magicNumber());
+            meta.putInt(Meta.VERSION_POSITION, FORMAT_VERSION);
+            meta.putInt(Meta.DELETED_LENGTH_POSITION, legacyMeta.getInt(LegacyMeta.DELETED_LENGTH_POSITION));
+            meta.putInt(Meta.TOTAL_LENGTH_POSITION, legacyMeta.getInt(LegacyMeta.TOTAL_LENGTH_POSITION));
+            meta.putLong(Meta.BEGIN_GLOBAL_IDX_POSITION, legacyMeta.getInt(LegacyMeta.BEGIN_GLOBAL_IDX_POSITION));
+            meta.putLong(Meta.END_GLOBAL_IDX_POSITION, legacyMeta.getInt(LegacyMeta.END_GLOBAL_IDX_POSITION));
+
+            CRC32C crc32C = new CRC32C();
+            crc32C.update(meta.array(), 0, Meta.CRC_POSITION);
+            meta.putLong(Meta.CRC_POSITION, crc32C.getValue());
+
+            FileUtils.createDirIfNotExisted(migrateDir);
+            Path newPath = Path.of(migrateDir, path.getFileName().toString());
+
+            FileChannel newChannel = FileChannelUtils.open(
+                    newPath,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE
+            );
+
+            try {
+                FileChannelUtils.write(newChannel, meta);
+                FileChannelUtils.transferTo(channel, LegacyMeta.LENGTH, size - LegacyMeta.LENGTH, newChannel);
+                FileChannelUtils.force(newChannel, true);
+            } finally {
+                FileChannelUtils.close(newChannel);
+            }
+
+            FileUtils.replace(newPath, path);
+            FileUtils.delete(Path.of(migrateDir));
+        } finally {
+            FileChannelUtils.close(channel);
+        }
+    }
+
     private MappedBuffer mapDataBlockBuffer(int i) {
         return new MappedBuffer(
                 path,
@@ -390,6 +515,77 @@ public class LogRegion {
         }
     }
 
+    /**
+     * @param dataBegin data 的开始位置
+     * @param dataLength 包括 CRC 校验和的长度
+     * @return 纯数据，不包括 CRC 校验和
+     */
+    private ByteBuffer entrySlice(long globalIndex, int dataBegin, int dataLength) {
+        // 纯数据的长度，不包括 CRC 校验和
+        int rawDataLength = dataLength - LONG_LENGTH;
+        ByteBuffer slice = dataSlice(dataBegin, rawDataLength);
+
+        int idx = (int) (globalIndex - globalIdxBegin());
+        if(!needVerify(idx)) {
+            return slice;
+        }
+
+        CRC32C crc32C = CRC32C_THREAD_LOCAL.get();
+        crc32C.reset();
+        crc32C.update(slice);
+        slice.rewind();
+
+        if(crc32C.getValue() != readLong(dataBegin + rawDataLength)) {
+            throw new RuntimeException("File entry data wrong.");
+        }
+
+        if(verified != null) {
+            verified.getAndAccumulate(idx / Long.SIZE, 1L << (idx % Long.SIZE), (a, b) -> a | b);
+        }
+
+        return slice;
+    }
+
+    private boolean needVerify(int idx) {
+        return switch (options.checksumPolicy()) {
+            case ALWAYS -> true;
+            case NONE -> false;
+            case FIRST_READ -> (verified.get(idx / Long.SIZE) & (1L << (idx % Long.SIZE))) == 0;
+        };
+    }
+
+    private ByteBuffer dataSlice(int begin, int length) {
+        int bufferIdx = begin / dataBlockSize;
+        int offset = begin - bufferIdx * dataBlockSize;
+
+        // 跨越两个 data block 时只能复制
+        if(offset + length > dataBlockSize) {
+            return ByteBuffer.wrap(readData(begin, length)).asReadOnlyBuffer();
+        }
+
+        if(bufferIdx >= dataBuffers.size()) {
+            throw new RuntimeException();
+        }
+
+        return dataBuffers.get(bufferIdx).slice(offset, length);
+    }
+
+    private long readLong(int begin) {
+        int bufferIdx = begin / dataBlockSize;
+        int offset = begin - bufferIdx * dataBlockSize;
+
+        // 跨越两个 data block 时按字节读取
+        if(offset + LONG_LENGTH > dataBlockSize) {
+            return ArrayUtils.toLong(readData(begin, LONG_LENGTH));
+        }
+
+        if(bufferIdx >= dataBuffers.size()) {
+            throw new RuntimeException();
+        }
+
+        return dataBuffers.get(bufferIdx).getLong(offset);
+    }
+
     private byte[] readData(int begin, int length) {
         int bufferIdx = begin / dataBlockSize;
         byte[] data = new byte[length];
@@ -398,22 +594,17 @@ public class LogRegion {
             throw new RuntimeException();
         }
 
-        MappedBuffer dataBuffer = dataBuffers.get(bufferIdx);
-        MappedByteBuffer buffer = dataBuffer.getBuffer();
-
-        buffer.position(begin - bufferIdx * dataBlockSize);
+        int offset = begin - bufferIdx * dataBlockSize;
         int dataOffset = 0;
 
+        // 按绝对位置读取，不修改共享 buffer 的 position
         while (dataOffset < length) {
-            int readLength = Math.min(buffer.remaining(), length - dataOffset);
-            buffer.get(data, dataOffset, readLength);
+            int readLength = Math.min(dataBlockSize - offset, length - dataOffset);
+            dataBuffers.get(bufferIdx).get(offset, data, dataOffset, readLength);
             dataOffset += readLength;
 
-            if(dataOffset < length) {
-                dataBuffer = dataBuffers.get(++ bufferIdx);
-                buffer = dataBuffer.getBuffer();
-                buffer.position(0);
-            }
+            bufferIdx ++;
+            offset = 0;
         }
 
         return data;
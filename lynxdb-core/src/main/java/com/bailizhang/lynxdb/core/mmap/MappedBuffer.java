@@ -19,11 +19,16 @@ package com.bailizhang.lynxdb.core.mmap;
 import com.bailizhang.lynxdb.core.utils.FileChannelUtils;
 
 import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 
+/**
+ * 文件映射的一段区域，读操作都使用绝对位置，可以被多个线程同时调用。
+ * getBuffer() 返回的 buffer 是共享的，只有写入方可以修改它的 position
+ */
 public class MappedBuffer {
     private final Path filePath;
 
@@ -36,7 +41,7 @@ public class MappedBuffer {
     private int limit;
 
     // 内存溢出前，则会被回收
-    private SoftReference<MappedByteBuffer> softBuffer;
+    private volatile SoftReference<MappedByteBuffer> softBuffer;
 
     public MappedBuffer(Path filePath, long begin, int offset) {
         this.filePath = filePath;
@@ -59,36 +64,52 @@ public class MappedBuffer {
         saveSnapshot(mappedBuffer);
 
         softBuffer = new SoftReference<>(mappedBuffer);
+
+        // 映射完成后 channel 就不再需要了，避免 SSTable 变多后文件句柄耗尽
+        FileChannelUtils.close(channel);
     }
 
     public MappedByteBuffer getBuffer() {
         MappedByteBuffer mappedBuffer = softBuffer.get();
+        return mappedBuffer == null ? remap() : mappedBuffer;
+    }
 
-        while (mappedBuffer == null) {
-            if(softBuffer.refersTo(null)) {
-                if(!channel.isOpen()) {
-                    channel = FileChannelUtils.open(
-                            filePath,
-                            StandardOpenOption.READ,
-                            StandardOpenOption.WRITE
-                    );
-                }
-
-                mappedBuffer = FileChannelUtils.map(
-                        channel,
-                        FileChannel.MapMode.READ_WRITE,
-                        begin,
-                        offset
-                );
-
-                mappedBuffer.position(position);
-                mappedBuffer.limit(limit);
-
-                softBuffer = new SoftReference<>(mappedBuffer);
-            }
-        }
+    public byte get(int index) {
+        return getBuffer().get(index);
+    }
 
-        return mappedBuffer;
+    public int getInt(int index) {
+        return getBuffer().getInt(index);
+    }
+
+    public long getLong(int index) {
+        return getBuffer().getLong(index);
+    }
+
+    public void get(int index, byte[] dst) {
+        getBuffer().get(index, dst);
+    }
+
+    public void get(int index, byte[] dst, int offset, int length) {
+        getBuffer().get(index, dst, offset, length);
+    }
+
+    /**
+     * @param index 开始位置
+     * @param length 长度
+     * @return 只读的 slice，和映射共享内存
+     */
+    public ByteBuffer slice(int index, int length) {
+        return getBuffer().slice(index, length).asReadOnlyBuffer();
+    }
+
+    /**
+     * 需要按相对位置读取时使用，每个调用方持有自己的 position
+     *
+     * @return 只读的 duplicate
+     */
+    public ByteBuffer duplicate() {
+        return getBuffer().asReadOnlyBuffer().clear();
     }
 
     public void saveSnapshot(MappedByteBuffer buffer) {
@@ -103,4 +124,35 @@ public class MappedBuffer {
     public void force() {
         getBuffer().force();
     }
+
+    private synchronized MappedByteBuffer remap() {
+        // 其他线程可能已经重新映射过了
+        MappedByteBuffer mappedBuffer = softBuffer.get();
+        if(mappedBuffer != null) {
+            return mappedBuffer;
+        }
+
+        channel = FileChannelUtils.open(
+                filePath,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+
+        try {
+            mappedBuffer = FileChannelUtils.map(
+                    channel,
+                    FileChannel.MapMode.READ_WRITE,
+                    begin,
+                    offset
+            );
+        } finally {
+            FileChannelUtils.close(channel);
+        }
+
+        mappedBuffer.position(position);
+        mappedBuffer.limit(limit);
+
+        softBuffer = new SoftReference<>(mappedBuffer);
+        return mappedBuffer;
+    }
 }
@@ -23,12 +23,15 @@ import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 // TODO 设计的有问题，需要重写设计
 public class FlightDataRecorder {
     private static final FlightDataRecorder RECORDER = new FlightDataRecorder();
 
     private final ConcurrentHashMap<RecordOption, AtomicLong> map = new ConcurrentHashMap<>();
+    /** 当前值，每次读取 data 时计算，不受 enable 影响 */
+    private final ConcurrentHashMap<RecordOption, LongSupplier> gauges = new ConcurrentHashMap<>();
 
     private Boolean enable;
 
@@ -102,9 +105,19 @@ public class FlightDataRecorder {
         data.incrementAndGet();
     }
 
+    public void add(RecordOption option, long value) {
+        AtomicLong data = map.computeIfAbsent(option, n -> new AtomicLong(0L));
+        data.addAndGet(value);
+    }
+
+    public void gauge(RecordOption option, LongSupplier supplier) {
+        gauges.put(option, supplier);
+    }
+
     public List<Pair<RecordOption, Long>> data() {
         List<Pair<RecordOption, Long>> list = new ArrayList<>();
         map.forEach((option, value) -> list.add(new Pair<>(option, value.get())));
+        gauges.forEach((option, supplier) -> list.add(new Pair<>(option, supplier.getAsLong())));
         return list;
     }
 }
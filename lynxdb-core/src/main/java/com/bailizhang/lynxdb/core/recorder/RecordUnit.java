@@ -19,7 +19,9 @@ package com.bailizhang.lynxdb.core.recorder;
 public enum RecordUnit {
     MILLIS("ms", (byte)0x01),
     NANOS("ns", (byte)0x02),
-    TIMES("times", (byte) 0x03);
+    TIMES("times", (byte) 0x03),
+    BYTES("bytes", (byte) 0x04),
+    COUNT("count", (byte) 0x05);
 
     final byte value;
     final String name;
@@ -107,6 +107,22 @@ public interface FileChannelUtils {
         }
     }
 
+    static void transferTo(FileChannel source, long position, long count, FileChannel target) {
+        try {
+            while(count > 0) {
+                long transferred = source.transferTo(position, count, target);
+                if(transferred <= 0) {
+                    break;
+                }
+
+                position += transferred;
+                count -= transferred;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     static long size(FileChannel channel) {
         try {
             return channel.size();
@@ -123,6 +139,14 @@ public interface FileChannelUtils {
         }
     }
 
+    static void close(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size) {
         try {
             return channel.map(mode, position, size);
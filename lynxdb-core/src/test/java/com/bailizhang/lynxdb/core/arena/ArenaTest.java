@@ -4,6 +4,10 @@ import com.bailizhang.lynxdb.core.arena.exceptions.ArenaOverflowException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
 class ArenaTest {
     @Test
     void test_001() throws ArenaOverflowException {
@@ -28,4 +32,105 @@ class ArenaTest {
 
         Assertions.assertThrows(ArenaOverflowException.class, arena::alloc);
     }
-}
\ No newline at end of file
+
+    @Test
+    void test_003() throws Exception {
+        Arena arena = new Arena(256 * 200, 256);
+
+        int threadCount = 8;
+        AtomicInteger failures = new AtomicInteger(0);
+
+        Thread[] threads = new Thread[threadCount];
+        for(int i = 0; i < threadCount; i ++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    for(int j = 0; j < 1000; j ++) {
+                        ArenaBuffer[] buffers = new ArenaBuffer[20];
+                        Set<Integer> bits = new HashSet<>();
+
+                        for(int k = 0; k < buffers.length; k ++) {
+                            buffers[k] = arena.alloc();
+                            bits.add(buffers[k].bit());
+                        }
+
+                        if(bits.size() != buffers.length) {
+                            failures.incrementAndGet();
+                        }
+
+                        for(ArenaBuffer buffer : buffers) {
+                            arena.dealloc(buffer);
+                        }
+                    }
+                } catch (ArenaOverflowException e) {
+                    failures.incrementAndGet();
+                }
+            });
+            threads[i].start();
+        }
+
+        for(Thread thread : threads) {
+            thread.join();
+        }
+
+        assert failures.get() == 0;
+    }
+
+    @Test
+    void test_004() throws ArenaOverflowException {
+        Arena arena = new Arena(1024, 256);
+
+        ArenaBuffer[] buffers = new ArenaBuffer[4];
+        for(int i = 0; i < 4; i ++) {
+            buffers[i] = arena.alloc();
+        }
+
+        // 还有 Segment 没有释放，release 之后 slot 不能被复用
+        Segment segment = buffers[0].alloc(0, 16);
+        buffers[0].release();
+        Assertions.assertThrows(ArenaOverflowException.class, arena::alloc);
+
+        segment.dealloc();
+        ArenaBuffer reused = arena.alloc();
+
+        assert reused != buffers[0];
+        assert reused.bit() == buffers[0].bit();
+        assert reused.isClear();
+    }
+
+    @Test
+    void test_005() throws ArenaOverflowException {
+        Arena arena = new Arena(1024, 256);
+
+        ArenaBuffer arenaBuffer = arena.alloc();
+        Segment segment = arenaBuffer.alloc(0, 16);
+        arenaBuffer.release();
+        segment.dealloc();
+
+        // 同一个线程复用 slot 时使用新的 ArenaBuffer
+        ArenaBuffer reused = arena.alloc();
+        Segment reusedSegment = reused.alloc(0, 16);
+
+        assert reused != arenaBuffer;
+        assert reused.bit() == arenaBuffer.bit();
+        assert !reused.isClear();
+
+        reusedSegment.dealloc();
+        assert reused.isClear();
+    }
+
+    @Test
+    void test_006() throws Exception {
+        Arena arena = new Arena(1024, 256);
+
+        ArenaBuffer arenaBuffer = arena.alloc();
+        Segment segment = arenaBuffer.alloc(0, 16);
+        arenaBuffer.release();
+
+        // 最后一个 Segment 在不分配的线程中释放，slot 直接归还 bitmap
+        Thread worker = new Thread(segment::dealloc);
+        worker.start();
+        worker.join();
+
+        assert arena.freeCount() == arena.bufferCount();
+    }
+}
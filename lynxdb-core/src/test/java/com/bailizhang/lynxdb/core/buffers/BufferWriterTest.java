@@ -0,0 +1,85 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.core.buffers;
+
+import com.bailizhang.lynxdb.core.common.Converter;
+import com.bailizhang.lynxdb.core.common.DataBlocks;
+import com.bailizhang.lynxdb.core.common.G;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+class BufferWriterTest {
+    @BeforeEach
+    void setUp() {
+        G.I.converter(new Converter(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void sameFormatAsDataBlocks() {
+        DataBlocks dataBlocks = new DataBlocks(true);
+        BufferWriter writer = new BufferWriter(true, 1);
+
+        for(int i = 0; i < 1000; i ++) {
+            dataBlocks.appendRawByte((byte) i);
+            dataBlocks.appendRawInt(i);
+            dataBlocks.appendRawLong(i);
+            dataBlocks.appendVarStr("column" + i);
+            dataBlocks.appendVarBytes(G.I.toBytes("value" + i));
+
+            writer.appendRawByte((byte) i);
+            writer.appendRawInt(i);
+            writer.appendRawLong(i);
+            writer.appendVarStr("column" + i);
+            writer.appendVarBytes(G.I.toBytes("value" + i));
+        }
+
+        ByteBuffer[] buffers = writer.toBuffers();
+        assert buffers.length == 1;
+        assert buffers[0].isDirect();
+
+        byte[] expected = new Buffers(dataBlocks.toBuffers()).toBytes();
+        byte[] actual = new byte[buffers[0].remaining()];
+        buffers[0].get(actual);
+
+        assert Arrays.equals(expected, actual);
+
+        writer.release();
+    }
+
+    @Test
+    void reusePooledBuffer() {
+        DirectBufferPool pool = new DirectBufferPool();
+
+        ByteBuffer buffer = pool.acquire(100);
+        assert buffer.capacity() == 4096;
+
+        buffer.putInt(1);
+        pool.release(buffer);
+
+        ByteBuffer reused = pool.acquire(4096);
+        assert reused == buffer;
+        assert reused.position() == 0;
+
+        ByteBuffer large = pool.acquire(4097);
+        assert large.capacity() == 8192;
+    }
+}
@@ -16,10 +16,14 @@
 
 package com.bailizhang.lynxdb.core.buffers;
 
+import com.bailizhang.lynxdb.core.common.Converter;
+import com.bailizhang.lynxdb.core.common.G;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 class BuffersTest {
 
@@ -44,4 +48,51 @@ class BuffersTest {
         assert data.length == 9;
         assert !buffers.hasRemaining();
     }
-}
\ No newline at end of file
+
+    @Test
+    void getAcrossBuffers() {
+        G.I.converter(new Converter(StandardCharsets.UTF_8));
+
+        byte[] name = G.I.toBytes("column");
+        ByteBuffer data = ByteBuffer.allocate(64);
+        data.putLong(-2L);
+        data.putInt(name.length).put(name);
+        data.putInt(name.length).put(name);
+        data.putInt(3).put(new byte[] {1, 2, 3});
+        data.flip();
+
+        // 每 5 个 byte 切分一次，让数据跨越多个 buffer
+        int count = (data.limit() + 4) / 5;
+        ByteBuffer[] rawBuffers = new ByteBuffer[count];
+        for(int i = 0; i < count; i ++) {
+            int begin = i * 5;
+            rawBuffers[i] = data.slice(begin, Math.min(5, data.limit() - begin));
+        }
+
+        Buffers split = new Buffers(rawBuffers);
+        assert split.getLong() == -2L;
+
+        String first = split.nextStringPart();
+        String second = split.nextStringPart();
+        assert first.equals("column");
+        assert second.equals("column");
+
+        assert Arrays.equals(split.nextPartBytes(), new byte[] {1, 2, 3});
+        assert !split.hasRemaining();
+    }
+
+    @Test
+    void stringPool() {
+        G.I.converter(new Converter(StandardCharsets.UTF_8));
+
+        StringPool pool = new StringPool(16);
+        ByteBuffer buffer = ByteBuffer.wrap(G.I.toBytes("xxcolumn"));
+
+        String first = pool.get(buffer, 2, 6);
+        String second = pool.get(G.I.toBytes("column"));
+
+        assert first.equals("column");
+        assert first == second;
+        assert buffer.position() == 0;
+    }
+}
@@ -10,7 +10,12 @@ import org.junit.jupiter.api.Test;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class LogGroupTest {
     private static final String BASE_DIR = System.getProperty("user.dir") + "/data/log_group_test";
@@ -68,5 +73,182 @@ class LogGroupTest {
             assert entry.index().deleteFlag() == Flags.DELETED;
             assert Arrays.equals(entry.data(), Bytes.EMPTY);
         }
+
+        // 存活的 entry 回收后 global index 不变
+        for(int i = 350; i <= 450; i ++) {
+            LogEntry entry = logGroup.findEntry(i);
+            assert Arrays.equals(entry.data(), G.I.toBytes(COMMAND + i));
+        }
+
+        assert logGroup.garbageRegion(0.5d) == -1;
+    }
+
+    @Test
+    void findData() {
+        for(int i = 1; i <= 1050; i ++) {
+            logGroup.appendEntry((COMMAND + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        logGroup.deleteOldThan(450);
+        assert logGroup.minGlobalIdx() == 401;
+
+        assert logGroup.findData(400) == null;
+        assert logGroup.findData(1051) == null;
+
+        for(int i = 401; i <= 1050; i ++) {
+            assert Arrays.equals(logGroup.findData(i), G.I.toBytes(COMMAND + i));
+            assert Arrays.equals(logGroup.findEntry(i).data(), G.I.toBytes(COMMAND + i));
+        }
+
+        assert logGroup.range(1, 1100).size() == 650;
+    }
+
+    @Test
+    void regionOf() {
+        for(int i = 1; i <= 450; i ++) {
+            logGroup.appendEntry((COMMAND + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        // 重新打开后按 region 的 global index 定位
+        LogGroupOptions options = new LogGroupOptions();
+        options.regionCapacity(CAPACITY);
+        logGroup = new LogGroup(BASE_DIR, options);
+
+        for(int i = 451; i <= 700; i ++) {
+            logGroup.appendEntry((COMMAND + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        assert logGroup.findEntry(0) == null;
+        assert logGroup.findEntry(701) == null;
+
+        for(int i = 1; i <= 700; i ++) {
+            LogEntry entry = logGroup.findEntry(i);
+            assert Arrays.equals(entry.data(), G.I.toBytes(COMMAND + i));
+        }
+
+        logGroup.deleteOldThan(401);
+        assert logGroup.minGlobalIdx() == 401;
+        assert logGroup.findEntry(400) == null;
+
+        // region 的边界
+        for(int i : new int[] {401, 600, 601, 700}) {
+            assert Arrays.equals(logGroup.findData(i), G.I.toBytes(COMMAND + i));
+        }
+    }
+
+    @Test
+    void concurrentRead() throws InterruptedException {
+        int count = 2000;
+        AtomicBoolean finished = new AtomicBoolean(false);
+        AtomicInteger wrong = new AtomicInteger();
+
+        Thread[] readers = new Thread[4];
+        for(int i = 0; i < readers.length; i ++) {
+            readers[i] = new Thread(() -> {
+                while(!finished.get()) {
+                    long max = logGroup.maxGlobalIdx();
+                    if(max < 1) {
+                        continue;
+                    }
+
+                    long idx = ThreadLocalRandom.current().nextLong(1, max + 1);
+                    if(!Arrays.equals(logGroup.findData(idx), G.I.toBytes(COMMAND + idx))) {
+                        wrong.incrementAndGet();
+                    }
+                }
+            });
+            readers[i].start();
+        }
+
+        for(int i = 1; i <= count; i ++) {
+            logGroup.appendEntry((COMMAND + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        finished.set(true);
+        for(Thread reader : readers) {
+            reader.join();
+        }
+
+        assert wrong.get() == 0;
+        assert logGroup.maxGlobalIdx() == count;
+    }
+
+    @Test
+    void iterator() {
+        for(int i = 1; i <= 450; i ++) {
+            logGroup.appendEntry((COMMAND + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        logGroup.deleteOldThan(250);
+
+        Iterator<LogEntry> iterator = logGroup.iterator();
+        long idx = logGroup.minGlobalIdx();
+        while(iterator.hasNext()) {
+            LogEntry entry = iterator.next();
+            assert Arrays.equals(entry.data(), G.I.toBytes(COMMAND + idx));
+            idx ++;
+        }
+
+        assert idx == 451;
+
+        try {
+            iterator.next();
+            assert false;
+        } catch (NoSuchElementException ignored) {
+        }
+    }
+
+    @Test
+    void concurrentCollect() throws InterruptedException {
+        int count = 1000;
+        for(int i = 1; i <= count; i ++) {
+            logGroup.appendEntry((COMMAND + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        // 偶数 entry 被删除，奇数 entry 回收时仍然可以读到
+        for(int i = 2; i <= count; i += 2) {
+            logGroup.removeEntry(i);
+        }
+
+        AtomicBoolean finished = new AtomicBoolean(false);
+        AtomicInteger wrong = new AtomicInteger();
+
+        Thread[] readers = new Thread[4];
+        for(int i = 0; i < readers.length; i ++) {
+            readers[i] = new Thread(() -> {
+                while(!finished.get()) {
+                    long idx = ThreadLocalRandom.current().nextLong(0, count / 2) * 2 + 1;
+                    if(!Arrays.equals(logGroup.findData(idx), G.I.toBytes(COMMAND + idx))) {
+                        wrong.incrementAndGet();
+                    }
+                }
+            });
+            readers[i].start();
+        }
+
+        int regionId;
+        while((regionId = logGroup.garbageRegion(0.3d)) >= 0) {
+            assert logGroup.collectRegion(regionId, bytes -> {}) > 0;
+        }
+
+        finished.set(true);
+        for(Thread reader : readers) {
+            reader.join();
+        }
+
+        assert wrong.get() == 0;
+
+        Iterator<LogEntry> iterator = logGroup.iterator();
+        for(int i = 1; i <= count; i ++) {
+            LogEntry entry = iterator.next();
+            if(i % 2 == 0) {
+                assert entry.index().deleteFlag() == Flags.DELETED;
+                assert Arrays.equals(entry.data(), Bytes.EMPTY);
+            } else {
+                assert Arrays.equals(entry.data(), G.I.toBytes(COMMAND + i));
+            }
+        }
+
+        assert !iterator.hasNext();
     }
-}
\ No newline at end of file
+}
@@ -2,14 +2,25 @@ package com.bailizhang.lynxdb.core.log;
 
 import com.bailizhang.lynxdb.core.common.Converter;
 import com.bailizhang.lynxdb.core.common.G;
+import com.bailizhang.lynxdb.core.utils.BufferUtils;
 import com.bailizhang.lynxdb.core.utils.FileUtils;
 import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.INT_LENGTH;
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.LONG_LENGTH;
 
 class LogRegionTest {
     private static final String BASE_DIR = System.getProperty("user.dir") + "/data/log_region_test";
@@ -18,12 +29,13 @@ class LogRegionTest {
     private static final int REPEAT_TIMES = 1;
     private static final String COMMAND = "command";
 
+    private LogGroupOptions options;
     private LogRegion logRegion;
 
     @BeforeEach
     void setUp() {
         G.I.converter(new Converter(StandardCharsets.UTF_8));
-        LogGroupOptions options = new LogGroupOptions();
+        options = new LogGroupOptions();
         options.regionCapacity(LOG_ENTRY_COUNT);
         options.regionBlockSize(1000);
 
@@ -44,12 +56,96 @@ class LogRegionTest {
             logRegion.appendEntry(G.I.toBytes(temp));
         }
 
-        int globalIndexBegin = logRegion.globalIdxBegin();
+        long globalIndexBegin = logRegion.globalIdxBegin();
 
-        for(int i = globalIndexBegin; i < LOG_ENTRY_COUNT + globalIndexBegin; i ++) {
+        for(long i = globalIndexBegin; i < LOG_ENTRY_COUNT + globalIndexBegin; i ++) {
             LogEntry entry = logRegion.readEntry(i);
             String temp = COMMAND.repeat(REPEAT_TIMES) + (i - globalIndexBegin);
             assert Arrays.equals(entry.data(), G.I.toBytes(temp));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void migrate() throws IOException {
+        for(int i = 0; i < LOG_ENTRY_COUNT; i ++) {
+            logRegion.appendEntry(G.I.toBytes(COMMAND + i));
+        }
+        logRegion.force();
+
+        // 把当前版本的文件改写成版本 1 的格式：meta 中没有版本号，global index 是 int
+        int metaLength = INT_LENGTH * 4 + LONG_LENGTH * 3;
+        int legacyMetaLength = INT_LENGTH * 5 + LONG_LENGTH;
+
+        byte[] bytes = Files.readAllBytes(logRegion.path());
+        ByteBuffer legacy = ByteBuffer.allocate(bytes.length - metaLength + legacyMetaLength);
+        legacy.putInt(1002);
+        legacy.putInt(logRegion.deletedLength());
+        legacy.putInt(logRegion.totalLength());
+        legacy.putInt((int) logRegion.globalIdxBegin());
+        legacy.putInt((int) logRegion.globalIdxEnd());
+
+        CRC32C crc32C = new CRC32C();
+        crc32C.update(legacy.array(), 0, legacy.position());
+        legacy.putLong(crc32C.getValue());
+        legacy.put(bytes, metaLength, bytes.length - metaLength);
+
+        Files.write(logRegion.path(), legacy.array());
+
+        LogRegion migrated = new LogRegion(1, BASE_DIR, options);
+        assert migrated.version() == LogRegion.FORMAT_VERSION;
+        assert migrated.globalIdxEnd() - migrated.globalIdxBegin() + 1 == LOG_ENTRY_COUNT;
+
+        for(int i = 0; i < LOG_ENTRY_COUNT; i ++) {
+            byte[] data = migrated.readEntryData(migrated.globalIdxBegin() + i);
+            assert Arrays.equals(data, G.I.toBytes(COMMAND + i));
+        }
+    }
+
+    @Test
+    void readSlice() {
+        options.checksumPolicy(ChecksumPolicy.FIRST_READ);
+        LogRegion region = new LogRegion(2, BASE_DIR, options);
+
+        for(int i = 0; i < LOG_ENTRY_COUNT; i ++) {
+            region.appendEntry(G.I.toBytes(COMMAND + i));
+        }
+
+        // 两次读取分别走校验和跳过校验的路径
+        for(int times = 0; times < 2; times ++) {
+            for(int i = 0; i < LOG_ENTRY_COUNT; i ++) {
+                ByteBuffer slice = region.readSlice(region.globalIdxBegin() + i);
+                assert slice.isReadOnly();
+                assert Arrays.equals(BufferUtils.getRemaining(slice), G.I.toBytes(COMMAND + i));
+            }
+        }
+
+        assert region.readSlice(region.globalIdxEnd() + 1) == null;
+    }
+
+    @Test
+    void firstReadSkipsVerified() throws IOException {
+        options.checksumPolicy(ChecksumPolicy.FIRST_READ);
+        LogRegion region = new LogRegion(3, BASE_DIR, options);
+
+        for(int i = 0; i < 2; i ++) {
+            region.appendEntry(G.I.toBytes(COMMAND + i));
+        }
+
+        long first = region.globalIdxBegin();
+        assert Arrays.equals(BufferUtils.getRemaining(region.readSlice(first)), G.I.toBytes(COMMAND + 0));
+
+        // 改坏两条 entry 的索引 CRC，文件和映射共享同一份数据
+        int metaLength = INT_LENGTH * 4 + LONG_LENGTH * 3;
+        int crcOffset = LogIndex.ENTRY_LENGTH - LONG_LENGTH;
+        try(FileChannel channel = FileChannel.open(region.path(), StandardOpenOption.WRITE)) {
+            for(int i = 0; i < 2; i ++) {
+                long position = metaLength + (long) i * LogIndex.ENTRY_LENGTH + crcOffset;
+                channel.write(ByteBuffer.wrap(new byte[LONG_LENGTH]), position);
+            }
+        }
+
+        // 已经校验过的 entry 不再计算 CRC，没有校验过的 entry 发现索引错误
+        assert Arrays.equals(BufferUtils.getRemaining(region.readSlice(first)), G.I.toBytes(COMMAND + 0));
+        Assertions.assertThrows(RuntimeException.class, () -> region.readSlice(first + 1));
+    }
+}
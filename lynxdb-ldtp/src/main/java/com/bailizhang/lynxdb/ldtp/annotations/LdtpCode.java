@@ -24,4 +24,5 @@ public @interface LdtpCode {
     byte BYTE_ARRAY     = (byte) 0x05;
     byte MULTI_COLUMNS  = (byte) 0x06;
     byte MULTI_KEYS     = (byte) 0x07;
+    byte ERROR          = (byte) 0x08;
 }
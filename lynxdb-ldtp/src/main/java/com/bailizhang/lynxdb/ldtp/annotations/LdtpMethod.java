@@ -33,6 +33,7 @@ public @interface LdtpMethod {
     byte RANGE_NEXT                     = (byte) 0x07;
     byte RANGE_BEFORE                   = (byte) 0x08;
     byte EXIST_KEY                      = (byte) 0x09;
+    byte WRITE_BATCH                    = (byte) 0x0a;
 
     byte value();
 }
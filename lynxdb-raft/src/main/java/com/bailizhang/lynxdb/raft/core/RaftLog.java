@@ -21,7 +21,8 @@ public class RaftLog {
     }
 
     public int maxIndex() {
-        return logGroup.maxGlobalIdx();
+        // raft 协议中的 index 还是 int
+        return Math.toIntExact(logGroup.maxGlobalIdx());
     }
 
     public int maxTerm() {
@@ -29,6 +30,6 @@ public class RaftLog {
     }
 
     public int append(int term, byte[] data) {
-        return logGroup.appendEntry(data);
+        return Math.toIntExact(logGroup.appendEntry(data));
     }
 }
@@ -33,6 +33,14 @@ public class RaftServerHandler implements SocketServerHandler {
         raftRpcHandler = handler;
     }
 
+    /**
+     * 所有响应都不带 sequence，完成后直接写出
+     */
+    @Override
+    public boolean pipelined() {
+        return false;
+    }
+
     @Override
     public void handleRequest(SegmentSocketRequest request) {
         SelectionKey selectionKey = request.selectionKey();
@@ -57,6 +57,8 @@ public class Configuration {
         String SEPARATOR                = "=";
 
         String TRUE                     = "true";
+
+        String QUERY_THREADS            = String.valueOf(Runtime.getRuntime().availableProcessors());
     }
 
     // 反射修改 final 字段后读取时还是初始值，因为 final 字段被内联优化了
@@ -72,6 +74,8 @@ public class Configuration {
     private String runningMode;
     private String initClusterMembers;
     private String enableFlightRecorder;
+    // 并行执行查询的线程数
+    private String queryThreads;
 
     // TODO
     private final Charset charset   = StandardCharsets.UTF_8;
@@ -178,6 +182,14 @@ public class Configuration {
         return Default.TRUE.equals(enableFlightRecorder);
     }
 
+    public int queryThreads() {
+        int threads = Integer.parseInt(queryThreads);
+        if(threads <= 0) {
+            throw new RuntimeException("Query threads must be positive.");
+        }
+        return threads;
+    }
+
     @Override
     public String toString() {
         Field[] fields = this.getClass().getDeclaredFields();
@@ -217,5 +229,6 @@ public class Configuration {
         raftMetaDir = Default.RAFT_META_DIR;
 
         runningMode = Default.SINGLE;
+        queryThreads = Default.QUERY_THREADS;
     }
 }
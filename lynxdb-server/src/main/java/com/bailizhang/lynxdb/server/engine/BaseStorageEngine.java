@@ -17,7 +17,7 @@
 package com.bailizhang.lynxdb.server.engine;
 
 import com.bailizhang.lynxdb.core.recorder.FlightDataRecorder;
-import com.bailizhang.lynxdb.ldtp.annotations.LdtpMethod;
+import com.bailizhang.lynxdb.core.recorder.ICallable;
 import com.bailizhang.lynxdb.server.context.Configuration;
 import com.bailizhang.lynxdb.server.engine.params.QueryParams;
 import com.bailizhang.lynxdb.server.engine.result.QueryResult;
@@ -27,63 +27,47 @@ import com.bailizhang.lynxdb.table.Table;
 import com.bailizhang.lynxdb.table.config.LsmTreeOptions;
 import com.bailizhang.lynxdb.table.config.TableOptions;
 
-import java.lang.reflect.Method;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.concurrent.Callable;
-
-
+/**
+ * dataTable 可以被多个线程同时读写，doQuery 不加锁，由 LdtpEngineExecutor 的工作线程并行调用
+ */
 public class BaseStorageEngine {
-    private static final int DEFAULT_MEM_TABLE_SIZE = 4000;
+    private static final long DEFAULT_MEM_TABLE_BYTES = 8L * 1024 * 1024;
 
     protected final Table dataTable;
-    protected final HashMap<Byte, Method> methodMap = new HashMap<>();
 
-    /* TODO: Cache 以后再实现 */
+    private final QueryHandlers handlers;
 
     public BaseStorageEngine(Class<? extends BaseStorageEngine> clazz) {
         Configuration config = Configuration.getInstance();
         String dataDir = config.dataDir();
 
-        LsmTreeOptions lsmTreeOptions = new LsmTreeOptions(DEFAULT_MEM_TABLE_SIZE);
+        LsmTreeOptions lsmTreeOptions = new LsmTreeOptions();
+        lsmTreeOptions.memTableBytes(DEFAULT_MEM_TABLE_BYTES);
         dataTable = new LynxDbTable(new TableOptions(dataDir, lsmTreeOptions));
 
-        initMethod(clazz);
+        handlers = new QueryHandlers(this, clazz);
     }
 
-    public synchronized QueryResult doQuery(QueryParams params) {
-        Method doQueryMethod = methodMap.get(params.method());
-        if(doQueryMethod == null) {
+    public QueryResult doQuery(QueryParams params) {
+        QueryHandler handler = handlers.get(params.method());
+        if(handler == null) {
             throw new RuntimeException("Not supported ldtp method.");
         }
 
         FlightDataRecorder recorder = FlightDataRecorder.recorder();
         recorder.count(MeasureOptions.ENGINE_QUERY_COUNT);
 
-        try {
-            if(recorder.isEnable()) {
-                return (QueryResult) recorder.record(
-                        (Callable<Object>) () -> doQueryMethod.invoke(this, params),
-                        MeasureOptions.ENGINE_DO_QUERY_TIME
-                );
-            } else {
-                return (QueryResult) doQueryMethod.invoke(this, params);
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        if(recorder.isEnable()) {
+            return recorder.record(
+                    (ICallable<QueryResult>) () -> handler.handle(params),
+                    MeasureOptions.ENGINE_DO_QUERY_TIME
+            );
         }
-    }
-
-    private void initMethod(Class<? extends BaseStorageEngine> clazz) {
-        Method[] methods = clazz.getDeclaredMethods();
-        Arrays.stream(methods).forEach(method -> {
-            LdtpMethod ldtpMethod = method.getAnnotation(LdtpMethod.class);
 
-            if(ldtpMethod == null) {
-                return;
-            }
+        return handler.handle(params);
+    }
 
-            methodMap.put(ldtpMethod.value(), method);
-        });
+    public void close() {
+        dataTable.close();
     }
 }
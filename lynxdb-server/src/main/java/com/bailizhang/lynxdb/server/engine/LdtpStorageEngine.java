@@ -16,8 +16,9 @@
 
 package com.bailizhang.lynxdb.server.engine;
 
+import com.bailizhang.lynxdb.core.buffers.BufferWriter;
 import com.bailizhang.lynxdb.core.buffers.Buffers;
-import com.bailizhang.lynxdb.core.common.DataBlocks;
+import com.bailizhang.lynxdb.core.common.Flags;
 import com.bailizhang.lynxdb.core.common.G;
 import com.bailizhang.lynxdb.core.common.Pair;
 import com.bailizhang.lynxdb.core.common.Tuple;
@@ -25,6 +26,7 @@ import com.bailizhang.lynxdb.ldtp.annotations.LdtpCode;
 import com.bailizhang.lynxdb.ldtp.annotations.LdtpMethod;
 import com.bailizhang.lynxdb.server.engine.params.QueryParams;
 import com.bailizhang.lynxdb.server.engine.result.QueryResult;
+import com.bailizhang.lynxdb.table.WriteBatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,6 +34,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.BYTE_LENGTH;
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.INT_LENGTH;
 import static com.bailizhang.lynxdb.ldtp.annotations.LdtpCode.*;
 import static com.bailizhang.lynxdb.ldtp.annotations.LdtpMethod.*;
 
@@ -56,16 +60,17 @@ public class LdtpStorageEngine extends BaseStorageEngine {
         logger.debug("Find by key: {}, columnFamily: {}, column: {}, value is: {}.",
                 G.I.toString(key), columnFamily, column, G.I.toString(value));
 
-        DataBlocks dataBlocks = new DataBlocks(false);
+        int length = BYTE_LENGTH + (value == null ? 0 : value.length);
+        BufferWriter writer = new BufferWriter(false, length);
 
         if(value == null) {
-            dataBlocks.appendRawByte(LdtpCode.NULL);
+            writer.appendRawByte(LdtpCode.NULL);
         } else {
-            dataBlocks.appendRawByte(LdtpCode.BYTE_ARRAY);
-            dataBlocks.appendRawBytes(value);
+            writer.appendRawByte(LdtpCode.BYTE_ARRAY);
+            writer.appendRawBytes(value);
         }
 
-        return new QueryResult(dataBlocks);
+        return new QueryResult(writer);
     }
 
     @LdtpMethod(FIND_MULTI_COLUMNS)
@@ -93,11 +98,12 @@ public class LdtpStorageEngine extends BaseStorageEngine {
 
         logger.debug("Find by key: {}, columnFamily: {}.", G.I.toString(key), columnFamily);
 
-        DataBlocks dataBlocks = new DataBlocks(false);
-        dataBlocks.appendRawByte(MULTI_COLUMNS);
-        appendMultiColumns(dataBlocks, multiColumns);
+        int length = BYTE_LENGTH + multiColumnsLength(multiColumns);
+        BufferWriter writer = new BufferWriter(false, length);
+        writer.appendRawByte(MULTI_COLUMNS);
+        appendMultiColumns(writer, multiColumns);
 
-        return new QueryResult(dataBlocks);
+        return new QueryResult(writer);
     }
 
     @LdtpMethod(INSERT)
@@ -128,10 +134,10 @@ public class LdtpStorageEngine extends BaseStorageEngine {
 
         dataTable.insert(columnFamily, column, kvPairs);
 
-        DataBlocks dataBlocks = new DataBlocks(false);
-        dataBlocks.appendRawByte(VOID);
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(VOID);
 
-        return new QueryResult(dataBlocks);
+        return new QueryResult(writer);
     }
 
     @LdtpMethod(INSERT_MULTI_COLUMNS)
@@ -156,10 +162,10 @@ public class LdtpStorageEngine extends BaseStorageEngine {
 
         dataTable.insert(key, columnFamily, multiColumns, timeout);
 
-        DataBlocks dataBlocks = new DataBlocks(false);
-        dataBlocks.appendRawByte(VOID);
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(VOID);
 
-        return new QueryResult(dataBlocks);
+        return new QueryResult(writer);
     }
 
     @LdtpMethod(INSERT_IF_NOT_EXISTED)
@@ -184,10 +190,10 @@ public class LdtpStorageEngine extends BaseStorageEngine {
 
         boolean success = dataTable.insertIfNotExisted(key, columnFamily, multiColumns, timeout);
 
-        DataBlocks dataBlocks = new DataBlocks(false);
-        dataBlocks.appendRawByte(success ? TRUE : FALSE);
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(success ? TRUE : FALSE);
 
-        return new QueryResult(dataBlocks);
+        return new QueryResult(writer);
     }
 
     @LdtpMethod(DELETE)
@@ -212,10 +218,41 @@ public class LdtpStorageEngine extends BaseStorageEngine {
 
         dataTable.deleteMultiColumns(key, columnFamily, deleteColumns);
 
-        DataBlocks dataBlocks = new DataBlocks(false);
-        dataBlocks.appendRawByte(VOID);
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(VOID);
 
-        return new QueryResult(dataBlocks);
+        return new QueryResult(writer);
+    }
+
+    @LdtpMethod(WRITE_BATCH)
+    public QueryResult doWriteBatch(QueryParams params) {
+        Buffers content = params.content();
+
+        WriteBatch batch = new WriteBatch();
+
+        while(content.hasRemaining()) {
+            byte flag = content.get();
+            String columnFamily = content.nextStringPart();
+            String column = content.nextStringPart();
+            byte[] key = content.nextPartBytes();
+            byte[] value = content.nextPartBytes();
+            long timeout = content.getLong();
+
+            if(flag == Flags.DELETED) {
+                batch.delete(key, columnFamily, column);
+            } else {
+                batch.insert(key, columnFamily, column, value, timeout);
+            }
+        }
+
+        logger.debug("Write batch, operations: {}.", batch.size());
+
+        dataTable.write(batch);
+
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(VOID);
+
+        return new QueryResult(writer);
     }
 
     @LdtpMethod(RANGE_NEXT)
@@ -238,34 +275,47 @@ public class LdtpStorageEngine extends BaseStorageEngine {
 
         boolean existed = dataTable.existKey(key, columnFamily, mainColumn);
 
-        DataBlocks dataBlocks = new DataBlocks(false);
-        dataBlocks.appendRawByte(existed ? TRUE : FALSE);
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(existed ? TRUE : FALSE);
 
-        return new QueryResult(dataBlocks);
+        return new QueryResult(writer);
     }
 
     /**
-     * Append multiColumns to bytesList
+     * Append multiColumns to writer
      *
-     * @param dataBlocks bytesList
+     * @param writer writer
      * @param multiColumns multiColumns
      */
     private void appendMultiColumns(
-            DataBlocks dataBlocks,
+            BufferWriter writer,
             HashMap<String, byte[]> multiColumns
     ) {
         multiColumns.forEach((column, value) -> {
-            dataBlocks.appendVarStr(column);
+            writer.appendVarStr(column);
 
             if(value == null) {
-                dataBlocks.appendRawByte(NULL);
+                writer.appendRawByte(NULL);
             } else {
-                dataBlocks.appendRawByte(BYTE_ARRAY);
-                dataBlocks.appendVarBytes(value);
+                writer.appendRawByte(BYTE_ARRAY);
+                writer.appendVarBytes(value);
             }
         });
     }
 
+    /**
+     * 预估 appendMultiColumns 写入的长度，column 按单字节字符计算
+     */
+    private int multiColumnsLength(HashMap<String, byte[]> multiColumns) {
+        int length = 0;
+        for(var entry : multiColumns.entrySet()) {
+            byte[] value = entry.getValue();
+            length += INT_LENGTH + entry.getKey().length() + BYTE_LENGTH;
+            length += value == null ? 0 : INT_LENGTH + value.length;
+        }
+        return length;
+    }
+
     private QueryResult range(QueryParams params, RangeOperator operator) {
         Buffers content = params.content();
 
@@ -295,20 +345,26 @@ public class LdtpStorageEngine extends BaseStorageEngine {
                 findColumns
         );
 
-        DataBlocks dataBlocks = new DataBlocks(false);
-        dataBlocks.appendRawByte(MULTI_KEYS);
+        // 先计算响应的长度，写入时不需要扩容
+        int length = BYTE_LENGTH;
+        for(var pair : multiKeys) {
+            length += INT_LENGTH * 2 + pair.left().length + multiColumnsLength(pair.right());
+        }
+
+        BufferWriter writer = new BufferWriter(false, length);
+        writer.appendRawByte(MULTI_KEYS);
 
         for(var pair : multiKeys) {
             byte[] key = pair.left();
             var multiColumns = pair.right();
             int size = multiColumns.size();
 
-            dataBlocks.appendVarBytes(key);
-            dataBlocks.appendRawInt(size);
-            appendMultiColumns(dataBlocks, multiColumns);
+            writer.appendVarBytes(key);
+            writer.appendRawInt(size);
+            appendMultiColumns(writer, multiColumns);
         }
 
-        return new QueryResult(dataBlocks);
+        return new QueryResult(writer);
     }
 
     @FunctionalInterface
@@ -1,5 +1,5 @@
 /*
- * Copyright 2023 Baili Zhang.
+ * Copyright 2024 Baili Zhang.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -14,13 +14,15 @@
  * limitations under the License.
  */
 
-package com.bailizhang.lynxdb.table.lsmtree.sstable;
+package com.bailizhang.lynxdb.server.engine;
 
-import java.nio.ByteBuffer;
+import com.bailizhang.lynxdb.server.engine.params.QueryParams;
+import com.bailizhang.lynxdb.server.engine.result.QueryResult;
 
-public record SecondIndexRegion(
-        int firstIndexEntryIdx,
-        ByteBuffer buffer,
-        int keyAmount
-) {
+/**
+ * 绑定了 engine 实例的 @LdtpMethod 方法，启动时由 LambdaMetafactory 生成
+ */
+@FunctionalInterface
+public interface QueryHandler {
+    QueryResult handle(QueryParams params);
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.server.engine;
+
+import com.bailizhang.lynxdb.ldtp.annotations.LdtpMethod;
+import com.bailizhang.lynxdb.server.engine.params.QueryParams;
+import com.bailizhang.lynxdb.server.engine.result.QueryResult;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * 按 method byte 的无符号值索引的 QueryHandler 表，启动时绑定 engine 上所有的 @LdtpMethod 方法
+ */
+class QueryHandlers {
+    private static final int HANDLERS_SIZE = 256;
+    private static final String HANDLE_METHOD_NAME = "handle";
+    private static final MethodType HANDLE_METHOD_TYPE
+            = MethodType.methodType(QueryResult.class, QueryParams.class);
+
+    /**
+     * 不支持的 method 为 null
+     */
+    private final QueryHandler[] handlers = new QueryHandler[HANDLERS_SIZE];
+
+    QueryHandlers(Object engine, Class<?> clazz) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        for(Method method : clazz.getDeclaredMethods()) {
+            LdtpMethod ldtpMethod = method.getAnnotation(LdtpMethod.class);
+
+            if(ldtpMethod == null) {
+                continue;
+            }
+
+            int idx = Byte.toUnsignedInt(ldtpMethod.value());
+            if(handlers[idx] != null) {
+                throw new RuntimeException("Duplicate ldtp method: " + ldtpMethod.value());
+            }
+
+            handlers[idx] = bindHandler(lookup, engine, method);
+        }
+    }
+
+    /**
+     * @param method method byte
+     * @return handler, null if not supported
+     */
+    QueryHandler get(byte method) {
+        return handlers[Byte.toUnsignedInt(method)];
+    }
+
+    /**
+     * 生成直接调用 method 的 QueryHandler，避免每次请求都通过反射调用
+     */
+    private static QueryHandler bindHandler(MethodHandles.Lookup lookup, Object engine, Method method) {
+        try {
+            MethodHandle target = lookup.unreflect(method);
+            if(!target.type().dropParameterTypes(0, 1).equals(HANDLE_METHOD_TYPE)) {
+                throw new RuntimeException("Ldtp method must be QueryResult (QueryParams): " + method.getName());
+            }
+
+            CallSite callSite = LambdaMetafactory.metafactory(
+                    lookup,
+                    HANDLE_METHOD_NAME,
+                    MethodType.methodType(QueryHandler.class, method.getDeclaringClass()),
+                    HANDLE_METHOD_TYPE,
+                    target,
+                    HANDLE_METHOD_TYPE
+            );
+
+            return (QueryHandler) callSite.getTarget().invoke(engine);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -16,7 +16,7 @@
 
 package com.bailizhang.lynxdb.server.engine.result;
 
-import com.bailizhang.lynxdb.core.common.DataBlocks;
+import com.bailizhang.lynxdb.core.buffers.BufferWriter;
 
-public record QueryResult (DataBlocks data) {
+public record QueryResult (BufferWriter data) {
 }
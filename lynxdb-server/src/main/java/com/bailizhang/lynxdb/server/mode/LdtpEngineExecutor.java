@@ -17,11 +17,13 @@
 package com.bailizhang.lynxdb.server.mode;
 
 import com.bailizhang.lynxdb.core.arena.Segment;
+import com.bailizhang.lynxdb.core.buffers.BufferWriter;
 import com.bailizhang.lynxdb.core.buffers.Buffers;
-import com.bailizhang.lynxdb.core.common.DataBlocks;
 import com.bailizhang.lynxdb.core.executor.Executor;
 import com.bailizhang.lynxdb.core.recorder.FlightDataRecorder;
 import com.bailizhang.lynxdb.core.utils.ArrayUtils;
+import com.bailizhang.lynxdb.ldtp.annotations.LdtpCode;
+import com.bailizhang.lynxdb.server.context.Configuration;
 import com.bailizhang.lynxdb.server.engine.LdtpStorageEngine;
 import com.bailizhang.lynxdb.server.engine.params.QueryParams;
 import com.bailizhang.lynxdb.server.engine.result.QueryResult;
@@ -31,34 +33,62 @@ import com.bailizhang.lynxdb.socket.server.SocketServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.channels.SelectionKey;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import static com.bailizhang.lynxdb.ldtp.request.RequestType.FLIGHT_RECORDER;
 import static com.bailizhang.lynxdb.ldtp.request.RequestType.LDTP_METHOD;
 
+/**
+ * 解析请求类型后交给 worker 线程池执行，多个查询可以并行执行。
+ * 同一个连接的多个请求也会并行执行，由 SocketContext 按请求到达的顺序返回响应
+ */
 public class LdtpEngineExecutor extends Executor<SegmentSocketRequest> {
     private static final Logger logger = LoggerFactory.getLogger(LdtpEngineExecutor.class);
 
-    private static final String TASKS_THREAD_NAME = "tasks-thread";
+    private static final String WORKER_THREAD_NAME_PREFIX = "query-worker-";
+    private static final int KEEP_ALIVE_SECONDS = 60;
 
     private final SocketServer server;
     private final LdtpStorageEngine engine;
 
-    private final ConcurrentLinkedQueue<Runnable> tasksQueue;
-    private final Thread tasksThread;
+    private final ThreadPoolExecutor workers;
 
     public LdtpEngineExecutor(SocketServer socketServer) {
         server = socketServer;
         engine = new LdtpStorageEngine();
-        tasksQueue = new ConcurrentLinkedQueue<>();
-        tasksThread = new Thread(this::runTask, TASKS_THREAD_NAME);
+
+        int threads = Configuration.getInstance().queryThreads();
+        workers = new ThreadPoolExecutor(
+                threads,
+                threads,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new WorkerThreadFactory()
+        );
     }
 
+    /**
+     * 等待已经提交的查询执行完，再正常关闭存储引擎
+     */
     @Override
-    protected void doBeforeExecute() {
-        tasksThread.start();
+    protected void doAfterShutdown() {
+        workers.shutdown();
+
+        try {
+            while(!workers.awaitTermination(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("Waiting for query workers to terminate.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        engine.close();
     }
 
     @Override
@@ -69,49 +99,64 @@ public class LdtpEngineExecutor extends Executor<SegmentSocketRequest> {
             return;
         }
 
-        SelectionKey selectionKey = request.selectionKey();
-        int serial = request.serial();
+        submit(request);
+    }
+
+    /**
+     * 直接提交给 worker 线程池，不经过当前 executor 的队列，可以在 IO 线程中调用。
+     * 请求执行失败时返回 ERROR 响应，保证每个请求的 sequence 都有响应，后面的响应才能写出
+     *
+     * @param request request
+     */
+    public void submit(SegmentSocketRequest request) {
         Segment[] data = request.data();
-        Buffers buffers = Segment.buffers(request.data());
 
         assert !ArrayUtils.isEmpty(data);
 
-        byte flag = buffers.get();
+        try {
+            Buffers buffers = Segment.buffers(data);
+            byte flag = buffers.get();
 
-        switch (flag) {
-            case LDTP_METHOD -> {
-                tasksQueue.offer(() -> {
-                    handleLdtpMethod(selectionKey, serial, buffers);
-                    Segment.deallocAll(data);
-                });
-                LockSupport.unpark(tasksThread);
-            }
+            Function<Buffers, BufferWriter> handler = switch (flag) {
+                case LDTP_METHOD -> this::handleLdtpMethod;
+                case FLIGHT_RECORDER -> this::handleDataRecorder;
+                default -> throw new RuntimeException("Not supported request type: " + flag);
+            };
 
-            case FLIGHT_RECORDER -> {
-                tasksQueue.offer(() -> {
-                    handleDataRecorder(selectionKey, serial, buffers);
-                    Segment.deallocAll(data);
-                });
-                LockSupport.unpark(tasksThread);
-            }
+            workers.execute(() -> handle(request, buffers, handler));
+        } catch (Throwable t) {
+            logger.error("Submit client request failed.", t);
 
-            default -> throw new RuntimeException();
+            Segment.deallocAll(data);
+            server.offerInterruptibly(new WritableSocketResponse(request, errorResult(t)));
         }
     }
 
-    private void runTask() {
-        while (isNotShutdown()) {
-            Runnable task = tasksQueue.poll();
-            if(task == null) {
-                LockSupport.park();
-                continue;
-            }
-
-            task.run();
+    private void handle(
+            SegmentSocketRequest request,
+            Buffers buffers,
+            Function<Buffers, BufferWriter> handler
+    ) {
+        BufferWriter result;
+
+        try {
+            result = handler.apply(buffers);
+        } catch (Throwable t) {
+            logger.error("Handle client request failed.", t);
+            result = errorResult(t);
+        } finally {
+            Segment.deallocAll(request.data());
         }
+
+        WritableSocketResponse response = new WritableSocketResponse(request, result);
+
+        logger.info("Offer response to server executor, {}", response);
+
+        // 返回给发起请求的客户端
+        server.offerInterruptibly(response);
     }
 
-    private void handleLdtpMethod(SelectionKey selectionKey, int serial, Buffers buffers) {
+    private BufferWriter handleLdtpMethod(Buffers buffers) {
         QueryParams queryParams = QueryParams.parse(buffers);
 
         logger.info("Handle client request, params: {}", queryParams);
@@ -120,37 +165,40 @@ public class LdtpEngineExecutor extends Executor<SegmentSocketRequest> {
 
         logger.debug("Result is: {}", result);
 
-        WritableSocketResponse response = new WritableSocketResponse(
-                selectionKey,
-                serial,
-                result.data().toBuffers()
-        );
-
-        logger.info("Offer response to server executor, {}", response);
-
-        // 返回给发起请求的客户端
-        server.offerInterruptibly(response);
+        return result.data();
     }
 
-    private void handleDataRecorder(SelectionKey selectionKey, int serial, Buffers buffers) {
+    private BufferWriter handleDataRecorder(Buffers buffers) {
         assert !buffers.hasRemaining();
 
         FlightDataRecorder recorder = FlightDataRecorder.recorder();
         var data = recorder.data();
 
-        DataBlocks dataBlocks = new DataBlocks(false);
+        BufferWriter writer = new BufferWriter(false);
         data.forEach(pair -> {
-            dataBlocks.appendVarStr(pair.left().name());
-            dataBlocks.appendRawByte(pair.left().unit().value());
-            dataBlocks.appendRawLong(pair.right());
+            writer.appendVarStr(pair.left().name());
+            writer.appendRawByte(pair.left().unit().value());
+            writer.appendRawLong(pair.right());
         });
 
-        WritableSocketResponse response = new WritableSocketResponse(
-                selectionKey,
-                serial,
-                dataBlocks.toBuffers()
-        );
+        return writer;
+    }
 
-        server.offerInterruptibly(response);
+    private static BufferWriter errorResult(Throwable t) {
+        String message = t.getMessage() == null ? t.getClass().getName() : t.getMessage();
+
+        BufferWriter writer = new BufferWriter(false);
+        writer.appendRawByte(LdtpCode.ERROR);
+        writer.appendVarStr(message);
+        return writer;
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, WORKER_THREAD_NAME_PREFIX + threadNumber.getAndIncrement());
+        }
     }
 }
@@ -29,6 +29,6 @@ public class SingleHandler implements SocketServerHandler {
 
     @Override
     public void handleRequest(SegmentSocketRequest request) {
-        engineExecutor.offerInterruptibly(request);
+        engineExecutor.submit(request);
     }
 }
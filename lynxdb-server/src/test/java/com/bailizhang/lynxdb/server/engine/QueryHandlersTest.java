@@ -0,0 +1,109 @@
+/*
+ * Copyright 2023-2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.server.engine;
+
+import com.bailizhang.lynxdb.ldtp.annotations.LdtpMethod;
+import com.bailizhang.lynxdb.server.engine.params.QueryParams;
+import com.bailizhang.lynxdb.server.engine.result.QueryResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class QueryHandlersTest {
+    private static final byte HIGH_METHOD = (byte) 0xf0;
+
+    @Test
+    void testFunc01() {
+        Engine engine = new Engine();
+        QueryHandlers handlers = new QueryHandlers(engine, Engine.class);
+
+        QueryParams find = new QueryParams(LdtpMethod.FIND_BY_KEY_CF_COLUMN, null);
+        QueryParams high = new QueryParams(HIGH_METHOD, null);
+
+        handlers.get(LdtpMethod.FIND_BY_KEY_CF_COLUMN).handle(find);
+        handlers.get(HIGH_METHOD).handle(high);
+
+        // handler 绑定的是传入的 engine 实例
+        Assertions.assertEquals(List.of("find", "high"), engine.called);
+        Assertions.assertSame(find, engine.params.get(0));
+        Assertions.assertSame(high, engine.params.get(1));
+
+        Assertions.assertNull(handlers.get(LdtpMethod.DELETE));
+    }
+
+    @Test
+    void testFunc02() {
+        RuntimeException e = Assertions.assertThrows(
+                RuntimeException.class,
+                () -> new QueryHandlers(new DuplicateEngine(), DuplicateEngine.class)
+        );
+        Assertions.assertTrue(e.getMessage().startsWith("Duplicate ldtp method"));
+    }
+
+    @Test
+    void testFunc03() {
+        RuntimeException e = Assertions.assertThrows(
+                RuntimeException.class,
+                () -> new QueryHandlers(new WrongSignatureEngine(), WrongSignatureEngine.class)
+        );
+        Assertions.assertTrue(e.getMessage().startsWith("Ldtp method must be"));
+    }
+
+    public static class Engine {
+        private final List<String> called = new ArrayList<>();
+        private final List<QueryParams> params = new ArrayList<>();
+
+        @LdtpMethod(LdtpMethod.FIND_BY_KEY_CF_COLUMN)
+        public QueryResult doFind(QueryParams queryParams) {
+            called.add("find");
+            params.add(queryParams);
+            return new QueryResult(null);
+        }
+
+        @LdtpMethod(HIGH_METHOD)
+        public QueryResult doHigh(QueryParams queryParams) {
+            called.add("high");
+            params.add(queryParams);
+            return new QueryResult(null);
+        }
+
+        public QueryResult notLdtpMethod(QueryParams queryParams) {
+            throw new RuntimeException();
+        }
+    }
+
+    public static class DuplicateEngine {
+        @LdtpMethod(LdtpMethod.INSERT)
+        public QueryResult doInsert(QueryParams queryParams) {
+            return null;
+        }
+
+        @LdtpMethod(LdtpMethod.INSERT)
+        public QueryResult doInsertAgain(QueryParams queryParams) {
+            return null;
+        }
+    }
+
+    public static class WrongSignatureEngine {
+        @LdtpMethod(LdtpMethod.INSERT)
+        public void doInsert(QueryParams queryParams) {
+        }
+    }
+}
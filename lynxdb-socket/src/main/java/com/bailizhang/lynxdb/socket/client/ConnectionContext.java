@@ -20,6 +20,7 @@ import com.bailizhang.lynxdb.socket.request.ByteBufferSocketRequest;
 import com.bailizhang.lynxdb.socket.response.ReadableSocketResponse;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -29,6 +30,11 @@ public class ConnectionContext {
 
     private ReadableSocketResponse response;
 
+    /**
+     * 正在写的请求，没有写完时下一次继续写这些 buffer
+     */
+    private ByteBuffer[] writingBuffers;
+
     /* TODO: exit 流程使用，lockRequestAdd 为 true 时，禁止向队列中添加请求 */
     private volatile boolean lockRequestOffer = false;
 
@@ -53,8 +59,20 @@ public class ConnectionContext {
         return requests.peek();
     }
 
+    public ByteBuffer[] peekRequestBuffers() {
+        if(writingBuffers == null) {
+            ByteBufferSocketRequest request = requests.peek();
+            writingBuffers = request == null ? null : request.toBuffers();
+        }
+        return writingBuffers;
+    }
+
     public void pollRequest() {
-        requests.poll();
+        ByteBufferSocketRequest request = requests.poll();
+        writingBuffers = null;
+        if(request != null) {
+            request.release();
+        }
         if(requests.isEmpty()) {
             selectionKey.interestOpsAnd(SelectionKey.OP_READ);
         }
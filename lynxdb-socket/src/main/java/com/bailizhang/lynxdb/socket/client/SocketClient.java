@@ -16,6 +16,7 @@
 
 package com.bailizhang.lynxdb.socket.client;
 
+import com.bailizhang.lynxdb.core.buffers.BufferWriter;
 import com.bailizhang.lynxdb.core.common.CheckThreadSafety;
 import com.bailizhang.lynxdb.core.common.LynxDbFuture;
 import com.bailizhang.lynxdb.core.executor.Executor;
@@ -165,6 +166,17 @@ public class SocketClient extends Executor<ByteBufferSocketRequest> implements A
     }
 
     public final int send(SelectionKey selectionKey, ByteBuffer[] data) {
+        return send(selectionKey, data, null);
+    }
+
+    /**
+     * 请求写完之后归还 writer 的 buffer
+     */
+    public final int send(SelectionKey selectionKey, BufferWriter writer) {
+        return send(selectionKey, writer.toBuffers(), writer);
+    }
+
+    private int send(SelectionKey selectionKey, ByteBuffer[] data, BufferWriter writer) {
         if(!selectionKey.isValid()) {
             throw new CancelledKeyException();
         }
@@ -174,7 +186,8 @@ public class SocketClient extends Executor<ByteBufferSocketRequest> implements A
         ByteBufferSocketRequest request = new ByteBufferSocketRequest(
                 selectionKey,
                 requestSerial,
-                data
+                data,
+                writer
         );
 
         handler.handleBeforeSend(selectionKey, requestSerial);
@@ -341,8 +354,10 @@ public class SocketClient extends Executor<ByteBufferSocketRequest> implements A
 
         private void doWrite() throws Exception {
             ConnectionContext context = contexts.get(selectionKey);
-            ByteBufferSocketRequest request = context.peekRequest();
-            ByteBuffer[] writeData = request.toBuffers();
+            ByteBuffer[] writeData = context.peekRequestBuffers();
+            if(writeData == null) {
+                return;
+            }
 
             FlightDataRecorder recorder = FlightDataRecorder.recorder();
 
@@ -20,19 +20,80 @@ import com.bailizhang.lynxdb.core.arena.Arena;
 import com.bailizhang.lynxdb.core.arena.ArenaBuffer;
 import com.bailizhang.lynxdb.core.arena.exceptions.ArenaOverflowException;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 按 chunk 增长的 ArenaBuffer 分配器，所有 socket 读取的数据都从这里分配
+ * 达到最大内存后返回 null，由调用方暂停读取，等其他连接释放内存
+ */
 public class ArenaAllocator {
     public static final int ARENA_BUFFER_SIZE = 1024 * 8;
-    private static final Arena arena = new Arena(1024 * 1024 * 1024, ARENA_BUFFER_SIZE);
+
+    /** 每次增长的内存大小 */
+    private static final int CHUNK_SIZE = 1024 * 1024 * 64;
+    /** 最多 16 个 chunk，总共 1GB */
+    private static final int MAX_CHUNKS = 16;
+
+    private static final AtomicReferenceArray<Arena> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+    private static volatile int chunkCount = 0;
+
+    /**
+     * @return arena buffer, null if out of memory
+     */
     public static ArenaBuffer alloc() {
-        try {
-            return arena.alloc();
-        } catch (ArenaOverflowException ignored) {
-            // TODO 处理 Arena 溢出问题
-            throw new RuntimeException();
+        int count = chunkCount;
+
+        ArenaBuffer arenaBuffer = allocFromChunks(count);
+        if(arenaBuffer != null) {
+            return arenaBuffer;
+        }
+
+        synchronized (ArenaAllocator.class) {
+            // 其他线程可能已经增长过了
+            if(chunkCount == count && count < MAX_CHUNKS) {
+                chunks.set(count, new Arena(CHUNK_SIZE, ARENA_BUFFER_SIZE));
+                chunkCount = count + 1;
+            }
         }
+
+        return allocFromChunks(chunkCount);
     }
 
+    /**
+     * 切分出的 Segment 全部释放之后才会真正归还
+     *
+     * @param arenaBuffer arena buffer
+     */
     public static void dealloc(ArenaBuffer arenaBuffer) {
-        arena.dealloc(arenaBuffer);
+        arenaBuffer.release();
+    }
+
+    /**
+     * 包括等待 Segment 释放的 ArenaBuffer，不包括线程缓存中的 slot
+     *
+     * @return 已经分配出去的字节数
+     */
+    public static long usedBytes() {
+        long used = 0;
+        int count = chunkCount;
+        for(int i = 0; i < count; i ++) {
+            Arena arena = chunks.get(i);
+            used += (long) (arena.bufferCount() - arena.freeCount()) * ARENA_BUFFER_SIZE;
+        }
+        return used;
+    }
+
+    public static long capacityBytes() {
+        return (long) CHUNK_SIZE * MAX_CHUNKS;
+    }
+
+    private static ArenaBuffer allocFromChunks(int count) {
+        for(int i = 0; i < count; i ++) {
+            try {
+                return chunks.get(i).alloc();
+            } catch (ArenaOverflowException ignored) {
+            }
+        }
+        return null;
     }
 }
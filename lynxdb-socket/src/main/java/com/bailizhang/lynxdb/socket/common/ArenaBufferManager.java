@@ -31,30 +31,43 @@ public class ArenaBufferManager {
     private final List<ArenaBuffer> arenaBuffers = new LinkedList<>();
     private volatile int position = 0;
 
+    /**
+     * @return arena buffer, null if out of memory
+     */
     public ArenaBuffer readableArenaBuffer() {
-        if(arenaBuffers.isEmpty()) {
-            ArenaBuffer newArenaBuffer = ArenaAllocator.alloc();
-            arenaBuffers.addLast(newArenaBuffer);
-            return newArenaBuffer;
-        }
-
-        ArenaBuffer arenaBuffer = arenaBuffers.getLast();
-        if(arenaBuffer.notFull()) {
-            return arenaBuffer;
+        if(!arenaBuffers.isEmpty()) {
+            ArenaBuffer arenaBuffer = arenaBuffers.getLast();
+            if(arenaBuffer.notFull()) {
+                return arenaBuffer;
+            }
         }
 
         ArenaBuffer newArenaBuffer = ArenaAllocator.alloc();
-        arenaBuffers.addLast(newArenaBuffer);
+        if(newArenaBuffer != null) {
+            arenaBuffers.addLast(newArenaBuffer);
+        }
         return newArenaBuffer;
     }
 
+    /**
+     * @return 当前持有的 ArenaBuffer 占用的字节数
+     */
+    public long bufferedBytes() {
+        return (long) arenaBuffers.size() * ArenaAllocator.ARENA_BUFFER_SIZE;
+    }
+
+    /**
+     * 连接关闭时调用，worker 线程还在使用的 buffer 等 Segment 释放后再归还
+     */
     public void dealloc() {
         arenaBuffers.forEach(ArenaAllocator::dealloc);
+        arenaBuffers.clear();
     }
 
     public boolean notEnoughToRead(int length) {
+        // 内存不足时可能一个 buffer 都没有分配到
         if(arenaBuffers.isEmpty()) {
-            throw new RuntimeException();
+            return true;
         }
 
         int size = arenaBuffers.size();
@@ -120,7 +133,9 @@ public class ArenaBufferManager {
 
     public void clearFreeBuffers() {
         ArenaBuffer arenaBuffer;
+        // 第一个 buffer 的数据已经全部读完，并且切分出的 segment 都已经释放
         while (!arenaBuffers.isEmpty()
+                && position >= ArenaAllocator.ARENA_BUFFER_SIZE
                 && (arenaBuffer = arenaBuffers.getFirst()).isClear()) {
             ArenaAllocator.dealloc(arenaBuffer);
             arenaBuffers.removeFirst();
@@ -21,6 +21,8 @@ import com.bailizhang.lynxdb.core.common.DataBlocks;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.INT_LENGTH;
+
 public abstract class NioMessage extends NioSelectionKey {
 
     protected final DataBlocks dataBlocks;
@@ -38,4 +40,26 @@ public abstract class NioMessage extends NioSelectionKey {
     public ByteBuffer[] toBuffers() {
         return dataBlocks.toBuffers();
     }
+
+    /**
+     * 在 data 前面加上 length 和 serial，和 DataBlocks(true) 的格式相同
+     *
+     * @param serial serial
+     * @param data data
+     * @return buffers
+     */
+    public static ByteBuffer[] withHeader(int serial, ByteBuffer[] data) {
+        int length = INT_LENGTH;
+        for(ByteBuffer buffer : data) {
+            length += buffer.remaining();
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(INT_LENGTH * 2);
+        header.putInt(length).putInt(serial).flip();
+
+        ByteBuffer[] buffers = new ByteBuffer[data.length + 1];
+        buffers[0] = header;
+        System.arraycopy(data, 0, buffers, 1, data.length);
+        return buffers;
+    }
 }
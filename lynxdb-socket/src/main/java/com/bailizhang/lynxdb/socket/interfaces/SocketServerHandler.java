@@ -21,5 +21,13 @@ import com.bailizhang.lynxdb.socket.request.SegmentSocketRequest;
 public interface SocketServerHandler {
     default void handleStartupCompleted() {}
     default void handleRequest(SegmentSocketRequest request) throws Exception {}
-    default void handleAfterLatchAwait() {}
+
+    /**
+     * 是否用 WritableSocketResponse(request, data) 按请求的到达顺序返回响应
+     *
+     * 返回 false 时请求不分配 sequence，所有响应（包括请求失败时的错误响应）完成后直接写出
+     */
+    default boolean pipelined() {
+        return true;
+    }
 }
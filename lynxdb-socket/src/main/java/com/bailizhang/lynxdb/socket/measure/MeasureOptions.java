@@ -28,6 +28,46 @@ public interface MeasureOptions {
             "Write Data to Socket",
             RecordUnit.NANOS
     );
+    RecordOption SOCKET_FLUSH_COUNT = new RecordOption(
+            "Socket Flush Count",
+            RecordUnit.TIMES
+    );
+    RecordOption SOCKET_FLUSH_WRITE_CALLS = new RecordOption(
+            "Socket Flush Write Calls",
+            RecordUnit.TIMES
+    );
+    RecordOption SOCKET_FLUSH_WRITE_BYTES = new RecordOption(
+            "Socket Flush Write Bytes",
+            RecordUnit.BYTES
+    );
+    RecordOption SOCKET_IN_FLIGHT_REQUESTS = new RecordOption(
+            "Socket In-flight Requests",
+            RecordUnit.COUNT
+    );
+    RecordOption SOCKET_BUFFERED_BYTES = new RecordOption(
+            "Socket Buffered Bytes",
+            RecordUnit.BYTES
+    );
+    RecordOption SOCKET_SUSPENDED_CONNECTIONS = new RecordOption(
+            "Socket Read Suspended Connections",
+            RecordUnit.COUNT
+    );
+    RecordOption SOCKET_MAX_IN_FLIGHT_REQUESTS = new RecordOption(
+            "Socket Max In-flight Requests",
+            RecordUnit.COUNT
+    );
+    RecordOption SOCKET_MAX_BUFFERED_BYTES = new RecordOption(
+            "Socket Max Buffered Bytes",
+            RecordUnit.BYTES
+    );
+    RecordOption SOCKET_MAX_CONNECTION_IN_FLIGHT_REQUESTS = new RecordOption(
+            "Socket Max Connection In-flight Requests",
+            RecordUnit.COUNT
+    );
+    RecordOption SOCKET_MAX_CONNECTION_BUFFERED_BYTES = new RecordOption(
+            "Socket Max Connection Buffered Bytes",
+            RecordUnit.BYTES
+    );
     RecordOption CLIENT_READ_DATA_FROM_SOCKET = new RecordOption(
             "Client Read Data from Socket",
             RecordUnit.NANOS
@@ -16,20 +16,35 @@
 
 package com.bailizhang.lynxdb.socket.request;
 
-import com.bailizhang.lynxdb.core.common.DataBlocks;
+import com.bailizhang.lynxdb.core.buffers.BufferWriter;
+import com.bailizhang.lynxdb.socket.common.NioMessage;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 
+/**
+ * @param writer data 所在的 BufferWriter，请求写完后归还 buffer，可以为 null
+ */
 public record ByteBufferSocketRequest(
         SelectionKey selectionKey,
         int serial,
-        ByteBuffer[] data
+        ByteBuffer[] data,
+        BufferWriter writer
 ) {
+    public ByteBufferSocketRequest(SelectionKey selectionKey, int serial, ByteBuffer[] data) {
+        this(selectionKey, serial, data, null);
+    }
+
+    /**
+     * 头部的长度和 serial 单独放在一个 buffer 中，data 不需要拷贝
+     */
     public ByteBuffer[] toBuffers() {
-        DataBlocks dataBlocks = new DataBlocks(true);
-        dataBlocks.appendRawInt(serial);
-        dataBlocks.appendRawBuffers(data);
-        return dataBlocks.toBuffers();
+        return NioMessage.withHeader(serial, data);
+    }
+
+    public void release() {
+        if(writer != null) {
+            writer.release();
+        }
     }
 }
@@ -20,9 +20,14 @@ import com.bailizhang.lynxdb.core.arena.Segment;
 
 import java.nio.channels.SelectionKey;
 
+/**
+ * @param sequence 请求在连接中的到达顺序，用 WritableSocketResponse(request, data) 返回的响应会按这个顺序写出，
+ *                 handler 不是 pipelined 时为 NO_SEQUENCE
+ */
 public record SegmentSocketRequest(
         SelectionKey selectionKey,
         int serial,
+        long sequence,
         Segment[] data
 ) {
 }
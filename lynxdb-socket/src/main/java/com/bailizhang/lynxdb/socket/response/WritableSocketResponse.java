@@ -16,9 +16,11 @@
 
 package com.bailizhang.lynxdb.socket.response;
 
+import com.bailizhang.lynxdb.core.buffers.BufferWriter;
 import com.bailizhang.lynxdb.core.utils.BufferUtils;
 import com.bailizhang.lynxdb.socket.common.NioMessage;
 import com.bailizhang.lynxdb.socket.interfaces.Writable;
+import com.bailizhang.lynxdb.socket.request.SegmentSocketRequest;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -26,7 +28,15 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
 public class WritableSocketResponse extends NioMessage implements Writable {
+    /**
+     * 不需要和请求保持顺序的响应，完成后直接写出
+     */
+    public static final long NO_SEQUENCE = -1L;
+
+    private final long sequence;
+    private final long length;
     private final ByteBuffer[] buffers;
+    private final BufferWriter writer;
 
     public WritableSocketResponse(
             SelectionKey selectionKey,
@@ -34,10 +44,59 @@ public class WritableSocketResponse extends NioMessage implements Writable {
             ByteBuffer[] data
     ) {
         super(true, selectionKey);
-        dataBlocks.appendRawInt(serial);
-        dataBlocks.appendRawBuffers(data);
+        sequence = NO_SEQUENCE;
+        buffers = withHeader(serial, data);
+        length = length(buffers);
+        writer = null;
+    }
+
+    /**
+     * 直接写出 writer 中的 buffer，写完后由 release 归还
+     */
+    public WritableSocketResponse(
+            SelectionKey selectionKey,
+            int serial,
+            BufferWriter data
+    ) {
+        this(selectionKey, serial, NO_SEQUENCE, data);
+    }
+
+    /**
+     * 同一个连接的多个请求并发执行时，响应按请求的到达顺序写出
+     */
+    public WritableSocketResponse(SegmentSocketRequest request, BufferWriter data) {
+        this(request.selectionKey(), request.serial(), request.sequence(), data);
+    }
+
+    private WritableSocketResponse(
+            SelectionKey selectionKey,
+            int serial,
+            long sequence,
+            BufferWriter data
+    ) {
+        super(true, selectionKey);
+        this.sequence = sequence;
+        buffers = withHeader(serial, data.toBuffers());
+        length = length(buffers);
+        writer = data;
+    }
+
+    public long sequence() {
+        return sequence;
+    }
+
+    /**
+     * @return 包含 header 的总字节数
+     */
+    public long length() {
+        return length;
+    }
 
-        buffers = dataBlocks.toBuffers();
+    /**
+     * 包含 header 的所有 buffer，写出的进度保存在每个 buffer 的 position 中
+     */
+    public ByteBuffer[] buffers() {
+        return buffers;
     }
 
     @Override
@@ -52,4 +111,18 @@ public class WritableSocketResponse extends NioMessage implements Writable {
     public boolean isWriteCompleted() {
         return BufferUtils.isOver(buffers);
     }
+
+    public void release() {
+        if(writer != null) {
+            writer.release();
+        }
+    }
+
+    private static long length(ByteBuffer[] buffers) {
+        long length = 0;
+        for(ByteBuffer buffer : buffers) {
+            length += buffer.remaining();
+        }
+        return length;
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.socket.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 限制正在处理的请求数量和缓存的字节数，超过限制的连接暂停读取，回到限制以内后恢复读取
+ *
+ * 缓存的字节数包括已经读取但还没有释放的请求数据，和还没有写出的响应数据。
+ * 没有正在处理的请求的连接不会被暂停，保证一个很大的请求也能读完
+ */
+public class AdmissionControl {
+    private final int maxConnectionInFlightRequests;
+    private final long maxConnectionBufferedBytes;
+    private final int maxInFlightRequests;
+    private final long maxBufferedBytes;
+
+    private final AtomicLong inFlightRequests = new AtomicLong(0);
+    private final AtomicLong bufferedBytes = new AtomicLong(0);
+    private final AtomicLong suspendedConnections = new AtomicLong(0);
+
+    public AdmissionControl(SocketServerConfig config) {
+        maxConnectionInFlightRequests = config.maxConnectionInFlightRequests();
+        maxConnectionBufferedBytes = config.maxConnectionBufferedBytes();
+        maxInFlightRequests = config.maxInFlightRequests();
+        maxBufferedBytes = config.maxBufferedBytes();
+    }
+
+    /**
+     * 没有正在处理的请求的连接至少可以解析一个请求
+     *
+     * @param connectionInFlightRequests 连接正在处理的请求数量
+     * @return 这个连接还可以解析的请求数量
+     */
+    int requestQuota(int connectionInFlightRequests) {
+        long globalQuota = maxInFlightRequests - inFlightRequests.get();
+        long quota = Math.min(maxConnectionInFlightRequests - connectionInFlightRequests, globalQuota);
+
+        if(connectionInFlightRequests == 0) {
+            return (int) Math.max(quota, 1);
+        }
+
+        return (int) Math.max(quota, 0);
+    }
+
+    boolean isOverQuota(int connectionInFlightRequests, long connectionBufferedBytes) {
+        if(connectionInFlightRequests == 0) {
+            return false;
+        }
+
+        return connectionInFlightRequests >= maxConnectionInFlightRequests
+                || connectionBufferedBytes >= maxConnectionBufferedBytes
+                || inFlightRequests.get() >= maxInFlightRequests
+                || bufferedBytes.get() >= maxBufferedBytes;
+    }
+
+    void add(int inFlightRequestsDelta, long bufferedBytesDelta) {
+        if(inFlightRequestsDelta != 0) {
+            inFlightRequests.addAndGet(inFlightRequestsDelta);
+        }
+
+        if(bufferedBytesDelta != 0) {
+            bufferedBytes.addAndGet(bufferedBytesDelta);
+        }
+    }
+
+    void suspended(boolean isSuspended) {
+        suspendedConnections.addAndGet(isSuspended ? 1 : -1);
+    }
+
+    public long inFlightRequests() {
+        return inFlightRequests.get();
+    }
+
+    public long bufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    public long suspendedConnections() {
+        return suspendedConnections.get();
+    }
+
+    public int maxConnectionInFlightRequests() {
+        return maxConnectionInFlightRequests;
+    }
+
+    public long maxConnectionBufferedBytes() {
+        return maxConnectionBufferedBytes;
+    }
+
+    public int maxInFlightRequests() {
+        return maxInFlightRequests;
+    }
+
+    public long maxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.socket.server;
+
+import com.bailizhang.lynxdb.socket.interfaces.SocketServerHandler;
+import com.bailizhang.lynxdb.socket.response.WritableSocketResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 一个线程独占一个 Selector，负责分配给它的所有连接的读写
+ * 连接的状态只在这个线程中访问，其他线程通过队列提交新连接和响应，再用 wakeup 唤醒
+ */
+class EventLoop implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(EventLoop.class);
+
+    /** 暂停读取后，等待多久再检查是否可以恢复 */
+    private static final long RESUME_READ_INTERVAL_MILLIS = 10;
+
+    private final Selector selector;
+    private final SocketServerHandler handler;
+    private final AdmissionControl admission;
+
+    private final ConcurrentLinkedQueue<SocketChannel> channels = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<WritableSocketResponse> responses = new ConcurrentLinkedQueue<>();
+
+    /** 因为超过限制或者内存不足暂停读取的连接 */
+    private final Set<IoEventHandler> suspendedReads = new HashSet<>();
+
+    private volatile boolean shutdown = false;
+
+    EventLoop(SocketServerHandler socketServerHandler, AdmissionControl admissionControl) throws IOException {
+        selector = Selector.open();
+        handler = socketServerHandler;
+        admission = admissionControl;
+    }
+
+    void register(SocketChannel channel) {
+        channels.offer(channel);
+        selector.wakeup();
+    }
+
+    void offerResponse(WritableSocketResponse response) {
+        responses.offer(response);
+        selector.wakeup();
+    }
+
+    void suspendRead(IoEventHandler ioEventHandler) {
+        suspendedReads.add(ioEventHandler);
+    }
+
+    void shutdown() {
+        shutdown = true;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (!shutdown) {
+            try {
+                if(suspendedReads.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.select(RESUME_READ_INTERVAL_MILLIS);
+                    resumeReads();
+                }
+
+                registerChannels();
+                dispatchResponses();
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey selectionKey = iterator.next();
+                    iterator.remove();
+
+                    IoEventHandler ioEventHandler = (IoEventHandler) selectionKey.attachment();
+                    ioEventHandler.handle();
+
+                    if(!selectionKey.isValid()) {
+                        close(ioEventHandler);
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("Event loop error.", e);
+            }
+        }
+
+        for(SelectionKey selectionKey : selector.keys()) {
+            if(selectionKey.isValid()) {
+                close((IoEventHandler) selectionKey.attachment());
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.error("Close selector failed.", e);
+        }
+    }
+
+    private void resumeReads() {
+        // 仍然超过限制的连接会重新加入 suspendedReads
+        List<IoEventHandler> ioEventHandlers = new ArrayList<>(suspendedReads);
+        suspendedReads.clear();
+        ioEventHandlers.forEach(IoEventHandler::retryRead);
+    }
+
+    private void registerChannels() throws IOException {
+        while (true) {
+            SocketChannel channel = channels.poll();
+            if(channel == null) {
+                break;
+            }
+
+            SelectionKey selectionKey = channel.register(selector, SelectionKey.OP_READ);
+            SocketContext context = SocketContext.create(selectionKey, handler.pipelined());
+            selectionKey.attach(new IoEventHandler(this, context, handler, admission));
+
+            logger.info("Register socket {} to {}.", channel.getRemoteAddress(), Thread.currentThread().getName());
+        }
+    }
+
+    private void dispatchResponses() {
+        while (true) {
+            WritableSocketResponse response = responses.poll();
+            if(response == null) {
+                break;
+            }
+
+            SelectionKey selectionKey = response.selectionKey();
+
+            // 连接已经断开，丢弃响应
+            if(!selectionKey.isValid()) {
+                response.release();
+                continue;
+            }
+
+            IoEventHandler ioEventHandler = (IoEventHandler) selectionKey.attachment();
+            ioEventHandler.context().offerResponse(response);
+        }
+    }
+
+    private void close(IoEventHandler ioEventHandler) {
+        SocketContext context = ioEventHandler.context();
+        SelectionKey selectionKey = context.selectionKey();
+        SocketChannel channel = (SocketChannel) selectionKey.channel();
+
+        try {
+            logger.info("Client {} is disconnect, Remove socket context", channel.getRemoteAddress());
+            selectionKey.cancel();
+            channel.close();
+        } catch (IOException e) {
+            logger.error("Close channel failed.", e);
+        }
+
+        suspendedReads.remove(ioEventHandler);
+        ioEventHandler.leave();
+        context.destroy();
+    }
+}
@@ -17,9 +17,9 @@
 package com.bailizhang.lynxdb.socket.server;
 
 import com.bailizhang.lynxdb.core.arena.ArenaBuffer;
+import com.bailizhang.lynxdb.core.arena.Segment;
+import com.bailizhang.lynxdb.core.buffers.BufferWriter;
 import com.bailizhang.lynxdb.core.recorder.FlightDataRecorder;
-import com.bailizhang.lynxdb.core.recorder.IRunnable;
-import com.bailizhang.lynxdb.socket.client.CountDownSync;
 import com.bailizhang.lynxdb.socket.interfaces.SocketServerHandler;
 import com.bailizhang.lynxdb.socket.request.SegmentSocketRequest;
 import com.bailizhang.lynxdb.socket.response.WritableSocketResponse;
@@ -28,122 +28,290 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
 
-import static com.bailizhang.lynxdb.socket.measure.MeasureOptions.READ_DATA_FROM_SOCKET;
-import static com.bailizhang.lynxdb.socket.measure.MeasureOptions.WRITE_DATA_TO_SOCKET;
+import static com.bailizhang.lynxdb.socket.measure.MeasureOptions.*;
 
-public class IoEventHandler implements Runnable {
+/**
+ * 一个连接的读写事件处理，只在所属的 EventLoop 线程中执行
+ */
+class IoEventHandler {
     private static final Logger logger = LoggerFactory.getLogger(IoEventHandler.class);
 
     private static final int MAX_ARENA_BUFFERS_TO_READ = 10;
 
+    /** 一次 gathering write 最多的 buffer 数量，和 Linux 的 IOV_MAX 相同 */
+    private static final int MAX_WRITE_BUFFERS = 1024;
+    /** 一次 gathering write 最多的字节数 */
+    private static final long MAX_WRITE_BYTES = 256 * 1024;
+
+    private final EventLoop eventLoop;
     private final SocketContext context;
-    private final CountDownSync latch;
     private final SocketServerHandler handler;
     private final SelectionKey selectionKey;
-    private final Selector selector;
+    private final AdmissionControl admission;
+
+    private final ByteBuffer[] writeBuffers = new ByteBuffer[MAX_WRITE_BUFFERS];
 
-    IoEventHandler(SocketContext socketContext, CountDownSync countDownLatch, SocketServerHandler socketServerHandler) {
+    private boolean readSuspended = false;
+    /* 已经计入 AdmissionControl 的数量 */
+    private int reportedInFlightRequests = 0;
+    private long reportedBufferedBytes = 0;
+
+    IoEventHandler(
+            EventLoop loop,
+            SocketContext socketContext,
+            SocketServerHandler socketServerHandler,
+            AdmissionControl admissionControl
+    ) {
+        eventLoop = loop;
         context = socketContext;
-        latch = countDownLatch;
         handler = socketServerHandler;
         selectionKey = context.selectionKey();
-        selector = selectionKey.selector();
+        admission = admissionControl;
     }
 
-    private void doAccept() throws IOException {
-        ServerSocketChannel serverSocketChannel = (ServerSocketChannel) selectionKey.channel();
-        SocketChannel channel = serverSocketChannel.accept();
-        channel.configureBlocking(false);
-
-        synchronized (selector) {
-            channel.register(selector, SelectionKey.OP_READ);
-        }
+    EventLoop eventLoop() {
+        return eventLoop;
+    }
 
-        logger.info("Accept socket {} connect.", channel.getRemoteAddress());
+    SocketContext context() {
+        return context;
     }
 
-    /* 每次读一个请求 */
-    private void doRead() throws Exception {
+    /**
+     * 读取 socket 中的数据，请求由 dispatchRequests 解析
+     *
+     * @return false if out of memory
+     */
+    private boolean doRead() throws Exception {
         FlightDataRecorder recorder = FlightDataRecorder.recorder();
 
-        IRunnable read = () -> {
-            SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
-
-            int times = MAX_ARENA_BUFFERS_TO_READ;
-            while ((times --) > 0) {
-                ArenaBuffer arenaBuffer = context.readableArenaBuffer();
-
-                arenaBuffer.read(socketChannel);
-
-                if(arenaBuffer.notFull()) {
-                    return;
-                }
-            }
-        };
-
+        boolean hasMemory;
         try {
-            recorder.recordE(read, READ_DATA_FROM_SOCKET);
+            hasMemory = recorder.record((Callable<Boolean>) this::readFromSocket, READ_DATA_FROM_SOCKET);
         } catch (IOException e) {
             selectionKey.cancel();
-            return;
+            return true;
         }
 
-        List<SegmentSocketRequest> requests = context.requests();
+        return hasMemory;
+    }
+
+    /**
+     * 正在处理的请求数量不超过限制，剩下的请求等之前的响应写出后再解析。
+     * 一个请求处理失败时，释放它的数据并返回空的响应，不影响后面的请求
+     */
+    private void dispatchRequests() {
+        int quota = admission.requestQuota(context.unFinishedRequest().get());
+        List<SegmentSocketRequest> requests = context.requests(quota);
         for(SegmentSocketRequest request : requests) {
-            handler.handleRequest(request);
+            try {
+                handler.handleRequest(request);
+            } catch (Exception e) {
+                logger.error("Handle request failed, request: {}", request, e);
+
+                Segment.deallocAll(request.data());
+                context.offerResponse(new WritableSocketResponse(request, new BufferWriter(false)));
+            }
         }
     }
 
-    /* 每次写多个请求 */
+    /**
+     * 把写队列中的多个响应合并成一次 gathering write，
+     * 写不完的部分留在 buffer 的 position 中，等下一次可写时继续
+     */
     private void doWrite() throws Exception {
+        FlightDataRecorder recorder = FlightDataRecorder.recorder();
+        SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
+
+        long writtenBytes = 0;
+        long syscalls = 0;
+
         while (!context.responseQueueIsEmpty()) {
-            WritableSocketResponse response = context.peekResponse();
+            int count = 0;
+            long gatheredBytes = 0;
+
+            for(WritableSocketResponse response : context.responses()) {
+                for(ByteBuffer buffer : response.buffers()) {
+                    if(!buffer.hasRemaining()) {
+                        continue;
+                    }
 
-            FlightDataRecorder recorder = FlightDataRecorder.recorder();
+                    writeBuffers[count ++] = buffer;
+                    gatheredBytes += buffer.remaining();
+
+                    if(count == MAX_WRITE_BUFFERS || gatheredBytes >= MAX_WRITE_BYTES) {
+                        break;
+                    }
+                }
 
-            if(recorder.isEnable()) {
-                recorder.recordE(response::write, WRITE_DATA_TO_SOCKET);
-            } else {
-                response.write();
+                if(count == MAX_WRITE_BUFFERS || gatheredBytes >= MAX_WRITE_BYTES) {
+                    break;
+                }
             }
 
-            if (response.isWriteCompleted()) {
-                /* 从队列首部移除已经写完的响应 */
+            final int length = count;
+            long written = recorder.record(
+                    (Callable<Long>) () -> socketChannel.write(writeBuffers, 0, length),
+                    WRITE_DATA_TO_SOCKET
+            );
+            Arrays.fill(writeBuffers, 0, count, null);
+
+            writtenBytes += written;
+            syscalls ++;
+
+            /* 从队列首部移除已经写完的响应 */
+            while (!context.responseQueueIsEmpty()) {
+                WritableSocketResponse response = context.peekResponse();
+
+                if(!response.isWriteCompleted()) {
+                    break;
+                }
+
                 context.pollResponse();
+                response.release();
                 logger.trace("Write response completed to client, response: {}", response);
-            } else {
+            }
+
+            // socket 的发送缓冲区已满
+            if(written < gatheredBytes) {
                 break;
             }
         }
+
+        if(recorder.isEnable()) {
+            recorder.count(SOCKET_FLUSH_COUNT);
+            recorder.add(SOCKET_FLUSH_WRITE_CALLS, syscalls);
+            recorder.add(SOCKET_FLUSH_WRITE_BYTES, writtenBytes);
+        }
     }
 
-    @Override
-    public void run() {
-        try {
-            if (selectionKey.isAcceptable()) {
-                logger.info("isAcceptable");
-                doAccept();
+    /**
+     * @return false if out of memory
+     */
+    private boolean readFromSocket() throws IOException {
+        SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
+
+        int times = MAX_ARENA_BUFFERS_TO_READ;
+        while ((times --) > 0) {
+            ArenaBuffer arenaBuffer = context.readableArenaBuffer();
+
+            if(arenaBuffer == null) {
+                return false;
             }
 
-            if (selectionKey.isWritable()) {
-                logger.info("isWritable");
+            // 对端关闭了连接，不取消的话 key 会一直可读
+            if(arenaBuffer.read(socketChannel) < 0) {
+                selectionKey.cancel();
+                return true;
+            }
+
+            if(arenaBuffer.notFull()) {
+                return true;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 更新 AdmissionControl 的计数，超过限制或者内存不足时暂停读取，否则恢复读取
+     *
+     * @param hasMemory 上一次读取时是否分配到了内存
+     */
+    void checkAdmission(boolean hasMemory) {
+        if(!selectionKey.isValid()) {
+            return;
+        }
+
+        int inFlightRequests = context.unFinishedRequest().get();
+        long bufferedBytes = context.bufferedBytes();
+
+        admission.add(
+                inFlightRequests - reportedInFlightRequests,
+                bufferedBytes - reportedBufferedBytes
+        );
+        reportedInFlightRequests = inFlightRequests;
+        reportedBufferedBytes = bufferedBytes;
+
+        if(!hasMemory || admission.isOverQuota(inFlightRequests, bufferedBytes)) {
+            suspendRead();
+        } else {
+            resumeRead();
+        }
+    }
+
+    /**
+     * 由 EventLoop 定时调用，重新检查暂停读取的连接
+     */
+    void retryRead() {
+        resumeRead();
+        checkAdmission(true);
+    }
+
+    /**
+     * 连接关闭时，从 AdmissionControl 中移除这个连接的计数
+     */
+    void leave() {
+        admission.add(-reportedInFlightRequests, -reportedBufferedBytes);
+        reportedInFlightRequests = 0;
+        reportedBufferedBytes = 0;
+
+        if(readSuspended) {
+            readSuspended = false;
+            admission.suspended(false);
+        }
+    }
+
+    private void suspendRead() {
+        if(readSuspended) {
+            return;
+        }
+
+        readSuspended = true;
+        selectionKey.interestOpsAnd(~SelectionKey.OP_READ);
+        admission.suspended(true);
+        eventLoop.suspendRead(this);
+    }
+
+    private void resumeRead() {
+        if(!readSuspended || !selectionKey.isValid()) {
+            return;
+        }
+
+        readSuspended = false;
+        selectionKey.interestOpsOr(SelectionKey.OP_READ);
+        admission.suspended(false);
+    }
+
+    void handle() {
+        boolean hasMemory = true;
+
+        try {
+            if (selectionKey.isValid() && selectionKey.isWritable()) {
                 doWrite();
             }
 
-            if (selectionKey.isReadable()) {
-                logger.info("isReadable");
-                doRead();
+            if (selectionKey.isValid() && selectionKey.isReadable()) {
+                hasMemory = doRead();
             }
+
+            if (selectionKey.isValid()) {
+                dispatchRequests();
+            }
+        } catch (IOException e) {
+            // 连接已经断开，由 EventLoop 关闭连接
+            selectionKey.cancel();
         } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            latch.countDown();
+            logger.error("Handle io event failed.", e);
         }
+
+        checkAdmission(hasMemory);
     }
 }
@@ -26,39 +26,62 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.channels.SelectionKey;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.INT_LENGTH;
 
+/**
+ * 一个连接的读写状态，只在所属的 EventLoop 线程中访问
+ *
+ * 同一个连接的多个请求可以并发执行，完成顺序不确定。
+ * 带 sequence 的响应先暂存，再按请求到达的顺序放入写队列，
+ * 所以同一个 server 的响应要么都带 sequence，要么都不带，由 pipelined 决定
+ */
 public record SocketContext (
         SelectionKey selectionKey,
         ConcurrentLinkedQueue<WritableSocketResponse> responses,
+        HashMap<Long, WritableSocketResponse> completedResponses,
+        AtomicLong readSequence,
+        AtomicLong writeSequence,
         AtomicInteger unFinishedRequest,
-        ArenaBufferManager arenaBufferManager
+        AtomicLong responseBytes,
+        ArenaBufferManager arenaBufferManager,
+        boolean pipelined
 ) {
 
     private static final Logger logger = LoggerFactory.getLogger(SocketContext.class);
 
-    public static SocketContext create(SelectionKey selectionKey) {
+    public static SocketContext create(SelectionKey selectionKey, boolean pipelined) {
         return new SocketContext(
                 selectionKey,
                 new ConcurrentLinkedQueue<>(),
+                new HashMap<>(),
+                new AtomicLong(0),
+                new AtomicLong(0),
                 new AtomicInteger(0),
-                new ArenaBufferManager()
+                new AtomicLong(0),
+                new ArenaBufferManager(),
+                pipelined
         );
     }
 
     public void pollResponse() {
-        responses.poll();
+        WritableSocketResponse response = responses.poll();
+        responseBytes.addAndGet(-response.length());
         int unFinished = unFinishedRequest.decrementAndGet();
 
-        if(unFinished == 0) {
-            selectionKey.interestOpsAnd(SelectionKey.OP_READ);
-        } else if(unFinished < 0) {
+        if(unFinished < 0) {
             throw new RuntimeException();
         }
+
+        // 前面的请求还没有完成时，不再关注写事件
+        if(responses.isEmpty()) {
+            selectionKey.interestOpsAnd(~SelectionKey.OP_WRITE);
+        }
     }
 
     public WritableSocketResponse peekResponse() {
@@ -66,8 +89,41 @@ public record SocketContext (
     }
 
     public void offerResponse(WritableSocketResponse response) {
-        responses.offer(response);
-        selectionKey.interestOpsOr(SelectionKey.OP_WRITE | SelectionKey.OP_READ);
+        responseBytes.addAndGet(response.length());
+
+        if(response.sequence() == WritableSocketResponse.NO_SEQUENCE) {
+            responses.offer(response);
+            selectionKey.interestOpsOr(SelectionKey.OP_WRITE);
+            return;
+        }
+
+        completedResponses.put(response.sequence(), response);
+
+        boolean writable = false;
+
+        // 按请求到达的顺序，把已经完成的响应放入写队列
+        while(true) {
+            WritableSocketResponse next = completedResponses.remove(writeSequence.get());
+
+            if(next == null) {
+                break;
+            }
+
+            responses.offer(next);
+            writeSequence.incrementAndGet();
+            writable = true;
+        }
+
+        if(writable) {
+            selectionKey.interestOpsOr(SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * @return 已经读取的请求数据和还没有写出的响应数据的字节数
+     */
+    public long bufferedBytes() {
+        return arenaBufferManager.bufferedBytes() + responseBytes.get();
     }
 
     public boolean responseQueueIsEmpty() {
@@ -78,13 +134,19 @@ public record SocketContext (
         return arenaBufferManager.readableArenaBuffer();
     }
 
-    public List<SegmentSocketRequest> requests() {
+    /**
+     * 解析已经读取的完整请求，超过 maxRequests 的请求留在 buffer 中下次再解析
+     *
+     * @param maxRequests 最多解析的请求数量
+     * @return requests
+     */
+    public List<SegmentSocketRequest> requests(int maxRequests) {
         // 清除之前被释放的内存
         arenaBufferManager.clearFreeBuffers();
 
         List<SegmentSocketRequest> requests = new ArrayList<>();
         // 请求格式为 |长度|序列号|请求数据|
-        while (true) {
+        while (requests.size() < maxRequests) {
             if(arenaBufferManager.notEnoughToRead(INT_LENGTH)) {
                 break;
             }
@@ -96,7 +158,11 @@ public record SocketContext (
             arenaBufferManager.incrementPosition(INT_LENGTH);
             int serial = arenaBufferManager.readInt(true);
             Segment[] data = arenaBufferManager.read(length - INT_LENGTH, true);
-            requests.add(new SegmentSocketRequest(selectionKey, serial, data));
+            // 不按顺序返回响应时不分配 sequence，否则 writeSequence 永远不会前进
+            long sequence = pipelined
+                    ? readSequence.getAndIncrement()
+                    : WritableSocketResponse.NO_SEQUENCE;
+            requests.add(new SegmentSocketRequest(selectionKey, serial, sequence, data));
         }
 
         int count = unFinishedRequest.get();
@@ -108,6 +174,8 @@ public record SocketContext (
     }
 
     public void destroy() {
+        responses.forEach(WritableSocketResponse::release);
+        completedResponses.values().forEach(WritableSocketResponse::release);
         arenaBufferManager.dealloc();
     }
 }
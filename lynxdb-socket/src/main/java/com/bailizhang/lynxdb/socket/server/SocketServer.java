@@ -17,7 +17,7 @@
 package com.bailizhang.lynxdb.socket.server;
 
 import com.bailizhang.lynxdb.core.executor.Executor;
-import com.bailizhang.lynxdb.socket.client.CountDownSync;
+import com.bailizhang.lynxdb.core.recorder.FlightDataRecorder;
 import com.bailizhang.lynxdb.socket.interfaces.SocketServerHandler;
 import com.bailizhang.lynxdb.socket.response.WritableSocketResponse;
 import org.slf4j.Logger;
@@ -25,65 +25,85 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.SocketAddress;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Iterator;
-import java.util.Set;
-import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.bailizhang.lynxdb.socket.measure.MeasureOptions.*;
+
+/**
+ * 多 Reactor 模型：当前线程只负责 accept，连接按轮询分配给 EventLoop
+ * 每个 EventLoop 独占一个 Selector 和一个线程，连接之间互不阻塞
+ */
 public class SocketServer extends Executor<WritableSocketResponse> {
     private static final Logger logger = LoggerFactory.getLogger(SocketServer.class);
 
     private final SocketServerConfig config;
-    private final ThreadPoolExecutor executor;
     private final Selector selector;
+    private final ServerSocketChannel serverSocketChannel;
+    private final AdmissionControl admission;
 
     private SocketServerHandler handler;
-
-    /* 响应的队列 */
-    private final ConcurrentHashMap<SelectionKey, SocketContext> contexts
-            = new ConcurrentHashMap<>();
+    private EventLoop[] eventLoops;
+    private int nextEventLoop;
 
     public void setHandler(SocketServerHandler handler) {
         this.handler = handler;
     }
 
-    /* IO线程的线程工厂 */
-    private class IoThreadFactory implements ThreadFactory {
-        private final AtomicInteger threadNumber = new AtomicInteger(1);
-
-        public Thread newThread(Runnable runnable) {
-            return new Thread(runnable, config.ioThreadNamePrefix() + threadNumber.getAndIncrement());
-        }
-    }
-
     public SocketServer(SocketServerConfig socketServerConfig) throws IOException {
         this.config = socketServerConfig;
-
-        this.executor = new ThreadPoolExecutor(
-                config.coreSize(),
-                config.maxPoolSize(),
-                config.keepAliveTime(),
-                TimeUnit.SECONDS,
-                new ArrayBlockingQueue<>(config.blockingQueueSize()),
-                new IoThreadFactory(),
-                new ThreadPoolExecutor.AbortPolicy()
-        );
+        admission = new AdmissionControl(config);
+        registerMetrics();
 
         selector = Selector.open();
 
-        ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel = ServerSocketChannel.open();
         serverSocketChannel.configureBlocking(false);
         serverSocketChannel.bind(new InetSocketAddress(config.port()), config.backlog());
         serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
     }
 
+    public AdmissionControl admissionControl() {
+        return admission;
+    }
+
+    /**
+     * 响应直接交给连接所属的 EventLoop，不经过 accept 线程，
+     * 通过 Selector.wakeup 唤醒 EventLoop，不会中断任何线程
+     *
+     * @param response response
+     */
+    @Override
+    public void offerInterruptibly(WritableSocketResponse response) {
+        SelectionKey selectionKey = response.selectionKey();
+
+        if(selectionKey == null) {
+            return;
+        }
+
+        IoEventHandler ioEventHandler = (IoEventHandler) selectionKey.attachment();
+        ioEventHandler.eventLoop().offerResponse(response);
+    }
+
     @Override
     protected void doBeforeExecute() {
+        int eventLoopCount = config.eventLoopCount();
+        eventLoops = new EventLoop[eventLoopCount];
+
+        for(int i = 0; i < eventLoopCount; i ++) {
+            try {
+                eventLoops[i] = new EventLoop(handler, admission);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            Thread thread = new Thread(eventLoops[i], config.ioThreadNamePrefix() + (i + 1));
+            thread.start();
+        }
+
         handler.handleStartupCompleted();
     }
 
@@ -95,61 +115,73 @@ public class SocketServer extends Executor<WritableSocketResponse> {
             if(Thread.interrupted()) {
             }
 
-            Set<SelectionKey> selectionKeys = selector.selectedKeys();
-            Iterator<SelectionKey> iterator = selectionKeys.iterator();
-            CountDownSync latch = new CountDownSync(selectionKeys.size());
-
-            synchronized (selector) {
-                while (iterator.hasNext()) {
-                    SelectionKey selectionKey = iterator.next();
-                    try {
-                        SocketContext context = contexts.get(selectionKey);
-                        if(context == null) {
-                            context = SocketContext.create(selectionKey);
-                            contexts.put(selectionKey, context);
-                        }
-                        executor.execute(new IoEventHandler(context, latch, handler));
-                    } catch (RejectedExecutionException ignored) {
-                        latch.countDown();
-                    }
-                    iterator.remove();
-                }
-            }
-
-            /* 从contexts中移除已经取消的selectionKey */
-            for (SelectionKey key : contexts.keySet()) {
-                if(!key.isValid()) {
-                    SocketAddress address = ((SocketChannel)key.channel()).getRemoteAddress();
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey selectionKey = iterator.next();
+                iterator.remove();
 
-                    var context = contexts.remove(key);
-                    context.destroy();
-
-                    logger.info("Client {} is disconnect, Remove socket context", address);
+                if(selectionKey.isAcceptable()) {
+                    doAccept();
                 }
             }
 
-            /* 从队列中拿出 SocketResponse */
+            /* 通过 offer 提交的响应，转交给连接所属的 EventLoop */
             while (true) {
                 WritableSocketResponse response = poll();
                 if(response == null) {
                     break;
                 }
 
-                SelectionKey selectionKey = response.selectionKey();
+                offerInterruptibly(response);
+            }
+        } catch (Exception e) {
+            logger.error("Socket server error.", e);
+        }
+    }
 
-                if(selectionKey == null) {
-                    continue;
-                }
+    @Override
+    protected void doAfterShutdown() {
+        for(EventLoop eventLoop : eventLoops) {
+            eventLoop.shutdown();
+        }
+
+        try {
+            selector.close();
+            serverSocketChannel.close();
+        } catch (IOException e) {
+            logger.error("Close server socket failed.", e);
+        }
+    }
 
-                /* TODO: context 可能为 null，需要排查原因 */
-                SocketContext context = contexts.get(selectionKey);
-                context.offerResponse(response);
+    private void doAccept() throws IOException {
+        while (true) {
+            SocketChannel channel = serverSocketChannel.accept();
+            if(channel == null) {
+                return;
             }
 
-            latch.await();
-            handler.handleAfterLatchAwait();
-        } catch (Exception e) {
-            e.printStackTrace();
+            channel.configureBlocking(false);
+
+            EventLoop eventLoop = eventLoops[nextEventLoop];
+            nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+            eventLoop.register(channel);
+
+            logger.info("Accept socket {} connect.", channel.getRemoteAddress());
         }
     }
+
+    /**
+     * 同一个进程中有多个 SocketServer 时，只保留最后创建的 server 的指标
+     */
+    private void registerMetrics() {
+        FlightDataRecorder recorder = FlightDataRecorder.recorder();
+
+        recorder.gauge(SOCKET_IN_FLIGHT_REQUESTS, admission::inFlightRequests);
+        recorder.gauge(SOCKET_BUFFERED_BYTES, admission::bufferedBytes);
+        recorder.gauge(SOCKET_SUSPENDED_CONNECTIONS, admission::suspendedConnections);
+        recorder.gauge(SOCKET_MAX_IN_FLIGHT_REQUESTS, admission::maxInFlightRequests);
+        recorder.gauge(SOCKET_MAX_BUFFERED_BYTES, admission::maxBufferedBytes);
+        recorder.gauge(SOCKET_MAX_CONNECTION_IN_FLIGHT_REQUESTS, admission::maxConnectionInFlightRequests);
+        recorder.gauge(SOCKET_MAX_CONNECTION_BUFFERED_BYTES, admission::maxConnectionBufferedBytes);
+    }
 }
@@ -17,88 +17,104 @@
 package com.bailizhang.lynxdb.socket.server;
 
 public class SocketServerConfig {
-    private static final int DEFAULT_CORE_SIZE = 10;
-    private static final int DEFAULT_MAX_POOL_SIZE = 20;
-    private static final int DEFAULT_KEEP_ALIVE_TIME= 60;
-    private static final int DEFAULT_BLOCKING_QUEUE_SIZE = 200;
+    private static final int DEFAULT_EVENT_LOOP_COUNT = Runtime.getRuntime().availableProcessors();
     private static final String DEFAULT_IO_THREAD_NAME_PREFIX = "Default-IO-Thread-";
     private static final int DEFAULT_BACKLOG = 20;
+    private static final int DEFAULT_MAX_CONNECTION_IN_FLIGHT_REQUESTS = 1024;
+    private static final long DEFAULT_MAX_CONNECTION_BUFFERED_BYTES = 64L * 1024 * 1024;
+    private static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 64 * 1024;
+    private static final long DEFAULT_MAX_BUFFERED_BYTES = 512L * 1024 * 1024;
 
-    /** IO线程池的核心池大小 */
-    private int coreSize = DEFAULT_CORE_SIZE;
-    /** IO线程池的最大池大小 */
-    private int maxPoolSize = DEFAULT_MAX_POOL_SIZE;
-    /** IO线程池的线程最大存活时间 */
-    private int keepAliveTime = DEFAULT_KEEP_ALIVE_TIME;
-    /** IO线程池的阻塞队列大小 */
-    private int blockingQueueSize = DEFAULT_BLOCKING_QUEUE_SIZE;
+    /** EventLoop 的数量，每个 EventLoop 占用一个 IO 线程 */
+    private int eventLoopCount = DEFAULT_EVENT_LOOP_COUNT;
     /** IO线程名称的前缀 */
     private String ioThreadNamePrefix = DEFAULT_IO_THREAD_NAME_PREFIX;
     /** 服务器的端口号 */
     private final int port;
     /** 服务器的最大连接数 */
     private int backlog = DEFAULT_BACKLOG;
+    /** 单个连接正在处理的最大请求数 */
+    private int maxConnectionInFlightRequests = DEFAULT_MAX_CONNECTION_IN_FLIGHT_REQUESTS;
+    /** 单个连接最多缓存的请求和响应字节数 */
+    private long maxConnectionBufferedBytes = DEFAULT_MAX_CONNECTION_BUFFERED_BYTES;
+    /** 所有连接正在处理的最大请求数 */
+    private int maxInFlightRequests = DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+    /** 所有连接最多缓存的请求和响应字节数 */
+    private long maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
 
     public SocketServerConfig(int port) {
         this.port = port;
     }
 
-    public int coreSize() {
-        return coreSize;
+    public int eventLoopCount() {
+        return eventLoopCount;
     }
 
-    public SocketServerConfig coreSize(int coreSize) {
-        this.coreSize = coreSize;
+    public SocketServerConfig eventLoopCount(int eventLoopCount) {
+        if(eventLoopCount <= 0) {
+            throw new RuntimeException("Event loop count must be positive");
+        }
+
+        this.eventLoopCount = eventLoopCount;
         return this;
     }
 
-    public int maxPoolSize() {
-        return maxPoolSize;
+    public String ioThreadNamePrefix() {
+        return ioThreadNamePrefix;
     }
 
-    public SocketServerConfig maxPoolSize(int maxPoolSize) {
-        this.maxPoolSize = maxPoolSize;
+    public SocketServerConfig ioThreadNamePrefix(String ioThreadNamePrefix) {
+        this.ioThreadNamePrefix = ioThreadNamePrefix;
         return this;
     }
 
-    public int keepAliveTime() {
-        return keepAliveTime;
+    public int port() {
+        return port;
     }
 
-    public SocketServerConfig keepAliveTime(int keepAliveTime) {
-        this.keepAliveTime = keepAliveTime;
+
+    public int backlog() {
+        return backlog;
+    }
+
+    public SocketServerConfig backlog(int backlog) {
+        this.backlog = backlog;
         return this;
     }
 
-    public int blockingQueueSize() {
-        return blockingQueueSize;
+    public int maxConnectionInFlightRequests() {
+        return maxConnectionInFlightRequests;
     }
 
-    public SocketServerConfig blockingQueueSize(int blockingQueueSize) {
-        this.blockingQueueSize = blockingQueueSize;
+    public SocketServerConfig maxConnectionInFlightRequests(int maxConnectionInFlightRequests) {
+        this.maxConnectionInFlightRequests = maxConnectionInFlightRequests;
         return this;
     }
 
-    public String ioThreadNamePrefix() {
-        return ioThreadNamePrefix;
+    public long maxConnectionBufferedBytes() {
+        return maxConnectionBufferedBytes;
     }
 
-    public SocketServerConfig ioThreadNamePrefix(String ioThreadNamePrefix) {
-        this.ioThreadNamePrefix = ioThreadNamePrefix;
+    public SocketServerConfig maxConnectionBufferedBytes(long maxConnectionBufferedBytes) {
+        this.maxConnectionBufferedBytes = maxConnectionBufferedBytes;
         return this;
     }
 
-    public int port() {
-        return port;
+    public int maxInFlightRequests() {
+        return maxInFlightRequests;
     }
 
+    public SocketServerConfig maxInFlightRequests(int maxInFlightRequests) {
+        this.maxInFlightRequests = maxInFlightRequests;
+        return this;
+    }
 
-    public int backlog() {
-        return backlog;
+    public long maxBufferedBytes() {
+        return maxBufferedBytes;
     }
 
-    public SocketServerConfig backlog(int backlog) {
-        this.backlog = backlog;
+    public SocketServerConfig maxBufferedBytes(long maxBufferedBytes) {
+        this.maxBufferedBytes = maxBufferedBytes;
         return this;
     }
 }
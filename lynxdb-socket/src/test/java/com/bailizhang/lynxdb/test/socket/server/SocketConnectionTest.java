@@ -0,0 +1,420 @@
+package com.bailizhang.lynxdb.test.socket.server;
+
+import com.bailizhang.lynxdb.core.arena.Segment;
+import com.bailizhang.lynxdb.core.buffers.BufferWriter;
+import com.bailizhang.lynxdb.core.executor.Executor;
+import com.bailizhang.lynxdb.socket.interfaces.SocketServerHandler;
+import com.bailizhang.lynxdb.socket.request.SegmentSocketRequest;
+import com.bailizhang.lynxdb.socket.response.WritableSocketResponse;
+import com.bailizhang.lynxdb.socket.server.AdmissionControl;
+import com.bailizhang.lynxdb.socket.server.SocketServer;
+import com.bailizhang.lynxdb.socket.server.SocketServerConfig;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 用阻塞的 Socket 直接读写 NioMessage 的格式：length | serial | data，length 包含 serial
+ */
+class SocketConnectionTest {
+    private static final String HOST = "127.0.0.1";
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    private final byte[] requestData = "request".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void testFunc01() throws Exception {
+        int port = 7821;
+        SocketServer server = new SocketServer(new SocketServerConfig(port));
+        start(server, new EchoHandler(server));
+
+        try(Socket socket = connect(port)) {
+            writeRequest(socket, 1, requestData);
+            socket.shutdownOutput();
+
+            // 服务端读到 EOF 后关闭连接，而不是一直处理可读事件
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            do {
+                read = in.read(buffer);
+            } while(read >= 0);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * 同一个连接的请求并发执行，按相反的顺序完成，响应仍然按请求的顺序写出
+     */
+    @Test
+    void testFunc02() throws Exception {
+        int port = 7822;
+        int requestCount = 8;
+
+        SocketServer server = new SocketServer(new SocketServerConfig(port));
+        List<SegmentSocketRequest> requests = new ArrayList<>();
+        start(server, new SocketServerHandler() {
+            @Override
+            public void handleRequest(SegmentSocketRequest request) {
+                Segment.deallocAll(request.data());
+                requests.add(request);
+
+                if(requests.size() < requestCount) {
+                    return;
+                }
+
+                for(SegmentSocketRequest received : requests.reversed()) {
+                    BufferWriter writer = new BufferWriter(false);
+                    writer.appendRawInt(received.serial());
+                    server.offerInterruptibly(new WritableSocketResponse(received, writer));
+                }
+            }
+        });
+
+        try(Socket socket = connect(port)) {
+            for(int i = 0; i < requestCount; i ++) {
+                writeRequest(socket, i, requestData);
+            }
+
+            for(int i = 0; i < requestCount; i ++) {
+                Response response = readResponse(socket);
+                Assertions.assertEquals(i, response.serial());
+                Assertions.assertEquals(i, ByteBuffer.wrap(response.data()).getInt());
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * 处理失败的请求返回空的响应，不影响同一个连接后面的请求
+     */
+    @Test
+    void testFunc03() throws Exception {
+        int port = 7823;
+        int failedSerial = 2;
+
+        SocketServer server = new SocketServer(new SocketServerConfig(port));
+        EchoHandler echoHandler = new EchoHandler(server);
+        start(server, new SocketServerHandler() {
+            @Override
+            public void handleRequest(SegmentSocketRequest request) {
+                if(request.serial() == failedSerial) {
+                    throw new RuntimeException("Handle request failed.");
+                }
+
+                echoHandler.handleRequest(request);
+            }
+        });
+
+        try(Socket socket = connect(port)) {
+            for(int i = 0; i < 5; i ++) {
+                writeRequest(socket, i, requestData);
+            }
+
+            for(int i = 0; i < 5; i ++) {
+                Response response = readResponse(socket);
+                Assertions.assertEquals(i, response.serial());
+
+                byte[] expected = i == failedSerial ? new byte[0] : requestData;
+                Assertions.assertArrayEquals(expected, response.data());
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * 响应比 socket 的发送缓冲区大很多，一次 gathering write 只能写出一部分，之后从中断的位置继续写
+     */
+    @Test
+    void testFunc04() throws Exception {
+        int port = 7824;
+        int requestCount = 16;
+
+        SocketServer server = new SocketServer(new SocketServerConfig(port));
+        start(server, new SocketServerHandler() {
+            @Override
+            public void handleRequest(SegmentSocketRequest request) {
+                Segment.deallocAll(request.data());
+
+                BufferWriter writer = new BufferWriter(false);
+                writer.appendRawBytes(largeData(request.serial()));
+                server.offerInterruptibly(new WritableSocketResponse(request, writer));
+            }
+        });
+
+        try(Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(4 * 1024);
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            socket.connect(new InetSocketAddress(HOST, port));
+
+            for(int i = 0; i < requestCount; i ++) {
+                writeRequest(socket, i, requestData);
+            }
+
+            // 先不读取，让服务端的发送缓冲区写满
+            Thread.sleep(200);
+
+            for(int i = 0; i < requestCount; i ++) {
+                Response response = readResponse(socket);
+                Assertions.assertEquals(i, response.serial());
+                Assertions.assertArrayEquals(largeData(i), response.data());
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * 正在处理的请求达到连接的上限时暂停读取，响应写出后恢复读取
+     */
+    @Test
+    void testFunc05() throws Exception {
+        int port = 7825;
+        int maxInFlightRequests = 4;
+
+        SocketServerConfig config = new SocketServerConfig(port)
+                .maxConnectionInFlightRequests(maxInFlightRequests);
+        SocketServer server = new SocketServer(config);
+        HoldingHandler handler = new HoldingHandler(server);
+        start(server, handler);
+
+        try(Socket socket = connect(port)) {
+            int requestCount = 10;
+            for(int i = 0; i < requestCount; i ++) {
+                writeRequest(socket, i, requestData);
+            }
+
+            AdmissionControl admission = server.admissionControl();
+            waitUntil(() -> admission.suspendedConnections() == 1);
+
+            // 超过上限的请求不会交给 handler
+            Assertions.assertEquals(maxInFlightRequests, handler.heldCount());
+            Assertions.assertEquals(maxInFlightRequests, admission.inFlightRequests());
+
+            handler.release();
+            readEchoResponses(socket, requestCount);
+
+            waitUntil(() -> admission.suspendedConnections() == 0 && admission.inFlightRequests() == 0);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * 连接缓存的字节数达到上限时暂停读取，响应写出后恢复读取
+     */
+    @Test
+    void testFunc06() throws Exception {
+        int port = 7826;
+
+        SocketServerConfig config = new SocketServerConfig(port)
+                .maxConnectionBufferedBytes(1);
+        SocketServer server = new SocketServer(config);
+        HoldingHandler handler = new HoldingHandler(server);
+        start(server, handler);
+
+        try(Socket socket = connect(port)) {
+            writeRequest(socket, 0, requestData);
+
+            AdmissionControl admission = server.admissionControl();
+            waitUntil(() -> admission.suspendedConnections() == 1);
+            Assertions.assertTrue(admission.bufferedBytes() >= 1);
+
+            // 暂停读取时发送的请求等恢复读取之后再处理
+            int requestCount = 10;
+            for(int i = 1; i < requestCount; i ++) {
+                writeRequest(socket, i, requestData);
+            }
+
+            handler.release();
+            readEchoResponses(socket, requestCount);
+
+            waitUntil(() -> admission.suspendedConnections() == 0 && admission.inFlightRequests() == 0);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * 不按顺序返回响应的 handler 处理请求失败时，错误响应也直接写出，不会一直占用连接的请求数
+     */
+    @Test
+    void testFunc07() throws Exception {
+        int port = 7827;
+        int failedSerial = 3;
+        int requestCount = 10;
+
+        SocketServerConfig config = new SocketServerConfig(port)
+                .maxConnectionInFlightRequests(2);
+        SocketServer server = new SocketServer(config);
+        start(server, new SocketServerHandler() {
+            @Override
+            public boolean pipelined() {
+                return false;
+            }
+
+            @Override
+            public void handleRequest(SegmentSocketRequest request) {
+                if(request.serial() == failedSerial) {
+                    throw new RuntimeException("Handle request failed.");
+                }
+
+                Segment[] data = request.data();
+                byte[] rawData = Segment.buffers(data).toBytes();
+                Segment.deallocAll(data);
+
+                BufferWriter writer = new BufferWriter(false);
+                writer.appendRawBytes(rawData);
+                server.offerInterruptibly(new WritableSocketResponse(
+                        request.selectionKey(),
+                        request.serial(),
+                        writer
+                ));
+            }
+        });
+
+        try(Socket socket = connect(port)) {
+            for(int i = 0; i < requestCount; i ++) {
+                writeRequest(socket, i, requestData);
+            }
+
+            // 响应不保证顺序，按 serial 检查
+            byte[][] responses = new byte[requestCount][];
+            for(int i = 0; i < requestCount; i ++) {
+                Response response = readResponse(socket);
+                Assertions.assertNull(responses[response.serial()]);
+                responses[response.serial()] = response.data();
+            }
+
+            for(int i = 0; i < requestCount; i ++) {
+                byte[] expected = i == failedSerial ? new byte[0] : requestData;
+                Assertions.assertArrayEquals(expected, responses[i]);
+            }
+
+            AdmissionControl admission = server.admissionControl();
+            waitUntil(() -> admission.suspendedConnections() == 0 && admission.inFlightRequests() == 0);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private void readEchoResponses(Socket socket, int requestCount) throws IOException {
+        for(int i = 0; i < requestCount; i ++) {
+            Response response = readResponse(socket);
+            Assertions.assertEquals(i, response.serial());
+            Assertions.assertArrayEquals(requestData, response.data());
+        }
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+        while(!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "Wait timeout.");
+            Thread.sleep(10);
+        }
+    }
+
+    private static byte[] largeData(int serial) {
+        byte[] data = new byte[300 * 1024 + serial * 1000];
+        for(int i = 0; i < data.length; i ++) {
+            data[i] = (byte) (serial + i);
+        }
+        return data;
+    }
+
+    private static void start(SocketServer server, SocketServerHandler handler) {
+        server.setHandler(handler);
+        Executor.start(server);
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket(HOST, port);
+        socket.setSoTimeout(TIMEOUT_MILLIS);
+        return socket;
+    }
+
+    private static void writeRequest(Socket socket, int serial, byte[] data) throws IOException {
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeInt(Integer.BYTES + data.length);
+        out.writeInt(serial);
+        out.write(data);
+        out.flush();
+    }
+
+    private static Response readResponse(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        int length = in.readInt();
+        int serial = in.readInt();
+
+        byte[] data = new byte[length - Integer.BYTES];
+        in.readFully(data);
+        return new Response(serial, data);
+    }
+
+    private record Response(int serial, byte[] data) {
+    }
+
+    /**
+     * release 之前收到的请求都不返回响应，release 之后按请求的数据原样返回
+     */
+    private static class HoldingHandler implements SocketServerHandler {
+        private final EchoHandler echoHandler;
+        private final List<SegmentSocketRequest> held = new ArrayList<>();
+        private boolean released = false;
+
+        private HoldingHandler(SocketServer server) {
+            echoHandler = new EchoHandler(server);
+        }
+
+        @Override
+        public synchronized void handleRequest(SegmentSocketRequest request) {
+            if(released) {
+                echoHandler.handleRequest(request);
+                return;
+            }
+
+            held.add(request);
+        }
+
+        private synchronized int heldCount() {
+            return held.size();
+        }
+
+        private synchronized void release() {
+            released = true;
+            held.forEach(echoHandler::handleRequest);
+            held.clear();
+        }
+    }
+
+    /**
+     * 按请求的数据原样返回
+     */
+    private record EchoHandler(SocketServer server) implements SocketServerHandler {
+        @Override
+        public void handleRequest(SegmentSocketRequest request) {
+            Segment[] data = request.data();
+            byte[] rawData = Segment.buffers(data).toBytes();
+            Segment.deallocAll(data);
+
+            BufferWriter writer = new BufferWriter(false);
+            writer.appendRawBytes(rawData);
+            server.offerInterruptibly(new WritableSocketResponse(request, writer));
+        }
+    }
+}
@@ -18,39 +18,125 @@ package com.bailizhang.lynxdb.table;
 
 import com.bailizhang.lynxdb.core.common.Pair;
 import com.bailizhang.lynxdb.core.common.Tuple;
+import com.bailizhang.lynxdb.core.log.LogEntry;
+import com.bailizhang.lynxdb.core.log.LogGroup;
+import com.bailizhang.lynxdb.core.log.LogGroupOptions;
 import com.bailizhang.lynxdb.core.utils.FileUtils;
+import com.bailizhang.lynxdb.table.config.LsmTreeOptions;
 import com.bailizhang.lynxdb.table.config.TableOptions;
 import com.bailizhang.lynxdb.table.exception.DeletedException;
 import com.bailizhang.lynxdb.table.exception.TimeoutException;
 import com.bailizhang.lynxdb.table.lsmtree.LsmTree;
+import com.bailizhang.lynxdb.table.lsmtree.WalWriter;
+import com.bailizhang.lynxdb.table.lsmtree.compaction.CompactionScheduler;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.BlockCache;
 import com.bailizhang.lynxdb.table.region.ColumnFamilyRegion;
 import com.bailizhang.lynxdb.table.region.ColumnRegion;
 
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class LynxDbTable implements Table {
+    /**
+     * 以 . 开头，不会和 column family 的目录冲突
+     */
+    private static final String WAL_DIR = ".wal";
+
+    /**
+     * 每写入这么多个 batch，尝试删除一次已经 flush 的 wal
+     */
+    private static final int WAL_TRUNCATE_INTERVAL = 1024;
+
+    /**
+     * insertIfNotExisted 的分段锁数量，必须是 2 的幂
+     */
+    private static final int INSERT_LOCK_STRIPES = 64;
+
     private final TableOptions options;
     private final String baseDir;
 
+    /**
+     * 所有 column region 共用的后台 flush 和 compaction 线程
+     */
+    private final CompactionScheduler scheduler;
+
+    /**
+     * 所有 column region 共用的 block cache
+     */
+    private final BlockCache blockCache;
+
     private final ConcurrentHashMap<String, ColumnFamilyRegion> regions
             = new ConcurrentHashMap<>();
 
+    /**
+     * 检查和写入之间按 key 加锁，并发的 insertIfNotExisted 只有一个能写入成功
+     */
+    private final ReentrantLock[] insertLocks = new ReentrantLock[INSERT_LOCK_STRIPES];
+
+    /**
+     * 所有 column region 共用一个 wal，一个 WriteBatch 对应一条 wal entry
+     */
+    private final LogGroup walLog;
+    private final WalWriter<WriteBatch> walWriter;
+
+    /**
+     * 只在 WalWriter 的 leader 中访问
+     */
+    private int appliedSinceTruncate;
+
     public LynxDbTable(TableOptions options) {
         baseDir = options.baseDir();
         this.options = options;
 
+        for(int i = 0; i < insertLocks.length; i ++) {
+            insertLocks[i] = new ReentrantLock();
+        }
+
+        scheduler = new CompactionScheduler(
+                options.lsmTreeOptions().backgroundThreads(),
+                options.lsmTreeOptions().valueLogGcBytesPerSecond()
+        );
+        blockCache = new BlockCache(
+                options.lsmTreeOptions().blockCacheSize(),
+                LsmTree.BLOCK_CACHE_SHARDS
+        );
+
         FileUtils.createDirIfNotExisted(baseDir);
 
         List<String> subDirs = FileUtils.findSubDirs(baseDir);
 
         for(String columnFamily : subDirs) {
-            ColumnFamilyRegion region = new ColumnFamilyRegion(columnFamily, this.options);
+            if(WAL_DIR.equals(columnFamily)) {
+                continue;
+            }
+
+            ColumnFamilyRegion region = new ColumnFamilyRegion(columnFamily, this.options, scheduler, blockCache);
             regions.put(columnFamily, region);
         }
+
+        LsmTreeOptions lsmTreeOptions = options.lsmTreeOptions();
+        if(lsmTreeOptions.wal()) {
+            String walDir = Path.of(baseDir, WAL_DIR).toString();
+            walLog = new LogGroup(walDir, new LogGroupOptions());
+            // WriteBatch 中保存了 value，不依赖 value log
+            walWriter = new WalWriter<>(
+                    walLog,
+                    null,
+                    lsmTreeOptions.walSyncPolicy(),
+                    lsmTreeOptions.walSyncIntervalMillis(),
+                    this::applyBatches
+            );
+            recoverFromWal();
+        } else {
+            walLog = null;
+            walWriter = null;
+        }
     }
 
     @Override
@@ -113,12 +199,13 @@ public class LynxDbTable implements Table {
             String column,
             List<Tuple<byte[], byte[], Long>> kvPairs
     ) {
-        ColumnFamilyRegion region = findColumnFamilyRegion(columnFamily);
-        LsmTree columnRegion = region.findColumnRegion(column);
+        WriteBatch batch = new WriteBatch();
 
         for(var pair : kvPairs) {
-            columnRegion.insert(pair.first(), pair.second(), pair.third());
+            batch.insert(pair.first(), columnFamily, column, pair.second(), pair.third());
         }
+
+        write(batch);
     }
 
     @Override
@@ -127,12 +214,7 @@ public class LynxDbTable implements Table {
             String columnFamily, HashMap<String, byte[]> multiColumns,
             long timeout
     ) {
-        ColumnFamilyRegion region = findColumnFamilyRegion(columnFamily);
-
-        multiColumns.forEach((column, value) -> {
-            LsmTree columnRegion = region.findColumnRegion(column);
-            columnRegion.insert(key, value, timeout);
-        });
+        write(new WriteBatch().insert(key, columnFamily, multiColumns, timeout));
     }
 
     @Override
@@ -144,32 +226,57 @@ public class LynxDbTable implements Table {
     ) {
         ColumnFamilyRegion region = findColumnFamilyRegion(columnFamily);
 
-        for(String column : multiColumns.keySet()) {
-            LsmTree columnRegion = region.findColumnRegion(column);
-            if(columnRegion.existKey(key)) {
-                return false;
+        ReentrantLock lock = insertLock(key, columnFamily);
+        lock.lock();
+        try {
+            for(String column : multiColumns.keySet()) {
+                LsmTree columnRegion = region.findColumnRegion(column);
+                if(columnRegion.existKey(key)) {
+                    return false;
+                }
             }
+
+            write(new WriteBatch().insert(key, columnFamily, multiColumns, timeout));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void write(WriteBatch batch) {
+        if(batch.isEmpty()) {
+            return;
         }
 
-        multiColumns.forEach((column, value) -> {
-            LsmTree columnRegion = region.findColumnRegion(column);
-            columnRegion.insert(key, value, timeout);
-        });
+        if(walWriter == null) {
+            apply(batch, -1);
+            return;
+        }
 
-        return true;
+        // 并发的 batch 合并写入 wal
+        walWriter.write(batch.toBuffers(), batch);
     }
 
     @Override
     public void delete(byte[] key, String columnFamily, String column) {
-        ColumnFamilyRegion region = findColumnFamilyRegion(columnFamily);
-        LsmTree columnRegion = region.findColumnRegion(column);
-        columnRegion.delete(key);
+        write(new WriteBatch().delete(key, columnFamily, column));
     }
 
     @Override
     public void deleteMultiColumns(byte[] key, String columnFamily, String... deleteColumns) {
+        if(deleteColumns == null || deleteColumns.length == 0) {
+            return;
+        }
+
         ColumnFamilyRegion region = findColumnFamilyRegion(columnFamily);
-        region.deleteMultiColumns(key, deleteColumns);
+
+        // 不存在的 column 不需要删除
+        String[] existedColumns = Arrays.stream(deleteColumns)
+                .filter(region::containsColumn)
+                .toArray(String[]::new);
+
+        write(new WriteBatch().delete(key, columnFamily, existedColumns));
     }
 
     @Override
@@ -179,15 +286,134 @@ public class LynxDbTable implements Table {
         return columnRegion.existKey(key);
     }
 
+    public BlockCache blockCache() {
+        return blockCache;
+    }
+
+    /**
+     * flush 所有 column region 之后删除 wal，下次打开时不需要重放
+     */
+    @Override
+    public void close() {
+        if(walLog != null) {
+            flushAll();
+            truncateWal();
+        }
+
+        scheduler.shutdown();
+    }
+
     @Override
     public void clear() {
+        // 等待后台任务结束后再删除文件
+        scheduler.shutdown();
         FileUtils.delete(Path.of(baseDir));
     }
 
+    /**
+     * WalWriter 的 leader 调用，按 wal 的顺序写入各个 column region
+     */
+    private void applyBatches(List<WriteBatch> batches, long firstWalGlobalIndex) {
+        for(int i = 0; i < batches.size(); i ++) {
+            apply(batches.get(i), firstWalGlobalIndex + i);
+        }
+
+        appliedSinceTruncate += batches.size();
+        if(appliedSinceTruncate >= WAL_TRUNCATE_INTERVAL) {
+            appliedSinceTruncate = 0;
+            truncateWal();
+        }
+    }
+
+    private void apply(WriteBatch batch, long walGlobalIndex) {
+        apply(batch, walGlobalIndex, false);
+    }
+
+    /**
+     * @param isRecovering 恢复时跳过已经 flush 到 SSTable 的 operation，避免重复写入 value log
+     */
+    private void apply(WriteBatch batch, long walGlobalIndex, boolean isRecovering) {
+        for(WriteBatch.Operation operation : batch.operations()) {
+            ColumnFamilyRegion region = findColumnFamilyRegion(operation.columnFamily());
+            ColumnRegion columnRegion = region.findColumnRegion(operation.column());
+
+            if(isRecovering && isFlushed(columnRegion, walGlobalIndex)) {
+                continue;
+            }
+
+            columnRegion.apply(
+                    operation.flag(),
+                    operation.key(),
+                    operation.value(),
+                    operation.timeout(),
+                    walGlobalIndex
+            );
+        }
+    }
+
+    /**
+     * 所有 column region 都 flush 之后，才能删除对应的 wal。
+     * flush 时 value log 和 SSTable 都已经刷盘，oldestWalGlobalIndex 之前的数据不会丢失
+     */
+    private void truncateWal() {
+        // 已经写入 wal 的 batch 都已经写入 memTable
+        long oldest = walLog.maxGlobalIdx() + 1;
+
+        for(ColumnFamilyRegion region : regions.values()) {
+            for(ColumnRegion columnRegion : region.columnRegions()) {
+                oldest = Math.min(oldest, columnRegion.oldestWalGlobalIndex());
+            }
+        }
+
+        walLog.deleteOldThan(oldest);
+    }
+
+    /**
+     * 记录的 index 比 wal 中最大的 index 还大，说明 wal 被重新创建过，不能用来跳过 entry
+     */
+    private boolean isFlushed(ColumnRegion columnRegion, long walGlobalIndex) {
+        long flushed = columnRegion.flushedWalGlobalIndex();
+        return flushed <= walLog.maxGlobalIdx() && walGlobalIndex <= flushed;
+    }
+
+    /**
+     * 跳过已经 flush 的 operation，重放之后立即 flush 并删除 wal，
+     * 重启多次也不会重复写入 value log
+     */
+    private void recoverFromWal() {
+        long walGlobalIndex = walLog.minGlobalIdx();
+
+        boolean isReplayed = false;
+        for(LogEntry entry : walLog) {
+            WriteBatch batch = WriteBatch.from(ByteBuffer.wrap(entry.data()));
+            apply(batch, walGlobalIndex ++, true);
+            isReplayed = true;
+        }
+
+        if(isReplayed) {
+            flushAll();
+            truncateWal();
+        }
+    }
+
+    private void flushAll() {
+        for(ColumnFamilyRegion region : regions.values()) {
+            for(ColumnRegion columnRegion : region.columnRegions()) {
+                columnRegion.flush();
+            }
+        }
+    }
+
+    private ReentrantLock insertLock(byte[] key, String columnFamily) {
+        int hash = 31 * columnFamily.hashCode() + Arrays.hashCode(key);
+        hash ^= (hash >>> 16);
+        return insertLocks[hash & (insertLocks.length - 1)];
+    }
+
     private ColumnFamilyRegion findColumnFamilyRegion(String columnFamily) {
         return regions.computeIfAbsent(
                 columnFamily,
-                v -> new ColumnFamilyRegion(columnFamily, options)
+                v -> new ColumnFamilyRegion(columnFamily, options, scheduler, blockCache)
         );
     }
 
@@ -64,6 +64,13 @@ public interface Table {
             long timeout
     );
 
+    /**
+     * 原子地写入一组跨 column family 和 column 的操作
+     *
+     * @param batch write batch
+     */
+    void write(WriteBatch batch);
+
     void delete(byte[] key, String columnFamily, String column);
     void deleteMultiColumns(byte[] key, String columnFamily, String... deleteColumns);
 
@@ -73,5 +80,10 @@ public interface Table {
             String mainColumn
     );
 
+    /**
+     * 正常关闭，之后不能再读写
+     */
+    void close();
+
     void clear();
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.table;
+
+import com.bailizhang.lynxdb.core.buffers.BufferWriter;
+import com.bailizhang.lynxdb.core.common.Bytes;
+import com.bailizhang.lynxdb.core.common.DataBlocks;
+import com.bailizhang.lynxdb.core.common.Flags;
+import com.bailizhang.lynxdb.core.common.G;
+import com.bailizhang.lynxdb.core.utils.BufferUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一组跨 column family 和 column 的写操作，作为一条 wal entry 写入，恢复时要么全部生效，要么全部不生效
+ *
+ * 编码: [flag | column family | column | key | value | timeout] ...
+ * wal 和 LDTP 的 WRITE_BATCH 使用同一种编码
+ */
+public class WriteBatch {
+    private final List<Operation> operations = new ArrayList<>();
+
+    public WriteBatch insert(
+            byte[] key,
+            String columnFamily,
+            String column,
+            byte[] value,
+            long timeout
+    ) {
+        operations.add(new Operation(Flags.EXISTED, columnFamily, column, key, value, timeout));
+        return this;
+    }
+
+    public WriteBatch insert(
+            byte[] key,
+            String columnFamily,
+            Map<String, byte[]> multiColumns,
+            long timeout
+    ) {
+        multiColumns.forEach((column, value) -> insert(key, columnFamily, column, value, timeout));
+        return this;
+    }
+
+    public WriteBatch delete(byte[] key, String columnFamily, String... columns) {
+        for(String column : columns) {
+            operations.add(new Operation(Flags.DELETED, columnFamily, column, key, Bytes.EMPTY, 0L));
+        }
+        return this;
+    }
+
+    public List<Operation> operations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    public void appendTo(DataBlocks dataBlocks) {
+        for(Operation operation : operations) {
+            dataBlocks.appendRawByte(operation.flag());
+            dataBlocks.appendVarStr(operation.columnFamily());
+            dataBlocks.appendVarStr(operation.column());
+            dataBlocks.appendVarBytes(operation.key());
+            dataBlocks.appendVarBytes(operation.value());
+            dataBlocks.appendRawLong(operation.timeout());
+        }
+    }
+
+    /**
+     * 客户端发送请求时直接写入 BufferWriter
+     */
+    public void appendTo(BufferWriter writer) {
+        for(Operation operation : operations) {
+            writer.appendRawByte(operation.flag());
+            writer.appendVarStr(operation.columnFamily());
+            writer.appendVarStr(operation.column());
+            writer.appendVarBytes(operation.key());
+            writer.appendVarBytes(operation.value());
+            writer.appendRawLong(operation.timeout());
+        }
+    }
+
+    public ByteBuffer[] toBuffers() {
+        DataBlocks dataBlocks = new DataBlocks(false);
+        appendTo(dataBlocks);
+        return dataBlocks.toBuffers();
+    }
+
+    public static WriteBatch from(ByteBuffer buffer) {
+        WriteBatch batch = new WriteBatch();
+
+        while(buffer.hasRemaining()) {
+            byte flag = buffer.get();
+            String columnFamily = G.I.toString(BufferUtils.getBytes(buffer));
+            String column = G.I.toString(BufferUtils.getBytes(buffer));
+            byte[] key = BufferUtils.getBytes(buffer);
+            byte[] value = BufferUtils.getBytes(buffer);
+            long timeout = buffer.getLong();
+
+            if (flag != Flags.EXISTED && flag != Flags.DELETED) {
+                throw new RuntimeException("Unknown write batch flag: " + flag);
+            }
+
+            batch.operations.add(new Operation(flag, columnFamily, column, key, value, timeout));
+        }
+
+        return batch;
+    }
+
+    public record Operation(
+            byte flag,
+            String columnFamily,
+            String column,
+            byte[] key,
+            byte[] value,
+            long timeout
+    ) {
+    }
+}
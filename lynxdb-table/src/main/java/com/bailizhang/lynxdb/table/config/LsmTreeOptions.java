@@ -17,21 +17,101 @@
 package com.bailizhang.lynxdb.table.config;
 
 public class LsmTreeOptions {
-    private static final int DEFAULT_MEM_TABLE_SIZE = 2000;
-    private final int memTableSize;
+    private static final int DEFAULT_MAX_IMMUTABLE_MEM_TABLES = 4;
+    private static final int DEFAULT_BACKGROUND_THREADS = 2;
+    private static final int DEFAULT_BLOCK_SIZE = 4 * 1024;
+    private static final long DEFAULT_BLOCK_CACHE_SIZE = 64L * 1024 * 1024;
+
+    private static final int DEFAULT_BLOOM_FILTER_BITS_PER_KEY = 10;
+    private static final long DEFAULT_MEM_TABLE_BYTES = 4L * 1024 * 1024;
+    private static final long MAX_MEM_TABLE_BYTES = 1024L * 1024 * 1024;
+
+    private static final long DEFAULT_TARGET_FILE_SIZE_BASE = 2L * 1024 * 1024;
+    private static final int DEFAULT_TARGET_FILE_SIZE_MULTIPLIER = 1;
+    private static final long DEFAULT_MAX_BYTES_FOR_LEVEL_BASE = 20L * 1024 * 1024;
+    private static final int DEFAULT_LEVEL_SIZE_MULTIPLIER = 10;
+    private static final int DEFAULT_LEVEL1_COMPACTION_TRIGGER = 10;
+
+    private static final long DEFAULT_WAL_SYNC_INTERVAL_MILLIS = 100;
+
+    private static final double DEFAULT_VALUE_LOG_GC_RATIO = 0.5d;
+    private static final long DEFAULT_VALUE_LOG_GC_BYTES_PER_SECOND = 32L * 1024 * 1024;
+    private static final int DEFAULT_VALUE_SEPARATION_THRESHOLD = 64;
+
+    private static final int MIN_BLOCK_SIZE = 1024;
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * memTable 中 key 和 meta 占用的堆外内存达到这个大小时切换成 immutable
+     */
+    private long memTableBytes = DEFAULT_MEM_TABLE_BYTES;
 
     private boolean wal = true;
 
-    public LsmTreeOptions() {
-        this(DEFAULT_MEM_TABLE_SIZE);
-    }
+    /**
+     * wal 的刷盘策略，EVERY_N_MS 时按 walSyncIntervalMillis 刷盘
+     */
+    private WalSyncPolicy walSyncPolicy = WalSyncPolicy.NONE;
+    private long walSyncIntervalMillis = DEFAULT_WAL_SYNC_INTERVAL_MILLIS;
 
-    public LsmTreeOptions(int memTableSize) {
-        this.memTableSize = memTableSize;
-    }
+    /**
+     * 等待后台 flush 的 immutable memTable 达到这个数量时，写入会被阻塞
+     */
+    private int maxImmutableMemTables = DEFAULT_MAX_IMMUTABLE_MEM_TABLES;
+
+    /**
+     * 后台 flush 和 compaction 的线程数
+     */
+    private int backgroundThreads = DEFAULT_BACKGROUND_THREADS;
+
+    /**
+     * SSTable 中 data block 的目标大小
+     */
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    /**
+     * 整个 table 共享的 block cache 容量
+     */
+    private long blockCacheSize = DEFAULT_BLOCK_CACHE_SIZE;
+
+    /**
+     * 布隆过滤器中每个 key 占用的 bit 数，10 bits 的误判率约为 1%
+     */
+    private int bloomFilterBitsPerKey = DEFAULT_BLOOM_FILTER_BITS_PER_KEY;
+
+    /**
+     * Level 2 中单个 SSTable 的目标大小，之后每层乘以 targetFileSizeMultiplier
+     */
+    private long targetFileSizeBase = DEFAULT_TARGET_FILE_SIZE_BASE;
+    private int targetFileSizeMultiplier = DEFAULT_TARGET_FILE_SIZE_MULTIPLIER;
 
-    public int memTableSize() {
-        return memTableSize;
+    /**
+     * Level 2 的总大小上限，之后每层乘以 levelSizeMultiplier
+     */
+    private long maxBytesForLevelBase = DEFAULT_MAX_BYTES_FOR_LEVEL_BASE;
+    private int levelSizeMultiplier = DEFAULT_LEVEL_SIZE_MULTIPLIER;
+
+    /**
+     * Level 1 的 SSTable 是 memTable 直接 flush 生成的，key 范围可能重叠，按数量触发 compaction
+     */
+    private int level1CompactionTrigger = DEFAULT_LEVEL1_COMPACTION_TRIGGER;
+
+    /**
+     * value log 中 region 的垃圾比例达到这个值时，后台线程回收这个 region
+     */
+    private double valueLogGcRatio = DEFAULT_VALUE_LOG_GC_RATIO;
+
+    /**
+     * 后台回收 value log 每秒最多复制的字节数，同一个 table 共享
+     */
+    private long valueLogGcBytesPerSecond = DEFAULT_VALUE_LOG_GC_BYTES_PER_SECOND;
+
+    /**
+     * 长度小于这个值的 value 直接保存在 SSTable 中，不写入 value log，0 表示全部写入 value log
+     */
+    private int valueSeparationThreshold = DEFAULT_VALUE_SEPARATION_THRESHOLD;
+
+    public LsmTreeOptions() {
     }
 
     public boolean wal() {
@@ -41,4 +121,227 @@ public class LsmTreeOptions {
     public void wal(boolean val) {
         wal = val;
     }
+
+    public WalSyncPolicy walSyncPolicy() {
+        return walSyncPolicy;
+    }
+
+    public void walSyncPolicy(WalSyncPolicy val) {
+        if(val == null) {
+            throw new RuntimeException("walSyncPolicy can not be null");
+        }
+
+        walSyncPolicy = val;
+    }
+
+    public long walSyncIntervalMillis() {
+        return walSyncIntervalMillis;
+    }
+
+    public void walSyncIntervalMillis(long val) {
+        if(val <= 0) {
+            throw new RuntimeException("walSyncIntervalMillis must be positive");
+        }
+
+        walSyncIntervalMillis = val;
+    }
+
+    public int maxImmutableMemTables() {
+        return maxImmutableMemTables;
+    }
+
+    public void maxImmutableMemTables(int val) {
+        if(val <= 0) {
+            throw new RuntimeException("maxImmutableMemTables must be positive");
+        }
+
+        maxImmutableMemTables = val;
+    }
+
+    public int backgroundThreads() {
+        return backgroundThreads;
+    }
+
+    public void backgroundThreads(int val) {
+        if(val <= 0) {
+            throw new RuntimeException("backgroundThreads must be positive");
+        }
+
+        backgroundThreads = val;
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    public void blockSize(int val) {
+        if(val < MIN_BLOCK_SIZE || val > MAX_BLOCK_SIZE) {
+            throw new RuntimeException("blockSize must be between " + MIN_BLOCK_SIZE + " and " + MAX_BLOCK_SIZE);
+        }
+
+        blockSize = val;
+    }
+
+    public long blockCacheSize() {
+        return blockCacheSize;
+    }
+
+    public void blockCacheSize(long val) {
+        if(val <= 0) {
+            throw new RuntimeException("blockCacheSize must be positive");
+        }
+
+        blockCacheSize = val;
+    }
+
+    public int bloomFilterBitsPerKey() {
+        return bloomFilterBitsPerKey;
+    }
+
+    public void bloomFilterBitsPerKey(int val) {
+        if(val <= 0) {
+            throw new RuntimeException("bloomFilterBitsPerKey must be positive");
+        }
+
+        bloomFilterBitsPerKey = val;
+    }
+
+    public long memTableBytes() {
+        return memTableBytes;
+    }
+
+    public void memTableBytes(long val) {
+        if(val <= 0 || val > MAX_MEM_TABLE_BYTES) {
+            throw new RuntimeException("memTableBytes must be between 1 and " + MAX_MEM_TABLE_BYTES);
+        }
+
+        memTableBytes = val;
+    }
+
+    public long targetFileSizeBase() {
+        return targetFileSizeBase;
+    }
+
+    public void targetFileSizeBase(long val) {
+        if(val <= 0) {
+            throw new RuntimeException("targetFileSizeBase must be positive");
+        }
+
+        targetFileSizeBase = val;
+    }
+
+    public int targetFileSizeMultiplier() {
+        return targetFileSizeMultiplier;
+    }
+
+    public void targetFileSizeMultiplier(int val) {
+        if(val <= 0) {
+            throw new RuntimeException("targetFileSizeMultiplier must be positive");
+        }
+
+        targetFileSizeMultiplier = val;
+    }
+
+    public long maxBytesForLevelBase() {
+        return maxBytesForLevelBase;
+    }
+
+    public void maxBytesForLevelBase(long val) {
+        if(val <= 0) {
+            throw new RuntimeException("maxBytesForLevelBase must be positive");
+        }
+
+        maxBytesForLevelBase = val;
+    }
+
+    public int levelSizeMultiplier() {
+        return levelSizeMultiplier;
+    }
+
+    public void levelSizeMultiplier(int val) {
+        if(val <= 1) {
+            throw new RuntimeException("levelSizeMultiplier must be greater than 1");
+        }
+
+        levelSizeMultiplier = val;
+    }
+
+    public double valueLogGcRatio() {
+        return valueLogGcRatio;
+    }
+
+    public void valueLogGcRatio(double val) {
+        if(val <= 0 || val > 1) {
+            throw new RuntimeException("valueLogGcRatio must be in (0, 1]");
+        }
+
+        valueLogGcRatio = val;
+    }
+
+    public long valueLogGcBytesPerSecond() {
+        return valueLogGcBytesPerSecond;
+    }
+
+    public void valueLogGcBytesPerSecond(long val) {
+        if(val <= 0) {
+            throw new RuntimeException("valueLogGcBytesPerSecond must be positive");
+        }
+
+        valueLogGcBytesPerSecond = val;
+    }
+
+    public int valueSeparationThreshold() {
+        return valueSeparationThreshold;
+    }
+
+    public void valueSeparationThreshold(int val) {
+        if(val < 0) {
+            throw new RuntimeException("valueSeparationThreshold must not be negative");
+        }
+
+        valueSeparationThreshold = val;
+    }
+
+    public int level1CompactionTrigger() {
+        return level1CompactionTrigger;
+    }
+
+    public void level1CompactionTrigger(int val) {
+        if(val <= 0) {
+            throw new RuntimeException("level1CompactionTrigger must be positive");
+        }
+
+        level1CompactionTrigger = val;
+    }
+
+    /**
+     * Level 2 及以上的 SSTable 目标大小
+     *
+     * @param levelNo level No.
+     * @return target file size in bytes
+     */
+    public long targetFileSize(int levelNo) {
+        return multiply(targetFileSizeBase, targetFileSizeMultiplier, levelNo - 2);
+    }
+
+    /**
+     * Level 2 及以上的总大小上限
+     *
+     * @param levelNo level No.
+     * @return max bytes of the level
+     */
+    public long maxBytesForLevel(int levelNo) {
+        return multiply(maxBytesForLevelBase, levelSizeMultiplier, levelNo - 2);
+    }
+
+    private static long multiply(long base, int multiplier, int times) {
+        long value = base;
+        for(int i = 0; i < times; i ++) {
+            if(value > Long.MAX_VALUE / multiplier) {
+                return Long.MAX_VALUE;
+            }
+            value *= multiplier;
+        }
+        return value;
+    }
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.table.config;
+
+/**
+ * wal 刷盘策略
+ */
+public enum WalSyncPolicy {
+    /**
+     * 不主动刷盘，由操作系统决定什么时候写回
+     */
+    NONE,
+
+    /**
+     * 每隔 walSyncIntervalMillis 刷一次盘，宕机最多丢失这段时间内的写入
+     */
+    EVERY_N_MS,
+
+    /**
+     * 每批写入刷一次盘后再返回，多个并发写入共用一次刷盘
+     */
+    EVERY_BATCH
+}
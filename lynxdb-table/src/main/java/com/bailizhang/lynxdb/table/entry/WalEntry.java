@@ -23,11 +23,13 @@ import com.bailizhang.lynxdb.core.utils.BufferUtils;
 import java.nio.ByteBuffer;
 import java.util.zip.CRC32C;
 
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.LONG_LENGTH;
+
 public record WalEntry(
         byte flag,
         byte[] key,
         byte[] value,
-        int valueGlobalIndex,
+        long valueGlobalIndex,
         long timeout
 ) {
 
@@ -35,14 +37,14 @@ public record WalEntry(
             byte flag,
             byte[] key,
             byte[] value,
-            int valueGlobalIndex,
+            long valueGlobalIndex,
             long timeout
     ) {
         CRC32C crc32C = new CRC32C();
         crc32C.update(new byte[]{flag});
         crc32C.update(key);
         crc32C.update(value);
-        crc32C.update(valueGlobalIndex);
+        crc32C.update(BufferUtils.toBytes(valueGlobalIndex));
         crc32C.update(BufferUtils.toBytes(timeout));
 
         return new WalEntry(
@@ -58,7 +60,8 @@ public record WalEntry(
         byte flag = buffer.get();
         byte[] key = BufferUtils.getBytes(buffer);
         byte[] value = BufferUtils.getBytes(buffer);
-        int valueGlobalIndex = buffer.getInt();
+        // 旧版本的 value global index 是 int，按剩余的长度区分
+        long valueGlobalIndex = buffer.remaining() >= LONG_LENGTH * 2 ? buffer.getLong() : buffer.getInt();
         long timeout = buffer.getLong();
 
         if (flag != Flags.EXISTED && flag != Flags.DELETED) {
@@ -79,7 +82,7 @@ public record WalEntry(
         dataBlocks.appendRawByte(flag);
         dataBlocks.appendVarBytes(key);
         dataBlocks.appendVarBytes(value);
-        dataBlocks.appendRawInt(valueGlobalIndex);
+        dataBlocks.appendRawLong(valueGlobalIndex);
         dataBlocks.appendRawLong(timeout);
 
         return dataBlocks.toBuffers();
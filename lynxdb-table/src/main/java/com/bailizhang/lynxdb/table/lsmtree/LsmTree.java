@@ -21,35 +21,107 @@ import com.bailizhang.lynxdb.core.common.Flags;
 import com.bailizhang.lynxdb.core.log.LogEntry;
 import com.bailizhang.lynxdb.core.log.LogGroup;
 import com.bailizhang.lynxdb.core.log.LogGroupOptions;
+import com.bailizhang.lynxdb.core.mmap.MappedBuffer;
+import com.bailizhang.lynxdb.core.utils.Crc32cUtils;
 import com.bailizhang.lynxdb.core.utils.FileUtils;
 import com.bailizhang.lynxdb.table.config.LsmTreeOptions;
 import com.bailizhang.lynxdb.table.entry.WalEntry;
 import com.bailizhang.lynxdb.table.exception.DeletedException;
 import com.bailizhang.lynxdb.table.exception.TimeoutException;
+import com.bailizhang.lynxdb.table.lsmtree.compaction.CompactionScheduler;
 import com.bailizhang.lynxdb.table.lsmtree.level.Levels;
 import com.bailizhang.lynxdb.table.lsmtree.memory.MemTable;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.BlockCache;
 import com.bailizhang.lynxdb.table.lsmtree.sstable.KeyEntry;
 import com.bailizhang.lynxdb.table.schema.Key;
 
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.LONG_LENGTH;
 
 public class LsmTree {
     private static final String WAL_DIR = "wal";
     private final static String VALUE_DIR = "value";
+    private final static String FLUSHED_WAL_INDEX_FILE = "flushed_wal_index";
+
+    public static final int BLOCK_CACHE_SHARDS = 16;
 
     private final LsmTreeOptions options;
 
+    /**
+     * 由 table 统一写 wal 时，LsmTree 自己不写 wal
+     */
+    private final boolean wal;
     private final LogGroup walLog;
+    private final WalWriter<KeyEntry> walWriter;
     private final LogGroup valueLog;
 
-    private MemTable immutable;
-    private MemTable mutable;
+    /**
+     * 由 table 统一写 wal 时，已经 flush 到 SSTable 的最大 table wal global index，恢复时跳过这些 entry
+     * 格式: wal global index | crc
+     */
+    private final MappedBuffer flushedWalIndexBuffer;
+    private volatile long flushedWalGlobalIndex;
+
+    /**
+     * 等待后台 flush 的 memTable，头部是最新的，尾部是最旧的
+     */
+    private final ConcurrentLinkedDeque<MemTable> immutables = new ConcurrentLinkedDeque<>();
+    private volatile MemTable mutable;
     private final Levels levels;
+    private final LsmTreeStatistics statistics = new LsmTreeStatistics();
+
+    private final CompactionScheduler scheduler;
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+    private final AtomicBoolean collecting = new AtomicBoolean(false);
+
+    /**
+     * 后台 flush 失败后不再重试，之后的写入直接抛出这个异常
+     */
+    private volatile Throwable flushError;
+
+    /**
+     * 写入 memTable 和切换 memTable 时持有，wal 的顺序由 WalWriter 保证
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Condition flushed = writeLock.newCondition();
 
     public LsmTree(String baseDir, LsmTreeOptions options) {
+        this(
+                baseDir,
+                options,
+                new CompactionScheduler(options.backgroundThreads(), options.valueLogGcBytesPerSecond()),
+                new BlockCache(options.blockCacheSize(), BLOCK_CACHE_SHARDS)
+        );
+    }
+
+    public LsmTree(
+            String baseDir,
+            LsmTreeOptions options,
+            CompactionScheduler scheduler,
+            BlockCache blockCache
+    ) {
+        this(baseDir, options, scheduler, blockCache, options.wal());
+    }
+
+    public LsmTree(
+            String baseDir,
+            LsmTreeOptions options,
+            CompactionScheduler scheduler,
+            BlockCache blockCache,
+            boolean wal
+    ) {
         this.options = options;
+        this.wal = wal;
+        this.scheduler = scheduler;
 
         FileUtils.createDirIfNotExisted(baseDir);
 
@@ -59,19 +131,40 @@ public class LsmTree {
         String valueLogPath = Path.of(baseDir, VALUE_DIR).toString();
         valueLog = new LogGroup(valueLogPath, valueLogGroupOptions);
 
-        mutable = new MemTable(options);
-        levels = new Levels(baseDir, valueLog, options);
+        mutable = new MemTable(options, valueLog);
+        levels = new Levels(baseDir, valueLog, options, blockCache, statistics);
+
+        FileUtils.createFileIfNotExisted(baseDir, FLUSHED_WAL_INDEX_FILE);
+        flushedWalIndexBuffer = new MappedBuffer(
+                Path.of(baseDir, FLUSHED_WAL_INDEX_FILE),
+                0,
+                LONG_LENGTH * 2
+        );
+        flushedWalGlobalIndex = readFlushedWalGlobalIndex();
+
+        String walDir = Path.of(baseDir, WAL_DIR).toString();
 
-        if(options.wal()) {
+        if(wal) {
             // 初始化 wal log group
-            String walDir = Path.of(baseDir, WAL_DIR).toString();
             LogGroupOptions logOptions = new LogGroupOptions();
-            logOptions.regionCapacity(options.memTableSize());
 
             walLog = new LogGroup(walDir, logOptions);
-            recoverFromWal();
+            walWriter = new WalWriter<>(
+                    walLog,
+                    valueLog,
+                    options.walSyncPolicy(),
+                    options.walSyncIntervalMillis(),
+                    this::insertIntoMemTable
+            );
+            recoverFromWal(walLog);
         } else {
             walLog = null;
+            walWriter = null;
+
+            // 改成由 table 统一写 wal 之前遗留的 wal
+            if(FileUtils.exist(Path.of(walDir))) {
+                recoverFromLegacyWal(walDir);
+            }
         }
     }
 
@@ -81,7 +174,8 @@ public class LsmTree {
             return value;
         }
 
-        if(immutable != null) {
+        // 从新到旧查找
+        for(MemTable immutable : immutables) {
             value = immutable.find(key);
             if(value != null) {
                 return value;
@@ -92,7 +186,7 @@ public class LsmTree {
     }
 
     public void insert(byte[] key, byte[] value, long timeout) {
-        int valueGlobalIndex = valueLog.appendEntry(value);
+        long valueGlobalIndex = appendValue(value);
         KeyEntry keyEntry = new KeyEntry(
                 Flags.EXISTED,
                 key,
@@ -101,20 +195,18 @@ public class LsmTree {
                 timeout
         );
 
-        int maxWalGlobalIndex = -1;
-        if(options.wal()) {
-            WalEntry walEntry = WalEntry.from(
+        WalEntry walEntry = null;
+        if(wal) {
+            walEntry = WalEntry.from(
                     Flags.EXISTED,
                     key,
                     value,
                     valueGlobalIndex,
                     timeout
             );
-            ByteBuffer[] data = walEntry.toBuffers();
-            maxWalGlobalIndex = walLog.appendEntry(data);
         }
 
-        insertIntoMemTableAndMerge(keyEntry, maxWalGlobalIndex);
+        write(walEntry, keyEntry);
     }
 
     public void delete(byte[] key) {
@@ -126,55 +218,323 @@ public class LsmTree {
                 0L
         );
 
-        int maxWalGlobalIndex = -1;
-        if(options.wal()) {
-            WalEntry walEntry = WalEntry.from(
+        WalEntry walEntry = null;
+        if(wal) {
+            walEntry = WalEntry.from(
                     Flags.DELETED,
                     key,
                     Bytes.EMPTY,
                     -1,
                     0L
             );
-            ByteBuffer[] data = walEntry.toBuffers();
-            maxWalGlobalIndex = walLog.appendEntry(data);
         }
 
-        insertIntoMemTableAndMerge(keyEntry, maxWalGlobalIndex);
+        write(walEntry, keyEntry);
+    }
+
+    /**
+     * 小的 value 内联在 memTable 和 SSTable 中，不写入 value log
+     *
+     * @param value value
+     * @return value global index
+     */
+    private long appendValue(byte[] value) {
+        if(value.length < options.valueSeparationThreshold()) {
+            return KeyEntry.INLINE_VALUE;
+        }
+
+        return valueLog.appendEntry(value);
+    }
+
+    /**
+     * 写入已经记录在 table wal 中的 entry，调用方保证按 wal 的顺序调用
+     *
+     * @param flag EXISTED or DELETED
+     * @param key key
+     * @param value value
+     * @param timeout timeout
+     * @param walGlobalIndex table wal 的 global index
+     */
+    public void apply(byte flag, byte[] key, byte[] value, long timeout, long walGlobalIndex) {
+        KeyEntry keyEntry;
+
+        if(flag == Flags.DELETED) {
+            keyEntry = new KeyEntry(Flags.DELETED, key, Bytes.EMPTY, -1, 0L);
+        } else {
+            long valueGlobalIndex = appendValue(value);
+            keyEntry = new KeyEntry(Flags.EXISTED, key, value, valueGlobalIndex, timeout);
+        }
+
+        writeLock.lock();
+        try {
+            insertIntoMemTable(keyEntry, walGlobalIndex);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 已经 flush 到 SSTable 的最大 table wal global index
+     *
+     * @return -1 if nothing flushed
+     */
+    public long flushedWalGlobalIndex() {
+        return flushedWalGlobalIndex;
+    }
+
+    /**
+     * 把 mutable memTable 切换成 immutable，等待所有 immutable flush 完成
+     */
+    public void flush() {
+        writeLock.lock();
+        try {
+            checkFlushError();
+
+            if(mutable.size() > 0) {
+                switchMutable();
+            }
+
+            while(!immutables.isEmpty()) {
+                flushed.awaitUninterruptibly();
+                checkFlushError();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 还没有 flush 的数据中最小的 wal global index
+     *
+     * @return Long.MAX_VALUE if all flushed
+     */
+    public long oldestWalGlobalIndex() {
+        long oldest = Long.MAX_VALUE;
+
+        for(MemTable immutable : immutables) {
+            long index = immutable.minWalGlobalIndex();
+            if(index >= 0) {
+                oldest = Math.min(oldest, index);
+            }
+        }
+
+        long index = mutable.minWalGlobalIndex();
+        if(index >= 0) {
+            oldest = Math.min(oldest, index);
+        }
+
+        return oldest;
+    }
+
+    private void write(WalEntry walEntry, KeyEntry keyEntry) {
+        if(walEntry != null) {
+            // 并发的写入合并成一批写 wal
+            walWriter.write(walEntry.toBuffers(), keyEntry);
+            return;
+        }
+
+        writeLock.lock();
+        try {
+            insertIntoMemTable(keyEntry, -1);
+        } finally {
+            writeLock.unlock();
+        }
     }
 
-    private void insertIntoMemTableAndMerge(KeyEntry keyEntry, int maxWalGlobalIndex) {
+    /**
+     * WalWriter 的 leader 调用，按 wal 的顺序写入 memTable
+     */
+    private void insertIntoMemTable(List<KeyEntry> keyEntries, long firstWalGlobalIndex) {
+        writeLock.lock();
+        try {
+            for(int i = 0; i < keyEntries.size(); i ++) {
+                insertIntoMemTable(keyEntries.get(i), firstWalGlobalIndex + i);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 调用时需要持有 writeLock
+     */
+    private void insertIntoMemTable(KeyEntry keyEntry, long walGlobalIndex) {
+        checkFlushError();
+
         if(mutable.full()) {
-            MemTable needMerged = immutable;
-            mutable.transformToImmutable();
-            immutable = mutable;
-            mutable = new MemTable(options);
-            levels.merge(needMerged);
-
-            // TODO: 极端情况下会出现数据重复
-            if(options.wal() && needMerged != null) {
-                walLog.deleteOldThan(maxWalGlobalIndex - options.memTableSize() + 1);
+            switchMutable();
+        }
+
+        mutable.append(keyEntry, walGlobalIndex);
+    }
+
+    /**
+     * 调用时需要持有 writeLock
+     */
+    private void switchMutable() {
+        // 后台 flush 跟不上时阻塞写入
+        while(immutables.size() >= options.maxImmutableMemTables()) {
+            flushed.awaitUninterruptibly();
+            checkFlushError();
+        }
+
+        MemTable needFlushed = mutable;
+        needFlushed.transformToImmutable();
+
+        // 先加入 immutables 再替换 mutable，保证读操作不会漏掉数据
+        immutables.addFirst(needFlushed);
+        mutable = new MemTable(options, valueLog);
+
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if(flushing.compareAndSet(false, true)) {
+            scheduler.schedule(this::flushImmutables);
+        }
+    }
+
+    private void checkFlushError() {
+        if(flushError != null) {
+            throw new RuntimeException("Flush memTable failed.", flushError);
+        }
+    }
+
+    /**
+     * 后台线程执行，按从旧到新的顺序 flush immutable memTable。
+     * 失败时唤醒等待 flush 的写入线程，由它们抛出异常
+     */
+    private void flushImmutables() {
+        try {
+            MemTable immutable;
+            while((immutable = immutables.peekLast()) != null) {
+                // SSTable 引用的 value 先刷盘，SSTable 在生成时已经刷盘，之后才能删除 wal
+                valueLog.force();
+                levels.merge(immutable);
+                immutables.pollLast();
+
+                long maxWalGlobalIndex = immutable.maxWalGlobalIndex();
+                if(walLog != null && maxWalGlobalIndex >= 0) {
+                    walLog.deleteOldThan(maxWalGlobalIndex + 1);
+                } else if(maxWalGlobalIndex >= 0) {
+                    // table 删除 wal 之前记录，保证恢复时不会重复写入 value log
+                    writeFlushedWalGlobalIndex(maxWalGlobalIndex);
+                }
+
+                signalFlushed();
             }
+        } catch (Throwable t) {
+            flushError = t;
+            signalFlushed();
+            throw new RuntimeException(t);
+        } finally {
+            flushing.set(false);
+        }
+
+        // flushing 置为 false 之前可能有新的 immutable 加入
+        if(!immutables.isEmpty()) {
+            scheduleFlush();
+        }
+
+        // compaction 删除的 value 在后台回收，不阻塞 flush 和写入
+        scheduleValueLogGc();
+    }
+
+    private void scheduleValueLogGc() {
+        if(collecting.compareAndSet(false, true)) {
+            scheduler.schedule(this::collectValueLog);
+        }
+    }
+
+    /**
+     * 后台线程执行，逐个回收垃圾比例超过阈值的 value log region。
+     * 失败的 region 保持不变，下一次 flush 之后重新回收
+     */
+    private void collectValueLog() {
+        try {
+            int regionId;
+            while((regionId = valueLog.garbageRegion(options.valueLogGcRatio())) >= 0) {
+                long reclaimed = valueLog.collectRegion(
+                        regionId,
+                        scheduler.valueLogGcLimiter()::acquire
+                );
+
+                if(reclaimed < 0) {
+                    break;
+                }
+
+                statistics.recordValueLogGc(reclaimed);
+            }
+        } finally {
+            collecting.set(false);
+        }
+    }
+
+    /**
+     * 记录只用来减少恢复时的重复写入，不 force。
+     * 新建的文件或者没有落盘的记录 crc 校验不通过，返回 -1，恢复时重放全部 wal
+     */
+    private long readFlushedWalGlobalIndex() {
+        MappedByteBuffer buffer = flushedWalIndexBuffer.getBuffer();
+
+        CRC32C crc32C = new CRC32C();
+        crc32C.update(buffer.slice(0, LONG_LENGTH));
+
+        if(crc32C.getValue() != buffer.getLong(LONG_LENGTH)) {
+            return -1;
+        }
+
+        return buffer.getLong(0);
+    }
+
+    /**
+     * SSTable 已经 force，记录不会超过已经落盘的数据
+     */
+    private void writeFlushedWalGlobalIndex(long walGlobalIndex) {
+        MappedByteBuffer buffer = flushedWalIndexBuffer.getBuffer();
+        buffer.putLong(0, walGlobalIndex);
+        Crc32cUtils.update(buffer, 0, LONG_LENGTH);
+
+        flushedWalGlobalIndex = walGlobalIndex;
+    }
+
+    private void signalFlushed() {
+        writeLock.lock();
+        try {
+            flushed.signalAll();
+        } finally {
+            writeLock.unlock();
         }
-        mutable.append(keyEntry);
     }
 
     public boolean existKey(byte[] key) {
         try {
-            return mutable.existKey(key)
-                    || (immutable != null && immutable.existKey(key))
-                    || levels.existKey(key);
+            if(mutable.existKey(key)) {
+                return true;
+            }
+
+            for(MemTable immutable : immutables) {
+                if(immutable.existKey(key)) {
+                    return true;
+                }
+            }
+
+            return levels.existKey(key);
         } catch (DeletedException | TimeoutException o_0) {
             return false;
         }
     }
 
+    public LsmTreeStatistics statistics() {
+        return statistics;
+    }
+
     public List<byte[]> rangeNext(byte[] beginKey, int limit) {
         return range(
                 beginKey,
                 limit,
                 Comparator.naturalOrder(),
-                mutable::rangeNext,
-                immutable == null ? null : immutable::rangeNext,
+                MemTable::rangeNext,
                 levels::rangeNext
         );
     }
@@ -184,8 +544,7 @@ public class LsmTree {
                 endKey,
                 limit,
                 Comparator.reverseOrder(),
-                mutable::rangeBefore,
-                immutable == null ? null : immutable::rangeBefore,
+                MemTable::rangeBefore,
                 levels::rangeBefore
         );
     }
@@ -194,23 +553,31 @@ public class LsmTree {
             byte[] beginKey,
             int limit,
             Comparator<Key> comparator,
-            RangeOperator mutableRangeOperator,
-            RangeOperator immutableRangeOperator,
+            MemTableRangeOperator memTableRangeOperator,
             RangeOperator levelTreeRangeOperator
     ) {
         HashSet<Key> existedKeys = new HashSet<>();
         HashSet<Key> deletedKeys = new HashSet<>();
 
-        List<Key> mKeys = mutableRangeOperator.doRange(
+        List<Key> mKeys = memTableRangeOperator.doRange(
+                mutable,
                 beginKey,
                 limit,
                 deletedKeys,
                 existedKeys
         );
 
-        List<Key> imKeys = immutableRangeOperator == null
-                ? new ArrayList<>()
-                : immutableRangeOperator.doRange(beginKey, limit, deletedKeys, existedKeys);
+        // 从新到旧，保证新的删除标记能覆盖旧的值
+        List<Key> imKeys = new ArrayList<>();
+        for(MemTable immutable : immutables) {
+            imKeys.addAll(memTableRangeOperator.doRange(
+                    immutable,
+                    beginKey,
+                    limit,
+                    deletedKeys,
+                    existedKeys
+            ));
+        }
 
         List<Key> lKeys = levelTreeRangeOperator.doRange(
                 beginKey,
@@ -240,17 +607,46 @@ public class LsmTree {
         return range.stream().map(Key::bytes).toList();
     }
 
-    private void recoverFromWal() {
-        for(LogEntry entry : walLog) {
+    private void recoverFromWal(LogGroup log) {
+        for(LogEntry entry : log) {
             ByteBuffer buffer = ByteBuffer.wrap(entry.data());
 
             WalEntry walEntry = WalEntry.from(buffer);
             KeyEntry keyEntry = KeyEntry.from(walEntry);
 
-            insertIntoMemTableAndMerge(keyEntry, -1);
+            writeLock.lock();
+            try {
+                insertIntoMemTable(keyEntry, -1);
+            } finally {
+                writeLock.unlock();
+            }
         }
     }
 
+    /**
+     * 恢复遗留的 wal 后立即 flush，之后删除 wal
+     */
+    private void recoverFromLegacyWal(String walDir) {
+        LogGroup legacyWal = new LogGroup(walDir, new LogGroupOptions());
+        recoverFromWal(legacyWal);
+
+        // 所有 memTable 都由后台线程按从旧到新的顺序 flush，全部落盘后才能删除 wal
+        flush();
+
+        legacyWal.delete();
+    }
+
+    @FunctionalInterface
+    private interface MemTableRangeOperator {
+        List<Key> doRange(
+                MemTable memTable,
+                byte[] baseKey,
+                int limit,
+                HashSet<Key> deletedKeys,
+                HashSet<Key> existedKeys
+        );
+    }
+
     @FunctionalInterface
     private interface RangeOperator {
         List<Key> doRange(
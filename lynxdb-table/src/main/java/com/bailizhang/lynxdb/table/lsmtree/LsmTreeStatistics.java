@@ -0,0 +1,118 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.table.lsmtree;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LSM Tree 的统计信息，用来观察布隆过滤器和 value log 回收的效果
+ */
+public class LsmTreeStatistics {
+    /**
+     * key 在 SSTable 的范围内，但被布隆过滤器排除
+     */
+    private final LongAdder filterUseful = new LongAdder();
+
+    /**
+     * 布隆过滤器判断存在，实际也存在
+     */
+    private final LongAdder filterTruePositive = new LongAdder();
+
+    /**
+     * 布隆过滤器判断存在，实际不存在，白白读了一次 block
+     */
+    private final LongAdder filterUseless = new LongAdder();
+
+    /**
+     * 按 key 的范围直接跳过，不需要访问布隆过滤器的 SSTable
+     */
+    private final LongAdder rangePruned = new LongAdder();
+
+    /**
+     * 后台回收的 value log region 数量和回收的字节数
+     */
+    private final LongAdder valueLogGcRegions = new LongAdder();
+    private final LongAdder valueLogGcReclaimedBytes = new LongAdder();
+
+    public void recordFilterUseful() {
+        filterUseful.increment();
+    }
+
+    public void recordFilterTruePositive() {
+        filterTruePositive.increment();
+    }
+
+    public void recordFilterUseless() {
+        filterUseless.increment();
+    }
+
+    public void recordRangePruned(int count) {
+        rangePruned.add(count);
+    }
+
+    public void recordValueLogGc(long reclaimedBytes) {
+        valueLogGcRegions.increment();
+        valueLogGcReclaimedBytes.add(reclaimedBytes);
+    }
+
+    public long filterUseful() {
+        return filterUseful.sum();
+    }
+
+    public long filterTruePositive() {
+        return filterTruePositive.sum();
+    }
+
+    public long filterUseless() {
+        return filterUseless.sum();
+    }
+
+    public long rangePruned() {
+        return rangePruned.sum();
+    }
+
+    public long valueLogGcRegions() {
+        return valueLogGcRegions.sum();
+    }
+
+    public long valueLogGcReclaimedBytes() {
+        return valueLogGcReclaimedBytes.sum();
+    }
+
+    /**
+     * 布隆过滤器的探测中，排除了 SSTable 的比例
+     *
+     * @return useful rate
+     */
+    public double filterUsefulRate() {
+        long useful = filterUseful();
+        long total = useful + filterTruePositive() + filterUseless();
+        return total == 0 ? 0 : (double) useful / total;
+    }
+
+    /**
+     * 布隆过滤器判断存在的探测中，误判的比例
+     *
+     * @return false positive rate
+     */
+    public double filterUselessRate() {
+        long useless = filterUseless();
+        long positive = useless + filterTruePositive();
+        return positive == 0 ? 0 : (double) useless / positive;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.table.lsmtree;
+
+import com.bailizhang.lynxdb.core.log.LogGroup;
+import com.bailizhang.lynxdb.table.config.WalSyncPolicy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * wal 组提交
+ *
+ * 并发写入先进入队列，队头的写入线程成为 leader，把队列中已有的请求作为一批写入 wal，
+ * 按刷盘策略最多刷一次盘，再按 wal 的顺序写入 memTable，最后唤醒这一批的所有写入线程。
+ * 同一时刻只有一个 leader 写 wal，不需要额外的写线程
+ *
+ * @param <T> 和 wal entry 一起提交的数据，leader 按 wal 的顺序把它们交给 BatchWriter
+ */
+public class WalWriter<T> {
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    private final LogGroup walLog;
+    private final LogGroup valueLog;
+    private final WalSyncPolicy policy;
+    private final long syncIntervalNanos;
+    private final BatchWriter<T> batchWriter;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Request<T>> requests = new ArrayDeque<>();
+
+    private volatile long lastSyncNanos = System.nanoTime();
+    private final AtomicBoolean syncScheduled = new AtomicBoolean(false);
+
+    /**
+     * 定时刷盘失败时没有等待的写入线程，由之后的写入抛出
+     */
+    private volatile RuntimeException syncError;
+
+    /**
+     * @param walLog wal
+     * @param valueLog wal 中引用的 value log，刷盘时先于 wal 刷盘，可以为 null
+     * @param policy 刷盘策略
+     * @param syncIntervalMillis EVERY_N_MS 的刷盘间隔
+     * @param batchWriter 写完 wal 之后由 leader 调用
+     */
+    public WalWriter(
+            LogGroup walLog,
+            LogGroup valueLog,
+            WalSyncPolicy policy,
+            long syncIntervalMillis,
+            BatchWriter<T> batchWriter
+    ) {
+        this.walLog = walLog;
+        this.valueLog = valueLog;
+        this.policy = policy;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        this.batchWriter = batchWriter;
+    }
+
+    public void write(ByteBuffer[] walData, T value) {
+        Request<T> request = new Request<>(walData, value, lock.newCondition());
+        List<Request<T>> batch;
+
+        lock.lock();
+        try {
+            requests.addLast(request);
+
+            while(!request.done && request != requests.peekFirst()) {
+                request.condition.awaitUninterruptibly();
+            }
+
+            // 已经被其他 leader 写入
+            if(request.done) {
+                if(request.error != null) {
+                    throw request.error;
+                }
+                return;
+            }
+
+            batch = new ArrayList<>(Math.min(requests.size(), MAX_BATCH_SIZE));
+            Iterator<Request<T>> iterator = requests.iterator();
+            while(iterator.hasNext() && batch.size() < MAX_BATCH_SIZE) {
+                batch.add(iterator.next());
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Error 也要通知 follower，否则 follower 会一直等待
+        Throwable error = null;
+        try {
+            writeBatch(batch);
+        } catch (Throwable t) {
+            error = t;
+        }
+
+        RuntimeException requestError = error == null || error instanceof RuntimeException
+                ? (RuntimeException) error
+                : new RuntimeException(error);
+
+        lock.lock();
+        try {
+            for(Request<T> finished : batch) {
+                requests.pollFirst();
+                finished.done = true;
+                finished.error = requestError;
+                finished.condition.signal();
+            }
+
+            // 唤醒下一批的 leader
+            Request<T> next = requests.peekFirst();
+            if(next != null) {
+                next.condition.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if(error instanceof Error e) {
+            throw e;
+        }
+
+        if(requestError != null) {
+            throw requestError;
+        }
+    }
+
+    private void writeBatch(List<Request<T>> batch) {
+        if(syncError != null) {
+            throw new RuntimeException("Sync wal failed.", syncError);
+        }
+
+        List<ByteBuffer[]> walEntries = new ArrayList<>(batch.size());
+        List<T> values = new ArrayList<>(batch.size());
+
+        for(Request<T> request : batch) {
+            walEntries.add(request.walData);
+            values.add(request.value);
+        }
+
+        long firstWalGlobalIndex = walLog.appendEntries(walEntries);
+
+        switch (policy) {
+            case EVERY_BATCH -> sync();
+            case EVERY_N_MS -> syncIfExpired();
+            case NONE -> {
+            }
+        }
+
+        // wal 写入之后才对读可见
+        batchWriter.write(values, firstWalGlobalIndex);
+    }
+
+    private void sync() {
+        lastSyncNanos = System.nanoTime();
+        // wal 中的 value global index 指向 value log，需要先刷 value log
+        if(valueLog != null) {
+            valueLog.force();
+        }
+        walLog.force();
+    }
+
+    private void syncIfExpired() {
+        if(System.nanoTime() - lastSyncNanos >= syncIntervalNanos) {
+            sync();
+            return;
+        }
+
+        // 没有后续写入时，也要保证最后这批数据在一个周期内刷盘
+        if(syncScheduled.compareAndSet(false, true)) {
+            SyncScheduler.INSTANCE.schedule(
+                    this::scheduledSync,
+                    syncIntervalNanos,
+                    TimeUnit.NANOSECONDS
+            );
+        }
+    }
+
+    private void scheduledSync() {
+        syncScheduled.set(false);
+
+        try {
+            sync();
+        } catch (RuntimeException e) {
+            syncError = e;
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    public interface BatchWriter<T> {
+        /**
+         * 按 wal 的顺序写入 memTable
+         *
+         * @param values 和 wal entry 一起提交的数据
+         * @param firstWalGlobalIndex 第一条 entry 的 wal global index，后面的依次加一
+         */
+        void write(List<T> values, long firstWalGlobalIndex);
+    }
+
+    private static class Request<T> {
+        private final ByteBuffer[] walData;
+        private final T value;
+        private final Condition condition;
+
+        private boolean done;
+        private RuntimeException error;
+
+        private Request(ByteBuffer[] walData, T value, Condition condition) {
+            this.walData = walData;
+            this.value = value;
+            this.condition = condition;
+        }
+    }
+
+    /**
+     * 所有 LsmTree 共用一个定时刷盘线程
+     */
+    private static class SyncScheduler {
+        private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(
+                runnable -> {
+                    Thread thread = new Thread(runnable, "wal-sync");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+    }
+}
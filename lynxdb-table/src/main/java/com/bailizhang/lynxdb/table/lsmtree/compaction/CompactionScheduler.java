@@ -0,0 +1,96 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bailizhang.lynxdb.table.lsmtree.compaction;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 执行 memTable flush，level compaction 和 value log 回收的后台线程池
+ * 同一个 LynxDbTable 下的所有 LsmTree 共用一个 CompactionScheduler
+ */
+public class CompactionScheduler {
+    private static final String THREAD_NAME_PREFIX = "lsm-background-";
+    private static final int KEEP_ALIVE_SECONDS = 60;
+    private static final int AWAIT_TERMINATION_SECONDS = 60;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 所有 LsmTree 回收 value log 时共享的限速
+     */
+    private final RateLimiter valueLogGcLimiter;
+
+    public CompactionScheduler(int threads, long valueLogGcBytesPerSecond) {
+        executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new BackgroundThreadFactory()
+        );
+        // 空闲时不保留线程
+        executor.allowCoreThreadTimeOut(true);
+
+        valueLogGcLimiter = new RateLimiter(valueLogGcBytesPerSecond);
+    }
+
+    public void schedule(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ignored) {
+            // 关闭之后不再接受新的后台任务，没有 flush 的数据可以从 wal 恢复
+        }
+    }
+
+    public RateLimiter valueLogGcLimiter() {
+        return valueLogGcLimiter;
+    }
+
+    /**
+     * 等待已经提交的后台任务执行完成后关闭线程池
+     */
+    public void shutdown() {
+        executor.shutdown();
+
+        try {
+            if(!executor.awaitTermination(AWAIT_TERMINATION_SECONDS, TimeUnit.SECONDS)) {
+                throw new RuntimeException("Background tasks are not finished.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class BackgroundThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadNumber.getAndIncrement());
+            // 后台线程不阻止 JVM 退出
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bailizhang.lynxdb.table.lsmtree.compaction;
+
+import com.bailizhang.lynxdb.core.common.Flags;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.KeyEntry;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * 多路归并多个有序的 entry 迭代器，按 key 从小到大输出，相同的 key 只保留最新的 entry
+ */
+public class MergingIterator implements Iterator<KeyEntry> {
+    private final PriorityQueue<Source> heap;
+    private final boolean dropObsolete;
+    private final Consumer<KeyEntry> obsoleteConsumer;
+
+    private KeyEntry next;
+
+    /**
+     * @param iterators 按从新到旧排列的有序迭代器
+     * @param dropObsolete 是否丢弃删除标记和过期的 entry，只有合并到最底层时才能丢弃
+     * @param obsoleteConsumer 被覆盖或者被丢弃的 entry，用于回收 value log 中的数据
+     */
+    public MergingIterator(
+            List<? extends Iterator<KeyEntry>> iterators,
+            boolean dropObsolete,
+            Consumer<KeyEntry> obsoleteConsumer
+    ) {
+        this.dropObsolete = dropObsolete;
+        this.obsoleteConsumer = obsoleteConsumer;
+
+        heap = new PriorityQueue<>(Math.max(iterators.size(), 1));
+
+        for(int i = 0; i < iterators.size(); i ++) {
+            Iterator<KeyEntry> iterator = iterators.get(i);
+
+            if(iterator.hasNext()) {
+                heap.add(new Source(i, iterator, iterator.next()));
+            }
+        }
+
+        advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public KeyEntry next() {
+        if(next == null) {
+            throw new NoSuchElementException();
+        }
+
+        KeyEntry entry = next;
+        advance();
+        return entry;
+    }
+
+    private void advance() {
+        next = null;
+
+        while(next == null && !heap.isEmpty()) {
+            Source newest = heap.poll();
+            KeyEntry entry = newest.current;
+            moveNext(newest);
+
+            // 相同 key 的旧 entry 都被覆盖
+            while(!heap.isEmpty() && Arrays.equals(heap.peek().current.key(), entry.key())) {
+                Source older = heap.poll();
+                obsoleteConsumer.accept(older.current);
+                moveNext(older);
+            }
+
+            if(dropObsolete && (entry.flag() == Flags.DELETED || entry.isTimeout())) {
+                obsoleteConsumer.accept(entry);
+                continue;
+            }
+
+            next = entry;
+        }
+    }
+
+    private void moveNext(Source source) {
+        if(source.iterator.hasNext()) {
+            source.current = source.iterator.next();
+            heap.add(source);
+        }
+    }
+
+    private static class Source implements Comparable<Source> {
+        private final int priority;
+        private final Iterator<KeyEntry> iterator;
+        private KeyEntry current;
+
+        private Source(int priority, Iterator<KeyEntry> iterator, KeyEntry current) {
+            this.priority = priority;
+            this.iterator = iterator;
+            this.current = current;
+        }
+
+        @Override
+        public int compareTo(Source o) {
+            int compareValue = Arrays.compare(current.key(), o.current.key());
+            // key 相同时，越新的排在越前面
+            return compareValue != 0 ? compareValue : Integer.compare(priority, o.priority);
+        }
+    }
+}
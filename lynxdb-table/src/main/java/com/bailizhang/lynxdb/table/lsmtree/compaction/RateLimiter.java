@@ -0,0 +1,65 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.table.lsmtree.compaction;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 按字节数限速，多个后台线程共享同一个速率
+ */
+public class RateLimiter {
+    private final long bytesPerSecond;
+
+    /**
+     * 下一次申请可以立即通过的时间
+     */
+    private long nextFreeNanos = System.nanoTime();
+
+    public RateLimiter(long bytesPerSecond) {
+        if(bytesPerSecond <= 0) {
+            throw new RuntimeException("bytesPerSecond must be positive");
+        }
+
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * 申请 bytes 的额度，超过速率时阻塞当前线程
+     *
+     * @param bytes 已经处理的字节数
+     */
+    public void acquire(long bytes) {
+        if(bytes <= 0) {
+            return;
+        }
+
+        long costNanos = TimeUnit.SECONDS.toNanos(bytes) / bytesPerSecond;
+        long waitNanos;
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            waitNanos = nextFreeNanos - now;
+            nextFreeNanos = Math.max(nextFreeNanos, now) + costNanos;
+        }
+
+        if(waitNanos > 0) {
+            LockSupport.parkNanos(waitNanos);
+        }
+    }
+}
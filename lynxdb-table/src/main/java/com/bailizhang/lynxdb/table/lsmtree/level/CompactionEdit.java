@@ -0,0 +1,156 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.table.lsmtree.level;
+
+import com.bailizhang.lynxdb.core.common.FileType;
+import com.bailizhang.lynxdb.core.utils.FileChannelUtils;
+import com.bailizhang.lynxdb.core.utils.FileUtils;
+import com.bailizhang.lynxdb.core.utils.NameUtils;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.SsTable;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.INT_LENGTH;
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.LONG_LENGTH;
+
+/**
+ * compaction 提交记录：生成的 SSTable 都已经落盘，需要删除的旧 SSTable
+ * 文件存在说明 compaction 已经提交，重新打开时继续删除；不存在说明还没有提交，旧的 SSTable 仍然完整
+ *
+ * 格式: count | (levelNo | ssTableNo) * count | crc
+ */
+record CompactionEdit(int[] levelNos, int[] ssTableNos) {
+    private static final String FILENAME = "compaction.edit";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    static CompactionEdit of(Level level, List<SsTable> inputs, Level nextLevel, List<SsTable> overlapping) {
+        int count = inputs.size() + overlapping.size();
+        int[] levelNos = new int[count];
+        int[] ssTableNos = new int[count];
+
+        int idx = 0;
+        for(SsTable input : inputs) {
+            levelNos[idx] = level.levelNo();
+            ssTableNos[idx ++] = input.ssTableNo();
+        }
+
+        for(SsTable ssTable : overlapping) {
+            levelNos[idx] = nextLevel.levelNo();
+            ssTableNos[idx ++] = ssTable.ssTableNo();
+        }
+
+        return new CompactionEdit(levelNos, ssTableNos);
+    }
+
+    /**
+     * 写入临时文件并 force 后原子地重命名，保证提交记录要么完整，要么不存在
+     *
+     * @param baseDir LSM Tree 的目录
+     */
+    void commit(String baseDir) {
+        int count = levelNos.length;
+        ByteBuffer buffer = ByteBuffer.allocate(INT_LENGTH + count * 2 * INT_LENGTH + LONG_LENGTH);
+
+        buffer.putInt(count);
+        for(int i = 0; i < count; i ++) {
+            buffer.putInt(levelNos[i]).putInt(ssTableNos[i]);
+        }
+
+        CRC32C crc32C = new CRC32C();
+        crc32C.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc32C.getValue());
+
+        Path tempPath = Path.of(baseDir, FILENAME + TEMP_SUFFIX);
+        deleteIfExisted(tempPath);
+
+        FileChannel channel = FileChannelUtils.open(
+                tempPath,
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE
+        );
+
+        try {
+            FileChannelUtils.write(channel, buffer.flip());
+            FileChannelUtils.force(channel, true);
+        } finally {
+            FileChannelUtils.close(channel);
+        }
+
+        FileUtils.replace(tempPath, Path.of(baseDir, FILENAME));
+    }
+
+    static void finish(String baseDir) {
+        FileUtils.delete(Path.of(baseDir, FILENAME));
+    }
+
+    /**
+     * 完成崩溃前已经提交的 compaction
+     *
+     * @param baseDir LSM Tree 的目录
+     */
+    static void recover(String baseDir) {
+        deleteIfExisted(Path.of(baseDir, FILENAME + TEMP_SUFFIX));
+
+        Path filePath = Path.of(baseDir, FILENAME);
+        if(FileUtils.notExist(filePath)) {
+            return;
+        }
+
+        FileChannel channel = FileChannelUtils.open(filePath, StandardOpenOption.READ);
+        byte[] data;
+        try {
+            data = FileChannelUtils.read(channel, 0, (int) FileChannelUtils.size(channel));
+        } finally {
+            FileChannelUtils.close(channel);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int count = buffer.getInt();
+
+        int crcOffset = INT_LENGTH + count * 2 * INT_LENGTH;
+        if(count < 0 || crcOffset + LONG_LENGTH != data.length) {
+            throw new RuntimeException("Broken compaction edit: " + filePath);
+        }
+
+        CRC32C crc32C = new CRC32C();
+        crc32C.update(data, 0, crcOffset);
+        if(crc32C.getValue() != buffer.getLong(crcOffset)) {
+            throw new RuntimeException("Broken compaction edit: " + filePath);
+        }
+
+        // 崩溃前可能已经删除了一部分
+        for(int i = 0; i < count; i ++) {
+            int levelNo = buffer.getInt();
+            String filename = NameUtils.name(buffer.getInt()) + FileType.SSTABLE_FILE.suffix();
+            deleteIfExisted(Path.of(baseDir, String.valueOf(levelNo), filename));
+        }
+
+        finish(baseDir);
+    }
+
+    private static void deleteIfExisted(Path filePath) {
+        if(FileUtils.exist(filePath)) {
+            FileUtils.delete(filePath);
+        }
+    }
+}
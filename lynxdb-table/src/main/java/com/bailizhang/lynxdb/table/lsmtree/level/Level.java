@@ -16,6 +16,7 @@
 
 package com.bailizhang.lynxdb.table.lsmtree.level;
 
+import com.bailizhang.lynxdb.core.common.FileType;
 import com.bailizhang.lynxdb.core.log.LogGroup;
 import com.bailizhang.lynxdb.core.utils.FileUtils;
 import com.bailizhang.lynxdb.core.utils.NameUtils;
@@ -24,125 +25,359 @@ import com.bailizhang.lynxdb.table.exception.DeletedException;
 import com.bailizhang.lynxdb.table.exception.TimeoutException;
 import com.bailizhang.lynxdb.table.lsmtree.memory.MemTable;
 import com.bailizhang.lynxdb.table.lsmtree.sstable.KeyEntry;
+import com.bailizhang.lynxdb.table.lsmtree.LsmTreeStatistics;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.BlockCache;
 import com.bailizhang.lynxdb.table.lsmtree.sstable.SsTable;
 import com.bailizhang.lynxdb.table.schema.Key;
 
 import java.nio.file.Path;
 import java.util.*;
 
+/**
+ * Level 1 的 SSTable 直接由 memTable flush 生成，key 的范围可能重叠，按从新到旧排列
+ * Level 2 及以上的 SSTable 大小固定，key 的范围互不重叠，按 beginKey 排列
+ */
 public class Level {
-    public static final int LEVEL_SSTABLE_COUNT = 10;
-
     private final LogGroup valueFileGroup;
-    private final String parentDir;
     private final Path baseDir;
     private final int levelNo;
-    private final Levels parent;
     private final LsmTreeOptions options;
+    private final BlockCache blockCache;
+    private final LsmTreeStatistics statistics;
 
-    private LinkedList<SsTable> ssTables = new LinkedList<>();
+    private volatile List<SsTable> ssTables;
+    private int nextSsTableNo;
 
-    public Level(String dir, int level, Levels levels, LogGroup logGroup, LsmTreeOptions lsmOptions) {
-        parentDir = dir;
+    /**
+     * 下一次 compaction 从这个 key 之后的 SSTable 开始，保证 key 范围轮流被 compact
+     */
+    private byte[] compactPointer;
+
+    public Level(
+            String dir,
+            int level,
+            LogGroup logGroup,
+            LsmTreeOptions lsmOptions,
+            BlockCache cache,
+            LsmTreeStatistics lsmStatistics
+    ) {
         baseDir = Path.of(dir, String.valueOf(level));
         FileUtils.createDirIfNotExisted(baseDir.toFile());
 
         levelNo = level;
-        parent = levels;
         valueFileGroup = logGroup;
         options = lsmOptions;
+        blockCache = cache;
+        statistics = lsmStatistics;
 
         List<String> subs = FileUtils.findSubFiles(baseDir);
         subs.sort(Comparator.comparingInt(NameUtils::id));
 
+        LinkedList<SsTable> tables = new LinkedList<>();
         for(String sub : subs) {
+            // 删除写入 SSTable 时中断留下的临时文件
+            if(!sub.endsWith(FileType.SSTABLE_FILE.suffix())) {
+                FileUtils.delete(Path.of(baseDir.toString(), sub));
+                continue;
+            }
+
             int ssTableNo = NameUtils.id(sub);
+            SsTable.migrateIfLegacy(baseDir, ssTableNo, options);
 
             SsTable ssTable = new SsTable(
                     baseDir,
                     ssTableNo,
-                    valueFileGroup
+                    valueFileGroup,
+                    blockCache
             );
 
-            if(ssTables.size() > LEVEL_SSTABLE_COUNT) {
-                throw new RuntimeException();
-            }
-
-            ssTables.addFirst(ssTable);
+            // 编号越大越新
+            tables.addFirst(ssTable);
+            nextSsTableNo = ssTableNo + 1;
         }
-    }
 
-    public void merge(MemTable immutable) {
-        if(isFull()) {
-            mergeToNextLevel();
+        if(levelNo != Levels.LEVEL_BEGIN) {
+            removeUncommitted(tables);
+            tables.sort((t1, t2) -> Arrays.compare(t1.beginKey(), t2.beginKey()));
         }
 
-        createNextSsTable(immutable.all());
-        valueFileGroup.clearDeletedEntries();
+        ssTables = tables;
     }
 
-    public void merge(Level level) {
-        if(isFull()) {
-            mergeToNextLevel();
+    /**
+     * compaction 提交之前中断时，新生成的 SSTable 会和旧的 SSTable 重叠
+     * 旧的 SSTable 都还在，删除编号更大的新 SSTable，恢复到 compaction 之前的状态
+     *
+     * @param newToOld SSTables, from new to old
+     */
+    private static void removeUncommitted(LinkedList<SsTable> newToOld) {
+        List<SsTable> kept = new ArrayList<>(newToOld.size());
+
+        Iterator<SsTable> iterator = newToOld.descendingIterator();
+        while(iterator.hasNext()) {
+            SsTable ssTable = iterator.next();
+
+            boolean isOverlapped = false;
+            for(SsTable older : kept) {
+                if(older.overlaps(ssTable.beginKey(), ssTable.endKey())) {
+                    isOverlapped = true;
+                    break;
+                }
+            }
+
+            if(isOverlapped) {
+                iterator.remove();
+                ssTable.delete();
+            } else {
+                kept.add(ssTable);
+            }
         }
+    }
+
+    /**
+     * 把 immutable memTable flush 成 Level 1 的 SSTable
+     *
+     * @param immutable immutable memTable
+     * @return new SSTable
+     */
+    SsTable createSsTable(MemTable immutable) {
+        // immutable memTable 不会再被修改，按顺序读取 arena 中的 entry
+        return SsTable.create(
+                baseDir,
+                nextSsTableNo ++,
+                options,
+                immutable.iterator(),
+                Long.MAX_VALUE,
+                valueFileGroup,
+                blockCache
+        );
+    }
 
-        createNextSsTable(level.all());
+    void addFirst(SsTable ssTable) {
+        List<SsTable> tables = new ArrayList<>(ssTables.size() + 1);
+        tables.add(ssTable);
+        tables.addAll(ssTables);
+        ssTables = tables;
     }
 
-    public List<KeyEntry> all() {
-        int initialCapacity = ((int) Math.pow(10, levelNo)) * options.memTableSize();
-        HashMap<Key, KeyEntry> entriesMap = new HashMap<>(initialCapacity);
+    /**
+     * 删除 removed，并按 beginKey 的顺序插入 added
+     *
+     * @param removed removed SSTables
+     * @param added added SSTables
+     */
+    void replace(List<SsTable> removed, List<SsTable> added) {
+        List<SsTable> tables = new ArrayList<>(ssTables);
+        tables.removeAll(removed);
+        tables.addAll(added);
 
-        // 去重，后面插入的值覆盖前面的值
-        ssTables.forEach(ssTable -> ssTable.all(entriesMap));
-        List<KeyEntry> keyEntries = new ArrayList<>(entriesMap.values());
-        Collections.sort(keyEntries);
+        if(levelNo != Levels.LEVEL_BEGIN) {
+            tables.sort((t1, t2) -> Arrays.compare(t1.beginKey(), t2.beginKey()));
+        }
 
-        return keyEntries;
+        ssTables = tables;
     }
 
-    public boolean isFull() {
-        return ssTables.size() >= LEVEL_SSTABLE_COUNT;
+    boolean isEmpty() {
+        return ssTables.isEmpty();
     }
 
-    public byte[] find(byte[] key) throws DeletedException, TimeoutException {
+    /**
+     * Level 1 按 SSTable 的数量判断，其他 Level 按文件的总大小判断
+     *
+     * @return need compaction or not
+     */
+    boolean needCompaction() {
+        if(levelNo == Levels.LEVEL_BEGIN) {
+            return ssTables.size() >= options.level1CompactionTrigger();
+        }
+
+        long totalSize = 0;
         for(SsTable ssTable : ssTables) {
-            if(ssTable.bloomFilterContains(key)) {
-                byte[] value = ssTable.find(key);
-                if(value != null) {
-                    return value;
+            totalSize += ssTable.fileSize();
+        }
+
+        return totalSize > options.maxBytesForLevel(levelNo);
+    }
+
+    /**
+     * Level 1 的 SSTable 可能重叠，需要全部参与 compaction
+     * 其他 Level 每次只选择一个 SSTable
+     *
+     * @return compaction inputs, from new to old
+     */
+    List<SsTable> pickCompactionInputs() {
+        List<SsTable> tables = ssTables;
+
+        if(levelNo == Levels.LEVEL_BEGIN || tables.isEmpty()) {
+            return new ArrayList<>(tables);
+        }
+
+        SsTable picked = tables.getFirst();
+        if(compactPointer != null) {
+            for(SsTable ssTable : tables) {
+                if(Arrays.compare(ssTable.beginKey(), compactPointer) > 0) {
+                    picked = ssTable;
+                    break;
                 }
             }
         }
-        return null;
+
+        compactPointer = picked.endKey();
+        return List.of(picked);
     }
 
     /**
-     * 使用布隆过滤器判断是否存在 key
+     * 查找和 [begin, end] 有重叠的 SSTable
      *
-     * @param key key
-     * @return contains key or not
+     * @param begin begin key
+     * @param end end key
+     * @return overlapping SSTables
      */
-    public boolean contains(byte[] key) {
+    List<SsTable> overlapping(byte[] begin, byte[] end) {
+        List<SsTable> overlapping = new ArrayList<>();
+
         for(SsTable ssTable : ssTables) {
-            if(ssTable.bloomFilterContains(key)) {
-                return true;
+            if(ssTable.overlaps(begin, end)) {
+                overlapping.add(ssTable);
             }
         }
 
-        return false;
+        return overlapping;
+    }
+
+    /**
+     * 把排好序的 entries 按固定的大小切分成多个 SSTable
+     *
+     * @param keyEntries sorted key entries
+     * @return new SSTables
+     */
+    List<SsTable> createSsTables(Iterator<KeyEntry> keyEntries) {
+        List<SsTable> created = new ArrayList<>();
+
+        try {
+            while(keyEntries.hasNext()) {
+                SsTable ssTable = SsTable.create(
+                        baseDir,
+                        nextSsTableNo ++,
+                        options,
+                        keyEntries,
+                        options.targetFileSize(levelNo),
+                        valueFileGroup,
+                        blockCache
+                );
+                created.add(ssTable);
+            }
+        } catch (RuntimeException e) {
+            // 还没有提交，删除已经生成的 SSTable
+            created.forEach(SsTable::delete);
+            throw e;
+        }
+
+        return created;
+    }
+
+    public int levelNo() {
+        return levelNo;
+    }
+
+    public byte[] find(byte[] key) throws DeletedException, TimeoutException {
+        for(SsTable ssTable : candidates(key)) {
+            if(ssTable.bloomFilterNotContains(key)) {
+                statistics.recordFilterUseful();
+                continue;
+            }
+
+            byte[] value;
+            try {
+                value = ssTable.find(key);
+            } catch (DeletedException | TimeoutException e) {
+                statistics.recordFilterTruePositive();
+                throw e;
+            }
+
+            if(value != null) {
+                statistics.recordFilterTruePositive();
+                return value;
+            }
+
+            statistics.recordFilterUseless();
+        }
+
+        return null;
     }
 
     public boolean existKey(byte[] key) throws DeletedException, TimeoutException {
-        for(SsTable ssTable : ssTables) {
-            if(ssTable.existKey(key)) {
+        for(SsTable ssTable : candidates(key)) {
+            if(ssTable.bloomFilterNotContains(key)) {
+                statistics.recordFilterUseful();
+                continue;
+            }
+
+            boolean isExisted;
+            try {
+                isExisted = ssTable.existKey(key);
+            } catch (DeletedException | TimeoutException e) {
+                statistics.recordFilterTruePositive();
+                throw e;
+            }
+
+            if(isExisted) {
+                statistics.recordFilterTruePositive();
                 return true;
             }
+
+            statistics.recordFilterUseless();
         }
 
         return false;
     }
 
+    /**
+     * 按 key 的范围筛选可能包含 key 的 SSTable，从新到旧排列
+     * Level 1 的 SSTable 可能重叠，需要逐个比较，其他 Level 二分查找唯一的 SSTable
+     *
+     * @param key key
+     * @return candidate SSTables
+     */
+    private List<SsTable> candidates(byte[] key) {
+        List<SsTable> tables = ssTables;
+
+        if(levelNo == Levels.LEVEL_BEGIN) {
+            List<SsTable> candidates = new ArrayList<>(tables.size());
+
+            for(SsTable ssTable : tables) {
+                if(ssTable.inRange(key)) {
+                    candidates.add(ssTable);
+                }
+            }
+
+            statistics.recordRangePruned(tables.size() - candidates.size());
+            return candidates;
+        }
+
+        // 第一个 endKey 大于等于 key 的 SSTable
+        int begin = 0, end = tables.size() - 1, idx = tables.size();
+        while(begin <= end) {
+            int mid = begin + ((end - begin) >> 1);
+
+            if(Arrays.compare(tables.get(mid).endKey(), key) >= 0) {
+                idx = mid;
+                end = mid - 1;
+            } else {
+                begin = mid + 1;
+            }
+        }
+
+        if(idx < tables.size() && tables.get(idx).inRange(key)) {
+            statistics.recordRangePruned(tables.size() - 1);
+            return List.of(tables.get(idx));
+        }
+
+        statistics.recordRangePruned(tables.size());
+        return List.of();
+    }
+
     public List<Key> rangeNext(
             byte[] beginKey,
             int limit,
@@ -211,35 +446,6 @@ public class Level {
         return range;
     }
 
-    private void mergeToNextLevel() {
-        int nextLevelNo = levelNo + 1;
-        Level nextLevel = parent.get(nextLevelNo);
-
-        if(nextLevel == null) {
-            nextLevel = new Level(parentDir, nextLevelNo, parent, valueFileGroup, options);
-            parent.put(nextLevelNo, nextLevel);
-        }
-
-        nextLevel.merge(this);
-
-        FileUtils.deleteSubs(baseDir);
-        ssTables = new LinkedList<>();
-    }
-
-    private void createNextSsTable(List<KeyEntry> keyEntries) {
-        int nextSsTableNo = ssTables.size();
-
-        SsTable ssTable = SsTable.create(
-                baseDir,
-                nextSsTableNo,
-                levelNo,
-                options,
-                keyEntries,
-                valueFileGroup
-        );
-        ssTables.addFirst(ssTable);
-    }
-
     @FunctionalInterface
     private interface RangeOperator {
         List<Key> doRange(
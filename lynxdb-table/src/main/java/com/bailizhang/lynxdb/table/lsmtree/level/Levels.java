@@ -21,10 +21,16 @@ import com.bailizhang.lynxdb.core.utils.FileUtils;
 import com.bailizhang.lynxdb.table.config.LsmTreeOptions;
 import com.bailizhang.lynxdb.table.exception.DeletedException;
 import com.bailizhang.lynxdb.table.exception.TimeoutException;
+import com.bailizhang.lynxdb.table.lsmtree.LsmTreeStatistics;
+import com.bailizhang.lynxdb.table.lsmtree.compaction.MergingIterator;
 import com.bailizhang.lynxdb.table.lsmtree.memory.MemTable;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.KeyEntry;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.BlockCache;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.SsTable;
 import com.bailizhang.lynxdb.table.schema.Key;
 
 import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Levels {
     public final static int LEVEL_BEGIN = 1;
@@ -33,12 +39,30 @@ public class Levels {
     private final String baseDir;
     private final LogGroup valueFileGroup;
     private final LsmTreeOptions options;
+    private final BlockCache blockCache;
+    private final LsmTreeStatistics statistics;
 
-    public Levels(String dir, LogGroup valueLogGroup, LsmTreeOptions lsmOptions) {
+    /**
+     * 后台线程替换 SSTable 时持有写锁，查询时持有读锁
+     * merge 只会在一个后台线程中执行，生成新的 SSTable 时不需要持有锁
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public Levels(
+            String dir,
+            LogGroup valueLogGroup,
+            LsmTreeOptions lsmOptions,
+            BlockCache cache,
+            LsmTreeStatistics lsmStatistics
+    ) {
         baseDir = dir;
         options = lsmOptions;
+        blockCache = cache;
+        statistics = lsmStatistics;
         valueFileGroup = valueLogGroup;
 
+        CompactionEdit.recover(baseDir);
+
         List<String> subDirs = FileUtils.findSubDirs(baseDir);
         for(String subDir : subDirs) {
             int levelNo;
@@ -49,28 +73,32 @@ public class Levels {
                 continue;
             }
 
-            Level level = new Level(baseDir, levelNo, this, valueFileGroup, options);
+            Level level = new Level(baseDir, levelNo, valueFileGroup, options, blockCache, statistics);
 
             levels.put(levelNo, level);
         }
     }
 
     public byte[] find(byte[] key) throws DeletedException, TimeoutException {
-        int levelNo = LEVEL_BEGIN;
-        Level level = levels.get(levelNo);
+        lock.readLock().lock();
 
-        while(level != null) {
-            if(level.contains(key)) {
+        try {
+            int levelNo = LEVEL_BEGIN;
+            Level level = levels.get(levelNo);
+
+            while(level != null) {
                 byte[] value = level.find(key);
                 if(value != null) {
                     return value;
                 }
+
+                level = levels.get(++ levelNo);
             }
 
-            level = levels.get(++ levelNo);
+            return null;
+        } finally {
+            lock.readLock().unlock();
         }
-
-        return null;
     }
 
     public void merge(MemTable immutable) {
@@ -78,22 +106,127 @@ public class Levels {
             return;
         }
 
-        Level level = levels.get(LEVEL_BEGIN);
+        Level level = getOrCreate(LEVEL_BEGIN);
+        SsTable ssTable = level.createSsTable(immutable);
 
-        if(level == null) {
-            level = new Level(baseDir, LEVEL_BEGIN, this, valueFileGroup, options);
-            levels.put(LEVEL_BEGIN, level);
+        lock.writeLock().lock();
+        try {
+            level.addFirst(ssTable);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        compact();
+    }
+
+    /**
+     * 从 Level 1 开始，逐层检查是否需要 compaction
+     */
+    private void compact() {
+        int levelNo = LEVEL_BEGIN;
+        Level level = levels.get(levelNo);
+
+        while(level != null) {
+            while(level.needCompaction()) {
+                compactToNextLevel(level);
+            }
+
+            level = levels.get(++ levelNo);
+        }
+    }
+
+    /**
+     * 只合并下一层中 key 范围重叠的 SSTable
+     * 生成的 SSTable 落盘后先写 compaction edit 提交，再删除旧的 SSTable
+     *
+     * @param level level
+     */
+    private void compactToNextLevel(Level level) {
+        Level nextLevel = getOrCreate(level.levelNo() + 1);
+
+        List<SsTable> inputs = level.pickCompactionInputs();
+        if(inputs.isEmpty()) {
+            return;
+        }
+
+        byte[] begin = inputs.getFirst().beginKey();
+        byte[] end = inputs.getFirst().endKey();
+        for(SsTable input : inputs) {
+            begin = Arrays.compare(input.beginKey(), begin) < 0 ? input.beginKey() : begin;
+            end = Arrays.compare(input.endKey(), end) > 0 ? input.endKey() : end;
+        }
+
+        List<SsTable> overlapping = nextLevel.overlapping(begin, end);
+
+        // 从新到旧排列：inputs 比下一层的 SSTable 新
+        List<Iterator<KeyEntry>> iterators = new ArrayList<>();
+        inputs.forEach(ssTable -> iterators.add(ssTable.iterator()));
+        overlapping.forEach(ssTable -> iterators.add(ssTable.iterator()));
+
+        // 提交之前旧的 SSTable 仍然可能被重新加载，被覆盖的 value 等到提交之后再删除
+        List<Long> obsoleteValues = new ArrayList<>();
+
+        // 最底层不需要保留删除标记和过期的数据
+        MergingIterator mergingIterator = new MergingIterator(
+                iterators,
+                isBottom(nextLevel.levelNo()),
+                keyEntry -> {
+                    // 删除标记没有对应的 value
+                    if(keyEntry.valueGlobalIndex() >= 0) {
+                        obsoleteValues.add(keyEntry.valueGlobalIndex());
+                    }
+                }
+        );
+
+        List<SsTable> outputs = nextLevel.createSsTables(mergingIterator);
+
+        CompactionEdit edit = CompactionEdit.of(level, inputs, nextLevel, overlapping);
+        edit.commit(baseDir);
+
+        lock.writeLock().lock();
+        try {
+            level.replace(inputs, List.of());
+            nextLevel.replace(overlapping, outputs);
+        } finally {
+            lock.writeLock().unlock();
         }
 
-        level.merge(immutable);
+        inputs.forEach(SsTable::delete);
+        overlapping.forEach(SsTable::delete);
+        CompactionEdit.finish(baseDir);
+
+        obsoleteValues.forEach(valueFileGroup::removeEntry);
     }
 
-    Level get(int levelNo) {
-        return levels.get(levelNo);
+    private boolean isBottom(int levelNo) {
+        Level level = levels.get(++ levelNo);
+
+        while(level != null) {
+            if(!level.isEmpty()) {
+                return false;
+            }
+
+            level = levels.get(++ levelNo);
+        }
+
+        return true;
     }
 
-    void put(int levelNo, Level level) {
-        levels.put(levelNo, level);
+    private Level getOrCreate(int levelNo) {
+        Level level = levels.get(levelNo);
+
+        if(level == null) {
+            level = new Level(baseDir, levelNo, valueFileGroup, options, blockCache, statistics);
+
+            lock.writeLock().lock();
+            try {
+                levels.put(levelNo, level);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        return level;
     }
 
     /**
@@ -103,21 +236,24 @@ public class Levels {
      * @return is existed or not
      */
     public boolean existKey(byte[] key) throws DeletedException, TimeoutException {
-        int levelNo = LEVEL_BEGIN;
-        Level level = levels.get(levelNo);
+        lock.readLock().lock();
 
-        while(level != null) {
-            if(level.contains(key)) {
-                boolean isExisted = level.existKey(key);
-                if(isExisted) {
+        try {
+            int levelNo = LEVEL_BEGIN;
+            Level level = levels.get(levelNo);
+
+            while(level != null) {
+                if(level.existKey(key)) {
                     return true;
                 }
+
+                level = levels.get(++ levelNo);
             }
 
-            level = levels.get(++ levelNo);
+            return false;
+        } finally {
+            lock.readLock().unlock();
         }
-
-        return false;
     }
 
     public List<Key> rangeNext(
@@ -160,15 +296,22 @@ public class Levels {
             Comparator<Key> comparator,
             RangeOperator operator
     ) {
-        int levelNo = LEVEL_BEGIN;
-        Level level = levels.get(levelNo);
-
         PriorityQueue<Key> priorityQueue = new PriorityQueue<>(comparator);
-        while(level != null) {
-            List<Key> keys = operator.doRange(level, baseKey, limit, deletedKeys, existedKeys);
-            priorityQueue.addAll(keys);
 
-            level = levels.get(++ levelNo);
+        lock.readLock().lock();
+
+        try {
+            int levelNo = LEVEL_BEGIN;
+            Level level = levels.get(levelNo);
+
+            while(level != null) {
+                List<Key> keys = operator.doRange(level, baseKey, limit, deletedKeys, existedKeys);
+                priorityQueue.addAll(keys);
+
+                level = levels.get(++ levelNo);
+            }
+        } finally {
+            lock.readLock().unlock();
         }
 
         List<Key> range = new ArrayList<>();
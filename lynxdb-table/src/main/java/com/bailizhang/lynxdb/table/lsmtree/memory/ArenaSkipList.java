@@ -0,0 +1,436 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.table.lsmtree.memory;
+
+import com.bailizhang.lynxdb.table.lsmtree.sstable.KeyEntry;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 保存在堆外连续内存中的跳表，只允许一个线程写入，可以有多个线程同时读取
+ * 节点只追加不删除，相同的 key 再次写入时只替换 meta
+ *
+ * 地址是 int，高位是 chunk 的编号，低位是 chunk 中的偏移
+ * node: key length | height | meta address | next addresses | key
+ * meta: value global index | timeout | flag | [value length | value]，只有内联的 value 才有
+ */
+class ArenaSkipList implements Iterable<KeyEntry> {
+    private static final int MAX_HEIGHT = 12;
+    private static final int BRANCHING = 4;
+
+    private static final int MIN_CHUNK_SHIFT = 12;
+    private static final int MAX_CHUNK_SHIFT = 20;
+    private static final int ALIGNMENT = 8;
+
+    private static final int KEY_LENGTH_OFFSET = 0;
+    private static final int HEIGHT_OFFSET = 4;
+    private static final int META_OFFSET = 8;
+    private static final int NEXT_OFFSET = 12;
+
+    private static final int META_LENGTH = 24;
+    private static final int META_VALUE_GLOBAL_INDEX_OFFSET = 0;
+    private static final int META_TIMEOUT_OFFSET = 8;
+    private static final int META_FLAG_OFFSET = 16;
+    private static final int META_VALUE_LENGTH_OFFSET = 20;
+    private static final int META_VALUE_OFFSET = 24;
+
+    /**
+     * head 节点的地址是 0，没有节点会指向 head，所以 0 也表示 null
+     */
+    private static final int HEAD = 0;
+    private static final int NULL = 0;
+
+    private static final VarHandle INT_HANDLE = MethodHandles.byteBufferViewVarHandle(
+            int[].class,
+            ByteOrder.BIG_ENDIAN
+    );
+
+    private final int chunkShift;
+    private final int chunkSize;
+    private final int maxChunks;
+
+    /**
+     * 每个下标对应 chunkSize 大小的地址空间，超过 chunkSize 的节点独占多个下标
+     */
+    private volatile Chunk[] chunks = new Chunk[0];
+    private volatile int maxHeight = 1;
+    private volatile int size;
+    private volatile long memoryUsage;
+
+    // 下面的字段只有写线程访问
+    private Chunk current;
+    private int allocPosition;
+    private int nextChunkIdx;
+
+    /**
+     * @param expectedBytes 预计使用的内存大小，用来决定 chunk 的大小
+     */
+    ArenaSkipList(long expectedBytes) {
+        int shift = 64 - Long.numberOfLeadingZeros(Math.max(expectedBytes - 1, 1));
+        chunkShift = Math.clamp(shift, MIN_CHUNK_SHIFT, MAX_CHUNK_SHIFT);
+        chunkSize = 1 << chunkShift;
+        maxChunks = 1 << (Integer.SIZE - 1 - chunkShift);
+
+        int head = allocate(NEXT_OFFSET + MAX_HEIGHT * Integer.BYTES);
+        putInt(head + HEIGHT_OFFSET, MAX_HEIGHT);
+    }
+
+    /**
+     * 只能在写线程中调用
+     *
+     * @param keyEntry key entry
+     */
+    void put(KeyEntry keyEntry) {
+        byte[] key = keyEntry.key();
+
+        int[] prev = new int[MAX_HEIGHT];
+        int found = findGreaterOrEqual(key, prev);
+
+        boolean inline = keyEntry.hasInlineValue();
+        byte[] value = keyEntry.value();
+
+        int meta = allocate(inline ? META_VALUE_OFFSET + value.length : META_LENGTH);
+        putLong(meta + META_VALUE_GLOBAL_INDEX_OFFSET, keyEntry.valueGlobalIndex());
+        putByte(meta + META_FLAG_OFFSET, keyEntry.flag());
+        putLong(meta + META_TIMEOUT_OFFSET, keyEntry.timeout());
+
+        if(inline) {
+            putInt(meta + META_VALUE_LENGTH_OFFSET, value.length);
+            putBytes(meta + META_VALUE_OFFSET, value);
+        }
+
+        if(found != NULL && compareKey(found, key) == 0) {
+            setIntRelease(found + META_OFFSET, meta);
+            return;
+        }
+
+        int height = randomHeight();
+        int currentMaxHeight = maxHeight;
+        if(height > currentMaxHeight) {
+            for(int i = currentMaxHeight; i < height; i ++) {
+                prev[i] = HEAD;
+            }
+            // 读线程看到新的高度时，head 在新的层上还是 null，会直接向下一层查找
+            maxHeight = height;
+        }
+
+        int node = allocate(NEXT_OFFSET + height * Integer.BYTES + key.length);
+        putInt(node + KEY_LENGTH_OFFSET, key.length);
+        putInt(node + HEIGHT_OFFSET, height);
+        putInt(node + META_OFFSET, meta);
+        putBytes(keyOffset(node, height), key);
+
+        // 先设置新节点的 next，再发布到前一个节点上
+        for(int i = 0; i < height; i ++) {
+            int prevNext = nextOffset(prev[i], i);
+            putInt(nextOffset(node, i), getInt(prevNext));
+            setIntRelease(prevNext, node);
+        }
+
+        size ++;
+    }
+
+    KeyEntry get(byte[] key) {
+        int node = findGreaterOrEqual(key, null);
+
+        if(node == NULL || compareKey(node, key) != 0) {
+            return null;
+        }
+
+        return entry(node);
+    }
+
+    /**
+     * 第一个大于 key 的 entry
+     */
+    KeyEntry higher(byte[] key) {
+        int node = findGreaterOrEqual(key, null);
+
+        if(node != NULL && compareKey(node, key) == 0) {
+            node = nextNode(node, 0);
+        }
+
+        return node == NULL ? null : entry(node);
+    }
+
+    /**
+     * 最后一个小于 key 的 entry
+     */
+    KeyEntry lower(byte[] key) {
+        int node = findLessThan(key);
+        return node == HEAD ? null : entry(node);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 已经分配给节点和 meta 的字节数
+     */
+    long memoryUsage() {
+        return memoryUsage;
+    }
+
+    /**
+     * 按 key 的顺序遍历最底层的链表
+     */
+    @Override
+    public Iterator<KeyEntry> iterator() {
+        return new Iterator<>() {
+            private int node = nextNode(HEAD, 0);
+
+            @Override
+            public boolean hasNext() {
+                return node != NULL;
+            }
+
+            @Override
+            public KeyEntry next() {
+                if(node == NULL) {
+                    throw new NoSuchElementException();
+                }
+
+                KeyEntry keyEntry = entry(node);
+                node = nextNode(node, 0);
+                return keyEntry;
+            }
+        };
+    }
+
+    private int findGreaterOrEqual(byte[] key, int[] prev) {
+        int node = HEAD;
+        int level = maxHeight - 1;
+
+        while(true) {
+            int next = nextNode(node, level);
+
+            if(next != NULL && compareKey(next, key) < 0) {
+                node = next;
+                continue;
+            }
+
+            if(prev != null) {
+                prev[level] = node;
+            }
+
+            if(level == 0) {
+                return next;
+            }
+
+            level --;
+        }
+    }
+
+    private int findLessThan(byte[] key) {
+        int node = HEAD;
+        int level = maxHeight - 1;
+
+        while(true) {
+            int next = nextNode(node, level);
+
+            if(next != NULL && compareKey(next, key) < 0) {
+                node = next;
+                continue;
+            }
+
+            if(level == 0) {
+                return node;
+            }
+
+            level --;
+        }
+    }
+
+    private KeyEntry entry(int node) {
+        int meta = getIntAcquire(node + META_OFFSET);
+        long valueGlobalIndex = getLong(meta + META_VALUE_GLOBAL_INDEX_OFFSET);
+
+        byte[] value = null;
+        if(valueGlobalIndex == KeyEntry.INLINE_VALUE) {
+            value = getBytes(meta + META_VALUE_OFFSET, getInt(meta + META_VALUE_LENGTH_OFFSET));
+        }
+
+        return new KeyEntry(
+                getByte(meta + META_FLAG_OFFSET),
+                key(node),
+                value,
+                valueGlobalIndex,
+                getLong(meta + META_TIMEOUT_OFFSET)
+        );
+    }
+
+    private byte[] key(int node) {
+        int keyLength = getInt(node + KEY_LENGTH_OFFSET);
+        int keyOffset = keyOffset(node, getInt(node + HEIGHT_OFFSET));
+        return getBytes(keyOffset, keyLength);
+    }
+
+    private byte[] getBytes(int address, int length) {
+        Chunk chunk = chunk(address);
+        byte[] bytes = new byte[length];
+        chunk.buffer.get(chunk.local(address, chunkShift), bytes);
+        return bytes;
+    }
+
+    /**
+     * 和 Arrays.compare(byte[], byte[]) 的顺序保持一致
+     */
+    private int compareKey(int node, byte[] key) {
+        int keyLength = getInt(node + KEY_LENGTH_OFFSET);
+        int keyOffset = keyOffset(node, getInt(node + HEIGHT_OFFSET));
+
+        Chunk chunk = chunk(keyOffset);
+        ByteBuffer buffer = chunk.buffer;
+        int position = chunk.local(keyOffset, chunkShift);
+
+        int length = Math.min(keyLength, key.length);
+        for(int i = 0; i < length; i ++) {
+            int compareValue = Byte.compare(buffer.get(position + i), key[i]);
+            if(compareValue != 0) {
+                return compareValue;
+            }
+        }
+
+        return keyLength - key.length;
+    }
+
+    private int nextNode(int node, int level) {
+        return getIntAcquire(nextOffset(node, level));
+    }
+
+    private static int nextOffset(int node, int level) {
+        return node + NEXT_OFFSET + level * Integer.BYTES;
+    }
+
+    private static int keyOffset(int node, int height) {
+        return node + NEXT_OFFSET + height * Integer.BYTES;
+    }
+
+    private static int randomHeight() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        int height = 1;
+        while(height < MAX_HEIGHT && random.nextInt(BRANCHING) == 0) {
+            height ++;
+        }
+
+        return height;
+    }
+
+    /**
+     * 分配的内存按 8 字节对齐，不会跨越 chunk
+     *
+     * @param length length
+     * @return address
+     */
+    private int allocate(int length) {
+        int aligned = (length + ALIGNMENT - 1) & -ALIGNMENT;
+
+        if(current == null || allocPosition + aligned > current.buffer.capacity()) {
+            newChunk(aligned);
+        }
+
+        int address = (current.baseIdx << chunkShift) + allocPosition;
+        allocPosition += aligned;
+        memoryUsage += aligned;
+
+        return address;
+    }
+
+    private void newChunk(int length) {
+        int count = Math.max((length + chunkSize - 1) >>> chunkShift, 1);
+
+        if(nextChunkIdx + count > maxChunks) {
+            throw new RuntimeException("MemTable arena overflow");
+        }
+
+        Chunk chunk = new Chunk(ByteBuffer.allocateDirect(count << chunkShift), nextChunkIdx);
+
+        Chunk[] newChunks = Arrays.copyOf(chunks, nextChunkIdx + count);
+        Arrays.fill(newChunks, nextChunkIdx, nextChunkIdx + count, chunk);
+        // 先发布 chunk，再发布指向 chunk 中节点的地址
+        chunks = newChunks;
+
+        current = chunk;
+        allocPosition = 0;
+        nextChunkIdx += count;
+    }
+
+    private Chunk chunk(int address) {
+        return chunks[address >>> chunkShift];
+    }
+
+    private int getInt(int address) {
+        Chunk chunk = chunk(address);
+        return chunk.buffer.getInt(chunk.local(address, chunkShift));
+    }
+
+    private int getIntAcquire(int address) {
+        Chunk chunk = chunk(address);
+        return (int) INT_HANDLE.getAcquire(chunk.buffer, chunk.local(address, chunkShift));
+    }
+
+    private long getLong(int address) {
+        Chunk chunk = chunk(address);
+        return chunk.buffer.getLong(chunk.local(address, chunkShift));
+    }
+
+    private byte getByte(int address) {
+        Chunk chunk = chunk(address);
+        return chunk.buffer.get(chunk.local(address, chunkShift));
+    }
+
+    private void putInt(int address, int value) {
+        Chunk chunk = chunk(address);
+        chunk.buffer.putInt(chunk.local(address, chunkShift), value);
+    }
+
+    private void setIntRelease(int address, int value) {
+        Chunk chunk = chunk(address);
+        INT_HANDLE.setRelease(chunk.buffer, chunk.local(address, chunkShift), value);
+    }
+
+    private void putLong(int address, long value) {
+        Chunk chunk = chunk(address);
+        chunk.buffer.putLong(chunk.local(address, chunkShift), value);
+    }
+
+    private void putByte(int address, byte value) {
+        Chunk chunk = chunk(address);
+        chunk.buffer.put(chunk.local(address, chunkShift), value);
+    }
+
+    private void putBytes(int address, byte[] value) {
+        Chunk chunk = chunk(address);
+        chunk.buffer.put(chunk.local(address, chunkShift), value);
+    }
+
+    private record Chunk(ByteBuffer buffer, int baseIdx) {
+        private int local(int address, int chunkShift) {
+            return address - (baseIdx << chunkShift);
+        }
+    }
+}
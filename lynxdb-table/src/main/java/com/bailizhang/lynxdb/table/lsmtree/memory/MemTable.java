@@ -17,6 +17,7 @@
 package com.bailizhang.lynxdb.table.lsmtree.memory;
 
 import com.bailizhang.lynxdb.core.common.Flags;
+import com.bailizhang.lynxdb.core.log.LogGroup;
 import com.bailizhang.lynxdb.table.config.LsmTreeOptions;
 import com.bailizhang.lynxdb.table.exception.DeletedException;
 import com.bailizhang.lynxdb.table.exception.TimeoutException;
@@ -25,36 +26,64 @@ import com.bailizhang.lynxdb.table.schema.Key;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentSkipListMap;
 
 public class MemTable {
     private final LsmTreeOptions options;
+    private final LogGroup valueLogGroup;
     private volatile boolean immutable = false;
 
     /**
-     * KeyEntry 保存了是否是删除的 flag 信息
+     * 写入这个 memTable 的最大 wal global index，flush 完成后可以删除之前的 wal
      */
-    private final ConcurrentSkipListMap<Key, KeyEntry> skipListMap = new ConcurrentSkipListMap<>();
+    private volatile long maxWalGlobalIndex = -1;
 
-    public MemTable(LsmTreeOptions options) {
+    /**
+     * 写入这个 memTable 的最小 wal global index，table 级别的 wal 只能删除它之前的 entry
+     */
+    private volatile long minWalGlobalIndex = -1;
+
+    /**
+     * 只保存 key 和 meta，大的 value 已经写入了 value log，小的 value 内联在 meta 后面
+     */
+    private final ArenaSkipList skipList;
+
+    public MemTable(LsmTreeOptions options, LogGroup valueLogGroup) {
         this.options = options;
+        this.valueLogGroup = valueLogGroup;
+
+        skipList = new ArenaSkipList(options.memTableBytes());
     }
 
     public void append(KeyEntry keyEntry) {
+        append(keyEntry, -1);
+    }
+
+    /**
+     * 只能在一个线程中写入
+     *
+     * @param keyEntry key entry
+     * @param walGlobalIndex wal global index
+     */
+    public void append(KeyEntry keyEntry, long walGlobalIndex) {
         if(immutable) {
             return;
         }
 
-        byte[] key = keyEntry.key();
-        skipListMap.put(new Key(key), keyEntry);
-    }
+        skipList.put(keyEntry);
+
+        if(walGlobalIndex > maxWalGlobalIndex) {
+            maxWalGlobalIndex = walGlobalIndex;
+        }
 
-    public byte[] find(byte[] k) throws DeletedException, TimeoutException {
-        Key key = new Key(k);
+        if(walGlobalIndex >= 0 && minWalGlobalIndex < 0) {
+            minWalGlobalIndex = walGlobalIndex;
+        }
+    }
 
-        KeyEntry keyEntry = skipListMap.get(key);
+    public byte[] find(byte[] key) throws DeletedException, TimeoutException {
+        KeyEntry keyEntry = skipList.get(key);
 
         if(keyEntry == null) {
             return null;
@@ -68,29 +97,54 @@ public class MemTable {
             throw new DeletedException();
         }
 
-        return keyEntry.value();
+        if(keyEntry.hasInlineValue()) {
+            return keyEntry.value();
+        }
+
+        byte[] value = valueLogGroup.findData(keyEntry.valueGlobalIndex());
+
+        if(value == null) {
+            throw new RuntimeException("Value not found in value log: " + keyEntry.valueGlobalIndex());
+        }
+
+        return value;
     }
 
     public boolean full() {
-        return skipListMap.size() >= options.memTableSize();
+        return skipList.memoryUsage() >= options.memTableBytes();
     }
 
     public void transformToImmutable() {
         immutable = true;
     }
 
+    public long maxWalGlobalIndex() {
+        return maxWalGlobalIndex;
+    }
+
+    public long minWalGlobalIndex() {
+        return minWalGlobalIndex;
+    }
+
+    public int size() {
+        return skipList.size();
+    }
+
+    public long memoryUsage() {
+        return skipList.memoryUsage();
+    }
+
     /**
-     * 合并到 memTable 时用的
+     * flush 时按 key 的顺序读取，value 为 null
      *
-     * @return DB entries
+     * @return sorted key entries
      */
-    public List<KeyEntry> all() {
-        // TODO: values 是不是排序过的？
-        return new ArrayList<>(skipListMap.values());
+    public Iterator<KeyEntry> iterator() {
+        return skipList.iterator();
     }
 
     public boolean existKey(byte[] key) throws DeletedException, TimeoutException {
-        KeyEntry entry = skipListMap.get(new Key(key));
+        KeyEntry entry = skipList.get(key);
 
         if(entry == null) {
             return false;
@@ -118,7 +172,7 @@ public class MemTable {
                 limit,
                 deletedKeys,
                 existedKeys,
-                skipListMap::higherEntry
+                skipList::higher
         );
     }
 
@@ -133,7 +187,7 @@ public class MemTable {
                 limit,
                 deletedKeys,
                 existedKeys,
-                skipListMap::lowerEntry
+                skipList::lower
         );
     }
 
@@ -144,19 +198,19 @@ public class MemTable {
             HashSet<Key> existedKeys,
             RangeOperator operator
     ) {
-        Key key = new Key(baseKey);
+        byte[] current = baseKey;
 
         List<Key> keys = new ArrayList<>();
 
         while(limit > 0) {
-            Map.Entry<Key, KeyEntry> entry = operator.doRange(key);
+            KeyEntry keyEntry = operator.doRange(current);
 
-            if(entry == null) {
+            if(keyEntry == null) {
                 break;
             }
 
-            KeyEntry keyEntry = entry.getValue();
-            key = entry.getKey();
+            current = keyEntry.key();
+            Key key = new Key(current);
 
             if(keyEntry.flag() == Flags.DELETED) {
                 deletedKeys.add(key);
@@ -178,6 +232,6 @@ public class MemTable {
 
     @FunctionalInterface
     private interface RangeOperator {
-        Map.Entry<Key, KeyEntry> doRange(Key key);
+        KeyEntry doRange(byte[] key);
     }
 }
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bailizhang.lynxdb.table.lsmtree.sstable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.*;
+
+/**
+ * 解码后的 data block，创建后不会再修改，可以被多个线程同时读取
+ *
+ * entry: shared key length | unshared key length | unshared key | flag | value global index | timeout
+ *        [value length | value]，只有内联的 value 才有
+ * 尾部: restart offsets | restart count | crc
+ *
+ * restart point 处的 entry 保存完整的 key，其余 entry 只保存和前一个 key 不同的部分
+ */
+public class Block {
+    static final int ENTRY_HEADER_LENGTH = INT_LENGTH * 2;
+    static final int ENTRY_TAIL_LENGTH = BYTE_LENGTH + LONG_LENGTH + LONG_LENGTH;
+
+    /**
+     * SSTable 版本 5 之前 value global index 是 int
+     */
+    private static final int LONG_VALUE_INDEX_FORMAT_VERSION = 5;
+
+    private final byte[] data;
+    private final ByteBuffer buffer;
+    private final int[] restarts;
+    private final int entriesEnd;
+    private final int valueIndexLength;
+
+    private Block(byte[] data, ByteBuffer buffer, int[] restarts, int entriesEnd, int valueIndexLength) {
+        this.data = data;
+        this.buffer = buffer;
+        this.restarts = restarts;
+        this.entriesEnd = entriesEnd;
+        this.valueIndexLength = valueIndexLength;
+    }
+
+    public static Block from(byte[] data) {
+        return from(data, SsTable.FORMAT_VERSION);
+    }
+
+    /**
+     * @param data block data
+     * @param formatVersion block 所在 SSTable 的版本
+     * @return block
+     */
+    public static Block from(byte[] data, int formatVersion) {
+        ByteBuffer buffer = ByteBuffer.wrap(data).asReadOnlyBuffer();
+
+        int crcOffset = data.length - LONG_LENGTH;
+        CRC32C crc32C = new CRC32C();
+        crc32C.update(data, 0, crcOffset);
+
+        if(crc32C.getValue() != buffer.getLong(crcOffset)) {
+            throw new RuntimeException("Block data wrong.");
+        }
+
+        int restartCount = buffer.getInt(crcOffset - INT_LENGTH);
+        int entriesEnd = crcOffset - INT_LENGTH - restartCount * INT_LENGTH;
+
+        int[] restarts = new int[restartCount];
+        for(int i = 0; i < restartCount; i ++) {
+            restarts[i] = buffer.getInt(entriesEnd + i * INT_LENGTH);
+        }
+
+        int valueIndexLength = formatVersion < LONG_VALUE_INDEX_FORMAT_VERSION ? INT_LENGTH : LONG_LENGTH;
+        return new Block(data, buffer, restarts, entriesEnd, valueIndexLength);
+    }
+
+    /**
+     * block 占用的字节数，用于 block cache 计算容量
+     */
+    public int length() {
+        return data.length;
+    }
+
+    /**
+     * 精确查找 key
+     *
+     * @param key key
+     * @return key entry, null if not found
+     */
+    public KeyEntry find(byte[] key) {
+        Cursor cursor = seek(key);
+
+        if(!cursor.hasNext()) {
+            return null;
+        }
+
+        KeyEntry keyEntry = cursor.next();
+        return Arrays.equals(keyEntry.key(), key) ? keyEntry : null;
+    }
+
+    /**
+     * 定位到第一个大于等于 key 的 entry
+     *
+     * @param key key
+     * @return cursor
+     */
+    public Cursor seek(byte[] key) {
+        // 二分查找最后一个 key 小于等于目标 key 的 restart point
+        int begin = 0, end = restarts.length - 1, restartIdx = 0;
+
+        while(begin <= end) {
+            int mid = begin + ((end - begin) >> 1);
+
+            if(compareRestartKey(mid, key) <= 0) {
+                restartIdx = mid;
+                begin = mid + 1;
+            } else {
+                end = mid - 1;
+            }
+        }
+
+        Cursor cursor = new Cursor(restarts.length == 0 ? entriesEnd : restarts[restartIdx]);
+        cursor.skipLessThan(key);
+        return cursor;
+    }
+
+    public Cursor iterator() {
+        return new Cursor(0);
+    }
+
+    public List<KeyEntry> entries() {
+        List<KeyEntry> entries = new ArrayList<>();
+        iterator().forEachRemaining(entries::add);
+        return entries;
+    }
+
+    private int compareRestartKey(int restartIdx, byte[] key) {
+        int offset = restarts[restartIdx];
+        // restart point 处 shared 为 0
+        int unshared = buffer.getInt(offset + INT_LENGTH);
+        int keyBegin = offset + ENTRY_HEADER_LENGTH;
+
+        return Arrays.compare(data, keyBegin, keyBegin + unshared, key, 0, key.length);
+    }
+
+    public class Cursor implements Iterator<KeyEntry> {
+        private int offset;
+        private byte[] lastKey = new byte[0];
+
+        private KeyEntry peeked;
+
+        private Cursor(int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return peeked != null || offset < entriesEnd;
+        }
+
+        @Override
+        public KeyEntry next() {
+            if(peeked != null) {
+                KeyEntry keyEntry = peeked;
+                peeked = null;
+                return keyEntry;
+            }
+
+            if(offset >= entriesEnd) {
+                throw new NoSuchElementException();
+            }
+
+            int shared = buffer.getInt(offset);
+            int unshared = buffer.getInt(offset + INT_LENGTH);
+            offset += ENTRY_HEADER_LENGTH;
+
+            byte[] key = Arrays.copyOf(lastKey, shared + unshared);
+            System.arraycopy(data, offset, key, shared, unshared);
+            offset += unshared;
+
+            byte flag = buffer.get(offset);
+            offset += BYTE_LENGTH;
+
+            long valueGlobalIndex = valueIndexLength == INT_LENGTH
+                    ? buffer.getInt(offset)
+                    : buffer.getLong(offset);
+            offset += valueIndexLength;
+
+            long timeout = buffer.getLong(offset);
+            offset += LONG_LENGTH;
+
+            byte[] value = null;
+            if(valueGlobalIndex == KeyEntry.INLINE_VALUE) {
+                int valueLength = buffer.getInt(offset);
+                offset += INT_LENGTH;
+
+                value = Arrays.copyOfRange(data, offset, offset + valueLength);
+                offset += valueLength;
+            }
+
+            lastKey = key;
+
+            return new KeyEntry(
+                    flag,
+                    key,
+                    value,
+                    valueGlobalIndex,
+                    timeout
+            );
+        }
+
+        private void skipLessThan(byte[] key) {
+            while(hasNext()) {
+                KeyEntry keyEntry = next();
+
+                if(Arrays.compare(keyEntry.key(), key) >= 0) {
+                    peeked = keyEntry;
+                    return;
+                }
+            }
+        }
+    }
+}
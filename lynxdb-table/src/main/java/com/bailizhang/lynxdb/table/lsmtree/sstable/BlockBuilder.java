@@ -0,0 +1,133 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bailizhang.lynxdb.table.lsmtree.sstable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.INT_LENGTH;
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.LONG_LENGTH;
+
+/**
+ * 按 Block 的格式编码 entry，写满后由 SsTableWriter 写入文件
+ */
+class BlockBuilder {
+    /**
+     * 每隔多少个 entry 保存一次完整的 key
+     */
+    static final int RESTART_INTERVAL = 16;
+
+    private ByteBuffer buffer;
+    private int[] restarts = new int[RESTART_INTERVAL];
+    private int restartCount;
+
+    private int entryCount;
+    private byte[] lastKey;
+
+    BlockBuilder(int blockSize) {
+        buffer = ByteBuffer.allocate(blockSize * 2);
+    }
+
+    void add(KeyEntry keyEntry) {
+        byte[] key = keyEntry.key();
+
+        int shared = 0;
+        if(entryCount % RESTART_INTERVAL == 0) {
+            if(restartCount == restarts.length) {
+                restarts = Arrays.copyOf(restarts, restartCount * 2);
+            }
+            restarts[restartCount ++] = buffer.position();
+        } else {
+            shared = Arrays.mismatch(lastKey, key);
+            // key 不会重复，mismatch 不会返回 -1
+            shared = shared < 0 ? Math.min(lastKey.length, key.length) : shared;
+        }
+
+        int unshared = key.length - shared;
+        int valueLength = keyEntry.hasInlineValue() ? INT_LENGTH + keyEntry.value().length : 0;
+        ensureRemaining(Block.ENTRY_HEADER_LENGTH + unshared + Block.ENTRY_TAIL_LENGTH + valueLength);
+
+        buffer.putInt(shared);
+        buffer.putInt(unshared);
+        buffer.put(key, shared, unshared);
+        buffer.put(keyEntry.flag());
+        buffer.putLong(keyEntry.valueGlobalIndex());
+        buffer.putLong(keyEntry.timeout());
+
+        if(keyEntry.hasInlineValue()) {
+            buffer.putInt(keyEntry.value().length);
+            buffer.put(keyEntry.value());
+        }
+
+        lastKey = key;
+        entryCount ++;
+    }
+
+    boolean isEmpty() {
+        return entryCount == 0;
+    }
+
+    byte[] lastKey() {
+        return lastKey;
+    }
+
+    /**
+     * 估算写完尾部之后的长度
+     */
+    int estimatedLength() {
+        return buffer.position() + (restartCount + 1) * INT_LENGTH + LONG_LENGTH;
+    }
+
+    /**
+     * 写入 restart points 和 crc，返回的 buffer 在下一次 reset 之前有效
+     *
+     * @return block data
+     */
+    ByteBuffer finish() {
+        ensureRemaining((restartCount + 1) * INT_LENGTH + LONG_LENGTH);
+
+        for(int i = 0; i < restartCount; i ++) {
+            buffer.putInt(restarts[i]);
+        }
+        buffer.putInt(restartCount);
+
+        CRC32C crc32C = new CRC32C();
+        crc32C.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc32C.getValue());
+
+        return buffer.flip();
+    }
+
+    void reset() {
+        buffer.clear();
+        restartCount = 0;
+        entryCount = 0;
+        lastKey = null;
+    }
+
+    private void ensureRemaining(int length) {
+        if(buffer.remaining() >= length) {
+            return;
+        }
+
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + length);
+        ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+        newBuffer.put(buffer.flip());
+        buffer = newBuffer;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bailizhang.lynxdb.table.lsmtree.sstable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按容量淘汰的 LRU block 缓存，分成多个 shard 降低锁竞争
+ * 同一个 table 的所有 column 共享一个 BlockCache
+ */
+public class BlockCache {
+    private final Shard[] shards;
+    private final long capacity;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity 缓存的最大字节数
+     * @param shardCount shard 的数量，必须是 2 的幂
+     */
+    public BlockCache(long capacity, int shardCount) {
+        if(capacity <= 0) {
+            throw new RuntimeException("Block cache capacity must be positive");
+        }
+
+        if(shardCount <= 0 || Integer.bitCount(shardCount) != 1) {
+            throw new RuntimeException("Shard count must be a power of 2");
+        }
+
+        this.capacity = capacity;
+
+        shards = new Shard[shardCount];
+        long shardCapacity = Math.max(capacity / shardCount, 1);
+        for(int i = 0; i < shardCount; i ++) {
+            shards[i] = new Shard(shardCapacity);
+        }
+    }
+
+    public Block get(long tableId, int offset) {
+        CacheKey key = new CacheKey(tableId, offset);
+        Block block = shard(key).get(key);
+
+        if(block == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+
+        return block;
+    }
+
+    public void put(long tableId, int offset, Block block) {
+        CacheKey key = new CacheKey(tableId, offset);
+        shard(key).put(key, block);
+    }
+
+    /**
+     * SSTable 被删除后，清理它的所有 block
+     *
+     * @param tableId SSTable cache id
+     */
+    public void evict(long tableId) {
+        for(Shard shard : shards) {
+            shard.evict(tableId);
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    public long usage() {
+        long usage = 0;
+        for(Shard shard : shards) {
+            usage += shard.usage();
+        }
+        return usage;
+    }
+
+    private Shard shard(CacheKey key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return shards[hash & (shards.length - 1)];
+    }
+
+    private record CacheKey(long tableId, int offset) {
+    }
+
+    private static class Shard {
+        private final long capacity;
+        private final LinkedHashMap<CacheKey, Block> blocks = new LinkedHashMap<>(16, 0.75f, true);
+
+        private long usage;
+
+        private Shard(long capacity) {
+            this.capacity = capacity;
+        }
+
+        private synchronized Block get(CacheKey key) {
+            return blocks.get(key);
+        }
+
+        private synchronized void put(CacheKey key, Block block) {
+            Block old = blocks.put(key, block);
+            if(old != null) {
+                usage -= old.length();
+            }
+            usage += block.length();
+
+            // 按访问顺序淘汰最久没有使用的 block
+            Iterator<Map.Entry<CacheKey, Block>> iterator = blocks.entrySet().iterator();
+            while(usage > capacity && iterator.hasNext()) {
+                Map.Entry<CacheKey, Block> eldest = iterator.next();
+                usage -= eldest.getValue().length();
+                iterator.remove();
+            }
+        }
+
+        private synchronized void evict(long tableId) {
+            Iterator<Map.Entry<CacheKey, Block>> iterator = blocks.entrySet().iterator();
+            while(iterator.hasNext()) {
+                Map.Entry<CacheKey, Block> entry = iterator.next();
+                if(entry.getKey().tableId() == tableId) {
+                    usage -= entry.getValue().length();
+                    iterator.remove();
+                }
+            }
+        }
+
+        private synchronized long usage() {
+            return usage;
+        }
+    }
+}
@@ -20,50 +20,47 @@ import com.bailizhang.lynxdb.core.utils.BufferUtils;
 import com.bailizhang.lynxdb.core.utils.Crc32cUtils;
 
 import java.nio.ByteBuffer;
-import java.util.Arrays;
 import java.util.List;
 
-public record FirstIndexEntry(
-        byte[] beginKey,
-        int idx
-) implements Comparable<FirstIndexEntry> {
-    public static FirstIndexEntry from(ByteBuffer buffer) {
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.INT_LENGTH;
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.LONG_LENGTH;
+
+/**
+ * 索引区域中的 entry，每个 data block 对应一条
+ *
+ * @param lastKey block 中最大的 key
+ * @param offset block 在数据区域中的位置
+ * @param length block 的长度
+ */
+public record BlockIndexEntry(
+        byte[] lastKey,
+        int offset,
+        int length
+) {
+    public static BlockIndexEntry from(ByteBuffer buffer) {
         int beginPosition = buffer.position();
 
-        byte[] beginKey = BufferUtils.getBytes(buffer);
-        int idx = buffer.getInt();
+        byte[] lastKey = BufferUtils.getBytes(buffer);
+        int offset = buffer.getInt();
+        int length = buffer.getInt();
 
         int endPosition = buffer.position();
 
         Crc32cUtils.check(buffer, beginPosition, endPosition);
-        return new FirstIndexEntry(beginKey, idx);
+        return new BlockIndexEntry(lastKey, offset, length);
     }
 
-    public static void writeToBuffer(List<FirstIndexEntry> entries, ByteBuffer buffer) {
-        for(FirstIndexEntry entry : entries) {
+    public static void writeToBuffer(List<BlockIndexEntry> entries, ByteBuffer buffer) {
+        for(BlockIndexEntry entry : entries) {
             int position = buffer.position();
-            byte[] beginKey = entry.beginKey;
-            BufferUtils.putVarBytes(buffer, beginKey);
-            buffer.putInt(entry.idx);
+            BufferUtils.putVarBytes(buffer, entry.lastKey);
+            buffer.putInt(entry.offset);
+            buffer.putInt(entry.length);
             Crc32cUtils.update(buffer, position, buffer.position());
         }
     }
 
-    @Override
-    public int compareTo(FirstIndexEntry o) {
-        return Arrays.compare(beginKey, o.beginKey);
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        FirstIndexEntry that = (FirstIndexEntry) o;
-        return Arrays.equals(beginKey, that.beginKey);
-    }
-
-    @Override
-    public int hashCode() {
-        return Arrays.hashCode(beginKey);
+    public int encodedLength() {
+        return INT_LENGTH + lastKey.length + INT_LENGTH * 2 + LONG_LENGTH;
     }
 }
@@ -32,19 +32,25 @@ import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.LONG_LENGTH;
  *
  * @param flag flag
  * @param key key
- * @param valueGlobalIndex value global index
+ * @param value value，value 内联时保存在 SSTable 中
+ * @param valueGlobalIndex value global index，INLINE_VALUE 表示 value 内联
  * @param timeout timeout
  */
 public record KeyEntry(
         byte flag, // 持久化在 index 中，不需要 crc，也不用转成 bytes
         byte[] key,
         byte[] value, // memTable 需要这个字段，不需要 crc，也不用转成 bytes
-        int valueGlobalIndex,
+        long valueGlobalIndex,
         long timeout
 ) implements Comparable<KeyEntry> {
+    /**
+     * 小于 valueSeparationThreshold 的 value 不写入 value log，直接和 key 保存在一起
+     */
+    public static final long INLINE_VALUE = -2L;
+
     public static KeyEntry from(WalEntry walEntry) {
         byte[] key = walEntry.key();
-        int valueGlobalIndex = walEntry.valueGlobalIndex();
+        long valueGlobalIndex = walEntry.valueGlobalIndex();
         long timeout = walEntry.timeout();
 
         return new KeyEntry(
@@ -59,7 +65,7 @@ public record KeyEntry(
     public static KeyEntry from(byte flag, byte[] data) {
         ByteBuffer buffer = ByteBuffer.wrap(data);
         byte[] key = BufferUtils.getBytes(buffer);
-        int valueGlobalIndex = buffer.getInt();
+        long valueGlobalIndex = buffer.getLong();
         long timeout = buffer.getLong();
 
         Crc32cUtils.check(buffer);
@@ -75,20 +81,28 @@ public record KeyEntry(
 
     public static void writeToBuffer(List<KeyEntry> entries, ByteBuffer buffer) {
         for(KeyEntry entry : entries) {
-            int position = buffer.position();
-            BufferUtils.putVarBytes(buffer, entry.key);
-            buffer.putInt(entry.valueGlobalIndex);
-            buffer.putLong(entry.timeout);
-            Crc32cUtils.update(buffer, position, buffer.position());
+            writeToBuffer(entry, buffer);
         }
     }
 
+    public static void writeToBuffer(KeyEntry entry, ByteBuffer buffer) {
+        int position = buffer.position();
+        BufferUtils.putVarBytes(buffer, entry.key);
+        buffer.putLong(entry.valueGlobalIndex);
+        buffer.putLong(entry.timeout);
+        Crc32cUtils.update(buffer, position, buffer.position());
+    }
+
+    public boolean hasInlineValue() {
+        return valueGlobalIndex == INLINE_VALUE;
+    }
+
     public boolean isTimeout() {
-        return timeout > 0 && timeout < System.currentTimeMillis();
+        return timeout > 0 && timeout <= System.currentTimeMillis();
     }
 
     public int length() {
-        return INT_LENGTH + key.length + INT_LENGTH + LONG_LENGTH + LONG_LENGTH;
+        return INT_LENGTH + key.length + LONG_LENGTH + LONG_LENGTH + LONG_LENGTH;
     }
 
     @Override
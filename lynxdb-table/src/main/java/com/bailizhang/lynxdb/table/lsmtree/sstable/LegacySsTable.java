@@ -0,0 +1,178 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bailizhang.lynxdb.table.lsmtree.sstable;
+
+import com.bailizhang.lynxdb.core.common.FileType;
+import com.bailizhang.lynxdb.core.mmap.MappedBuffer;
+import com.bailizhang.lynxdb.core.utils.BufferUtils;
+import com.bailizhang.lynxdb.core.utils.Crc32cUtils;
+import com.bailizhang.lynxdb.core.utils.FileChannelUtils;
+import com.bailizhang.lynxdb.core.utils.FileUtils;
+import com.bailizhang.lynxdb.core.utils.NameUtils;
+import com.bailizhang.lynxdb.table.config.LsmTreeOptions;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.*;
+
+/**
+ * 版本 1 的 SSTable：一级索引 + 二级索引，每条 entry 单独编码，value global index 是 int。
+ * header 中没有版本号，和当前版本的 magic number 相同，通过 header 的长度和 crc 区分
+ *
+ * 打开时按 key 的顺序读出所有 entry，写成当前版本的 SSTable 后原子地替换原来的文件
+ */
+class LegacySsTable {
+    private interface Header {
+        int LENGTH = 44;
+        int META_REGION_LENGTH_OFFSET = 0;
+        int MAGIC_NUMBER_OFFSET = 4;
+        int BLOOM_FILTER_REGION_LENGTH_OFFSET = 20;
+        int FIRST_INDEX_REGION_LENGTH_OFFSET = 24;
+        int SECOND_INDEX_REGION_LENGTH_OFFSET = 28;
+        int DATA_REGION_LENGTH_OFFSET = 32;
+        int CRC32C_OFFSET = 36;
+    }
+
+    /**
+     * flag | begin | length | crc
+     */
+    private static final int SECOND_INDEX_ENTRY_LENGTH = BYTE_LENGTH + INT_LENGTH * 2 + LONG_LENGTH;
+
+    /**
+     * @param filePath SSTable file
+     * @return 是否是版本 1 的 SSTable
+     */
+    static boolean isLegacy(Path filePath) {
+        FileChannel channel = FileChannelUtils.open(filePath, StandardOpenOption.READ);
+
+        try {
+            if(FileChannelUtils.size(channel) < Header.LENGTH) {
+                return false;
+            }
+
+            ByteBuffer header = ByteBuffer.wrap(FileChannelUtils.read(channel, 0, Header.LENGTH));
+            if(header.getInt(Header.MAGIC_NUMBER_OFFSET) != FileType.SSTABLE_FILE.magicNumber()) {
+                return false;
+            }
+
+            CRC32C crc32C = new CRC32C();
+            crc32C.update(header.array(), 0, Header.CRC32C_OFFSET);
+            return crc32C.getValue() == header.getLong(Header.CRC32C_OFFSET);
+        } finally {
+            FileChannelUtils.close(channel);
+        }
+    }
+
+    /**
+     * 把版本 1 的 SSTable 转换成当前版本，SSTable 的编号不变
+     *
+     * @param baseDir base directory
+     * @param ssTableNo SSTable No.
+     * @param options options
+     */
+    static void migrate(Path baseDir, int ssTableNo, LsmTreeOptions options) {
+        String filename = NameUtils.name(ssTableNo) + FileType.SSTABLE_FILE.suffix();
+        Path filePath = Path.of(baseDir.toString(), filename);
+
+        if(FileUtils.notExist(filePath)) {
+            throw new RuntimeException("SSTable not found: " + filePath);
+        }
+
+        MappedBuffer headerBuffer = new MappedBuffer(filePath, 0, Header.LENGTH);
+        ByteBuffer header = headerBuffer.getBuffer();
+
+        int metaRegionLength = header.getInt(Header.META_REGION_LENGTH_OFFSET);
+        int secondIndexRegionOffset = metaRegionLength
+                + header.getInt(Header.BLOOM_FILTER_REGION_LENGTH_OFFSET)
+                + header.getInt(Header.FIRST_INDEX_REGION_LENGTH_OFFSET);
+        int secondIndexRegionLength = header.getInt(Header.SECOND_INDEX_REGION_LENGTH_OFFSET);
+
+        MappedBuffer secondIndexBuffer = new MappedBuffer(
+                filePath,
+                secondIndexRegionOffset,
+                secondIndexRegionLength
+        );
+        MappedBuffer dataBuffer = new MappedBuffer(
+                filePath,
+                secondIndexRegionOffset + secondIndexRegionLength,
+                header.getInt(Header.DATA_REGION_LENGTH_OFFSET)
+        );
+
+        Iterator<KeyEntry> entries = new LegacyIterator(
+                secondIndexBuffer.duplicate(),
+                dataBuffer.duplicate()
+        );
+
+        SsTableWriter writer = new SsTableWriter(baseDir, ssTableNo, options, true);
+
+        try {
+            while(entries.hasNext()) {
+                writer.append(entries.next());
+            }
+
+            writer.finish();
+        } catch (RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * 按二级索引的顺序读取 entry，二级索引按 key 排序
+     */
+    private static class LegacyIterator implements Iterator<KeyEntry> {
+        private final ByteBuffer indexBuffer;
+        private final ByteBuffer dataBuffer;
+
+        private LegacyIterator(ByteBuffer indexBuffer, ByteBuffer dataBuffer) {
+            this.indexBuffer = indexBuffer;
+            this.dataBuffer = dataBuffer;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return indexBuffer.remaining() >= SECOND_INDEX_ENTRY_LENGTH;
+        }
+
+        @Override
+        public KeyEntry next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            int indexPosition = indexBuffer.position();
+            byte flag = indexBuffer.get();
+            int begin = indexBuffer.getInt();
+            int length = indexBuffer.getInt();
+            Crc32cUtils.check(indexBuffer, indexPosition, indexBuffer.position());
+
+            ByteBuffer data = dataBuffer.slice(begin, length);
+            byte[] key = BufferUtils.getBytes(data);
+            long valueGlobalIndex = data.getInt();
+            long timeout = data.getLong();
+            Crc32cUtils.check(data, 0, data.position());
+
+            return new KeyEntry(flag, key, null, valueGlobalIndex, timeout);
+        }
+    }
+}
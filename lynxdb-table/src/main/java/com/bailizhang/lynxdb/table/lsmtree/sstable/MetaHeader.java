@@ -23,12 +23,10 @@ import java.nio.ByteBuffer;
 public record MetaHeader(
         int metaRegionLength,
         int magicNumber,
-        int memTableSize,
-        int maxKeyAmount,
+        int formatVersion,
         int keyAmount,
         int bloomFilterRegionLength,
-        int firstIndexRegionLength,
-        int secondIndexRegionLength,
+        int indexRegionLength,
         int dataRegionLength
 ) {
     public static MetaHeader from(ByteBuffer buffer) {
@@ -36,23 +34,19 @@ public record MetaHeader(
 
         int metaRegionLength = buffer.getInt(SsTable.Default.META_REGION_LENGTH_OFFSET);
         int magicNumber = buffer.getInt(SsTable.Default.MAGIC_NUMBER_OFFSET);
-        int memTableSize = buffer.getInt(SsTable.Default.MEM_TABLE_SIZE_OFFSET);
-        int maxKeySize = buffer.getInt(SsTable.Default.MAX_KEY_SIZE_OFFSET);
-        int keySize = buffer.getInt(SsTable.Default.KEY_SIZE_OFFSET);
+        int formatVersion = buffer.getInt(SsTable.Default.FORMAT_VERSION_OFFSET);
+        int keyAmount = buffer.getInt(SsTable.Default.KEY_AMOUNT_OFFSET);
         int bloomFilterRegionLength = buffer.getInt(SsTable.Default.BLOOM_FILTER_REGION_LENGTH_OFFSET);
-        int firstIndexRegionLength = buffer.getInt(SsTable.Default.FIRST_INDEX_REGION_LENGTH_OFFSET);
-        int secondIndexRegionLength = buffer.getInt(SsTable.Default.SECOND_INDEX_REGION_LENGTH_OFFSET);
+        int indexRegionLength = buffer.getInt(SsTable.Default.INDEX_REGION_LENGTH_OFFSET);
         int dataRegionLength = buffer.getInt(SsTable.Default.DATA_REGION_LENGTH_OFFSET);
 
         return new MetaHeader(
                 metaRegionLength,
                 magicNumber,
-                memTableSize,
-                maxKeySize,
-                keySize,
+                formatVersion,
+                keyAmount,
                 bloomFilterRegionLength,
-                firstIndexRegionLength,
-                secondIndexRegionLength,
+                indexRegionLength,
                 dataRegionLength
         );
     }
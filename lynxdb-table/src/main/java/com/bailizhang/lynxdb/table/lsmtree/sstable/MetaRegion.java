@@ -33,12 +33,10 @@ public class MetaRegion {
     ) {
         buffer.putInt(metaHeader.metaRegionLength());
         buffer.putInt(FileType.SSTABLE_FILE.magicNumber());
-        buffer.putInt(metaHeader.memTableSize());
-        buffer.putInt(metaHeader.maxKeyAmount());
+        buffer.putInt(metaHeader.formatVersion());
         buffer.putInt(metaHeader.keyAmount());
         buffer.putInt(metaHeader.bloomFilterRegionLength());
-        buffer.putInt(metaHeader.firstIndexRegionLength());
-        buffer.putInt(metaHeader.secondIndexRegionLength());
+        buffer.putInt(metaHeader.indexRegionLength());
         buffer.putInt(metaHeader.dataRegionLength());
         Crc32cUtils.update(buffer, 0, SsTable.Default.CRC32C_OFFSET);
         buffer.putInt(beginKey.length);
@@ -18,8 +18,6 @@ package com.bailizhang.lynxdb.table.lsmtree.sstable;
 
 import com.bailizhang.lynxdb.core.common.FileType;
 import com.bailizhang.lynxdb.core.common.Flags;
-import com.bailizhang.lynxdb.core.common.Pair;
-import com.bailizhang.lynxdb.core.log.LogEntry;
 import com.bailizhang.lynxdb.core.log.LogGroup;
 import com.bailizhang.lynxdb.core.mmap.MappedBuffer;
 import com.bailizhang.lynxdb.core.utils.BufferUtils;
@@ -29,48 +27,70 @@ import com.bailizhang.lynxdb.core.utils.NameUtils;
 import com.bailizhang.lynxdb.table.config.LsmTreeOptions;
 import com.bailizhang.lynxdb.table.exception.DeletedException;
 import com.bailizhang.lynxdb.table.exception.TimeoutException;
-import com.bailizhang.lynxdb.table.lsmtree.level.Level;
-import com.bailizhang.lynxdb.table.lsmtree.level.Levels;
 import com.bailizhang.lynxdb.table.schema.Key;
+import com.bailizhang.lynxdb.table.utils.BlockedBloomFilter;
 import com.bailizhang.lynxdb.table.utils.BloomFilter;
+import com.bailizhang.lynxdb.table.utils.Filter;
 
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
-import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.*;
-
-public class SsTable {
+/**
+ * meta 区域 | 布隆过滤器 | block 索引 | data blocks
+ * block 索引在打开时全部加载到内存中，data block 按需读取并放入 block cache
+ */
+public class SsTable implements Iterable<KeyEntry> {
     interface Default {
         int META_REGION_LENGTH_OFFSET = 0;
         int MAGIC_NUMBER_OFFSET = 4;
-        int MEM_TABLE_SIZE_OFFSET = 8;
-        int MAX_KEY_SIZE_OFFSET = 12;
-        int KEY_SIZE_OFFSET = 16;
-        int BLOOM_FILTER_REGION_LENGTH_OFFSET = 20;
-        int FIRST_INDEX_REGION_LENGTH_OFFSET = 24;
-        int SECOND_INDEX_REGION_LENGTH_OFFSET = 28;
-        int DATA_REGION_LENGTH_OFFSET = 32;
-        int CRC32C_OFFSET = 36;
+        int FORMAT_VERSION_OFFSET = 8;
+        int KEY_AMOUNT_OFFSET = 12;
+        int BLOOM_FILTER_REGION_LENGTH_OFFSET = 16;
+        int INDEX_REGION_LENGTH_OFFSET = 20;
+        int DATA_REGION_LENGTH_OFFSET = 24;
+        int CRC32C_OFFSET = 28;
     }
 
     private static final int META_HEADER_OFFSET = 0;
-    public static final int META_HEADER_LENGTH = 44;
+    public static final int META_HEADER_LENGTH = 36;
+
+    /**
+     * 1: 一级索引 + 二级索引，每条 entry 单独编码，header 中没有版本号，由 LegacySsTable 迁移
+     * 2: block 索引 + data blocks
+     * 3: 布隆过滤器换成按 cache line 分块的 BlockedBloomFilter
+     * 4: 小的 value 内联在 data block 中
+     * 5: value global index 改成 long
+     */
+    public static final int FORMAT_VERSION = 5;
+    private static final int BLOCK_FORMAT_VERSION = 2;
+
+    private static final AtomicLong nextCacheId = new AtomicLong();
 
-    private static final int SECOND_INDEX_ENTRY_LENGTH = BYTE_LENGTH + INT_LENGTH * 2 + LONG_LENGTH;
+    private final int ssTableNo;
+    private final Path filePath;
+    private final long cacheId;
 
     private final MetaHeader metaHeader;
     private final byte[] beginKey;
     private final byte[] endKey;
-    private final List<FirstIndexEntry> firstIndexEntries;
+    private final List<BlockIndexEntry> blockIndexEntries;
 
-    private final BloomFilter bloomFilter;
-    private final MappedBuffer firstIndexBuffer;
-    private final MappedBuffer secondIndexBuffer;
+    private final Filter bloomFilter;
     private final MappedBuffer dataBuffer;
 
     private final LogGroup valueLogGroup;
+    private final BlockCache blockCache;
+
+    public SsTable(
+            Path baseDir,
+            int ssTableNo,
+            LogGroup logGroup
+    ) {
+        this(baseDir, ssTableNo, logGroup, null);
+    }
 
     /**
      * Load SSTable from exist file.
@@ -78,11 +98,13 @@ public class SsTable {
      * @param baseDir Base directory
      * @param ssTableNo SSTable No.
      * @param logGroup Value log group
+     * @param blockCache Block cache, nullable
      */
     public SsTable(
             Path baseDir,
             int ssTableNo,
-            LogGroup logGroup
+            LogGroup logGroup,
+            BlockCache blockCache
     ) {
         String filename = NameUtils.name(ssTableNo) + FileType.SSTABLE_FILE.suffix();
         Path filePath = Path.of(baseDir.toString(), filename);
@@ -91,6 +113,10 @@ public class SsTable {
             throw new RuntimeException();
         }
 
+        this.ssTableNo = ssTableNo;
+        this.filePath = filePath;
+        this.cacheId = nextCacheId.getAndIncrement();
+
         MappedBuffer metaHeaderBuffer = new MappedBuffer(
                 filePath,
                 META_HEADER_OFFSET,
@@ -98,6 +124,16 @@ public class SsTable {
         );
         metaHeader = MetaHeader.from(metaHeaderBuffer.getBuffer());
 
+        if(metaHeader.magicNumber() != FileType.SSTABLE_FILE.magicNumber()) {
+            throw new RuntimeException("Not a SSTable file: " + filePath);
+        }
+
+        int formatVersion = metaHeader.formatVersion();
+        // 2 到 5 只有布隆过滤器和 block 中 entry 的编码不同，由 Block 按版本解码
+        if(formatVersion < BLOCK_FORMAT_VERSION || formatVersion > FORMAT_VERSION) {
+            throw new RuntimeException("Unsupported SSTable format version: " + formatVersion);
+        }
+
         MappedBuffer metaKeyBuffer = new MappedBuffer(
                 filePath,
                 META_HEADER_LENGTH,
@@ -108,36 +144,35 @@ public class SsTable {
         beginKey = BufferUtils.getBytes(buffer);
         endKey = BufferUtils.getBytes(buffer);
 
-        bloomFilter = BloomFilter.from(
-                filePath,
-                metaHeader.metaRegionLength(),
-                metaHeader.maxKeyAmount()
-        );
+        if(formatVersion == BLOCK_FORMAT_VERSION) {
+            bloomFilter = BloomFilter.from(
+                    filePath,
+                    metaHeader.metaRegionLength(),
+                    metaHeader.keyAmount()
+            );
+        } else {
+            bloomFilter = BlockedBloomFilter.from(
+                    filePath,
+                    metaHeader.metaRegionLength(),
+                    metaHeader.bloomFilterRegionLength()
+            );
+        }
 
-        int firstIndexRegionOffset = metaHeader.metaRegionLength() + metaHeader.bloomFilterRegionLength();
-        firstIndexBuffer = new MappedBuffer(
+        int indexRegionOffset = metaHeader.metaRegionLength() + metaHeader.bloomFilterRegionLength();
+        MappedBuffer indexBuffer = new MappedBuffer(
                 filePath,
-                firstIndexRegionOffset,
-                metaHeader.firstIndexRegionLength()
+                indexRegionOffset,
+                metaHeader.indexRegionLength()
         );
-        firstIndexEntries = new ArrayList<>();
-        ByteBuffer firstIndexRawBuffer = firstIndexBuffer.getBuffer();
-        while (BufferUtils.isNotOver(firstIndexRawBuffer)) {
-            firstIndexEntries.add(FirstIndexEntry.from(firstIndexRawBuffer));
-        }
 
-        if(BufferUtils.isNotOver(firstIndexRawBuffer)) {
-            throw new RuntimeException();
+        List<BlockIndexEntry> entries = new ArrayList<>();
+        ByteBuffer indexRawBuffer = indexBuffer.getBuffer();
+        while (BufferUtils.isNotOver(indexRawBuffer)) {
+            entries.add(BlockIndexEntry.from(indexRawBuffer));
         }
+        blockIndexEntries = List.copyOf(entries);
 
-        int secondIndexRegionOffset = firstIndexRegionOffset + metaHeader.firstIndexRegionLength();
-        secondIndexBuffer = new MappedBuffer(
-                filePath,
-                secondIndexRegionOffset,
-                metaHeader.secondIndexRegionLength()
-        );
-
-        int dataRegionOffset = secondIndexRegionOffset + metaHeader.secondIndexRegionLength();
+        int dataRegionOffset = indexRegionOffset + metaHeader.indexRegionLength();
         dataBuffer = new MappedBuffer(
                 filePath,
                 dataRegionOffset,
@@ -145,28 +180,27 @@ public class SsTable {
         );
 
         valueLogGroup = logGroup;
+        this.blockCache = blockCache;
     }
 
-    private SsTable(
-            MetaHeader metaHeader,
-            byte[] beginKey,
-            byte[] endKey,
-            List<FirstIndexEntry> firstIndexEntries,
-            BloomFilter bloomFilter,
-            MappedBuffer firstIndexBuffer,
-            MappedBuffer secondIndexBuffer,
-            MappedBuffer dataBuffer,
-            LogGroup valueLogGroup
-    ) {
-        this.metaHeader = metaHeader;
-        this.beginKey = beginKey;
-        this.endKey = endKey;
-        this.firstIndexEntries = firstIndexEntries;
-        this.bloomFilter = bloomFilter;
-        this.firstIndexBuffer = firstIndexBuffer;
-        this.secondIndexBuffer = secondIndexBuffer;
-        this.dataBuffer = dataBuffer;
-        this.valueLogGroup = valueLogGroup;
+    /**
+     * 版本 1 的 SSTable 和当前版本的 header 不兼容，打开之前先转换成当前版本
+     *
+     * @param baseDir Base directory
+     * @param ssTableNo SSTable No.
+     * @param options options
+     * @return 是否进行了转换
+     */
+    public static boolean migrateIfLegacy(Path baseDir, int ssTableNo, LsmTreeOptions options) {
+        String filename = NameUtils.name(ssTableNo) + FileType.SSTABLE_FILE.suffix();
+        Path filePath = Path.of(baseDir.toString(), filename);
+
+        if(!LegacySsTable.isLegacy(filePath)) {
+            return false;
+        }
+
+        LegacySsTable.migrate(baseDir, ssTableNo, options);
+        return true;
     }
 
     /**
@@ -174,16 +208,14 @@ public class SsTable {
      *
      * @param baseDir Base directory
      * @param ssTableNo SSTable No.
-     * @param levelNo Level No.
      * @param options options
-     * @param keyEntries Key entries
+     * @param keyEntries Sorted key entries
      * @param valueLogGroup Value log group
      * @return SSTable
      */
     public static SsTable create(
             Path baseDir,
             int ssTableNo,
-            int levelNo,
             LsmTreeOptions options,
             List<KeyEntry> keyEntries,
             LogGroup valueLogGroup
@@ -192,166 +224,137 @@ public class SsTable {
             throw new RuntimeException();
         }
 
-        String filename = NameUtils.name(ssTableNo) + FileType.SSTABLE_FILE.suffix();
-        Path filePath = Path.of(baseDir.toString(), filename);
-
-        if(FileUtils.exist(filePath)) {
-            throw new RuntimeException();
-        }
-
-        FileUtils.createFile(filePath);
-
-        byte[] beginKey = keyEntries.getFirst().key();
-        byte[] endKey = keyEntries.getLast().key();
-
-        int metaRegionLength = META_HEADER_LENGTH + INT_LENGTH * 2 + LONG_LENGTH + beginKey.length + endKey.length;
-        MappedBuffer metaBuffer = new MappedBuffer(filePath, META_HEADER_OFFSET, metaRegionLength);
-
-        int maxKeySize = SsTable.maxKeySize(levelNo, options);
-        if(keyEntries.size() > maxKeySize) {
-            throw new RuntimeException();
-        }
-
-        BloomFilter bloomFilter = BloomFilter.from(
-                filePath,
-                metaRegionLength,
-                maxKeySize
+        return create(
+                baseDir,
+                ssTableNo,
+                options,
+                keyEntries.iterator(),
+                Long.MAX_VALUE,
+                valueLogGroup,
+                null
         );
-        keyEntries.forEach(keyEntry -> bloomFilter.setObj(keyEntry.key()));
-
-        int keySize = keyEntries.size();
-        int memTableSize = options.memTableSize();
+    }
 
-        int firstIndexRegionLength = 0;
-        for(int i = 0; i < keySize; i += memTableSize) {
-            KeyEntry keyEntry = keyEntries.get(i);
-            byte[] key = keyEntry.key();
-            firstIndexRegionLength += INT_LENGTH * 2 + LONG_LENGTH + key.length;
-        }
+    /**
+     * 从 keyEntries 中逐条读取并写入新的 SSTable，文件大小达到 targetFileSize 时停止
+     *
+     * @param baseDir Base directory
+     * @param ssTableNo SSTable No.
+     * @param options options
+     * @param keyEntries Sorted key entries
+     * @param targetFileSize Target file size in bytes
+     * @param valueLogGroup Value log group
+     * @param blockCache Block cache, nullable
+     * @return SSTable
+     */
+    public static SsTable create(
+            Path baseDir,
+            int ssTableNo,
+            LsmTreeOptions options,
+            Iterator<KeyEntry> keyEntries,
+            long targetFileSize,
+            LogGroup valueLogGroup,
+            BlockCache blockCache
+    ) {
+        SsTableWriter writer = new SsTableWriter(baseDir, ssTableNo, options);
 
-        int secondIndexRegionLength = keySize * (BYTE_LENGTH + INT_LENGTH * 2 + LONG_LENGTH);
+        try {
+            while(writer.estimatedFileSize() < targetFileSize && keyEntries.hasNext()) {
+                writer.append(keyEntries.next());
+            }
 
-        int dataRegionLength = 0;
-        for(int i = 0; i < keySize; i ++) {
-            KeyEntry keyEntry = keyEntries.get(i);
-            byte[] key = keyEntry.key();
-            dataRegionLength += INT_LENGTH * 2 + LONG_LENGTH * 2 + key.length;
+            writer.finish();
+        } catch (RuntimeException e) {
+            writer.abort();
+            throw e;
         }
 
-        MetaHeader metaHeader = new MetaHeader(
-                metaRegionLength,
-                FileType.SSTABLE_FILE.magicNumber(),
-                memTableSize,
-                maxKeySize,
-                keySize,
-                bloomFilter.length(),
-                firstIndexRegionLength,
-                secondIndexRegionLength,
-                dataRegionLength
-        );
-        // 写入 MetaRegion
-        MetaRegion.writeToBuffer(metaHeader, beginKey, endKey, metaBuffer.getBuffer());
-
-        int firstIndexRegionOffset = metaRegionLength + bloomFilter.length();
-        MappedBuffer firstIndexBuffer = new MappedBuffer(
-                filePath,
-                firstIndexRegionOffset,
-                firstIndexRegionLength
-        );
+        return new SsTable(baseDir, ssTableNo, valueLogGroup, blockCache);
+    }
 
-        // 写入一级索引
-        List<FirstIndexEntry> firstIndexEntries = new ArrayList<>();
-        for(int i = 0; i < keySize; i += memTableSize) {
-            KeyEntry keyEntry = keyEntries.get(i);
-            byte[] key = keyEntry.key();
-            firstIndexEntries.add(new FirstIndexEntry(key, i));
-        }
-        FirstIndexEntry.writeToBuffer(firstIndexEntries, firstIndexBuffer.getBuffer());
+    /**
+     * 按 key 的顺序遍历所有的 entry，用于 compaction
+     *
+     * @return SSTable iterator
+     */
+    @Override
+    public Iterator<KeyEntry> iterator() {
+        // 后台 compaction 时可能有并发的查询，每个迭代器使用独立的 buffer 副本
+        return new SsTableIterator(blockIndexEntries, dataBuffer.duplicate(), metaHeader.formatVersion());
+    }
 
-        int secondIndexRegionOffset = firstIndexRegionOffset + firstIndexRegionLength;
-        MappedBuffer secondIndexBuffer = new MappedBuffer(
-                filePath,
-                secondIndexRegionOffset,
-                secondIndexRegionLength
-        );
+    public int ssTableNo() {
+        return ssTableNo;
+    }
 
-        // 写入二级索引
-        List<SecondIndexEntry> secondIndexEntries = new ArrayList<>();
-        int beginPosition = 0;
-        for(int i = 0; i < keySize; i ++) {
-            KeyEntry keyEntry = keyEntries.get(i);
-            byte flag = keyEntry.flag();
-            byte[] key = keyEntry.key();
-            int length = 24 + key.length;
-            secondIndexEntries.add(new SecondIndexEntry(flag, beginPosition, length));
-            // 更新 begin
-            beginPosition += length;
-        }
-        SecondIndexEntry.writeToBuffer(secondIndexEntries, secondIndexBuffer.getBuffer());
+    public byte[] beginKey() {
+        return beginKey;
+    }
 
-        int dataRegionOffset = secondIndexRegionOffset + secondIndexRegionLength;
-        MappedBuffer dataBuffer = new MappedBuffer(
-                filePath,
-                dataRegionOffset,
-                dataRegionLength
-        );
-        KeyEntry.writeToBuffer(keyEntries, dataBuffer.getBuffer());
-
-        return new SsTable(
-                metaHeader,
-                beginKey,
-                endKey,
-                firstIndexEntries,
-                bloomFilter,
-                firstIndexBuffer,
-                secondIndexBuffer,
-                dataBuffer,
-                valueLogGroup
-        );
+    public byte[] endKey() {
+        return endKey;
     }
 
-    public void all(HashMap<Key, KeyEntry> entriesMap) {
-        MappedByteBuffer indexMapperBuffer = secondIndexBuffer.getBuffer();
-        indexMapperBuffer.rewind();
+    public int keyAmount() {
+        return metaHeader.keyAmount();
+    }
 
-        MappedByteBuffer dataMappedBuffer = dataBuffer.getBuffer();
-        dataMappedBuffer.rewind();
+    public long fileSize() {
+        return (long) metaHeader.metaRegionLength()
+                + metaHeader.bloomFilterRegionLength()
+                + metaHeader.indexRegionLength()
+                + metaHeader.dataRegionLength();
+    }
 
-        // MemTable 可能不是最大容量
-        while(BufferUtils.isNotOver(indexMapperBuffer)) {
-            SecondIndexEntry index = SecondIndexEntry.from(indexMapperBuffer);
-            int length = index.length();
+    /**
+     * key 的范围是否和 [begin, end] 有重叠
+     *
+     * @param begin begin key
+     * @param end end key
+     * @return is overlapping or not
+     */
+    public boolean overlaps(byte[] begin, byte[] end) {
+        return Arrays.compare(begin, endKey) <= 0 && Arrays.compare(end, beginKey) >= 0;
+    }
 
-            byte[] data = new byte[length];
-            dataMappedBuffer.get(data);
+    public void delete() {
+        if(blockCache != null) {
+            blockCache.evict(cacheId);
+        }
 
-            KeyEntry entry = KeyEntry.from(index.flag(), data);
-            Key key = new Key(entry.key());
+        FileUtils.delete(filePath);
+    }
 
-            KeyEntry oldEntry = entriesMap.get(key);
-            if(oldEntry != null) {
-                valueLogGroup.removeEntry(oldEntry.valueGlobalIndex());
-            }
-            entriesMap.put(key, entry);
-        }
+    /**
+     * key 是否在 [beginKey, endKey] 的范围内
+     *
+     * @param key key
+     * @return in range or not
+     */
+    public boolean inRange(byte[] key) {
+        return Arrays.compare(key, beginKey) >= 0 && Arrays.compare(key, endKey) <= 0;
     }
 
     public boolean bloomFilterContains(byte[] key) {
         return bloomFilter.isExist(key);
     }
 
+    public boolean bloomFilterNotContains(byte[] key) {
+        return bloomFilter.isNotExist(key);
+    }
+
+    /**
+     * 不检查布隆过滤器，由调用方决定是否需要先检查
+     *
+     * @param key key
+     * @return value, null if not found
+     */
     public byte[] find(byte[] key) throws DeletedException, TimeoutException {
-        if(Arrays.compare(key, beginKey) < 0 || Arrays.compare(key, endKey) > 0) {
+        if(!inRange(key)) {
             return null;
         }
 
-        SecondIndexRegion secondIndexRegion = findSecondIndexRegion(key);
-        ByteBuffer buffer = secondIndexRegion.buffer();
-        int keyAmount = secondIndexRegion.keyAmount();
-
-        // 再查二级索引
-        Pair<KeyEntry, Integer> pair = binarySearch(key, keyAmount, buffer, true);
-        KeyEntry keyEntry = pair.left();
+        KeyEntry keyEntry = findKeyEntry(key);
 
         if(keyEntry == null) {
             return null;
@@ -365,27 +368,26 @@ public class SsTable {
             throw new TimeoutException();
         }
 
-        int globalIndex = keyEntry.valueGlobalIndex();
-        LogEntry entry = valueLogGroup.findEntry(globalIndex);
+        if(keyEntry.hasInlineValue()) {
+            return keyEntry.value();
+        }
+
+        long globalIndex = keyEntry.valueGlobalIndex();
+        byte[] value = valueLogGroup.findData(globalIndex);
 
-        if(entry == null) {
-            throw new RuntimeException();
+        if(value == null) {
+            throw new RuntimeException("Value not found in value log: " + globalIndex);
         }
 
-        return entry.data();
+        return value;
     }
 
     public boolean existKey(byte[] key) throws DeletedException, TimeoutException {
-        if(bloomFilter.isNotExist(key)) {
+        if(!inRange(key)) {
             return false;
         }
 
-        SecondIndexRegion secondIndexRegion = findSecondIndexRegion(key);
-        ByteBuffer buffer = secondIndexRegion.buffer();
-        int keyAmount = secondIndexRegion.keyAmount();
-
-        Pair<KeyEntry, Integer> pair = binarySearch(key, keyAmount, buffer, true);
-        KeyEntry keyEntry = pair.left();
+        KeyEntry keyEntry = findKeyEntry(key);
 
         if(keyEntry == null) {
             return false;
@@ -408,220 +410,143 @@ public class SsTable {
             HashSet<Key> deletedKeys,
             HashSet<Key> existedKeys
     ) {
+        List<Key> range = new ArrayList<>();
+
         if(Arrays.compare(baseKey, endKey) >= 0) {
-            return new ArrayList<>();
+            return range;
         }
 
-        Pair<Integer, Integer> info = findIdxBiggerThan(baseKey);
-        return range(
-                info.left(),
-                info.right(),
-                limit,
-                deletedKeys,
-                existedKeys,
-                true
-        );
-    }
+        int blockIdx = findBlockIdx(baseKey);
 
-    public List<Key> rangeBefore(
-            byte[] baseKey,
-            int limit,
-            HashSet<Key> deletedKeys,
-            HashSet<Key> existedKeys
-    ) {
-        if(Arrays.compare(baseKey, beginKey) <= 0) {
-            return new ArrayList<>();
+        while (limit > 0 && blockIdx < blockIndexEntries.size()) {
+            Block.Cursor cursor = readBlock(blockIdx).seek(baseKey);
+
+            while (limit > 0 && cursor.hasNext()) {
+                KeyEntry keyEntry = cursor.next();
+
+                if(Arrays.equals(keyEntry.key(), baseKey)) {
+                    continue;
+                }
+
+                if(addToRange(keyEntry, range, deletedKeys, existedKeys)) {
+                    limit --;
+                }
+            }
+
+            blockIdx ++;
         }
 
-        Pair<Integer, Integer> info = findIdxLessThan(baseKey);
-        return range(
-                info.left(),
-                info.right(),
-                limit,
-                deletedKeys,
-                existedKeys,
-                false
-        );
+        return range;
     }
 
-    private List<Key> range(
-            int firstIndexBeginIdx,
-            int secondIndexBeginIdx,
+    public List<Key> rangeBefore(
+            byte[] baseKey,
             int limit,
             HashSet<Key> deletedKeys,
-            HashSet<Key> existedKeys,
-            boolean isRangeNext
+            HashSet<Key> existedKeys
     ) {
         List<Key> range = new ArrayList<>();
 
-        while (isRangeNext ? firstIndexBeginIdx < firstIndexEntries.size() : firstIndexBeginIdx >= 0) {
-            SecondIndexRegion secondIndexRegion = findSecondIndexRegion(firstIndexBeginIdx);
-            ByteBuffer buffer = secondIndexRegion.buffer();
-            int keyAmount = secondIndexRegion.keyAmount();
+        if(Arrays.compare(baseKey, beginKey) <= 0) {
+            return range;
+        }
 
-            while (limit > 0 && secondIndexBeginIdx < keyAmount && secondIndexBeginIdx >= 0) {
-                SecondIndexEntry secondIndexEntry = findSecondIndexEntry(secondIndexBeginIdx, buffer);
-                secondIndexBeginIdx = isRangeNext ? secondIndexBeginIdx + 1 : secondIndexBeginIdx - 1;
+        int blockIdx = Math.min(findBlockIdx(baseKey), blockIndexEntries.size() - 1);
 
-                KeyEntry keyEntry = findKeyEntry(secondIndexEntry);
+        while (limit > 0 && blockIdx >= 0) {
+            List<KeyEntry> entries = readBlock(blockIdx).entries();
 
-                Key key = new Key(keyEntry.key());
+            for(int i = entries.size() - 1; limit > 0 && i >= 0; i --) {
+                KeyEntry keyEntry = entries.get(i);
 
-                if(secondIndexEntry.flag() == Flags.DELETED) {
-                    deletedKeys.add(key);
+                if(Arrays.compare(keyEntry.key(), baseKey) >= 0) {
                     continue;
                 }
 
-                if(deletedKeys.contains(key) || existedKeys.contains(key)) {
-                    continue;
+                if(addToRange(keyEntry, range, deletedKeys, existedKeys)) {
+                    limit --;
                 }
-
-                existedKeys.add(key);
-                range.add(key);
-
-                limit --;
             }
 
-            firstIndexBeginIdx = isRangeNext ? firstIndexBeginIdx + 1 : firstIndexBeginIdx - 1;
-            secondIndexBeginIdx = isRangeNext ? 0 : metaHeader.memTableSize() - 1;
+            blockIdx --;
         }
 
         return range;
     }
 
-    private static int maxKeySize(int levelNo, LsmTreeOptions options) {
-        return options.memTableSize()
-                * (int) Math.pow(Level.LEVEL_SSTABLE_COUNT, (levelNo - Levels.LEVEL_BEGIN));
-    }
-
-    // 如果找到相应的 Key，则 KeyEntry 不为空，否则 KeyEntry 为空
-    private Pair<KeyEntry, Integer> binarySearch(
-            byte[] key,
-            int keyAmount,
-            ByteBuffer buffer,
-            boolean isLessThanKey
+    private static boolean addToRange(
+            KeyEntry keyEntry,
+            List<Key> range,
+            HashSet<Key> deletedKeys,
+            HashSet<Key> existedKeys
     ) {
-        int begin = 0, end = keyAmount - 1, mid, idx = -1;
-        KeyEntry keyEntry = null;
-
-        while(begin <= end) {
-            mid = begin + ((end - begin) >> 1);
-
-            SecondIndexEntry midSecondIndexEntry = findSecondIndexEntry(mid, buffer);
-            KeyEntry midKeyEntry = findKeyEntry(midSecondIndexEntry);
-
-            int compareValue = Arrays.compare(key, midKeyEntry.key());
-            if(compareValue == 0) {
-                keyEntry = midKeyEntry;
-                idx = mid;
-                break;
-            }
+        Key key = new Key(keyEntry.key());
 
-            if(compareValue < 0) {
-                idx = isLessThanKey ? mid - 1 : mid;
-                end = mid - 1;
-            } else {
-                idx = isLessThanKey ? mid : mid + 1;
-                begin = mid + 1;
-            }
+        if(keyEntry.flag() == Flags.DELETED) {
+            deletedKeys.add(key);
+            return false;
         }
 
-        return new Pair<>(keyEntry, idx);
-    }
-
-    private Pair<Integer, Integer> findIdxBiggerThan(byte[] key) {
-        SecondIndexRegion secondIndexRegion = findSecondIndexRegion(key);
-        int keyAmount = secondIndexRegion.keyAmount();
-        ByteBuffer buffer = secondIndexRegion.buffer();
-
-        Pair<KeyEntry, Integer> result = binarySearch(key, keyAmount, buffer, false);
-        KeyEntry keyEntry = result.left();
-        int idx = result.right();
+        if(deletedKeys.contains(key) || existedKeys.contains(key)) {
+            return false;
+        }
 
-        int secondIndexBeginIdx = keyEntry != null ? idx + 1 : idx;
-        int firstIndexBeginIdx = secondIndexRegion.firstIndexEntryIdx();
-        return new Pair<>(firstIndexBeginIdx, secondIndexBeginIdx);
+        existedKeys.add(key);
+        range.add(key);
+        return true;
     }
 
-    private Pair<Integer, Integer> findIdxLessThan(byte[] key) {
-        SecondIndexRegion secondIndexRegion = findSecondIndexRegion(key);
-        int keyAmount = secondIndexRegion.keyAmount();
-        ByteBuffer buffer = secondIndexRegion.buffer();
+    private KeyEntry findKeyEntry(byte[] key) {
+        int blockIdx = findBlockIdx(key);
 
-        Pair<KeyEntry, Integer> result = binarySearch(key, keyAmount, buffer, true);
-        KeyEntry keyEntry = result.left();
-        int idx = result.right();
+        if(blockIdx >= blockIndexEntries.size()) {
+            return null;
+        }
 
-        int secondIndexBeginIdx = keyEntry != null ? idx - 1 : idx;
-        int firstIndexBeginIdx = secondIndexRegion.firstIndexEntryIdx();
-        return new Pair<>(firstIndexBeginIdx, secondIndexBeginIdx);
+        return readBlock(blockIdx).find(key);
     }
 
-    private SecondIndexRegion findSecondIndexRegion(byte[] key) {
-        // 先查找一级索引
-        int begin = 0, end = firstIndexEntries.size() - 1, mid = -1;
-        FirstIndexEntry midFirstIndexEntry = null;
+    /**
+     * 二分查找第一个 lastKey 大于等于 key 的 block
+     *
+     * @param key key
+     * @return block idx, blockIndexEntries.size() if not found
+     */
+    private int findBlockIdx(byte[] key) {
+        int begin = 0, end = blockIndexEntries.size() - 1, idx = blockIndexEntries.size();
 
         while(begin <= end) {
-            mid = begin + ((end - begin) >> 1);
-            midFirstIndexEntry = firstIndexEntries.get(mid);
+            int mid = begin + ((end - begin) >> 1);
 
-            int compareValue = Arrays.compare(key, midFirstIndexEntry.beginKey());
-            if(compareValue == 0) {
-                break;
-            }
-
-            if(compareValue < 0) {
+            if(Arrays.compare(blockIndexEntries.get(mid).lastKey(), key) >= 0) {
+                idx = mid;
                 end = mid - 1;
             } else {
                 begin = mid + 1;
             }
         }
 
-        if(midFirstIndexEntry == null) {
-            throw new RuntimeException();
-        }
-
-        if(Arrays.compare(key, midFirstIndexEntry.beginKey()) < 0) {
-            mid = mid == 0 ? mid : mid - 1;
-        }
-
-        return findSecondIndexRegion(mid);
+        return idx;
     }
 
-    private SecondIndexRegion findSecondIndexRegion(int firstIndexEntryIdx) {
-        if(firstIndexEntryIdx >= firstIndexEntries.size()) {
-            throw new RuntimeException();
-        }
+    private Block readBlock(int blockIdx) {
+        BlockIndexEntry entry = blockIndexEntries.get(blockIdx);
 
-        FirstIndexEntry firstIndexEntry = firstIndexEntries.get(firstIndexEntryIdx);
-        int beginPosition = firstIndexEntry.idx() * SECOND_INDEX_ENTRY_LENGTH;
-        int totalKeyAmount;
-        // 如果是最后一块区域
-        if(firstIndexEntryIdx == firstIndexEntries.size() - 1) {
-            int remainder = metaHeader.keyAmount() % metaHeader.memTableSize();
-            totalKeyAmount = remainder == 0 ? metaHeader.memTableSize() : remainder;
-        } else {
-            totalKeyAmount = metaHeader.memTableSize();
+        if(blockCache != null) {
+            Block block = blockCache.get(cacheId, entry.offset());
+            if(block != null) {
+                return block;
+            }
         }
-        int secondIndexRegionLength = totalKeyAmount * SECOND_INDEX_ENTRY_LENGTH;
-        ByteBuffer buffer = secondIndexBuffer.getBuffer().slice(beginPosition, secondIndexRegionLength);
 
-        return new SecondIndexRegion(firstIndexEntryIdx, buffer, totalKeyAmount);
-    }
-
-    private SecondIndexEntry findSecondIndexEntry(int idx, ByteBuffer buffer) {
-        buffer.position(idx * SECOND_INDEX_ENTRY_LENGTH);
-        return SecondIndexEntry.from(buffer);
-    }
+        byte[] data = new byte[entry.length()];
+        dataBuffer.get(entry.offset(), data);
+        Block block = Block.from(data, metaHeader.formatVersion());
 
-    private KeyEntry findKeyEntry(SecondIndexEntry secondIndexEntry) {
-        ByteBuffer buffer = dataBuffer.getBuffer();
-        buffer.position(secondIndexEntry.begin());
-
-        byte[] keyData = new byte[secondIndexEntry.length()];
-        buffer.get(keyData);
+        if(blockCache != null) {
+            blockCache.put(cacheId, entry.offset(), block);
+        }
 
-        return KeyEntry.from(secondIndexEntry.flag(), keyData);
+        return block;
     }
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bailizhang.lynxdb.table.lsmtree.sstable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 按顺序解码 data block，每次只在内存中保留一个 block
+ * compaction 只会读一次，不写入 block cache
+ */
+public class SsTableIterator implements Iterator<KeyEntry> {
+    private final List<BlockIndexEntry> blockIndexEntries;
+    private final ByteBuffer dataBuffer;
+    private final int formatVersion;
+
+    private int nextBlockIdx;
+    private Block.Cursor cursor;
+
+    SsTableIterator(List<BlockIndexEntry> blockIndexEntries, ByteBuffer dataBuffer, int formatVersion) {
+        this.blockIndexEntries = blockIndexEntries;
+        this.dataBuffer = dataBuffer;
+        this.formatVersion = formatVersion;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while(cursor == null || !cursor.hasNext()) {
+            if(nextBlockIdx >= blockIndexEntries.size()) {
+                return false;
+            }
+
+            BlockIndexEntry entry = blockIndexEntries.get(nextBlockIdx ++);
+            byte[] data = new byte[entry.length()];
+            dataBuffer.get(entry.offset(), data);
+
+            cursor = Block.from(data, formatVersion).iterator();
+        }
+
+        return true;
+    }
+
+    @Override
+    public KeyEntry next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return cursor.next();
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bailizhang.lynxdb.table.lsmtree.sstable;
+
+import com.bailizhang.lynxdb.core.common.FileType;
+import com.bailizhang.lynxdb.core.mmap.MappedBuffer;
+import com.bailizhang.lynxdb.core.utils.FileChannelUtils;
+import com.bailizhang.lynxdb.core.utils.FileUtils;
+import com.bailizhang.lynxdb.core.utils.NameUtils;
+import com.bailizhang.lynxdb.table.config.LsmTreeOptions;
+import com.bailizhang.lynxdb.table.utils.BlockedBloomFilter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.*;
+
+/**
+ * 按 key 的顺序逐条写入 SSTable
+ * entry 先编码成 data block 写到临时文件中，结束时再组装成 SSTable 文件，内存占用和 key 的数量无关
+ * SSTable 文件先以临时文件名写入并刷盘，再原子地重命名，崩溃后不会留下不完整的 SSTable 文件
+ */
+class SsTableWriter {
+    private static final String DATA_TEMP_SUFFIX = ".data.tmp";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path filePath;
+    private final Path tempPath;
+    private final Path dataTempPath;
+    private final int blockSize;
+    private final int bloomFilterBitsPerKey;
+
+    private final FileChannel dataChannel;
+    private final BlockBuilder blockBuilder;
+
+    private final List<BlockIndexEntry> blockIndexEntries = new ArrayList<>();
+
+    private byte[] beginKey;
+    private byte[] endKey;
+    private int keyAmount;
+    private int dataLength;
+    private int indexLength;
+
+    SsTableWriter(Path baseDir, int ssTableNo, LsmTreeOptions options) {
+        this(baseDir, ssTableNo, options, false);
+    }
+
+    /**
+     * @param replace 是否替换已经存在的 SSTable 文件，用于迁移旧版本的 SSTable
+     */
+    SsTableWriter(Path baseDir, int ssTableNo, LsmTreeOptions options, boolean replace) {
+        String filename = NameUtils.name(ssTableNo) + FileType.SSTABLE_FILE.suffix();
+        filePath = Path.of(baseDir.toString(), filename);
+
+        if(!replace && FileUtils.exist(filePath)) {
+            throw new RuntimeException("SSTable already exists: " + filePath);
+        }
+
+        tempPath = Path.of(baseDir.toString(), filename + TEMP_SUFFIX);
+        dataTempPath = Path.of(baseDir.toString(), filename + DATA_TEMP_SUFFIX);
+        blockSize = options.blockSize();
+        bloomFilterBitsPerKey = options.bloomFilterBitsPerKey();
+
+        dataChannel = FileChannelUtils.open(
+                dataTempPath,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+        blockBuilder = new BlockBuilder(blockSize);
+    }
+
+    /**
+     * key 需要按从小到大的顺序写入
+     *
+     * @param keyEntry key entry
+     */
+    void append(KeyEntry keyEntry) {
+        byte[] key = keyEntry.key();
+
+        if(keyAmount == 0) {
+            beginKey = key;
+        }
+        endKey = key;
+
+        blockBuilder.add(keyEntry);
+        keyAmount ++;
+
+        if(blockBuilder.estimatedLength() >= blockSize) {
+            flushBlock();
+        }
+    }
+
+    int keyAmount() {
+        return keyAmount;
+    }
+
+    /**
+     * 估算当前写完后的文件大小，用来按大小切分 SSTable
+     */
+    long estimatedFileSize() {
+        long bloomFilterLength = (long) keyAmount * bloomFilterBitsPerKey / Byte.SIZE
+                + BlockedBloomFilter.LINE_BYTES;
+        long pending = blockBuilder.isEmpty() ? 0 : blockBuilder.estimatedLength();
+
+        return SsTable.META_HEADER_LENGTH + bloomFilterLength + indexLength + dataLength + pending;
+    }
+
+    /**
+     * 组装 SSTable 文件：meta 区域，布隆过滤器，block 索引，data blocks。
+     * 返回时 SSTable 文件已经刷盘
+     *
+     * @return SSTable file path
+     */
+    Path finish() {
+        if(keyAmount == 0) {
+            throw new RuntimeException("SSTable has no key entry.");
+        }
+
+        if(!blockBuilder.isEmpty()) {
+            flushBlock();
+        }
+
+        if(FileUtils.exist(tempPath)) {
+            FileUtils.delete(tempPath);
+        }
+        FileUtils.createFile(tempPath);
+
+        int metaRegionLength = SsTable.META_HEADER_LENGTH + INT_LENGTH * 2 + LONG_LENGTH
+                + beginKey.length + endKey.length;
+
+        BlockedBloomFilter bloomFilter = BlockedBloomFilter.create(
+                tempPath,
+                metaRegionLength,
+                keyAmount,
+                bloomFilterBitsPerKey
+        );
+        writeBloomFilter(bloomFilter);
+
+        int indexRegionLength = 0;
+        for(BlockIndexEntry entry : blockIndexEntries) {
+            indexRegionLength += entry.encodedLength();
+        }
+
+        MetaHeader metaHeader = new MetaHeader(
+                metaRegionLength,
+                FileType.SSTABLE_FILE.magicNumber(),
+                SsTable.FORMAT_VERSION,
+                keyAmount,
+                bloomFilter.length(),
+                indexRegionLength,
+                dataLength
+        );
+
+        MappedBuffer metaBuffer = new MappedBuffer(tempPath, 0, metaRegionLength);
+        MetaRegion.writeToBuffer(metaHeader, beginKey, endKey, metaBuffer.getBuffer());
+
+        int indexRegionOffset = metaRegionLength + bloomFilter.length();
+        MappedBuffer indexBuffer = new MappedBuffer(
+                tempPath,
+                indexRegionOffset,
+                indexRegionLength
+        );
+        BlockIndexEntry.writeToBuffer(blockIndexEntries, indexBuffer.getBuffer());
+
+        long dataRegionOffset = indexRegionOffset + indexRegionLength;
+
+        bloomFilter.force();
+        metaBuffer.force();
+        indexBuffer.force();
+
+        try(FileChannel channel = FileChannelUtils.open(tempPath, StandardOpenOption.WRITE)) {
+            transfer(dataChannel, channel, dataRegionOffset);
+            channel.force(true);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        FileUtils.replace(tempPath, filePath);
+
+        deleteTempFile();
+        return filePath;
+    }
+
+    /**
+     * 写入失败时删除临时文件
+     */
+    void abort() {
+        deleteTempFile();
+
+        if(FileUtils.exist(tempPath)) {
+            FileUtils.delete(tempPath);
+        }
+    }
+
+    private void flushBlock() {
+        ByteBuffer block = blockBuilder.finish();
+        int length = block.remaining();
+
+        while(block.hasRemaining()) {
+            FileChannelUtils.write(dataChannel, block);
+        }
+
+        BlockIndexEntry indexEntry = new BlockIndexEntry(blockBuilder.lastKey(), dataLength, length);
+        blockIndexEntries.add(indexEntry);
+        dataLength += length;
+        indexLength += indexEntry.encodedLength();
+
+        blockBuilder.reset();
+    }
+
+    private void writeBloomFilter(BlockedBloomFilter bloomFilter) {
+        MappedByteBuffer data = FileChannelUtils.map(
+                dataChannel,
+                FileChannel.MapMode.READ_ONLY,
+                0,
+                dataLength
+        );
+
+        for(BlockIndexEntry entry : blockIndexEntries) {
+            byte[] blockData = new byte[entry.length()];
+            data.get(entry.offset(), blockData);
+
+            Block.Cursor cursor = Block.from(blockData).iterator();
+            while(cursor.hasNext()) {
+                bloomFilter.setObj(cursor.next().key());
+            }
+        }
+    }
+
+    private void deleteTempFile() {
+        FileChannelUtils.close(dataChannel);
+
+        if(FileUtils.exist(dataTempPath)) {
+            FileUtils.delete(dataTempPath);
+        }
+    }
+
+    private static void transfer(FileChannel src, FileChannel dst, long position) throws IOException {
+        long size = src.size();
+        long transferred = 0;
+
+        while(transferred < size) {
+            transferred += src.transferTo(transferred, size - transferred, dst.position(position + transferred));
+        }
+    }
+}
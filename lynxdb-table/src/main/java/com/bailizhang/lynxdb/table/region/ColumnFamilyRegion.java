@@ -20,23 +20,34 @@ import com.bailizhang.lynxdb.core.utils.FileUtils;
 import com.bailizhang.lynxdb.table.config.TableOptions;
 import com.bailizhang.lynxdb.table.exception.DeletedException;
 import com.bailizhang.lynxdb.table.exception.TimeoutException;
-import com.bailizhang.lynxdb.table.lsmtree.LsmTree;
+import com.bailizhang.lynxdb.table.lsmtree.compaction.CompactionScheduler;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.BlockCache;
 
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ColumnFamilyRegion {
-    private final HashMap<String, ColumnRegion> columnRegions = new HashMap<>();
+    private final ConcurrentHashMap<String, ColumnRegion> columnRegions = new ConcurrentHashMap<>();
 
     private final String columnFamily;
     private final TableOptions options;
-
-    public ColumnFamilyRegion(String columnFamily, TableOptions options) {
+    private final CompactionScheduler scheduler;
+    private final BlockCache blockCache;
+
+    public ColumnFamilyRegion(
+            String columnFamily,
+            TableOptions options,
+            CompactionScheduler scheduler,
+            BlockCache blockCache
+    ) {
         this.columnFamily = columnFamily;
         this.options = options;
+        this.scheduler = scheduler;
+        this.blockCache = blockCache;
 
         String baseDir = options.baseDir();
         String dir = Path.of(baseDir, columnFamily).toString();
@@ -45,7 +56,7 @@ public class ColumnFamilyRegion {
         columns.forEach(
                 column -> columnRegions.put(
                         column,
-                        new ColumnRegion(columnFamily, column, options)
+                        new ColumnRegion(columnFamily, column, options, scheduler, blockCache)
                 )
         );
     }
@@ -56,7 +67,9 @@ public class ColumnFamilyRegion {
                 c -> new ColumnRegion(
                         columnFamily,
                         c,
-                        options
+                        options,
+                        scheduler,
+                        blockCache
                 )
         );
     }
@@ -95,21 +108,11 @@ public class ColumnFamilyRegion {
         return multiColumns;
     }
 
-    public void deleteMultiColumns(byte[] key, String... deleteColumns) {
-        Collection<ColumnRegion> deleteColumnRegions;
-
-        if(deleteColumns == null || deleteColumns.length == 0) {
-            return;
-        }
-
-        deleteColumnRegions = new ArrayList<>();
-        for(String deleteColumn : deleteColumns) {
-            ColumnRegion columnRegion = columnRegions.get(deleteColumn);
-            if(columnRegion != null) {
-                deleteColumnRegions.add(columnRegion);
-            }
-        }
+    public boolean containsColumn(String column) {
+        return columnRegions.containsKey(column);
+    }
 
-        deleteColumnRegions.forEach(region -> region.delete(key));
+    public Collection<ColumnRegion> columnRegions() {
+        return columnRegions.values();
     }
 }
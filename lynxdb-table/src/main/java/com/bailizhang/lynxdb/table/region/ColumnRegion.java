@@ -18,6 +18,8 @@ package com.bailizhang.lynxdb.table.region;
 
 import com.bailizhang.lynxdb.table.config.TableOptions;
 import com.bailizhang.lynxdb.table.lsmtree.LsmTree;
+import com.bailizhang.lynxdb.table.lsmtree.compaction.CompactionScheduler;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.BlockCache;
 
 import java.nio.file.Path;
 
@@ -25,8 +27,21 @@ public class ColumnRegion extends LsmTree {
     private final String columnFamily;
     private final String column;
 
-    public ColumnRegion(String columnFamily, String column, TableOptions options) {
-        super(Path.of(options.baseDir(), columnFamily, column).toString(), options.lsmTreeOptions());
+    public ColumnRegion(
+            String columnFamily,
+            String column,
+            TableOptions options,
+            CompactionScheduler scheduler,
+            BlockCache blockCache
+    ) {
+        super(
+                Path.of(options.baseDir(), columnFamily, column).toString(),
+                options.lsmTreeOptions(),
+                scheduler,
+                blockCache,
+                // wal 由 LynxDbTable 统一写入
+                false
+        );
         this.columnFamily = columnFamily;
         this.column = column;
     }
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.table.utils;
+
+import com.bailizhang.lynxdb.core.mmap.MappedBuffer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.INT_LENGTH;
+import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.LONG_LENGTH;
+
+/**
+ * 按 cache line 分块的布隆过滤器，每个 key 只落在一个 64 字节的 line 中
+ * 一次查询最多访问一个 cache line，hash 只计算一次，再用 Kirsch–Mitzenmacher 双重哈希生成探测位置
+ *
+ * 格式: padding | line count | probe count | lines
+ * padding 保证 line 在文件中按 64 字节对齐
+ */
+public class BlockedBloomFilter implements Filter {
+    public static final int LINE_BYTES = 64;
+    private static final int LINE_BITS = LINE_BYTES * 8;
+    private static final int HEADER_LENGTH = INT_LENGTH * 2;
+    private static final int MAX_PROBES = 30;
+
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+    private static final long MURMUR_MULTIPLIER = 0xC6A4A7935BD1E995L;
+    private static final int MURMUR_SHIFT = 47;
+
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(
+            long[].class,
+            ByteOrder.LITTLE_ENDIAN
+    );
+
+    private final MappedBuffer mappedBuffer;
+    private final int linesOffset;
+    private final int lineCount;
+    private final int probeCount;
+
+    private BlockedBloomFilter(MappedBuffer buffer, int linesOffset, int lineCount, int probeCount) {
+        mappedBuffer = buffer;
+        this.linesOffset = linesOffset;
+        this.lineCount = lineCount;
+        this.probeCount = probeCount;
+    }
+
+    /**
+     * 创建新的过滤器
+     *
+     * @param filePath file path
+     * @param begin 过滤器在文件中的起始位置
+     * @param keyAmount key 的数量
+     * @param bitsPerKey 每个 key 占用的 bit 数
+     * @return blocked bloom filter
+     */
+    public static BlockedBloomFilter create(Path filePath, int begin, int keyAmount, int bitsPerKey) {
+        long totalBits = (long) keyAmount * bitsPerKey;
+        int lineCount = (int) Math.max((totalBits + LINE_BITS - 1) / LINE_BITS, 1);
+        // k = ln2 * bits per key 时误判率最低
+        int probeCount = Math.clamp(Math.round(bitsPerKey * 0.69), 1, MAX_PROBES);
+
+        int linesOffset = linesOffset(begin);
+        int length = linesOffset + lineCount * LINE_BYTES;
+
+        MappedBuffer buffer = new MappedBuffer(filePath, begin, length);
+        MappedByteBuffer rawBuffer = buffer.getBuffer();
+        rawBuffer.putInt(linesOffset - HEADER_LENGTH, lineCount);
+        rawBuffer.putInt(linesOffset - INT_LENGTH, probeCount);
+
+        return new BlockedBloomFilter(buffer, linesOffset, lineCount, probeCount);
+    }
+
+    /**
+     * 从文件中加载已经写好的过滤器
+     *
+     * @param filePath file path
+     * @param begin 过滤器在文件中的起始位置
+     * @param length 过滤器的长度
+     * @return blocked bloom filter
+     */
+    public static BlockedBloomFilter from(Path filePath, int begin, int length) {
+        int linesOffset = linesOffset(begin);
+
+        MappedBuffer buffer = new MappedBuffer(filePath, begin, length);
+        MappedByteBuffer rawBuffer = buffer.getBuffer();
+        int lineCount = rawBuffer.getInt(linesOffset - HEADER_LENGTH);
+        int probeCount = rawBuffer.getInt(linesOffset - INT_LENGTH);
+
+        if(lineCount <= 0 || probeCount <= 0 || probeCount > MAX_PROBES
+                || linesOffset + (long) lineCount * LINE_BYTES != length) {
+            throw new RuntimeException("Bloom filter data wrong.");
+        }
+
+        return new BlockedBloomFilter(buffer, linesOffset, lineCount, probeCount);
+    }
+
+    @Override
+    public boolean isExist(byte[] key) {
+        long hash = hash64(key);
+        int lineBegin = lineBegin(hash);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+
+        for(int i = 0; i < probeCount; i ++) {
+            int bit = (h1 + i * h2) & (LINE_BITS - 1);
+            int wordOffset = lineBegin + (bit >>> 6) * LONG_LENGTH;
+
+            if((mappedBuffer.getLong(wordOffset) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void setObj(byte[] key) {
+        MappedByteBuffer buffer = mappedBuffer.getBuffer();
+
+        long hash = hash64(key);
+        int lineBegin = lineBegin(hash);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+
+        for(int i = 0; i < probeCount; i ++) {
+            int bit = (h1 + i * h2) & (LINE_BITS - 1);
+            int wordOffset = lineBegin + (bit >>> 6) * LONG_LENGTH;
+
+            buffer.putLong(wordOffset, buffer.getLong(wordOffset) | (1L << bit));
+        }
+    }
+
+    @Override
+    public int length() {
+        return mappedBuffer.length();
+    }
+
+    @Override
+    public void force() {
+        mappedBuffer.force();
+    }
+
+    private int lineBegin(long hash) {
+        // 用乘法代替取模，把 hash 映射到 [0, lineCount)
+        long mixed = (hash * GOLDEN_RATIO) >>> 32;
+        int line = (int) ((mixed * lineCount) >>> 32);
+        return linesOffset + line * LINE_BYTES;
+    }
+
+    private static int linesOffset(int begin) {
+        int linesBegin = begin + HEADER_LENGTH;
+        int aligned = (linesBegin + LINE_BYTES - 1) & -LINE_BYTES;
+        return aligned - begin;
+    }
+
+    /**
+     * MurmurHash64A，每次处理 8 个字节
+     */
+    static long hash64(byte[] key) {
+        int length = key.length;
+        long hash = GOLDEN_RATIO ^ (length * MURMUR_MULTIPLIER);
+
+        int end = length & ~(LONG_LENGTH - 1);
+        for(int i = 0; i < end; i += LONG_LENGTH) {
+            long k = (long) LONG_VIEW.get(key, i);
+
+            k *= MURMUR_MULTIPLIER;
+            k ^= k >>> MURMUR_SHIFT;
+            k *= MURMUR_MULTIPLIER;
+
+            hash ^= k;
+            hash *= MURMUR_MULTIPLIER;
+        }
+
+        int remaining = length - end;
+        if(remaining > 0) {
+            long k = 0;
+            for(int i = remaining - 1; i >= 0; i --) {
+                k = (k << 8) | (key[end + i] & 0xFF);
+            }
+
+            hash ^= k;
+            hash *= MURMUR_MULTIPLIER;
+        }
+
+        hash ^= hash >>> MURMUR_SHIFT;
+        hash *= MURMUR_MULTIPLIER;
+        hash ^= hash >>> MURMUR_SHIFT;
+
+        return hash;
+    }
+}
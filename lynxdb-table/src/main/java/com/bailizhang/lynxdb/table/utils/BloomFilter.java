@@ -27,7 +27,7 @@ import static com.bailizhang.lynxdb.core.utils.PrimitiveTypeUtils.BYTE_BIT_COUNT
  * 28 个 hash 函数，bit 位应该是插入元素的 40 倍
  * 误判率约等于 3.37e-9
  */
-public class BloomFilter {
+public class BloomFilter implements Filter {
     public static final int BITS_TIMES = 40;
     private static final int HASH_FUNC_SIZE = 28;
 
@@ -44,8 +44,8 @@ public class BloomFilter {
         return new BloomFilter(buffer);
     }
 
+    @Override
     public boolean isExist(byte[] key) {
-        MappedByteBuffer buffer = mappedBuffer.getBuffer();
         int bitCount = mappedBuffer.length() * BYTE_BIT_COUNT;
 
         for(int i = 1; i < HASH_FUNC_SIZE + 1; i ++) {
@@ -57,7 +57,7 @@ public class BloomFilter {
             // byte 中的第几个 bit 位
             int bitIndex = remainder % BYTE_BIT_COUNT;
 
-            byte current = buffer.get(byteIndex);
+            byte current = mappedBuffer.get(byteIndex);
             if((current & ((byte) 0x01 << bitIndex)) == 0) {
                 return false;
             }
@@ -66,10 +66,7 @@ public class BloomFilter {
         return true;
     }
 
-    public boolean isNotExist(byte[] key) {
-        return !isExist(key);
-    }
-
+    @Override
     public void setObj(byte[] key) {
         MappedByteBuffer buffer = mappedBuffer.getBuffer();
         int bitCount = mappedBuffer.length() * BYTE_BIT_COUNT;
@@ -89,10 +86,12 @@ public class BloomFilter {
         }
     }
 
+    @Override
     public int length() {
         return mappedBuffer.length();
     }
 
+    @Override
     public void force() {
         mappedBuffer.force();
     }
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bailizhang.lynxdb.table.utils;
+
+/**
+ * SSTable 中用来快速判断 key 不存在的过滤器
+ */
+public interface Filter {
+    boolean isExist(byte[] key);
+
+    default boolean isNotExist(byte[] key) {
+        return !isExist(key);
+    }
+
+    void setObj(byte[] key);
+
+    /**
+     * 过滤器在文件中占用的字节数
+     */
+    int length();
+
+    void force();
+}
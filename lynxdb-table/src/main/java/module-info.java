@@ -12,4 +12,5 @@ module lynxdb.table {
     exports com.bailizhang.lynxdb.table.lsmtree.sstable;
     exports com.bailizhang.lynxdb.table.region;
     exports com.bailizhang.lynxdb.table.lsmtree.level;
+    exports com.bailizhang.lynxdb.table.lsmtree.compaction;
 }
\ No newline at end of file
@@ -19,6 +19,8 @@ package com.bailizhang.lynxdb.table;
 import com.bailizhang.lynxdb.core.common.Converter;
 import com.bailizhang.lynxdb.core.common.G;
 import com.bailizhang.lynxdb.core.common.Tuple;
+import com.bailizhang.lynxdb.core.log.LogGroup;
+import com.bailizhang.lynxdb.core.log.LogGroupOptions;
 import com.bailizhang.lynxdb.table.config.LsmTreeOptions;
 import com.bailizhang.lynxdb.table.config.TableOptions;
 import org.junit.jupiter.api.AfterEach;
@@ -26,9 +28,11 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.LockSupport;
 
 class LynxDbTableTest {
@@ -39,7 +43,9 @@ class LynxDbTableTest {
 
     private static final int KEY_COUNT = 800;
     private static final int COLUMN_COUNT = 10;
-    private static final int MEM_TABLE_SIZE = 20;
+    private static final long MEM_TABLE_BYTES = 1024;
+    private static final long TARGET_FILE_SIZE = 4 * 1024;
+    private static final long MAX_BYTES_FOR_LEVEL_BASE = 16 * 1024;
 
     private static final String COLUMN_FAMILY = "column_family01";
 
@@ -51,8 +57,11 @@ class LynxDbTableTest {
 
     @BeforeEach
     void setUp() {
-        LsmTreeOptions options = new LsmTreeOptions(MEM_TABLE_SIZE);
+        LsmTreeOptions options = new LsmTreeOptions();
         options.wal(true);
+        options.memTableBytes(MEM_TABLE_BYTES);
+        options.targetFileSizeBase(TARGET_FILE_SIZE);
+        options.maxBytesForLevelBase(MAX_BYTES_FOR_LEVEL_BASE);
         lsmTree = new LynxDbTable(new TableOptions(BASE_DIR, options));
     }
 
@@ -258,4 +267,132 @@ class LynxDbTableTest {
         assert timeoutValue == null;
 
     }
-}
\ No newline at end of file
+
+    @Test
+    void testFunc09() {
+        String otherColumnFamily = "column_family02";
+        String dir = BASE_DIR + "_batch";
+
+        // memTable 足够大，重新打开时不会有后台 flush
+        TableOptions options = new TableOptions(dir, new LsmTreeOptions());
+        Table table = new LynxDbTable(options);
+
+        WriteBatch batch = new WriteBatch();
+        for(int i = 0; i < KEY_COUNT; i ++) {
+            String key = KEY + i;
+
+            for(int columnCount = 0; columnCount < COLUMN_COUNT; columnCount ++) {
+                String column = COLUMN + columnCount;
+                batch.insert(G.I.toBytes(key), COLUMN_FAMILY, column, G.I.toBytes(key + column), -1);
+            }
+
+            batch.insert(G.I.toBytes(key), otherColumnFamily, COLUMN, G.I.toBytes(key), -1);
+        }
+        batch.delete(G.I.toBytes(KEY + 0), COLUMN_FAMILY, COLUMN + 0);
+        table.write(batch);
+
+        // 重新打开后从 table wal 恢复
+        Table recovered = new LynxDbTable(options);
+
+        for(Table t : List.of(table, recovered)) {
+            assert t.find(G.I.toBytes(KEY + 0), COLUMN_FAMILY, COLUMN + 0) == null;
+
+            for(int i = 1; i < KEY_COUNT; i ++) {
+                String key = KEY + i;
+                String column = COLUMN + (i % COLUMN_COUNT);
+
+                byte[] value = t.find(G.I.toBytes(key), COLUMN_FAMILY, column);
+                assert Arrays.equals(value, G.I.toBytes(key + column));
+
+                byte[] otherValue = t.find(G.I.toBytes(key), otherColumnFamily, COLUMN);
+                assert Arrays.equals(otherValue, G.I.toBytes(key));
+            }
+        }
+
+        table.clear();
+    }
+
+    @Test
+    void testFunc10() throws InterruptedException {
+        AtomicInteger inserted = new AtomicInteger();
+        AtomicInteger wrong = new AtomicInteger();
+
+        Thread[] threads = new Thread[8];
+        for(int t = 0; t < threads.length; t ++) {
+            threads[t] = new Thread(() -> {
+                for(int i = 0; i < KEY_COUNT; i ++) {
+                    String key = KEY + i;
+
+                    HashMap<String, byte[]> multiColumns = new HashMap<>();
+                    multiColumns.put(COLUMN, G.I.toBytes(key));
+
+                    if(lsmTree.insertIfNotExisted(G.I.toBytes(key), COLUMN_FAMILY, multiColumns, -1)) {
+                        inserted.incrementAndGet();
+                    }
+
+                    byte[] value = lsmTree.find(G.I.toBytes(key), COLUMN_FAMILY, COLUMN);
+                    if(!Arrays.equals(value, G.I.toBytes(key))) {
+                        wrong.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        for(Thread thread : threads) {
+            thread.join();
+        }
+
+        // 并发写入同一个 key 时只有一个成功
+        assert inserted.get() == KEY_COUNT;
+        assert wrong.get() == 0;
+    }
+
+    @Test
+    void testFunc11() {
+        String dir = BASE_DIR + "_recover";
+        Path valueDir = Path.of(dir, COLUMN_FAMILY, COLUMN, "value");
+
+        TableOptions options = new TableOptions(dir, new LsmTreeOptions());
+        Table table = new LynxDbTable(options);
+
+        // 大于 valueSeparationThreshold，value 写入 value log
+        String padding = "v".repeat(100);
+        for(int i = 0; i < KEY_COUNT; i ++) {
+            String key = KEY + i;
+            table.insert(G.I.toBytes(key), COLUMN_FAMILY, multiColumns(key + padding), -1);
+        }
+
+        // 没有 close，重新打开时重放 wal 并 flush
+        Table recovered = new LynxDbTable(options);
+        long maxValueIdx = maxGlobalIdx(valueDir);
+
+        // 已经 flush 的 entry 不会再写入 value log
+        Table recoveredAgain = new LynxDbTable(options);
+        assert maxGlobalIdx(valueDir) == maxValueIdx;
+
+        recoveredAgain.close();
+        Table reopened = new LynxDbTable(options);
+        assert maxGlobalIdx(valueDir) == maxValueIdx;
+
+        for(Table t : List.of(recovered, reopened)) {
+            for(int i = 0; i < KEY_COUNT; i ++) {
+                String key = KEY + i;
+                byte[] value = t.find(G.I.toBytes(key), COLUMN_FAMILY, COLUMN);
+                assert Arrays.equals(value, G.I.toBytes(key + padding));
+            }
+        }
+
+        reopened.clear();
+    }
+
+    private static HashMap<String, byte[]> multiColumns(String value) {
+        HashMap<String, byte[]> multiColumns = new HashMap<>();
+        multiColumns.put(COLUMN, G.I.toBytes(value));
+        return multiColumns;
+    }
+
+    private static long maxGlobalIdx(Path logDir) {
+        return new LogGroup(logDir.toString(), new LogGroupOptions()).maxGlobalIdx();
+    }
+}
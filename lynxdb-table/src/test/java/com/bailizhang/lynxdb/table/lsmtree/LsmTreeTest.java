@@ -16,13 +16,35 @@
 
 package com.bailizhang.lynxdb.table.lsmtree;
 
+import com.bailizhang.lynxdb.core.common.FileType;
+import com.bailizhang.lynxdb.core.common.Flags;
+import com.bailizhang.lynxdb.core.log.LogGroup;
+import com.bailizhang.lynxdb.core.log.LogGroupOptions;
 import com.bailizhang.lynxdb.core.utils.FileUtils;
 import com.bailizhang.lynxdb.table.config.LsmTreeOptions;
+import com.bailizhang.lynxdb.table.config.WalSyncPolicy;
+import com.bailizhang.lynxdb.table.entry.WalEntry;
+import com.bailizhang.lynxdb.table.exception.DeletedException;
+import com.bailizhang.lynxdb.table.exception.TimeoutException;
+import com.bailizhang.lynxdb.table.lsmtree.compaction.CompactionScheduler;
+import com.bailizhang.lynxdb.table.lsmtree.level.Levels;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.BlockCache;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.KeyEntry;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 class LsmTreeTest {
     private static final String BASE_DIR = System.getProperty("user.dir") + "/data/lsmtree_test";
@@ -31,7 +53,7 @@ class LsmTreeTest {
 
     @BeforeEach
     void setUp() {
-        LsmTreeOptions options = new LsmTreeOptions(200);
+        LsmTreeOptions options = new LsmTreeOptions();
         lsmTree = new LsmTree(BASE_DIR, options);
     }
 
@@ -64,4 +86,233 @@ class LsmTreeTest {
     @Test
     void rangeBefore() {
     }
-}
\ No newline at end of file
+
+    @Test
+    void groupCommit() throws InterruptedException, DeletedException, TimeoutException {
+        int threadCount = 8;
+        int keyCount = 200;
+
+        LsmTreeOptions options = new LsmTreeOptions();
+        options.walSyncPolicy(WalSyncPolicy.EVERY_BATCH);
+
+        String dir = BASE_DIR + "/group_commit";
+        LsmTree tree = new LsmTree(dir, options);
+
+        List<Thread> threads = new ArrayList<>();
+        for(int t = 0; t < threadCount; t ++) {
+            int threadNo = t;
+            Thread thread = new Thread(() -> {
+                for(int i = 0; i < keyCount; i ++) {
+                    byte[] key = ("key" + threadNo + "-" + i).getBytes();
+                    tree.insert(key, ("value" + i).getBytes(), -1);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        for(Thread thread : threads) {
+            thread.join();
+        }
+
+        // 从 wal 恢复后所有的写入都还在
+        LsmTree recovered = new LsmTree(dir, options);
+        for(int t = 0; t < threadCount; t ++) {
+            for(int i = 0; i < keyCount; i ++) {
+                byte[] key = ("key" + t + "-" + i).getBytes();
+                assertArrayEquals(("value" + i).getBytes(), recovered.find(key));
+            }
+        }
+    }
+
+    @Test
+    void backgroundFlush() throws Exception {
+        int keyCount = 2000;
+
+        LsmTreeOptions options = new LsmTreeOptions();
+        options.memTableBytes(16 * 1024);
+        options.maxImmutableMemTables(64);
+
+        // 唯一的后台线程被占用，flush 只能等待
+        CompactionScheduler scheduler = new CompactionScheduler(1, options.valueLogGcBytesPerSecond());
+        CountDownLatch blocked = new CountDownLatch(1);
+        scheduler.schedule(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        String dir = BASE_DIR + "/background_flush";
+        LsmTree tree = new LsmTree(
+                dir,
+                options,
+                scheduler,
+                new BlockCache(options.blockCacheSize(), LsmTree.BLOCK_CACHE_SHARDS)
+        );
+
+        // 写入不会在当前线程中 flush
+        for(int i = 0; i < keyCount; i ++) {
+            tree.insert(("key" + i).getBytes(), ("value" + i).getBytes(), -1);
+        }
+        assertEquals(0, ssTableCount(dir));
+
+        for(int i = 0; i < keyCount; i ++) {
+            assertArrayEquals(("value" + i).getBytes(), tree.find(("key" + i).getBytes()));
+        }
+
+        blocked.countDown();
+        tree.flush();
+        assertTrue(ssTableCount(dir) > 0);
+
+        for(int i = 0; i < keyCount; i ++) {
+            assertArrayEquals(("value" + i).getBytes(), tree.find(("key" + i).getBytes()));
+        }
+
+        scheduler.shutdown();
+    }
+
+    @Test
+    void flushFailure() {
+        LsmTreeOptions options = new LsmTreeOptions();
+        options.memTableBytes(4 * 1024);
+        options.maxImmutableMemTables(1);
+
+        // Level 1 的目录被同名文件占用，后台 flush 失败
+        String dir = BASE_DIR + "/flush_failure";
+        FileUtils.createDirIfNotExisted(dir);
+        FileUtils.createFile(Path.of(dir, String.valueOf(Levels.LEVEL_BEGIN)));
+
+        LsmTree tree = new LsmTree(dir, options);
+
+        // 等待 flush 的写入抛出异常，而不是一直阻塞
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            assertThrows(RuntimeException.class, () -> {
+                for(int i = 0; i < 100000; i ++) {
+                    tree.insert(("key" + i).getBytes(), ("value" + i).getBytes(), -1);
+                }
+            });
+        });
+
+        assertThrows(RuntimeException.class, () -> tree.insert("key".getBytes(), "value".getBytes(), -1));
+    }
+
+    @Test
+    void valueLogGc() throws Exception {
+        int keyCount = 500;
+        int rounds = 20;
+
+        LsmTreeOptions options = new LsmTreeOptions();
+        options.memTableBytes(16 * 1024);
+        options.level1CompactionTrigger(2);
+        options.valueSeparationThreshold(0);
+
+        CompactionScheduler scheduler = new CompactionScheduler(
+                options.backgroundThreads(),
+                options.valueLogGcBytesPerSecond()
+        );
+
+        String dir = BASE_DIR + "/value_log_gc";
+        LsmTree tree = new LsmTree(
+                dir,
+                options,
+                scheduler,
+                new BlockCache(options.blockCacheSize(), LsmTree.BLOCK_CACHE_SHARDS)
+        );
+
+        // 覆盖写入，compaction 删除旧版本后 value log 中出现垃圾
+        for(int round = 0; round < rounds; round ++) {
+            for(int i = 0; i < keyCount; i ++) {
+                tree.insert(("key" + i).getBytes(), ("value" + round + "-" + i).getBytes(), -1);
+            }
+        }
+        tree.flush();
+
+        LsmTreeStatistics statistics = tree.statistics();
+        long deadline = System.currentTimeMillis() + 10 * 1000;
+        while(statistics.valueLogGcRegions() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(statistics.valueLogGcRegions() > 0);
+        assertTrue(statistics.valueLogGcReclaimedBytes() > 0);
+
+        // 回收后 global index 不变，SSTable 中的引用仍然有效
+        for(int i = 0; i < keyCount; i ++) {
+            assertArrayEquals(("value" + (rounds - 1) + "-" + i).getBytes(), tree.find(("key" + i).getBytes()));
+        }
+
+        // 删除目录之前等待后台的回收结束
+        scheduler.shutdown();
+    }
+
+    @Test
+    void legacyWalRecovery() throws Exception {
+        int keyCount = 200;
+        int rounds = 10;
+
+        LsmTreeOptions options = new LsmTreeOptions();
+        options.memTableBytes(4 * 1024);
+        options.maxImmutableMemTables(64);
+
+        // 改成由 table 统一写 wal 之前，LsmTree 自己写的 wal，比一个 memTable 大得多
+        String dir = BASE_DIR + "/legacy_wal";
+        Path walDir = Path.of(dir, "wal");
+        LogGroup legacyWal = new LogGroup(walDir.toString(), new LogGroupOptions());
+        for(int round = 0; round < rounds; round ++) {
+            for(int i = 0; i < keyCount; i ++) {
+                WalEntry walEntry = WalEntry.from(
+                        Flags.EXISTED,
+                        ("key" + i).getBytes(),
+                        ("value" + round + "-" + i).getBytes(),
+                        KeyEntry.INLINE_VALUE,
+                        -1
+                );
+                legacyWal.appendEntry(walEntry.toBuffers());
+            }
+        }
+
+        // 唯一的后台线程被占用，恢复时切换出来的 immutable 都在排队
+        CompactionScheduler scheduler = new CompactionScheduler(1, options.valueLogGcBytesPerSecond());
+        CountDownLatch blocked = new CountDownLatch(1);
+        scheduler.schedule(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Thread release = new Thread(() -> {
+            LockSupport.parkNanos(Duration.ofMillis(200).toNanos());
+            blocked.countDown();
+        });
+        release.start();
+
+        LsmTree tree = new LsmTree(
+                dir,
+                options,
+                scheduler,
+                new BlockCache(options.blockCacheSize(), LsmTree.BLOCK_CACHE_SHARDS),
+                false
+        );
+        release.join();
+
+        assertTrue(FileUtils.notExist(walDir));
+        assertTrue(ssTableCount(dir) > 1);
+
+        // 最后一次写入的 value 不会被更早 flush 的 memTable 覆盖
+        for(int i = 0; i < keyCount; i ++) {
+            assertArrayEquals(("value" + (rounds - 1) + "-" + i).getBytes(), tree.find(("key" + i).getBytes()));
+        }
+
+        scheduler.shutdown();
+    }
+
+    private static long ssTableCount(String dir) throws IOException {
+        try(Stream<Path> paths = Files.walk(Path.of(dir))) {
+            return paths.filter(path -> path.toString().endsWith(FileType.SSTABLE_FILE.suffix())).count();
+        }
+    }
+}
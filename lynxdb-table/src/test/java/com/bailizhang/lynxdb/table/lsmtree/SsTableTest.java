@@ -17,14 +17,17 @@
 package com.bailizhang.lynxdb.table.lsmtree;
 
 import com.bailizhang.lynxdb.core.common.Converter;
+import com.bailizhang.lynxdb.core.common.FileType;
 import com.bailizhang.lynxdb.core.common.Flags;
 import com.bailizhang.lynxdb.core.common.G;
 import com.bailizhang.lynxdb.core.log.LogGroup;
 import com.bailizhang.lynxdb.core.log.LogGroupOptions;
 import com.bailizhang.lynxdb.core.utils.FileUtils;
+import com.bailizhang.lynxdb.core.utils.NameUtils;
 import com.bailizhang.lynxdb.table.config.LsmTreeOptions;
 import com.bailizhang.lynxdb.table.exception.DeletedException;
 import com.bailizhang.lynxdb.table.exception.TimeoutException;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.BlockCache;
 import com.bailizhang.lynxdb.table.lsmtree.sstable.KeyEntry;
 import com.bailizhang.lynxdb.table.lsmtree.sstable.SsTable;
 import com.bailizhang.lynxdb.table.schema.Key;
@@ -33,9 +36,12 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.zip.CRC32C;
 
 class SsTableTest {
     private static final String BASE_DIR = System.getProperty("user.dir") + "/data/sstable_test";
@@ -67,7 +73,7 @@ class SsTableTest {
 
     void create() {
         Path dirPath = Path.of(BASE_DIR);
-        LsmTreeOptions options = new LsmTreeOptions(200);
+        LsmTreeOptions options = new LsmTreeOptions();
 
         List<KeyEntry> keyEntries = new ArrayList<>();
 
@@ -75,7 +81,7 @@ class SsTableTest {
             byte[] key = G.I.toBytes("key" + i);
             byte[] value = G.I.toBytes("value" + i);
 
-            int valueGlobalIdx = valueLogGroup.appendEntry(value);
+            long valueGlobalIdx = valueLogGroup.appendEntry(value);
 
             KeyEntry keyEntry = new KeyEntry(
                     Flags.EXISTED,
@@ -92,7 +98,6 @@ class SsTableTest {
         ssTable = SsTable.create(
                 dirPath,
                 SSTABLE_NO,
-                2,
                 options,
                 keyEntries,
                 valueLogGroup
@@ -159,11 +164,16 @@ class SsTableTest {
     void testFunc05() {
         create();
 
-        HashMap<Key, KeyEntry> entriesMap = new HashMap<>();
+        int count = 0;
+        KeyEntry prev = null;
 
-        ssTable.all(entriesMap);
+        for(KeyEntry entry : ssTable) {
+            assert prev == null || prev.compareTo(entry) < 0;
+            prev = entry;
+            count ++;
+        }
 
-        assert entriesMap.size() == 2000;
+        assert count == 2000;
     }
 
     @Test
@@ -207,4 +217,154 @@ class SsTableTest {
             System.out.println(G.I.toString(findKey.bytes()));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void testFunc08() throws DeletedException, TimeoutException {
+        create();
+
+        BlockCache blockCache = new BlockCache(1024 * 1024, 4);
+        ssTable = new SsTable(
+                Path.of(BASE_DIR),
+                SSTABLE_NO,
+                valueLogGroup,
+                blockCache
+        );
+
+        byte[] key = G.I.toBytes("key" + 1000);
+
+        assert Arrays.equals(ssTable.find(key), G.I.toBytes("value" + 1000));
+        assert blockCache.missCount() == 1;
+
+        assert Arrays.equals(ssTable.find(key), G.I.toBytes("value" + 1000));
+        assert blockCache.hitCount() == 1;
+
+        // 跨越多个 block 的范围查询
+        List<Key> keys = ssTable.rangeNext(G.I.toBytes("key" + 1000), 500, new HashSet<>(), new HashSet<>());
+        assert keys.size() == 500;
+
+        for(int i = 1; i < keys.size(); i ++) {
+            assert Arrays.compare(keys.get(i - 1).bytes(), keys.get(i).bytes()) < 0;
+        }
+    }
+
+    @Test
+    void testFunc09() throws DeletedException, TimeoutException {
+        LsmTreeOptions options = new LsmTreeOptions();
+        long maxGlobalIdx = valueLogGroup.maxGlobalIdx();
+
+        List<KeyEntry> keyEntries = new ArrayList<>();
+        for(int i = 0; i < 2000; i ++) {
+            byte[] key = G.I.toBytes("key" + i);
+            byte[] value = G.I.toBytes("value" + i);
+
+            keyEntries.add(new KeyEntry(Flags.EXISTED, key, value, KeyEntry.INLINE_VALUE, -1));
+        }
+        keyEntries.sort(KeyEntry::compareTo);
+
+        SsTable.create(Path.of(BASE_DIR), SSTABLE_NO, options, keyEntries, valueLogGroup);
+        ssTable = new SsTable(Path.of(BASE_DIR), SSTABLE_NO, valueLogGroup);
+
+        // 内联的 value 不写入 value log
+        assert valueLogGroup.maxGlobalIdx() == maxGlobalIdx;
+
+        for(int i = 0; i < 2000; i ++) {
+            byte[] value = ssTable.find(G.I.toBytes("key" + i));
+            assert Arrays.equals(value, G.I.toBytes("value" + i));
+        }
+
+        for(KeyEntry entry : ssTable) {
+            assert entry.hasInlineValue();
+        }
+    }
+
+    @Test
+    void testFunc10() throws Exception {
+        LsmTreeOptions options = new LsmTreeOptions();
+
+        List<KeyEntry> keyEntries = new ArrayList<>();
+        for(int i = 0; i < 2000; i ++) {
+            byte[] key = G.I.toBytes("key" + i);
+            byte[] value = G.I.toBytes("value" + i);
+
+            long valueGlobalIdx = valueLogGroup.appendEntry(value);
+            keyEntries.add(new KeyEntry(Flags.EXISTED, key, null, valueGlobalIdx, -1));
+        }
+        keyEntries.sort(KeyEntry::compareTo);
+
+        Path dirPath = Path.of(BASE_DIR);
+        writeLegacySsTable(dirPath, keyEntries);
+
+        assert SsTable.migrateIfLegacy(dirPath, SSTABLE_NO, options);
+        assert !SsTable.migrateIfLegacy(dirPath, SSTABLE_NO, options);
+
+        ssTable = new SsTable(dirPath, SSTABLE_NO, valueLogGroup);
+        assert ssTable.keyAmount() == 2000;
+
+        for(int i = 0; i < 2000; i ++) {
+            byte[] value = ssTable.find(G.I.toBytes("key" + i));
+            assert Arrays.equals(value, G.I.toBytes("value" + i));
+        }
+    }
+
+    /**
+     * 按版本 1 的格式写入 SSTable，布隆过滤器和一级索引在迁移时不会被读取
+     */
+    private static void writeLegacySsTable(Path dirPath, List<KeyEntry> keyEntries) throws Exception {
+        byte[] beginKey = keyEntries.getFirst().key();
+        byte[] endKey = keyEntries.getLast().key();
+
+        int headerLength = 44;
+        int metaRegionLength = headerLength + 4 * 2 + 8 + beginKey.length + endKey.length;
+        int bloomFilterLength = 64;
+        int secondIndexLength = keyEntries.size() * (1 + 4 * 2 + 8);
+
+        int dataLength = 0;
+        for(KeyEntry entry : keyEntries) {
+            dataLength += 4 + entry.key().length + 4 + 8 + 8;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(metaRegionLength + bloomFilterLength + secondIndexLength + dataLength);
+        buffer.putInt(metaRegionLength)
+                .putInt(2001)
+                .putInt(2000)
+                .putInt(keyEntries.size())
+                .putInt(keyEntries.size())
+                .putInt(bloomFilterLength)
+                .putInt(0)
+                .putInt(secondIndexLength)
+                .putInt(dataLength);
+        putCrc(buffer, 0);
+
+        int keysPosition = buffer.position();
+        buffer.putInt(beginKey.length).put(beginKey).putInt(endKey.length).put(endKey);
+        putCrc(buffer, keysPosition);
+
+        buffer.position(metaRegionLength + bloomFilterLength);
+        int begin = 0;
+        for(KeyEntry entry : keyEntries) {
+            int length = 4 + entry.key().length + 4 + 8 + 8;
+            int position = buffer.position();
+            buffer.put(entry.flag()).putInt(begin).putInt(length);
+            putCrc(buffer, position);
+            begin += length;
+        }
+
+        for(KeyEntry entry : keyEntries) {
+            int position = buffer.position();
+            buffer.putInt(entry.key().length)
+                    .put(entry.key())
+                    .putInt((int) entry.valueGlobalIndex())
+                    .putLong(entry.timeout());
+            putCrc(buffer, position);
+        }
+
+        FileUtils.createDirIfNotExisted(dirPath.toString());
+        Files.write(dirPath.resolve(NameUtils.name(SSTABLE_NO) + FileType.SSTABLE_FILE.suffix()), buffer.array());
+    }
+
+    private static void putCrc(ByteBuffer buffer, int begin) {
+        CRC32C crc32C = new CRC32C();
+        crc32C.update(buffer.array(), begin, buffer.position() - begin);
+        buffer.putLong(crc32C.getValue());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023-2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bailizhang.lynxdb.table.lsmtree;
+
+import com.bailizhang.lynxdb.core.log.LogGroup;
+import com.bailizhang.lynxdb.core.log.LogGroupOptions;
+import com.bailizhang.lynxdb.core.utils.FileUtils;
+import com.bailizhang.lynxdb.table.config.WalSyncPolicy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class WalWriterTest {
+    private static final String BASE_DIR = System.getProperty("user.dir") + "/data/wal_writer_test";
+
+    private LogGroup walLog;
+
+    @BeforeEach
+    void setUp() {
+        walLog = new LogGroup(BASE_DIR, new LogGroupOptions());
+    }
+
+    @AfterEach
+    void tearDown() {
+        Path dirPath = Path.of(BASE_DIR);
+        if(FileUtils.notExist(dirPath)) {
+            return;
+        }
+        FileUtils.delete(dirPath);
+    }
+
+    /**
+     * leader 写入时抛出 Error，同一批和之后的写入线程都不会一直等待
+     */
+    @Test
+    void testFunc01() throws InterruptedException {
+        CountDownLatch leaderEntered = new CountDownLatch(1);
+        AtomicBoolean failed = new AtomicBoolean(false);
+
+        WalWriter<Integer> walWriter = new WalWriter<>(
+                walLog,
+                null,
+                WalSyncPolicy.NONE,
+                0,
+                (values, firstWalGlobalIndex) -> {
+                    if(failed.compareAndSet(false, true)) {
+                        leaderEntered.countDown();
+                        sleep();
+                        throw new AssertionError("write memTable failed");
+                    }
+                }
+        );
+
+        AtomicInteger errors = new AtomicInteger();
+        List<Thread> writers = new ArrayList<>();
+
+        Thread leader = Thread.ofVirtual().start(() -> write(walWriter, 0, errors));
+        writers.add(leader);
+
+        Assertions.assertTrue(leaderEntered.await(5, TimeUnit.SECONDS));
+
+        // leader 写入的过程中进入队列
+        for(int i = 1; i < 8; i ++) {
+            int value = i;
+            writers.add(Thread.ofVirtual().start(() -> write(walWriter, value, errors)));
+        }
+
+        for(Thread writer : writers) {
+            Assertions.assertTrue(writer.join(Duration.ofSeconds(5)));
+        }
+
+        // 只有 leader 所在的这一批失败
+        Assertions.assertEquals(1, errors.get());
+
+        walWriter.write(new ByteBuffer[] {ByteBuffer.wrap(new byte[] {1})}, 8);
+    }
+
+    private static void write(WalWriter<Integer> walWriter, int value, AtomicInteger errors) {
+        try {
+            walWriter.write(new ByteBuffer[] {ByteBuffer.wrap(new byte[] {(byte) value})}, value);
+        } catch (Throwable t) {
+            errors.incrementAndGet();
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(200);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
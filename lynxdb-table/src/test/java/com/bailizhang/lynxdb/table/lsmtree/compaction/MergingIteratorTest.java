@@ -0,0 +1,88 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bailizhang.lynxdb.table.lsmtree.compaction;
+
+import com.bailizhang.lynxdb.core.common.Bytes;
+import com.bailizhang.lynxdb.core.common.Flags;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.KeyEntry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+class MergingIteratorTest {
+    private static KeyEntry entry(String key, int valueGlobalIndex) {
+        return new KeyEntry(
+                Flags.EXISTED,
+                key.getBytes(StandardCharsets.UTF_8),
+                null,
+                valueGlobalIndex,
+                -1
+        );
+    }
+
+    private static KeyEntry deleted(String key) {
+        return new KeyEntry(
+                Flags.DELETED,
+                key.getBytes(StandardCharsets.UTF_8),
+                Bytes.EMPTY,
+                -1,
+                0L
+        );
+    }
+
+    @Test
+    void testFunc01() {
+        List<Iterator<KeyEntry>> iterators = List.of(
+                List.of(entry("a", 10), entry("c", 11)).iterator(),
+                List.of(entry("a", 1), entry("b", 2), entry("c", 3)).iterator()
+        );
+
+        List<KeyEntry> obsolete = new ArrayList<>();
+        MergingIterator iterator = new MergingIterator(iterators, false, obsolete::add);
+
+        List<KeyEntry> merged = new ArrayList<>();
+        iterator.forEachRemaining(merged::add);
+
+        assert merged.size() == 3;
+        assert merged.get(0).valueGlobalIndex() == 10;
+        assert merged.get(1).valueGlobalIndex() == 2;
+        assert merged.get(2).valueGlobalIndex() == 11;
+
+        assert obsolete.size() == 2;
+    }
+
+    @Test
+    void testFunc02() {
+        List<Iterator<KeyEntry>> iterators = List.of(
+                List.of(deleted("a")).iterator(),
+                List.of(entry("a", 1), entry("b", 2)).iterator()
+        );
+
+        List<KeyEntry> obsolete = new ArrayList<>();
+        MergingIterator iterator = new MergingIterator(iterators, true, obsolete::add);
+
+        assert iterator.hasNext();
+        assert iterator.next().valueGlobalIndex() == 2;
+        assert !iterator.hasNext();
+
+        // 被覆盖的旧值和删除标记
+        assert obsolete.size() == 2;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2023-2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.table.lsmtree.level;
+
+import com.bailizhang.lynxdb.core.common.Converter;
+import com.bailizhang.lynxdb.core.common.Flags;
+import com.bailizhang.lynxdb.core.common.G;
+import com.bailizhang.lynxdb.core.log.LogGroup;
+import com.bailizhang.lynxdb.core.log.LogGroupOptions;
+import com.bailizhang.lynxdb.core.utils.FileUtils;
+import com.bailizhang.lynxdb.table.config.LsmTreeOptions;
+import com.bailizhang.lynxdb.table.exception.DeletedException;
+import com.bailizhang.lynxdb.table.exception.TimeoutException;
+import com.bailizhang.lynxdb.table.lsmtree.LsmTreeStatistics;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.KeyEntry;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.SsTable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+class LevelTest {
+    private static final String BASE_DIR = System.getProperty("user.dir") + "/data/level_test";
+    private static final String VALUE_LOG_DIR = System.getProperty("user.dir") + "/data/level_test/values";
+
+    private LsmTreeOptions options;
+    private LogGroup valueLogGroup;
+    private LsmTreeStatistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        G.I.converter(new Converter(StandardCharsets.UTF_8));
+
+        options = new LsmTreeOptions();
+        statistics = new LsmTreeStatistics();
+
+        LogGroupOptions logGroupOptions = new LogGroupOptions();
+        logGroupOptions.regionCapacity(200);
+
+        valueLogGroup = new LogGroup(VALUE_LOG_DIR, logGroupOptions);
+    }
+
+    @AfterEach
+    void tearDown() {
+        Path dirPath = Path.of(BASE_DIR);
+        if(FileUtils.notExist(dirPath)) {
+            return;
+        }
+        FileUtils.delete(dirPath);
+    }
+
+    private Level open(int levelNo) {
+        return new Level(BASE_DIR, levelNo, valueLogGroup, options, null, statistics);
+    }
+
+    private void createSsTable(int levelNo, int ssTableNo, int begin, int end, int step, String valuePrefix) {
+        List<KeyEntry> keyEntries = new ArrayList<>();
+
+        for(int i = begin; i < end; i += step) {
+            byte[] key = G.I.toBytes(String.format("key%04d", i));
+            byte[] value = G.I.toBytes(valuePrefix + i);
+
+            long valueGlobalIdx = valueLogGroup.appendEntry(value);
+            keyEntries.add(new KeyEntry(Flags.EXISTED, key, value, valueGlobalIdx, -1));
+        }
+
+        Path levelDir = Path.of(BASE_DIR, String.valueOf(levelNo));
+        FileUtils.createDirIfNotExisted(levelDir.toFile());
+
+        SsTable.create(
+                levelDir,
+                ssTableNo,
+                options,
+                keyEntries,
+                valueLogGroup
+        );
+    }
+
+    private String find(Level level, int i) throws DeletedException, TimeoutException {
+        byte[] value = level.find(G.I.toBytes(String.format("key%04d", i)));
+        return value == null ? null : G.I.toString(value);
+    }
+
+    /**
+     * Level 1 的 SSTable 可能重叠，从新到旧查找
+     */
+    @Test
+    void testFunc01() throws DeletedException, TimeoutException {
+        createSsTable(Levels.LEVEL_BEGIN, 1, 0, 100, 1, "old");
+        createSsTable(Levels.LEVEL_BEGIN, 2, 50, 150, 1, "new");
+
+        Level level = open(Levels.LEVEL_BEGIN);
+
+        Assertions.assertEquals("old10", find(level, 10));
+        Assertions.assertEquals("new60", find(level, 60));
+        Assertions.assertEquals("new120", find(level, 120));
+        Assertions.assertEquals(3, statistics.filterTruePositive());
+
+        // 不在任何 SSTable 的范围内，不访问布隆过滤器
+        Assertions.assertNull(find(level, 200));
+        Assertions.assertEquals(1 + 0 + 1 + 2, statistics.rangePruned());
+        Assertions.assertEquals(0, statistics.filterUseful() + statistics.filterUseless());
+    }
+
+    /**
+     * 其他 Level 的 SSTable 互不重叠，二分查找唯一的 SSTable
+     */
+    @Test
+    void testFunc02() throws DeletedException, TimeoutException {
+        int levelNo = Levels.LEVEL_BEGIN + 1;
+        createSsTable(levelNo, 1, 300, 400, 1, "value");
+        createSsTable(levelNo, 2, 0, 100, 1, "value");
+        createSsTable(levelNo, 3, 150, 250, 1, "value");
+
+        Level level = open(levelNo);
+
+        for(int i : new int[] {0, 99, 150, 249, 300, 399}) {
+            Assertions.assertEquals("value" + i, find(level, i));
+        }
+        Assertions.assertEquals(6, statistics.filterTruePositive());
+        Assertions.assertEquals(6 * 2, statistics.rangePruned());
+
+        // 两个 SSTable 之间的空隙和所有 SSTable 之后
+        Assertions.assertNull(find(level, 120));
+        Assertions.assertNull(find(level, 500));
+        Assertions.assertEquals(6 * 2 + 3 * 2, statistics.rangePruned());
+        Assertions.assertEquals(0, statistics.filterUseful() + statistics.filterUseless());
+    }
+
+    /**
+     * 在 SSTable 范围内但是不存在的 key，每个 key 只探测一次布隆过滤器
+     */
+    @Test
+    void testFunc03() throws DeletedException, TimeoutException {
+        int levelNo = Levels.LEVEL_BEGIN + 1;
+        createSsTable(levelNo, 1, 0, 1000, 2, "value");
+
+        Level level = open(levelNo);
+
+        int count = 0;
+        for(int i = 1; i < 998; i += 2) {
+            Assertions.assertNull(find(level, i));
+            count ++;
+        }
+
+        Assertions.assertEquals(count, statistics.filterUseful() + statistics.filterUseless());
+        Assertions.assertTrue(statistics.filterUseful() > statistics.filterUseless());
+        Assertions.assertEquals(0, statistics.filterTruePositive());
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2023-2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bailizhang.lynxdb.table.lsmtree.level;
+
+import com.bailizhang.lynxdb.core.common.Converter;
+import com.bailizhang.lynxdb.core.common.FileType;
+import com.bailizhang.lynxdb.core.common.Flags;
+import com.bailizhang.lynxdb.core.common.G;
+import com.bailizhang.lynxdb.core.log.LogGroup;
+import com.bailizhang.lynxdb.core.log.LogGroupOptions;
+import com.bailizhang.lynxdb.core.utils.FileUtils;
+import com.bailizhang.lynxdb.core.utils.NameUtils;
+import com.bailizhang.lynxdb.table.config.LsmTreeOptions;
+import com.bailizhang.lynxdb.table.exception.DeletedException;
+import com.bailizhang.lynxdb.table.exception.TimeoutException;
+import com.bailizhang.lynxdb.table.lsmtree.LsmTreeStatistics;
+import com.bailizhang.lynxdb.table.lsmtree.memory.MemTable;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.BlockCache;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.KeyEntry;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.SsTable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+class LevelsTest {
+    private static final String BASE_DIR = System.getProperty("user.dir") + "/data/levels_test";
+    private static final String VALUE_LOG_DIR = System.getProperty("user.dir") + "/data/levels_test/values";
+
+    private static final int LEVEL_NO = 2;
+
+    private LsmTreeOptions options;
+    private LogGroup valueLogGroup;
+
+    @BeforeEach
+    void setUp() {
+        G.I.converter(new Converter(StandardCharsets.UTF_8));
+
+        options = new LsmTreeOptions();
+
+        LogGroupOptions logGroupOptions = new LogGroupOptions();
+        logGroupOptions.regionCapacity(200);
+
+        valueLogGroup = new LogGroup(VALUE_LOG_DIR, logGroupOptions);
+    }
+
+    @AfterEach
+    void tearDown() {
+        Path dirPath = Path.of(BASE_DIR);
+        if(FileUtils.notExist(dirPath)) {
+            return;
+        }
+        FileUtils.delete(dirPath);
+    }
+
+    private Levels open() {
+        return new Levels(BASE_DIR, valueLogGroup, options, null, new LsmTreeStatistics());
+    }
+
+    private void createSsTable(int ssTableNo, int begin, int end, String valuePrefix) {
+        List<KeyEntry> keyEntries = new ArrayList<>();
+
+        for(int i = begin; i < end; i ++) {
+            byte[] key = G.I.toBytes(String.format("key%04d", i));
+            byte[] value = G.I.toBytes(valuePrefix + i);
+
+            long valueGlobalIdx = valueLogGroup.appendEntry(value);
+            keyEntries.add(new KeyEntry(Flags.EXISTED, key, value, valueGlobalIdx, -1));
+        }
+
+        // Level 1 总是先于其他 Level 创建
+        FileUtils.createDirIfNotExisted(BASE_DIR, String.valueOf(Levels.LEVEL_BEGIN));
+
+        Path levelDir = Path.of(BASE_DIR, String.valueOf(LEVEL_NO));
+        FileUtils.createDirIfNotExisted(levelDir.toFile());
+
+        SsTable.create(
+                levelDir,
+                ssTableNo,
+                options,
+                keyEntries,
+                valueLogGroup
+        );
+    }
+
+    private boolean ssTableExist(int ssTableNo) {
+        String filename = NameUtils.name(ssTableNo) + FileType.SSTABLE_FILE.suffix();
+        return FileUtils.exist(Path.of(BASE_DIR, String.valueOf(LEVEL_NO), filename));
+    }
+
+    private String find(Levels levels, int i) throws DeletedException, TimeoutException {
+        byte[] value = levels.find(G.I.toBytes(String.format("key%04d", i)));
+        return value == null ? null : G.I.toString(value);
+    }
+
+    /**
+     * compaction 提交之前中断，删除新生成的 SSTable
+     */
+    @Test
+    void testFunc01() throws DeletedException, TimeoutException {
+        createSsTable(1, 0, 100, "old");
+        createSsTable(2, 50, 150, "new");
+
+        Levels levels = open();
+
+        assert ssTableExist(1);
+        assert !ssTableExist(2);
+
+        Assertions.assertEquals("old10", find(levels, 10));
+        Assertions.assertEquals("old60", find(levels, 60));
+        Assertions.assertNull(find(levels, 120));
+    }
+
+    /**
+     * compaction 提交之后中断，继续删除旧的 SSTable
+     */
+    @Test
+    void testFunc02() throws DeletedException, TimeoutException {
+        createSsTable(1, 0, 100, "old");
+        createSsTable(2, 0, 150, "new");
+
+        new CompactionEdit(new int[] {LEVEL_NO}, new int[] {1}).commit(BASE_DIR);
+
+        Levels levels = open();
+
+        assert !ssTableExist(1);
+        assert ssTableExist(2);
+
+        Assertions.assertEquals("new10", find(levels, 10));
+        Assertions.assertEquals("new120", find(levels, 120));
+
+        // 再次打开不会重复执行
+        levels = open();
+        Assertions.assertEquals("new60", find(levels, 60));
+    }
+
+    /**
+     * Level 1 的 SSTable 数量达到阈值后合并到 Level 2，每个 key 读到最新的 value
+     */
+    @Test
+    void testFunc03() throws DeletedException, TimeoutException {
+        options.level1CompactionTrigger(2);
+        options.memTableBytes(1024 * 1024);
+
+        Levels levels = open();
+
+        for(int round = 0; round < 4; round ++) {
+            MemTable memTable = new MemTable(options, valueLogGroup);
+
+            for(int i = round * 50; i < round * 50 + 200; i ++) {
+                byte[] key = G.I.toBytes(String.format("key%04d", i));
+                byte[] value = G.I.toBytes("value" + round + "-" + i);
+
+                long valueGlobalIdx = valueLogGroup.appendEntry(value);
+                memTable.append(new KeyEntry(Flags.EXISTED, key, value, valueGlobalIdx, -1));
+            }
+
+            memTable.transformToImmutable();
+            levels.merge(memTable);
+        }
+
+        Assertions.assertEquals("value0-0", find(levels, 0));
+        Assertions.assertEquals("value1-60", find(levels, 60));
+        Assertions.assertEquals("value2-120", find(levels, 120));
+        Assertions.assertEquals("value3-160", find(levels, 160));
+        Assertions.assertEquals("value3-349", find(levels, 349));
+        Assertions.assertNull(find(levels, 350));
+
+        // 重新打开后 Level 2 的 SSTable 互不重叠，不会被删除
+        levels = open();
+        Assertions.assertEquals("value2-120", find(levels, 120));
+        Assertions.assertEquals("value3-349", find(levels, 349));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.table.lsmtree.memory;
+
+import com.bailizhang.lynxdb.core.common.Flags;
+import com.bailizhang.lynxdb.table.lsmtree.sstable.KeyEntry;
+import com.bailizhang.lynxdb.table.schema.Key;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+class ArenaSkipListTest {
+    private static KeyEntry keyEntry(byte[] key, int valueGlobalIndex) {
+        return new KeyEntry(Flags.EXISTED, key, null, valueGlobalIndex, -1);
+    }
+
+    @Test
+    void test01() {
+        ArenaSkipList skipList = new ArenaSkipList(4096);
+        TreeMap<Key, Integer> expected = new TreeMap<>();
+        Random random = new Random(7);
+
+        for(int i = 0; i < 5000; i ++) {
+            byte[] key = ("key" + random.nextInt(2000)).getBytes(StandardCharsets.UTF_8);
+            skipList.put(keyEntry(key, i));
+            expected.put(new Key(key), i);
+        }
+
+        assert skipList.size() == expected.size();
+
+        Iterator<KeyEntry> iterator = skipList.iterator();
+        for(Map.Entry<Key, Integer> entry : expected.entrySet()) {
+            KeyEntry keyEntry = iterator.next();
+            assert Arrays.equals(keyEntry.key(), entry.getKey().bytes());
+            assert keyEntry.valueGlobalIndex() == entry.getValue();
+        }
+        assert !iterator.hasNext();
+
+        byte[] key = "key1000".getBytes(StandardCharsets.UTF_8);
+        assert skipList.get(key).valueGlobalIndex() == expected.get(new Key(key));
+        assert Arrays.equals(skipList.higher(key).key(), expected.higherKey(new Key(key)).bytes());
+        assert Arrays.equals(skipList.lower(key).key(), expected.lowerKey(new Key(key)).bytes());
+        assert skipList.get("none".getBytes(StandardCharsets.UTF_8)) == null;
+    }
+
+    @Test
+    void test02() {
+        ArenaSkipList skipList = new ArenaSkipList(4096);
+
+        // 超过 chunk 大小的 key 独占多个 chunk
+        byte[] largeKey = new byte[10000];
+        Arrays.fill(largeKey, (byte) 'b');
+
+        skipList.put(keyEntry("a".getBytes(StandardCharsets.UTF_8), 1));
+        skipList.put(keyEntry(largeKey, 2));
+        skipList.put(keyEntry("c".getBytes(StandardCharsets.UTF_8), 3));
+
+        assert skipList.get(largeKey).valueGlobalIndex() == 2;
+        assert skipList.higher(largeKey).valueGlobalIndex() == 3;
+        assert skipList.lower("c".getBytes(StandardCharsets.UTF_8)).valueGlobalIndex() == 2;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2024 Baili Zhang.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.bailizhang.lynxdb.table.utils;
+
+import com.bailizhang.lynxdb.core.utils.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+class BlockedBloomFilterTest {
+    private static final String BASE_DIR = System.getProperty("user.dir") + "/data/blocked_bloom_filter_test";
+
+    private static final int KEY_AMOUNT = 10000;
+    private static final int BITS_PER_KEY = 10;
+    private static final int BEGIN = 37;
+
+    private Path filePath;
+
+    @BeforeEach
+    void setUp() {
+        filePath = Path.of(BASE_DIR);
+        FileUtils.createFile(filePath);
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileUtils.delete(filePath);
+    }
+
+    @Test
+    void test01() {
+        BlockedBloomFilter bloomFilter = BlockedBloomFilter.create(filePath, BEGIN, KEY_AMOUNT, BITS_PER_KEY);
+
+        for(int i = 0; i < KEY_AMOUNT; i ++) {
+            bloomFilter.setObj(("key" + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        BlockedBloomFilter loaded = BlockedBloomFilter.from(filePath, BEGIN, bloomFilter.length());
+
+        for(int i = 0; i < KEY_AMOUNT; i ++) {
+            assert loaded.isExist(("key" + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        int falsePositives = 0;
+        for(int i = KEY_AMOUNT; i < KEY_AMOUNT * 2; i ++) {
+            if(loaded.isExist(("key" + i).getBytes(StandardCharsets.UTF_8))) {
+                falsePositives ++;
+            }
+        }
+
+        // 10 bits per key 的理论误判率约为 1%
+        assert falsePositives < KEY_AMOUNT * 0.02;
+    }
+}